@@ -0,0 +1,106 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
+import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SingleColumnRowMapper;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/**
+ * Paging through the users table with a {@link JdbcPagingList} on an in-memory HSQLDB with the UAA schema: iterating
+ * over all the users, and fetching the last page (which is what a client paging deep into the results does).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JdbcPagingListBenchmarks {
+
+	private static final String USERS_SQL = "select username from users order by created";
+
+	@Param({ "10000" })
+	public int users;
+
+	@Param({ "100", "500" })
+	public int pageSize;
+
+	private EmbeddedDatabase database;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private RowMapper<String> mapper = new SingleColumnRowMapper<String>(String.class);
+
+	@Setup
+	public void setup() {
+		database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.HSQL)
+				.addScript("classpath:org/cloudfoundry/identity/uaa/schema-hsqldb.sql").build();
+		jdbcTemplate = new JdbcTemplate(database);
+		jdbcTemplate.batchUpdate("insert into users (id, username, password, email) values (?,?,?,?)",
+				new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						ps.setString(1, UUID.randomUUID().toString());
+						ps.setString(2, "user" + i);
+						ps.setString(3, "password");
+						ps.setString(4, "user" + i + "@test.org");
+					}
+
+					@Override
+					public int getBatchSize() {
+						return users;
+					}
+				});
+	}
+
+	@TearDown
+	public void tearDown() {
+		database.shutdown();
+	}
+
+	@Benchmark
+	public void iterate(Blackhole blackhole) {
+		for (String username : new JdbcPagingList<String>(jdbcTemplate, new DefaultLimitSqlAdapter(), USERS_SQL,
+				mapper, pageSize)) {
+			blackhole.consume(username);
+		}
+	}
+
+	@Benchmark
+	public List<String> lastPage() {
+		List<String> list = new JdbcPagingList<String>(jdbcTemplate, new DefaultLimitSqlAdapter(), USERS_SQL, mapper,
+				pageSize);
+		return list.subList(list.size() - pageSize, list.size());
+	}
+
+}
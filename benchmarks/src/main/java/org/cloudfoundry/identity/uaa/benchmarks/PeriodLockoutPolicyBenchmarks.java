@@ -0,0 +1,79 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.audit.AuditEvent;
+import org.cloudfoundry.identity.uaa.audit.AuditEventType;
+import org.cloudfoundry.identity.uaa.audit.UaaAuditService;
+import org.cloudfoundry.identity.uaa.authentication.manager.PeriodLockoutPolicy;
+import org.cloudfoundry.identity.uaa.user.UaaAuthority;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The lockout check done on every login ({@link PeriodLockoutPolicy#isAllowed(UaaUser,
+ * org.springframework.security.core.Authentication)}), given the recent failed logins of the user. The audit events
+ * are in memory, so only the policy itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PeriodLockoutPolicyBenchmarks {
+
+	@Param({ "0", "4", "20" })
+	public int failures;
+
+	private PeriodLockoutPolicy policy;
+
+	private UaaUser user = new UaaUser("12345", "marissa", "koala", "marissa@test.org", UaaAuthority.USER_AUTHORITIES,
+			"Marissa", "Bloggs", null, null);
+
+	@Setup
+	public void setup() {
+		final List<AuditEvent> events = new ArrayList<AuditEvent>();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < failures; i++) {
+			// Most recent first, as the audit service returns them
+			events.add(new AuditEvent(AuditEventType.UserAuthenticationFailure, user.getId(), "", null, now - i * 1000));
+		}
+		events.add(new AuditEvent(AuditEventType.UserAuthenticationSuccess, user.getId(), "", null, now - failures
+				* 1000));
+		policy = new PeriodLockoutPolicy(new UaaAuditService() {
+			@Override
+			public List<AuditEvent> find(String principal, long after) {
+				return events;
+			}
+
+			@Override
+			public void log(AuditEvent auditEvent) {
+			}
+		});
+	}
+
+	@Benchmark
+	public boolean isAllowed() {
+		return policy.isAllowed(user, null);
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.rest.AttributeNameMapper;
+import org.cloudfoundry.identity.uaa.rest.SearchResults;
+import org.cloudfoundry.identity.uaa.rest.SearchResultsFactory;
+import org.cloudfoundry.identity.uaa.rest.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.jdbc.ScimSearchQueryConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The in-memory parts of a SCIM user search: converting the filter to SQL ({@link ScimSearchQueryConverter}) and
+ * extracting the requested attributes from a page of users ({@link SearchResultsFactory}), with the same attribute
+ * mappings as the UAA.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScimSearchBenchmarks {
+
+	@Param({ "userName eq 'marissa'",
+			"userName sw 'mar' and emails.value co '.org' or groups.display eq 'uaa.admin' and meta.created gt '2013-01-01T00:00:00.000Z'" })
+	public String filter;
+
+	@Param({ "100" })
+	public int count;
+
+	private ScimSearchQueryConverter converter = new ScimSearchQueryConverter();
+
+	private List<ScimUser> users = new ArrayList<ScimUser>();
+
+	private String[] attributes = new String[] { "id", "userName", "emails.value", "active" };
+
+	// As in the user endpoints
+	private AttributeNameMapper resultsMapper = new SimpleAttributeNameMapper(Collections.<String, String> singletonMap(
+			"emails\\.(.*)", "emails.![$1]"));
+
+	@Setup
+	public void setup() {
+		// As in the user provisioning
+		Map<String, String> columns = new HashMap<String, String>();
+		columns.put("emails\\.value", "email");
+		columns.put("groups\\.display", "authorities");
+		columns.put("phoneNumbers\\.value", "phoneNumber");
+		converter.setAttributeNameMapper(new SimpleAttributeNameMapper(columns));
+
+		for (int i = 0; i < count; i++) {
+			ScimUser user = new ScimUser("id" + i, "user" + i, "Given" + i, "Family" + i);
+			user.addEmail("user" + i + "@test.org");
+			users.add(user);
+		}
+	}
+
+	@Benchmark
+	public ProcessedFilter convert() {
+		return converter.convert(filter, "userName", true);
+	}
+
+	@Benchmark
+	public SearchResults<Map<String, Object>> buildSearchResults() {
+		return SearchResultsFactory.buildSearchResultFrom(users, 1, count, 10000, attributes, resultsMapper,
+				Arrays.asList(ScimUser.SCHEMAS));
+	}
+
+}
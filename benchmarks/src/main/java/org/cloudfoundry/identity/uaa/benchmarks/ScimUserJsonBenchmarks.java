@@ -0,0 +1,69 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.scim.ScimMeta;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserJsonDeserializer;
+import org.cloudfoundry.identity.uaa.scim.ScimUserJsonSerializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Reading and writing a fully populated SCIM user as JSON ({@link ScimUserJsonDeserializer} and
+ * {@link ScimUserJsonSerializer}), as the SCIM endpoints do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScimUserJsonBenchmarks {
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private ScimUser user;
+
+	private byte[] json;
+
+	@Setup
+	public void setup() throws Exception {
+		user = new ScimUser("4a4ee4a2-4b5c-4b8e-9c70-a0e1b1b7a9a2", "marissa", "Marissa", "Bloggs");
+		user.setDisplayName("Marissa Bloggs");
+		user.addEmail("marissa@test.org");
+		user.addPhoneNumber("+1-222-1234567");
+		user.setGroups(Arrays.asList(new ScimUser.Group("g1", "uaa.user"), new ScimUser.Group("g2", "openid"),
+				new ScimUser.Group("g3", "scim.me"), new ScimUser.Group("g4", "password.write")));
+		user.setMeta(new ScimMeta(new Date(), new Date(), 3));
+		json = mapper.writeValueAsBytes(user);
+	}
+
+	@Benchmark
+	public byte[] write() throws Exception {
+		return mapper.writeValueAsBytes(user);
+	}
+
+	@Benchmark
+	public ScimUser read() throws Exception {
+		return mapper.readValue(json, ScimUser.class);
+	}
+
+}
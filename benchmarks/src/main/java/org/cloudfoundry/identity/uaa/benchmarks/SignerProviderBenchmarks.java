@@ -0,0 +1,66 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.oauth.token.SignerProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Signing and verifying the content of a typical access token with the {@link SignerProvider}, as the token services
+ * use it (the verifier is fetched from the provider each time).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SignerProviderBenchmarks {
+
+	@Param({ "hmac", "rsa" })
+	public String key;
+
+	private SignerProvider signerProvider;
+
+	private byte[] content;
+
+	private byte[] signature;
+
+	@Setup
+	public void setup() throws Exception {
+		signerProvider = Keys.signerProvider(key);
+		content = ("{\"alg\":\"HS256\"}.{\"jti\":\"4a4ee4a2-4b5c-4b8e-9c70-a0e1b1b7a9a2\",\"sub\":\"12345\","
+				+ "\"scope\":[\"read\",\"write\"],\"client_id\":\"app\",\"cid\":\"app\",\"user_id\":\"12345\","
+				+ "\"user_name\":\"marissa\",\"email\":\"marissa@test.org\",\"iat\":1370000000,\"exp\":1370043200,"
+				+ "\"iss\":\"http://localhost:8080/uaa/oauth/token\",\"aud\":[\"scim\",\"clients\"]}").getBytes("UTF-8");
+		signature = signerProvider.getSigner().sign(content);
+	}
+
+	@Benchmark
+	public byte[] sign() {
+		return signerProvider.getSigner().sign(content);
+	}
+
+	@Benchmark
+	public byte[] verify() {
+		signerProvider.getVerifier().verify(content, signature);
+		return signature;
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
+import org.cloudfoundry.identity.uaa.oauth.approval.InMemoryApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.token.SignerProvider;
+import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenServices;
+import org.cloudfoundry.identity.uaa.user.InMemoryUaaUserDatabase;
+import org.cloudfoundry.identity.uaa.user.UaaAuthority;
+import org.cloudfoundry.identity.uaa.user.UaaUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.BaseClientDetails;
+import org.springframework.security.oauth2.provider.DefaultAuthorizationRequest;
+import org.springframework.security.oauth2.provider.InMemoryClientDetailsService;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Issuing and reading user tokens with {@link UaaTokenServices}, signed with an HMAC or an RSA key, with the user,
+ * client and approvals in memory so that only the token handling is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TokenServicesBenchmarks {
+
+	@Param({ "hmac", "rsa" })
+	public String key;
+
+	private UaaTokenServices tokenServices = new UaaTokenServices();
+
+	private OAuth2Authentication authentication;
+
+	private String token;
+
+	@Setup
+	public void setup() throws Exception {
+		SignerProvider signerProvider = Keys.signerProvider(key);
+
+		// Modified in the past, so that tokens issued now are not revoked
+		Date modified = new Date(System.currentTimeMillis() - 60000);
+		tokenServices.setUserDatabase(new InMemoryUaaUserDatabase(new HashMap<String, UaaUser>(Collections
+				.singletonMap("marissa", new UaaUser("12345", "marissa", "koala", "marissa@test.org",
+						UaaAuthority.USER_AUTHORITIES, "Marissa", "Bloggs", modified, modified)))));
+
+		InMemoryClientDetailsService clientDetailsService = new InMemoryClientDetailsService();
+		clientDetailsService.setClientDetailsStore(Collections.singletonMap("app", new BaseClientDetails("app",
+				"scim,clients", "read,write", "password,refresh_token", "uaa.none")));
+		tokenServices.setClientDetailsService(clientDetailsService);
+
+		InMemoryApprovalStore approvalStore = new InMemoryApprovalStore();
+		Date expires = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+		for (String scope : Arrays.asList("read", "write")) {
+			approvalStore.addApproval(new Approval("marissa", "app", scope, expires, ApprovalStatus.APPROVED));
+		}
+		tokenServices.setApprovalStore(approvalStore);
+
+		tokenServices.setDefaultUserAuthorities(AuthorityUtils.authorityListToSet(UaaAuthority.USER_AUTHORITIES));
+		tokenServices.setIssuer("http://localhost:8080/uaa");
+		tokenServices.setSignerProvider(signerProvider);
+		tokenServices.afterPropertiesSet();
+
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("app", Arrays.asList(
+				"read", "write"));
+		authorizationRequest.setResourceIds(new HashSet<String>(Arrays.asList("scim", "clients")));
+		Map<String, String> parameters = new HashMap<String, String>(authorizationRequest.getAuthorizationParameters());
+		parameters.put("grant_type", "password");
+		authorizationRequest.setAuthorizationParameters(parameters);
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(new UaaPrincipal(new UaaUser(
+				"12345", "marissa", "koala", "marissa@test.org", UaaAuthority.USER_AUTHORITIES, "Marissa", "Bloggs",
+				modified, modified)), "n/a", null);
+		authentication = new OAuth2Authentication(authorizationRequest, userAuthentication);
+
+		token = tokenServices.createAccessToken(authentication).getValue();
+	}
+
+	@Benchmark
+	public OAuth2AccessToken createAccessToken() {
+		return tokenServices.createAccessToken(authentication);
+	}
+
+	@Benchmark
+	public OAuth2AccessToken readAccessToken() {
+		return tokenServices.readAccessToken(token);
+	}
+
+	@Benchmark
+	public OAuth2Authentication loadAuthentication() {
+		return tokenServices.loadAuthentication(token);
+	}
+
+}
@@ -54,6 +54,7 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
 	private final UaaUserDatabase userDatabase;
 	private ApplicationEventPublisher eventPublisher;
 	private AccountLoginPolicy accountLoginPolicy = new PermitAllAccountLoginPolicy();
+	private PasswordRehasher rehasher;
 	/**
 	 * Dummy user allows the authentication process for non-existent and locked out users to be as close to
 	 * that of normal users as possible to avoid differences in timing.
@@ -100,6 +101,9 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
 
 		if (passwordMatches) {
 			logger.debug("Password successfully matched");
+			if (rehasher != null) {
+				rehasher.rehash(user.getId(), user.getPassword(), (CharSequence) req.getCredentials());
+			}
 			Authentication success = new UaaAuthentication(new UaaPrincipal(user),
 						user.getAuthorities(), (UaaAuthenticationDetails) req.getDetails());
 			publish(new UserAuthenticationSuccessEvent(user, success));
@@ -134,6 +138,13 @@ public class AuthzAuthenticationManager implements AuthenticationManager, Applic
 		this.accountLoginPolicy = accountLoginPolicy;
 	}
 
+	/**
+	 * @param rehasher the rehasher to upgrade outdated password hashes with after a successful login (default none)
+	 */
+	public void setRehasher(PasswordRehasher rehasher) {
+		this.rehasher = rehasher;
+	}
+
 	private UaaUser createDummyUser() {
 		// Create random unguessable password
 		SecureRandom random = new SecureRandom();
@@ -0,0 +1,388 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.metrics.MetricsSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Upgrades password hashes when users log in, so that the BCrypt cost factor can be changed without a flag day. A
+ * hash is outdated if it is not a BCrypt hash or was created with a different cost than the current one (higher or
+ * lower). Outdated hashes are rehashed from the password that was just checked, in the background: rehashes are
+ * queued and done by a small pool of threads at a limited rate, so that the extra hashing does not eat into the login
+ * throughput. Since a queued rehash holds a plain text password, the queue is short and a rehash that cannot start
+ * within a second or so (see {@link #setMaxWait(long)}) is dropped until the next login, as are rehashes that do not
+ * fit in the queue. The new hash is only written if the stored one has not changed in the meantime, and the user's
+ * last modified time is left alone, since it is used to revoke tokens.
+ *
+ * <p>
+ * The distribution of hash costs over users and client secrets can be reported (see {@link #startReport()}) to see
+ * how far an upgrade has gone.
+ * </p>
+ *
+ * @see AuthzAuthenticationManager#setRehasher(PasswordRehasher)
+ */
+@ManagedResource
+public class PasswordRehasher implements MetricsSource, InitializingBean, DisposableBean {
+
+	private static final String UPDATE_PASSWORD_SQL = "update users set password=? where id=? and password=?";
+
+	private static final String USER_PASSWORDS_SQL = "select password from users";
+
+	private static final String CLIENT_SECRETS_SQL = "select client_secret from oauth_client_details";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final PasswordEncoder encoder;
+
+	private final int cost;
+
+	private int threads = 1;
+
+	private int queueSize = 10;
+
+	private int maxPerSecond = 10;
+
+	private long maxWait = 1000;
+
+	private long nextSlot = 0;
+
+	private ExecutorService executor;
+
+	private ExecutorService reporter;
+
+	private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private final AtomicInteger rehashed = new AtomicInteger();
+
+	private final AtomicInteger dropped = new AtomicInteger();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private volatile Map<String, Object> report = Collections.emptyMap();
+
+	/**
+	 * @param jdbcTemplate the template for the users table
+	 * @param encoder the encoder to rehash passwords with
+	 * @param cost the BCrypt cost factor of the encoder
+	 */
+	public PasswordRehasher(JdbcTemplate jdbcTemplate, PasswordEncoder encoder, int cost) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.encoder = encoder;
+		this.cost = cost;
+	}
+
+	/**
+	 * @param threads the number of threads rehashing passwords (default 1)
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @param queueSize the maximum number of rehashes waiting (default 10)
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * @param maxPerSecond the maximum number of rehashes per second over all threads (default 10, 0 for no limit)
+	 */
+	public void setMaxPerSecond(int maxPerSecond) {
+		this.maxPerSecond = maxPerSecond;
+	}
+
+	/**
+	 * @param maxWait the maximum time in milliseconds a rehash may wait to start before it is dropped, which bounds how
+	 *        long a plain text password is held (default 1000, 0 for no limit)
+	 */
+	public void setMaxWait(long maxWait) {
+		this.maxWait = maxWait;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(queueSize), new DaemonThreadFactory("password-rehasher"));
+		reporter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(1),
+				new DaemonThreadFactory("password-hash-report"));
+	}
+
+	/**
+	 * Finish the rehashes already queued and stop.
+	 */
+	@Override
+	public void destroy() throws Exception {
+		reporter.shutdownNow();
+		executor.shutdown();
+		if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param hash a password hash
+	 * @return true if the hash is not a BCrypt hash with the current cost
+	 */
+	public boolean isOutdated(String hash) {
+		return getCost(hash) != cost;
+	}
+
+	/**
+	 * Queue a rehash of the password of a user if its hash is outdated.
+	 *
+	 * @param userId the id of the user
+	 * @param hash the current hash of the password
+	 * @param password the password, which has been checked against the hash
+	 */
+	public void rehash(String userId, String hash, CharSequence password) {
+		if (!isOutdated(hash) || !pending.add(userId)) {
+			return;
+		}
+		long deadline = maxWait > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait) : Long.MAX_VALUE;
+		try {
+			executor.execute(new Rehash(userId, hash, password, deadline));
+		}
+		catch (RejectedExecutionException e) {
+			// The queue is full (or we are shutting down): try again on the next login
+			pending.remove(userId);
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Start counting the hash costs of the user passwords and client secrets in the background.
+	 *
+	 * @return true if the report was started (false if one is already running)
+	 */
+	@ManagedOperation(description = "Start a report of the hash costs of user passwords and client secrets")
+	public boolean startReport() {
+		try {
+			reporter.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.currentTimeMillis();
+					Map<String, Object> result = new LinkedHashMap<String, Object>();
+					result.put("cost", cost);
+					result.put("users", countCosts(USER_PASSWORDS_SQL));
+					result.put("clients", countCosts(CLIENT_SECRETS_SQL));
+					result.put("time", start);
+					result.put("duration_ms", System.currentTimeMillis() - start);
+					report = Collections.unmodifiableMap(result);
+					logger.info("Password hash costs: " + result);
+				}
+			});
+			return true;
+		}
+		catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the last report: the number of hashes per cost (or "none" for empty client secrets and "other" for hashes
+	 *         that are not BCrypt hashes) for users and clients
+	 */
+	@ManagedAttribute(description = "The last report of the hash costs of user passwords and client secrets")
+	public Map<String, Object> getReport() {
+		return report;
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Passwords Rehashed")
+	public int getRehashed() {
+		return rehashed.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Rehashes Dropped")
+	public int getDropped() {
+		return dropped.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Rehashes Failed")
+	public int getFailed() {
+		return failed.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.GAUGE, displayName = "Rehashes Pending")
+	public int getPending() {
+		return pending.size();
+	}
+
+	@Override
+	public Map<String, ?> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("cost", cost);
+		metrics.put("rehashed", getRehashed());
+		metrics.put("dropped", getDropped());
+		metrics.put("failed", getFailed());
+		metrics.put("pending", getPending());
+		metrics.put("report", report);
+		return metrics;
+	}
+
+	private Map<String, Integer> countCosts(String sql) {
+		final Map<String, Integer> counts = new TreeMap<String, Integer>();
+		jdbcTemplate.query(sql, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				String hash = rs.getString(1);
+				int hashCost = getCost(hash);
+				String key = hash == null || hash.length() == 0 ? "none" : hashCost < 0 ? "other" : String
+						.valueOf(hashCost);
+				Integer count = counts.get(key);
+				counts.put(key, count == null ? 1 : count + 1);
+			}
+		});
+		return counts;
+	}
+
+	/**
+	 * Wait for the next slot allowed by the rate limit, unless it comes after the deadline.
+	 *
+	 * @param deadline the latest start, from {@link System#nanoTime()}
+	 * @return true if the rehash can go ahead, false if it is too late
+	 */
+	private boolean acquire(long deadline) throws InterruptedException {
+		if (maxPerSecond <= 0) {
+			return System.nanoTime() <= deadline;
+		}
+		long wait;
+		synchronized (this) {
+			long now = System.nanoTime();
+			long slot = Math.max(now, nextSlot);
+			if (slot > deadline) {
+				return false;
+			}
+			nextSlot = slot + TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+			wait = slot - now;
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the cost of a BCrypt hash (<code>$2a$NN$...</code>, or any other <code>$2?$</code> version such as
+	 *         <code>$2b$</code> or <code>$2y$</code>), or -1 if it is not one
+	 */
+	static int getCost(String hash) {
+		if (hash == null || hash.length() != 60 || hash.charAt(0) != '$' || hash.charAt(1) != '2'
+				|| !Character.isLetter(hash.charAt(2)) || hash.charAt(3) != '$' || hash.charAt(6) != '$') {
+			return -1;
+		}
+		char tens = hash.charAt(4);
+		char units = hash.charAt(5);
+		if (!Character.isDigit(tens) || !Character.isDigit(units)) {
+			return -1;
+		}
+		return (tens - '0') * 10 + (units - '0');
+	}
+
+	/**
+	 * A queued rehash, which lets go of the password as soon as it is done or dropped.
+	 */
+	private class Rehash implements Runnable {
+
+		private final String userId;
+
+		private final String hash;
+
+		private final long deadline;
+
+		private CharSequence password;
+
+		public Rehash(String userId, String hash, CharSequence password, long deadline) {
+			this.userId = userId;
+			this.hash = hash;
+			this.password = password;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (!acquire(deadline)) {
+					// Waited too long: try again on the next login
+					dropped.incrementAndGet();
+					return;
+				}
+				String updated = encoder.encode(password);
+				if (jdbcTemplate.update(UPDATE_PASSWORD_SQL, updated, userId, hash) > 0) {
+					rehashed.incrementAndGet();
+					logger.debug("Rehashed password of user " + userId);
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (RuntimeException e) {
+				failed.incrementAndGet();
+				logger.warn("Could not rehash password of user " + userId, e);
+			}
+			finally {
+				password = null;
+				pending.remove(userId);
+			}
+		}
+
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String name;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -34,9 +34,10 @@ import org.springframework.security.core.AuthenticationException;
 public class PeriodLockoutPolicy implements AccountLoginPolicy {
 	private final Log logger = LogFactory.getLog(getClass());
 	private final UaaAuditService auditService;
-	private int lockoutPeriodMs = 300000;  // 5 mins
-	private int lockoutAfterFailures = 5;
-	private int countFailuresWithinMs = 3600*1000; // 1hr
+	// volatile so that the settings can be changed while the policy is in use
+	private volatile int lockoutPeriodMs = 300000;  // 5 mins
+	private volatile int lockoutAfterFailures = 5;
+	private volatile int countFailuresWithinMs = 3600*1000; // 1hr
 
 	public PeriodLockoutPolicy(UaaAuditService auditService) {
 		this.auditService = auditService;
@@ -0,0 +1,148 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.client;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Request factory for rest templates that talk to the same few servers over and over (e.g. a resource server checking
+ * tokens with the UAA). Connections are pooled and kept alive between requests, with a limit per route, and idle or
+ * expired connections are closed in the background. Share one instance between the rest templates of an application
+ * and declare it as a top level bean to expose the pool statistics over JMX.
+ */
+@ManagedResource
+public class PooledClientHttpRequestFactory extends HttpComponentsClientHttpRequestFactory implements InitializingBean {
+
+	private final PoolingClientConnectionManager connectionManager;
+
+	private long keepAlive = 30000;
+
+	private long idleTimeout = 30000;
+
+	private ScheduledExecutorService evictionExecutor;
+
+	public PooledClientHttpRequestFactory() {
+		this(new PoolingClientConnectionManager());
+	}
+
+	private PooledClientHttpRequestFactory(PoolingClientConnectionManager connectionManager) {
+		super(new DefaultHttpClient(connectionManager));
+		this.connectionManager = connectionManager;
+		connectionManager.setMaxTotal(200);
+		connectionManager.setDefaultMaxPerRoute(20);
+		((DefaultHttpClient) getHttpClient()).setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			private final ConnectionKeepAliveStrategy delegate = new DefaultConnectionKeepAliveStrategy();
+
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = delegate.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAlive;
+			}
+		});
+	}
+
+	/**
+	 * @param maxTotal the maximum number of open connections (default 200)
+	 */
+	public void setMaxTotal(int maxTotal) {
+		connectionManager.setMaxTotal(maxTotal);
+	}
+
+	/**
+	 * @param maxPerRoute the maximum number of open connections to the same host (default 20)
+	 */
+	public void setMaxPerRoute(int maxPerRoute) {
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	/**
+	 * @param keepAlive how long (millis) to keep a connection open for reuse if the server does not say (default
+	 * 30000)
+	 */
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * @param idleTimeout how long (millis) a connection may stay unused in the pool before it is closed (default
+	 * 30000, 0 or less to disable background eviction)
+	 */
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (idleTimeout > 0) {
+			evictionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "http-connection-eviction");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			long period = Math.max(idleTimeout / 2, 1000);
+			evictionExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					connectionManager.closeExpiredConnections();
+					connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (evictionExecutor != null) {
+			evictionExecutor.shutdownNow();
+		}
+		super.destroy();
+	}
+
+	@ManagedMetric(displayName = "Leased Connections")
+	public int getLeased() {
+		return connectionManager.getTotalStats().getLeased();
+	}
+
+	@ManagedMetric(displayName = "Available Connections")
+	public int getAvailable() {
+		return connectionManager.getTotalStats().getAvailable();
+	}
+
+	@ManagedMetric(displayName = "Pending Connection Requests")
+	public int getPending() {
+		return connectionManager.getTotalStats().getPending();
+	}
+
+	@ManagedMetric(displayName = "Maximum Connections")
+	public int getMax() {
+		return connectionManager.getTotalStats().getMax();
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.config;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.PropertySource;
+
+/**
+ * Binds configuration keys (from <code>uaa.yml</code>) to properties of a bean that can safely be changed while the
+ * application is running, so that a {@link ConfigurationReloader} can apply changes to those keys without a restart.
+ * A key covers everything nested under it, e.g. <code>oauth.clients</code> covers
+ * <code>oauth.clients.app.scope</code>, and the whole value under the key is set on the bean.
+ *
+ * <p>
+ * Beans that act on their properties only once, like the bootstrap beans that create clients and groups, can be
+ * re-initialized after their properties have changed (see {@link #setReinitialize(boolean)}), provided that
+ * initializing them again is harmless.
+ * </p>
+ */
+public class ConfigurationBinding {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final Object target;
+
+	private Map<String, String> properties = new LinkedHashMap<String, String>();
+
+	private boolean reinitialize = false;
+
+	/**
+	 * @param target the bean to set the properties of
+	 */
+	public ConfigurationBinding(Object target) {
+		this.target = target;
+	}
+
+	/**
+	 * @param properties the bean properties to set, keyed by the configuration key they come from
+	 */
+	public void setProperties(Map<String, String> properties) {
+		this.properties = new LinkedHashMap<String, String>(properties);
+	}
+
+	/**
+	 * @param reinitialize true to call {@link InitializingBean#afterPropertiesSet()} on the target after changing
+	 *        any of its properties (default false)
+	 */
+	public void setReinitialize(boolean reinitialize) {
+		this.reinitialize = reinitialize;
+	}
+
+	/**
+	 * @param key a configuration key
+	 * @return true if the key is one of the keys bound by this instance, or nested under one
+	 */
+	public boolean covers(String key) {
+		return getBoundKey(key) != null;
+	}
+
+	/**
+	 * Apply changed configuration to the target.
+	 *
+	 * @param config the new configuration
+	 * @param changed the changed configuration keys
+	 * @return the changed keys that were covered by this binding but could not be applied (e.g. because they were
+	 *         removed)
+	 * @throws Exception if the target could not be re-initialized
+	 */
+	public Collection<String> apply(PropertySource<?> config, Collection<String> changed) throws Exception {
+		Set<String> boundKeys = new LinkedHashSet<String>();
+		for (String key : changed) {
+			String boundKey = getBoundKey(key);
+			if (boundKey != null) {
+				boundKeys.add(boundKey);
+			}
+		}
+		Set<String> failed = new LinkedHashSet<String>();
+		if (boundKeys.isEmpty()) {
+			return failed;
+		}
+		BeanWrapper wrapper = new BeanWrapperImpl(target);
+		boolean applied = false;
+		for (String key : boundKeys) {
+			Object value = config.getProperty(key);
+			if (value == null) {
+				logger.warn("Configuration key " + key + " was removed: keeping the current value");
+				for (String name : changed) {
+					if (covers(key, name)) {
+						failed.add(name);
+					}
+				}
+				continue;
+			}
+			logger.info("Applying configuration change: " + key);
+			wrapper.setPropertyValue(properties.get(key), value);
+			applied = true;
+		}
+		if (reinitialize && applied && target instanceof InitializingBean) {
+			((InitializingBean) target).afterPropertiesSet();
+		}
+		return failed;
+	}
+
+	private String getBoundKey(String key) {
+		for (String boundKey : properties.keySet()) {
+			if (covers(boundKey, key)) {
+				return boundKey;
+			}
+		}
+		return null;
+	}
+
+	private static boolean covers(String boundKey, String key) {
+		if (!key.startsWith(boundKey)) {
+			return false;
+		}
+		if (key.length() == boundKey.length()) {
+			return true;
+		}
+		char next = key.charAt(boundKey.length());
+		return next == '.' || next == '[';
+	}
+
+}
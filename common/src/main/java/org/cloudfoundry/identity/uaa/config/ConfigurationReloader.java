@@ -0,0 +1,271 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.EnumerablePropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.ObjectUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Reloads the YAML configuration (<code>uaa.yml</code>) without restarting the application, when the file changes or
+ * on demand through JMX. The configuration is loaded again from the resources it was loaded from at startup (see
+ * {@link YamlServletProfileInitializer}) and compared with the current one. If anything changed, the YAML property
+ * source in the environment is replaced and the changes covered by a {@link ConfigurationBinding} are applied to the
+ * beans. Other changes only take effect after a restart: they are logged and listed in the
+ * {@link #getRestartRequired() restartRequired} attribute.
+ *
+ * <p>
+ * Only resources with a modification time (files) are watched; the others are only reloaded on demand.
+ * </p>
+ */
+@ManagedResource
+public class ConfigurationReloader implements EnvironmentAware, InitializingBean, DisposableBean {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private List<ConfigurationBinding> bindings = Collections.emptyList();
+
+	private long pollInterval = 10000;
+
+	private ConfigurableEnvironment environment;
+
+	private List<Resource> resources = Collections.emptyList();
+
+	private final Map<Resource, Long> lastModified = new HashMap<Resource, Long>();
+
+	private final Set<String> restartRequired = new TreeSet<String>();
+
+	private volatile String lastResult = "Not reloaded";
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * @param bindings the configuration that can be applied without a restart
+	 */
+	public void setBindings(List<ConfigurationBinding> bindings) {
+		this.bindings = new ArrayList<ConfigurationBinding>(bindings);
+	}
+
+	/**
+	 * @param pollInterval how often (millis) to check the configuration files for changes (default 10000, 0 or less
+	 *        to only reload on demand)
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		if (environment instanceof ConfigurableEnvironment) {
+			this.environment = (ConfigurableEnvironment) environment;
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		PropertySource<?> current = getCurrent();
+		if (current == null) {
+			logger.info("No YAML configuration in the environment: nothing to reload");
+			return;
+		}
+		Object urls = current.getProperty(YamlServletProfileInitializer.CONFIG_RESOURCES_KEY);
+		resources = new ArrayList<Resource>();
+		for (String url : StringUtils.commaDelimitedListToStringArray(urls == null ? null : urls.toString())) {
+			resources.add(new UrlResource(url));
+		}
+		boolean watched = false;
+		for (Resource resource : resources) {
+			Long modified = getLastModified(resource);
+			lastModified.put(resource, modified);
+			watched |= modified != null;
+		}
+		if (pollInterval > 0 && watched) {
+			executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "configuration-reloader");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (isModified()) {
+							reload();
+						}
+					}
+					catch (RuntimeException e) {
+						logger.error("Could not reload configuration", e);
+					}
+				}
+			}, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+			logger.info("Watching configuration for changes: " + resources);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Load the configuration again and apply what changed.
+	 *
+	 * @return a summary of the changes
+	 */
+	@ManagedOperation(description = "Reload the YAML configuration and apply the changes that do not need a restart")
+	public synchronized String reload() {
+		PropertySource<?> current = getCurrent();
+		if (current == null) {
+			return lastResult = "No YAML configuration to reload";
+		}
+		for (Resource resource : resources) {
+			lastModified.put(resource, getLastModified(resource));
+		}
+		EnumerablePropertySource<?> updated = YamlServletProfileInitializer.loadPropertySource(resources,
+				YamlServletProfileInitializer.DEFAULT_YAML_KEY);
+		List<String> changed = diff((EnumerablePropertySource<?>) current, updated);
+		changed.remove(YamlServletProfileInitializer.DEFAULT_YAML_KEY);
+		if (changed.isEmpty()) {
+			return lastResult = "No changes";
+		}
+		environment.getPropertySources().replace(YamlServletProfileInitializer.PROPERTY_SOURCE_NAME, updated);
+
+		Set<String> applied = new TreeSet<String>();
+		Set<String> pending = new TreeSet<String>();
+		for (String key : changed) {
+			boolean covered = false;
+			for (ConfigurationBinding binding : bindings) {
+				covered |= binding.covers(key);
+			}
+			(covered ? applied : pending).add(key);
+		}
+		for (ConfigurationBinding binding : bindings) {
+			try {
+				Collection<String> failed = binding.apply(updated, changed);
+				applied.removeAll(failed);
+				pending.addAll(failed);
+			}
+			catch (Exception e) {
+				logger.error("Could not apply configuration changes", e);
+				for (String key : changed) {
+					if (binding.covers(key)) {
+						applied.remove(key);
+						pending.add(key);
+					}
+				}
+			}
+		}
+		restartRequired.addAll(pending);
+		restartRequired.removeAll(applied);
+
+		lastResult = "Applied: " + applied + ", restart required: " + pending;
+		logger.info("Configuration reloaded. " + lastResult);
+		if (!pending.isEmpty()) {
+			logger.warn("Configuration changes need a restart to take effect: " + pending);
+		}
+		return lastResult;
+	}
+
+	@ManagedAttribute(description = "Configuration keys changed since startup that need a restart to take effect")
+	public synchronized Set<String> getRestartRequired() {
+		return new TreeSet<String>(restartRequired);
+	}
+
+	@ManagedAttribute(description = "The outcome of the last reload")
+	public String getLastResult() {
+		return lastResult;
+	}
+
+	private PropertySource<?> getCurrent() {
+		if (environment == null) {
+			return null;
+		}
+		PropertySource<?> source = environment.getPropertySources().get(
+				YamlServletProfileInitializer.PROPERTY_SOURCE_NAME);
+		return source instanceof EnumerablePropertySource ? source : null;
+	}
+
+	private synchronized boolean isModified() {
+		for (Resource resource : resources) {
+			if (!ObjectUtils.nullSafeEquals(lastModified.get(resource), getLastModified(resource))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Long getLastModified(Resource resource) {
+		try {
+			return resource.exists() ? resource.lastModified() : 0L;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the names of the values (not maps or lists, which are compared through their elements) that were
+	 *         added, removed or changed
+	 */
+	static List<String> diff(EnumerablePropertySource<?> current, EnumerablePropertySource<?> updated) {
+		Set<String> names = new TreeSet<String>();
+		Collections.addAll(names, current.getPropertyNames());
+		Collections.addAll(names, updated.getPropertyNames());
+		List<String> changed = new ArrayList<String>();
+		for (String name : names) {
+			Object before = current.getProperty(name);
+			Object after = updated.getProperty(name);
+			if (before instanceof Map || before instanceof Collection || after instanceof Map
+					|| after instanceof Collection) {
+				continue;
+			}
+			if (!ObjectUtils.nullSafeEquals(before, after)) {
+				changed.add(name);
+			}
+		}
+		return changed;
+	}
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.config;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.jdbc.datasource.init.DatabasePopulator;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * A {@link DatabasePopulator} that only runs the schema scripts if they changed since they were last run against the
+ * database. The version of the schema is a digest of the contents of the scripts, and the version that was last
+ * applied is kept in a <code>SCHEMA_VERSION</code> table, so a node that starts against a current database does not
+ * replay (and fail) all the DDL. The scripts are replayed from the start when they change, so statements failing
+ * because they were applied before (a table, column or index that already exists, or a constraint that was already
+ * dropped) are expected and ignored. Any other failure is logged and the version is not recorded, so that the scripts
+ * run again on the next start.
+ */
+public class SchemaVersionPopulator implements DatabasePopulator, ResourceLoaderAware {
+
+	private static final String SELECT_VERSION_SQL = "select version from schema_version";
+
+	private static final String CREATE_VERSION_TABLE_SQL = "create table schema_version (version varchar(64) not null)";
+
+	private static final String DELETE_VERSION_SQL = "delete from schema_version";
+
+	private static final String INSERT_VERSION_SQL = "insert into schema_version (version) values (?)";
+
+	/**
+	 * SQL states for tables, columns and indexes that already exist: HSQLDB (42504), PostgreSQL (42P07, 42701, 42710)
+	 * and MySQL (42S01, 42S21)
+	 */
+	private static final Set<String> ALREADY_EXISTS_STATES = new HashSet<String>(Arrays.asList("42504", "42P07",
+			"42701", "42710", "42S01", "42S21"));
+
+	/**
+	 * Vendor codes for the same errors where the SQL state is too generic: MySQL (1050, 1060, 1061) and Oracle (955,
+	 * 1408, 1430)
+	 */
+	private static final Set<Integer> ALREADY_EXISTS_CODES = new HashSet<Integer>(Arrays.asList(1050, 1060, 1061,
+			955, 1408, 1430));
+
+	/**
+	 * SQL states and vendor codes for dropping something that does not exist: HSQLDB (42501), PostgreSQL (42704) and
+	 * MySQL (1091)
+	 */
+	private static final Set<String> ALREADY_DROPPED_STATES = new HashSet<String>(Arrays.asList("42501", "42704"));
+
+	private static final Set<Integer> ALREADY_DROPPED_CODES = new HashSet<Integer>(Arrays.asList(1091));
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private ResourcePatternResolver resourceResolver = ResourcePatternUtils
+			.getResourcePatternResolver(new DefaultResourceLoader());
+
+	private List<String> locations = Collections.emptyList();
+
+	private volatile String version;
+
+	/**
+	 * @param locations the locations of the schema scripts, in the order they should run (may be patterns)
+	 */
+	public void setLocations(List<String> locations) {
+		this.locations = new ArrayList<String>(locations);
+	}
+
+	@Override
+	public void setResourceLoader(ResourceLoader resourceLoader) {
+		this.resourceResolver = ResourcePatternUtils.getResourcePatternResolver(resourceLoader);
+	}
+
+	@Override
+	public void populate(Connection connection) throws SQLException {
+		List<Resource> scripts = getScripts();
+		version = computeVersion(scripts);
+		String current = getCurrentVersion(connection);
+		if (version.equals(current)) {
+			logger.info("Database schema is current (version " + version + "): not running the schema scripts");
+			return;
+		}
+		logger.info("Updating database schema from version " + current + " to " + version);
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+		populator.setScripts(scripts.toArray(new Resource[scripts.size()]));
+		populator.setContinueOnError(true);
+		List<String> failures = new ArrayList<String>();
+		populator.populate(recordFailures(connection, failures));
+		if (!failures.isEmpty()) {
+			logger.error("Database schema not updated to version " + version + ", " + failures.size()
+					+ " statement(s) failed (the scripts will run again on the next start): " + failures);
+			return;
+		}
+		saveVersion(connection, current);
+	}
+
+	/**
+	 * @return true if the failure only means that the statement was applied before
+	 */
+	static boolean isAlreadyApplied(String statement, SQLException e) {
+		if (ALREADY_EXISTS_STATES.contains(e.getSQLState()) || ALREADY_EXISTS_CODES.contains(e.getErrorCode())) {
+			return true;
+		}
+		if (statement == null || !statement.toLowerCase().contains("drop ")) {
+			return false;
+		}
+		return ALREADY_DROPPED_STATES.contains(e.getSQLState()) || ALREADY_DROPPED_CODES.contains(e.getErrorCode());
+	}
+
+	/**
+	 * Wrap a connection so that the statements it creates record every failure of a statement that was not
+	 * {@link #isAlreadyApplied(String, SQLException) applied before}.
+	 */
+	private static Connection recordFailures(final Connection connection, final List<String> failures) {
+		return (Connection) Proxy.newProxyInstance(SchemaVersionPopulator.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeTarget(connection, method, args);
+						if (result instanceof Statement && "createStatement".equals(method.getName())) {
+							return recordFailures((Statement) result, failures);
+						}
+						return result;
+					}
+				});
+	}
+
+	private static Statement recordFailures(final Statement statement, final List<String> failures) {
+		return (Statement) Proxy.newProxyInstance(SchemaVersionPopulator.class.getClassLoader(),
+				new Class<?>[] { Statement.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						try {
+							return invokeTarget(statement, method, args);
+						}
+						catch (SQLException e) {
+							String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0]
+									: null;
+							if (method.getName().startsWith("execute") && !isAlreadyApplied(sql, e)) {
+								failures.add(sql + " (" + e.getMessage() + ")");
+							}
+							throw e;
+						}
+					}
+				});
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	/**
+	 * @return the version of the schema scripts (null before the database was populated)
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	private List<Resource> getScripts() {
+		List<Resource> scripts = new ArrayList<Resource>();
+		for (String location : locations) {
+			try {
+				for (Resource resource : resourceResolver.getResources(location)) {
+					if (resource.exists()) {
+						scripts.add(resource);
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot resolve schema scripts: " + location, e);
+			}
+		}
+		return scripts;
+	}
+
+	private static String computeVersion(List<Resource> scripts) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("MD5 not supported", e);
+		}
+		for (Resource script : scripts) {
+			try {
+				digest.update(FileCopyUtils.copyToByteArray(script.getInputStream()));
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot read schema script: " + script, e);
+			}
+		}
+		StringBuilder builder = new StringBuilder();
+		for (byte b : digest.digest()) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+	private static String getCurrentVersion(Connection connection) {
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet resultSet = statement.executeQuery(SELECT_VERSION_SQL);
+				return resultSet.next() ? resultSet.getString(1) : null;
+			}
+			finally {
+				statement.close();
+			}
+		}
+		catch (SQLException e) {
+			// No version table yet
+			return null;
+		}
+	}
+
+	private void saveVersion(Connection connection, String current) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			if (current == null) {
+				try {
+					statement.execute(CREATE_VERSION_TABLE_SQL);
+				}
+				catch (SQLException e) {
+					// Already there but empty
+				}
+			}
+			statement.executeUpdate(DELETE_VERSION_SQL);
+		}
+		finally {
+			statement.close();
+		}
+		PreparedStatement insert = connection.prepareStatement(INSERT_VERSION_SQL);
+		try {
+			insert.setString(1, version);
+			insert.executeUpdate();
+		}
+		finally {
+			insert.close();
+		}
+	}
+
+}
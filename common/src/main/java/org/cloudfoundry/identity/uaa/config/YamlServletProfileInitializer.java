@@ -13,6 +13,7 @@
 package org.cloudfoundry.identity.uaa.config;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -54,7 +55,18 @@ public class YamlServletProfileInitializer implements ApplicationContextInitiali
 	public static final String[] DEFAULT_PROFILE_CONFIG_FILE_LOCATIONS = new String[] { "${APPLICATION_CONFIG_URL}",
 			"file:${APPLICATION_CONFIG_FILE}" };
 
-	private static final String DEFAULT_YAML_KEY = "environmentYamlKey";
+	static final String DEFAULT_YAML_KEY = "environmentYamlKey";
+
+	/**
+	 * The name of the property source holding the YAML configuration in the environment.
+	 */
+	public static final String PROPERTY_SOURCE_NAME = "servletConfigYaml";
+
+	/**
+	 * The key (in the YAML property source) of the comma-separated URLs of the resources the configuration was loaded
+	 * from, so that it can be loaded again (see {@link ConfigurationReloader}).
+	 */
+	public static final String CONFIG_RESOURCES_KEY = "environmentConfigResources";
 
 	private String rawYamlKey = DEFAULT_YAML_KEY;
 
@@ -78,9 +90,6 @@ public class YamlServletProfileInitializer implements ApplicationContextInitiali
 
 		try {
 			servletContext.log("Loading YAML environment properties from location: " + resource);
-			YamlMapFactoryBean factory = new YamlMapFactoryBean();
-			factory.setResolutionMethod(ResolutionMethod.OVERRIDE_AND_IGNORE);
-
 			List<Resource> resources = new ArrayList<Resource>();
 
 			String defaultLocation = servletConfig == null ? null : servletConfig.getInitParameter(PROFILE_CONFIG_FILE_DEFAULT);
@@ -92,12 +101,8 @@ public class YamlServletProfileInitializer implements ApplicationContextInitiali
 			}
 
 			resources.add(resource);
-			factory.setResources(resources.toArray(new Resource[resources.size()]));
 
-			Map<String, Object> map = factory.getObject();
-			String yamlStr = (new Yaml()).dump(map);
-			map.put(rawYamlKey, yamlStr);
-			NestedMapPropertySource properties = new NestedMapPropertySource("servletConfigYaml", map);
+			NestedMapPropertySource properties = loadPropertySource(resources, rawYamlKey);
 			applicationContext.getEnvironment().getPropertySources().addLast(properties);
 			applySpringProfiles(applicationContext.getEnvironment(), servletContext);
 			applyLog4jConfiguration(applicationContext.getEnvironment(), servletContext);
@@ -109,6 +114,34 @@ public class YamlServletProfileInitializer implements ApplicationContextInitiali
 
 	}
 
+	/**
+	 * Load the YAML configuration from some resources (later ones overriding earlier ones, and missing ones ignored)
+	 * into a property source.
+	 *
+	 * @param resources the resources to load
+	 * @param rawYamlKey the key to add the merged YAML under
+	 * @return a property source named {@link #PROPERTY_SOURCE_NAME}
+	 */
+	static NestedMapPropertySource loadPropertySource(List<Resource> resources, String rawYamlKey) {
+		YamlMapFactoryBean factory = new YamlMapFactoryBean();
+		factory.setResolutionMethod(ResolutionMethod.OVERRIDE_AND_IGNORE);
+		factory.setResources(resources.toArray(new Resource[resources.size()]));
+		Map<String, Object> map = factory.getObject();
+		String yamlStr = (new Yaml()).dump(map);
+		map.put(rawYamlKey, yamlStr);
+		List<String> urls = new ArrayList<String>();
+		for (Resource resource : resources) {
+			try {
+				urls.add(resource.getURL().toString());
+			}
+			catch (IOException e) {
+				// Not reloadable
+			}
+		}
+		map.put(CONFIG_RESOURCES_KEY, StringUtils.collectionToCommaDelimitedString(urls));
+		return new NestedMapPropertySource(PROPERTY_SOURCE_NAME, map);
+	}
+
 	private Resource getResource(ServletContext servletContext, ConfigurableWebApplicationContext applicationContext,
 			String locations) {
 		Resource resource = null;
@@ -0,0 +1,245 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * A {@link DataSource} that records every statement executed through its connections in a {@link SqlStatistics}:
+ * the time spent executing it and reading its results, and the number of rows read or updated. All the JDBC access of
+ * the application (plain or named parameter <code>JdbcTemplate</code>s alike) goes through the data source, so
+ * wrapping it covers everything without changes to the callers.
+ *
+ * <p>
+ * A query is recorded when its result set (or failing that its statement) is closed, so that the time includes
+ * fetching the rows. Updates and batches are recorded as soon as they return.
+ * </p>
+ */
+public class InstrumentedDataSource extends DelegatingDataSource {
+
+	private final SqlStatistics statistics;
+
+	public InstrumentedDataSource(DataSource targetDataSource, SqlStatistics statistics) {
+		super(targetDataSource);
+		this.statistics = statistics;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return proxy(Connection.class, new ConnectionHandler(super.getConnection()));
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return proxy(Connection.class, new ConnectionHandler(super.getConnection(username, password)));
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(), new Class<?>[] { type },
+				handler));
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private static abstract class Handler implements InvocationHandler {
+
+		private final Object target;
+
+		Handler(Object target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return handle(proxy, method, args);
+		}
+
+		Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+			return invokeTarget(target, method, args);
+		}
+
+		Object getTarget() {
+			return target;
+		}
+
+	}
+
+	private class ConnectionHandler extends Handler {
+
+		ConnectionHandler(Connection target) {
+			super(target);
+		}
+
+		@Override
+		Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result = super.handle(proxy, method, args);
+			String name = method.getName();
+			if ("prepareStatement".equals(name)) {
+				return proxy(PreparedStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+			}
+			if ("prepareCall".equals(name)) {
+				return proxy(CallableStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+			}
+			if ("createStatement".equals(name)) {
+				return proxy(Statement.class, new StatementHandler((Statement) result, null));
+			}
+			return result;
+		}
+
+	}
+
+	private class StatementHandler extends Handler {
+
+		private String sql;
+
+		private boolean pending;
+
+		private long nanos;
+
+		private long rows;
+
+		StatementHandler(Statement target, String sql) {
+			super(target);
+			this.sql = sql;
+		}
+
+		@Override
+		Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (!name.startsWith("execute")) {
+				if ("addBatch".equals(name) && args != null && args.length == 1) {
+					sql = (String) args[0];
+				}
+				Object result = super.handle(proxy, method, args);
+				if ("getResultSet".equals(name) && result != null) {
+					return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+				}
+				if ("close".equals(name)) {
+					flush(false);
+				}
+				return result;
+			}
+			flush(false);
+			if (args != null && args.length > 0 && args[0] instanceof String) {
+				sql = (String) args[0];
+			}
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = super.handle(proxy, method, args);
+			}
+			catch (Throwable t) {
+				nanos = System.nanoTime() - start;
+				pending = true;
+				flush(true);
+				throw t;
+			}
+			nanos = System.nanoTime() - start;
+			pending = true;
+			if (result instanceof ResultSet) {
+				return proxy(ResultSet.class, new ResultSetHandler((ResultSet) result, this));
+			}
+			if (result instanceof Integer) {
+				rows = Math.max(0, (Integer) result);
+				flush(false);
+			}
+			else if (result instanceof int[]) {
+				for (int count : (int[]) result) {
+					rows += Math.max(0, count);
+				}
+				flush(false);
+			}
+			else if (Boolean.FALSE.equals(result)) {
+				rows = Math.max(0, ((Statement) getTarget()).getUpdateCount());
+				flush(false);
+			}
+			return result;
+		}
+
+		void fetched(long nanos, boolean row) {
+			this.nanos += nanos;
+			if (row) {
+				rows++;
+			}
+		}
+
+		void flush(boolean error) {
+			if (pending) {
+				pending = false;
+				statistics.record(sql, nanos, rows, error);
+				nanos = 0;
+				rows = 0;
+			}
+		}
+
+	}
+
+	private static class ResultSetHandler extends Handler {
+
+		private final StatementHandler statement;
+
+		ResultSetHandler(ResultSet target, StatementHandler statement) {
+			super(target);
+			this.statement = statement;
+		}
+
+		@Override
+		Object handle(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("next".equals(name)) {
+				long start = System.nanoTime();
+				Object result = super.handle(proxy, method, args);
+				statement.fetched(System.nanoTime() - start, Boolean.TRUE.equals(result));
+				return result;
+			}
+			if ("close".equals(name)) {
+				try {
+					return super.handle(proxy, method, args);
+				}
+				finally {
+					statement.flush(false);
+				}
+			}
+			return super.handle(proxy, method, args);
+		}
+
+	}
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with log-linear buckets, in the style of HdrHistogram: each power of two is split into 16
+ * buckets, so any recorded value is known to within about 6%, over the whole range from a microsecond to hours, in a
+ * fixed amount of memory. Recording is lock-free (a few atomic increments) and can be done concurrently with reading a
+ * {@link #snapshot()}, which is then only approximately consistent.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a single duration.
+	 *
+	 * @param nanos the duration in nanoseconds (recorded with microsecond resolution)
+	 */
+	public void record(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		if (micros < 0) {
+			micros = 0;
+		}
+		counts.incrementAndGet(index(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+		long current = max.get();
+		while (micros > current && !max.compareAndSet(current, micros)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the recorded values in microseconds
+	 */
+	public long getTotal() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values in microseconds, or 0 if there are none
+	 */
+	public long getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : sum.get() / n;
+	}
+
+	/**
+	 * @return the largest recorded value in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile a percentile between 0 and 100
+	 * @return the value in microseconds below which the given percentage of the recorded values fall (to the
+	 *         precision of the buckets), or 0 if there are none
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(n * percentile / 100.0);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return a summary of the recorded values (count, mean, max and the main percentiles, in microseconds), suitable
+	 *         for serializing to JSON or exposing through JMX
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		result.put("count", getCount());
+		result.put("mean", getMean());
+		result.put("p50", getPercentile(50));
+		result.put("p90", getPercentile(90));
+		result.put("p99", getPercentile(99));
+		result.put("p999", getPercentile(99.9));
+		result.put("max", getMax());
+		return result;
+	}
+
+	/**
+	 * Discard all the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long lower = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.Map;
+
+/**
+ * A component that publishes its metrics through the /varz endpoint.
+ *
+ * @see org.cloudfoundry.identity.uaa.web.VarzEndpoint
+ */
+public interface MetricsSource {
+
+	/**
+	 * @return the current values of the metrics, as a tree of maps, lists, strings and numbers that can be serialized
+	 *         to JSON
+	 */
+	Map<String, ?> getMetrics();
+
+}
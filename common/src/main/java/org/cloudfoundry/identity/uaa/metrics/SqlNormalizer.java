@@ -0,0 +1,151 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reduces SQL statements to their shape, so that statements that only differ in their literal values are counted
+ * together (and no user data ends up in logs or metrics): string and numeric literals become <code>?</code>, lists of
+ * placeholders like <code>in (?,?,?)</code> collapse to <code>in (?)</code> and whitespace is collapsed to single
+ * spaces. Most statements are constant strings, so the results are cached (up to a fixed number of entries).
+ */
+public final class SqlNormalizer {
+
+	private static final int MAX_CACHED = 1000;
+
+	private static final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+	private SqlNormalizer() {
+	}
+
+	/**
+	 * @param sql a SQL statement
+	 * @return the shape of the statement
+	 */
+	public static String normalize(String sql) {
+		if (sql == null) {
+			return "unknown";
+		}
+		String result = cache.get(sql);
+		if (result == null) {
+			result = collapsePlaceholderLists(replaceLiterals(sql));
+			if (cache.size() < MAX_CACHED) {
+				cache.putIfAbsent(sql, result);
+			}
+		}
+		return result;
+	}
+
+	private static String replaceLiterals(String sql) {
+		StringBuilder builder = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (c == '\'') {
+				// String literal, with '' as an escaped quote
+				i++;
+				while (i < length) {
+					if (sql.charAt(i) == '\'') {
+						if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				i++;
+				builder.append('?');
+			}
+			else if (Character.isDigit(c) && !isIdentifierPart(builder)) {
+				while (i < length && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				builder.append('?');
+			}
+			else if (Character.isWhitespace(c)) {
+				while (i < length && Character.isWhitespace(sql.charAt(i))) {
+					i++;
+				}
+				if (builder.length() > 0) {
+					builder.append(' ');
+				}
+			}
+			else {
+				builder.append(c);
+				i++;
+			}
+		}
+		return builder.toString().trim();
+	}
+
+	private static boolean isIdentifierPart(StringBuilder builder) {
+		if (builder.length() == 0) {
+			return false;
+		}
+		char previous = builder.charAt(builder.length() - 1);
+		return Character.isLetterOrDigit(previous) || previous == '_';
+	}
+
+	private static String collapsePlaceholderLists(String sql) {
+		StringBuilder builder = new StringBuilder(sql.length());
+		int length = sql.length();
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			builder.append(c);
+			i++;
+			if (c == '(') {
+				int end = endOfPlaceholderList(sql, i);
+				if (end > i) {
+					builder.append('?');
+					i = end;
+				}
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return the index of the closing parenthesis if the text from <code>start</code> is a list of placeholders,
+	 *         otherwise <code>start</code>
+	 */
+	private static int endOfPlaceholderList(String sql, int start) {
+		boolean expectPlaceholder = true;
+		int placeholders = 0;
+		for (int i = start; i < sql.length(); i++) {
+			char c = sql.charAt(i);
+			if (c == ' ') {
+				continue;
+			}
+			if (expectPlaceholder && c == '?') {
+				placeholders++;
+				expectPlaceholder = false;
+			}
+			else if (!expectPlaceholder && c == ',') {
+				expectPlaceholder = true;
+			}
+			else if (!expectPlaceholder && c == ')') {
+				return placeholders > 1 ? i : start;
+			}
+			else {
+				return start;
+			}
+		}
+		return start;
+	}
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+/**
+ * Statistics about the SQL statements executed through an {@link InstrumentedDataSource}: counts, rows and latency
+ * histograms aggregated by statement shape (see {@link SqlNormalizer}), and the number of statements and time spent
+ * in the database per HTTP request, aggregated by endpoint (see {@link SqlStatisticsFilter}). Statements slower than
+ * a threshold are logged (as their shape, without the values) to the <code>UAA.SQL</code> log.
+ *
+ * <p>
+ * The number of distinct shapes and endpoints is bounded, so that dynamically built statements or unusual request
+ * paths cannot grow the statistics without limit: once the bound is reached new ones are counted under
+ * <code>other</code>.
+ * </p>
+ */
+@ManagedResource
+public class SqlStatistics implements MetricsSource {
+
+	private static final String OTHER = "other";
+
+	private static final int TOP = 20;
+
+	private final Log logger = LogFactory.getLog("UAA.SQL");
+
+	private final ConcurrentMap<String, Stats> statements = new ConcurrentHashMap<String, Stats>();
+
+	private final ConcurrentMap<String, Stats> endpoints = new ConcurrentHashMap<String, Stats>();
+
+	private final ThreadLocal<RequestTotals> request = new ThreadLocal<RequestTotals>();
+
+	private final AtomicLong slowStatements = new AtomicLong();
+
+	private long slowQueryThreshold = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private int maxShapes = 500;
+
+	/**
+	 * @param slowQueryThreshold statements that take longer than this (millis) are logged (default 500)
+	 */
+	public void setSlowQueryThreshold(long slowQueryThreshold) {
+		this.slowQueryThreshold = TimeUnit.MILLISECONDS.toNanos(slowQueryThreshold);
+	}
+
+	/**
+	 * @param maxShapes the maximum number of distinct statement shapes and endpoints to keep statistics for (default
+	 *        500)
+	 */
+	public void setMaxShapes(int maxShapes) {
+		this.maxShapes = maxShapes;
+	}
+
+	/**
+	 * Record the execution of a statement.
+	 *
+	 * @param sql the statement as executed
+	 * @param nanos the time spent executing it and reading its results
+	 * @param rows the number of rows read or updated
+	 * @param error true if the statement failed
+	 */
+	public void record(String sql, long nanos, long rows, boolean error) {
+		String shape = SqlNormalizer.normalize(sql);
+		getStats(statements, shape).record(nanos, rows, error);
+		RequestTotals totals = request.get();
+		if (totals != null) {
+			totals.statements++;
+			totals.nanos += nanos;
+			totals.rows += rows;
+		}
+		if (nanos > slowQueryThreshold) {
+			slowStatements.incrementAndGet();
+			logger.warn("Slow statement (" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms, " + rows + " rows"
+					+ (error ? ", failed" : "") + "): " + shape);
+		}
+	}
+
+	/**
+	 * Start collecting the statements executed by the current thread for an HTTP request.
+	 */
+	public void startRequest() {
+		request.set(new RequestTotals());
+	}
+
+	/**
+	 * Stop collecting statements for the current request and add them to the statistics of its endpoint.
+	 *
+	 * @param endpoint the endpoint the request was for
+	 * @return a summary of the statements executed for the request (for logging)
+	 */
+	public String endRequest(String endpoint) {
+		RequestTotals totals = request.get();
+		request.remove();
+		if (totals == null) {
+			return null;
+		}
+		getStats(endpoints, endpoint).record(totals.nanos, totals.statements, false);
+		return totals.statements + " statements, " + TimeUnit.NANOSECONDS.toMillis(totals.nanos) + "ms, "
+				+ totals.rows + " rows";
+	}
+
+	private Stats getStats(ConcurrentMap<String, Stats> map, String key) {
+		Stats stats = map.get(key);
+		if (stats == null) {
+			if (map.size() >= maxShapes) {
+				key = OTHER;
+			}
+			Stats existing = map.putIfAbsent(key, stats = new Stats());
+			if (existing != null) {
+				stats = existing;
+			}
+		}
+		return stats;
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "SQL Statements")
+	public long getStatementCount() {
+		return sum(statements, false);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed SQL Statements")
+	public long getErrorCount() {
+		return sum(statements, true);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Slow SQL Statements")
+	public long getSlowStatementCount() {
+		return slowStatements.get();
+	}
+
+	@ManagedAttribute(description = "Statistics (latencies in micros) per statement shape")
+	public Map<String, Map<String, Object>> getStatements() {
+		return summarize(statements, "rows", Integer.MAX_VALUE);
+	}
+
+	@ManagedAttribute(description = "Statements and database time (micros) per request, by endpoint")
+	public Map<String, Map<String, Object>> getEndpoints() {
+		return summarize(endpoints, "statements", Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Map<String, ?> getMetrics() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("statement_count", getStatementCount());
+		result.put("error_count", getErrorCount());
+		result.put("slow_statement_count", getSlowStatementCount());
+		result.put("top_statements", summarize(statements, "rows", TOP));
+		result.put("top_endpoints", summarize(endpoints, "statements", TOP));
+		return result;
+	}
+
+	@ManagedOperation(description = "Reset the SQL statistics")
+	public void reset() {
+		statements.clear();
+		endpoints.clear();
+		slowStatements.set(0);
+	}
+
+	private static long sum(Map<String, Stats> map, boolean errors) {
+		long total = 0;
+		for (Stats stats : map.values()) {
+			total += errors ? stats.errors.get() : stats.latency.getCount();
+		}
+		return total;
+	}
+
+	/**
+	 * @return the summaries of the entries with the highest total time first
+	 */
+	private static Map<String, Map<String, Object>> summarize(Map<String, Stats> map, String rowsName, int limit) {
+		List<Map.Entry<String, Stats>> entries = new ArrayList<Map.Entry<String, Stats>>(map.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Stats>>() {
+			@Override
+			public int compare(Map.Entry<String, Stats> o1, Map.Entry<String, Stats> o2) {
+				long t1 = o1.getValue().getTotal();
+				long t2 = o2.getValue().getTotal();
+				return t1 > t2 ? -1 : t1 < t2 ? 1 : 0;
+			}
+		});
+		Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+		for (Map.Entry<String, Stats> entry : entries) {
+			if (result.size() >= limit) {
+				break;
+			}
+			Stats stats = entry.getValue();
+			Map<String, Object> summary = new LinkedHashMap<String, Object>(stats.latency.snapshot());
+			summary.put("total", stats.getTotal());
+			summary.put(rowsName, stats.rows.get());
+			summary.put("errors", stats.errors.get());
+			result.put(entry.getKey(), summary);
+		}
+		return result;
+	}
+
+	private static class Stats {
+
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		private final AtomicLong rows = new AtomicLong();
+
+		private final AtomicLong errors = new AtomicLong();
+
+		void record(long nanos, long rows, boolean error) {
+			latency.record(nanos);
+			this.rows.addAndGet(rows);
+			if (error) {
+				errors.incrementAndGet();
+			}
+		}
+
+		long getTotal() {
+			return latency.getTotal();
+		}
+
+	}
+
+	private static class RequestTotals {
+
+		private int statements;
+
+		private long nanos;
+
+		private long rows;
+
+	}
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Collects the SQL statements executed for each HTTP request into the {@link SqlStatistics}, aggregated by endpoint.
+ * The endpoint of a request is its method and path, with the path segments that look like identifiers (anything with
+ * a digit in it, e.g. user ids) replaced by <code>{id}</code>. The totals for each request are logged at debug level.
+ */
+public class SqlStatisticsFilter extends OncePerRequestFilter {
+
+	private static final Pattern ID_SEGMENT = Pattern.compile("/[^/]*[0-9][^/]*");
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final SqlStatistics statistics;
+
+	public SqlStatisticsFilter(SqlStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		statistics.startRequest();
+		try {
+			chain.doFilter(request, response);
+		}
+		finally {
+			String endpoint = getEndpoint(request);
+			String totals = statistics.endRequest(endpoint);
+			if (logger.isDebugEnabled()) {
+				logger.debug(endpoint + ": " + totals);
+			}
+		}
+	}
+
+	static String getEndpoint(HttpServletRequest request) {
+		String path = request.getRequestURI().substring(request.getContextPath().length());
+		int semicolon = path.indexOf(';');
+		if (semicolon >= 0) {
+			path = path.substring(0, semicolon);
+		}
+		return request.getMethod() + " " + ID_SEGMENT.matcher(path).replaceAll("/{id}");
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Times the startup of the application context, in phases and per bean, so that slow starts can be tracked down. The
+ * phases are:
+ *
+ * <ul>
+ * <li><code>container</code>: from the start of the JVM until this bean is created, which covers the servlet
+ * container, loading the configuration and reading the bean definitions</li>
+ * <li><code>beans</code>: from then until the context is refreshed, i.e. creating and initializing the beans (including
+ * the database schema check)</li>
+ * <li><code>total</code>: both</li>
+ * </ul>
+ *
+ * The time of each bean excludes the time spent creating the other beans it depends on. The report is logged when the
+ * context is refreshed, and published through JMX and /varz.
+ */
+@ManagedResource
+public class StartupTimer extends InstantiationAwareBeanPostProcessorAdapter implements PriorityOrdered,
+		ApplicationListener<ContextRefreshedEvent>, MetricsSource {
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+	private final long created = System.currentTimeMillis();
+
+	private volatile long refreshed;
+
+	private final ConcurrentMap<String, Long> beanTimes = new ConcurrentHashMap<String, Long>();
+
+	private final ThreadLocal<LinkedList<Timing>> creating = new ThreadLocal<LinkedList<Timing>>() {
+		@Override
+		protected LinkedList<Timing> initialValue() {
+			return new LinkedList<Timing>();
+		}
+	};
+
+	private int reportSize = 10;
+
+	/**
+	 * @param reportSize the number of slowest beans to report (default 10)
+	 */
+	public void setReportSize(int reportSize) {
+		this.reportSize = reportSize;
+	}
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+		if (refreshed == 0) {
+			creating.get().addFirst(new Timing(beanName, System.nanoTime()));
+		}
+		return null;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		LinkedList<Timing> stack = creating.get();
+		if (!stack.isEmpty() && containsName(stack, beanName)) {
+			// Beans that failed to initialize are left on the stack: skip them
+			Timing timing = stack.removeFirst();
+			while (!timing.name.equals(beanName)) {
+				timing = stack.removeFirst();
+			}
+			long elapsed = System.nanoTime() - timing.start;
+			beanTimes.put(beanName, (elapsed - timing.children) / 1000000);
+			if (!stack.isEmpty()) {
+				stack.getFirst().children += elapsed;
+			}
+		}
+		return bean;
+	}
+
+	@Override
+	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (refreshed != 0) {
+			return;
+		}
+		refreshed = System.currentTimeMillis();
+		creating.remove();
+		logger.info("Started in " + getStartupTime() + "ms " + getPhases() + ", slowest beans (ms): "
+				+ getSlowestBeans());
+	}
+
+	@ManagedAttribute(description = "Time (ms) from the start of the JVM until the application context was ready")
+	public long getStartupTime() {
+		return refreshed == 0 ? -1 : refreshed - jvmStart;
+	}
+
+	@ManagedAttribute(description = "Time (ms) spent in each phase of the startup")
+	public Map<String, Long> getPhases() {
+		Map<String, Long> phases = new LinkedHashMap<String, Long>();
+		phases.put("container", created - jvmStart);
+		if (refreshed != 0) {
+			phases.put("beans", refreshed - created);
+			phases.put("total", refreshed - jvmStart);
+		}
+		return phases;
+	}
+
+	@ManagedAttribute(description = "Time (ms) spent creating the slowest beans, excluding their dependencies")
+	public Map<String, Long> getSlowestBeans() {
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(beanTimes.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+			@Override
+			public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+				return o2.getValue().compareTo(o1.getValue());
+			}
+		});
+		Map<String, Long> slowest = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(reportSize, entries.size()))) {
+			slowest.put(entry.getKey(), entry.getValue());
+		}
+		return slowest;
+	}
+
+	@Override
+	public Map<String, ?> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("phases", getPhases());
+		metrics.put("bean_count", beanTimes.size());
+		metrics.put("slowest_beans", getSlowestBeans());
+		return metrics;
+	}
+
+	private static boolean containsName(List<Timing> stack, String beanName) {
+		for (Timing timing : stack) {
+			if (timing.name.equals(beanName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Timing {
+
+		private final String name;
+
+		private final long start;
+
+		private long children;
+
+		public Timing(String name, long start) {
+			this.name = name;
+			this.start = start;
+		}
+
+	}
+
+}
@@ -22,6 +22,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -29,6 +31,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
 import org.cloudfoundry.identity.uaa.oauth.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.event.AbstractClientAdminEvent;
+import org.springframework.context.ApplicationListener;
 import org.springframework.security.authentication.InsufficientAuthenticationException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.provider.AuthorizationRequest;
@@ -43,12 +47,15 @@ import org.springframework.web.context.request.WebRequest;
 
 /**
  * Controller for retrieving the model for and displaying the confirmation page for access to a protected resource.
+ * The parts of the model that only depend on the client (a copy of its details, its auto approved scopes and the
+ * descriptions of its scopes) are cached per client, until the client is changed through the client admin endpoints
+ * or the cache entry expires (so that changes made on other servers are picked up).
  *
  * @author Dave Syer
  */
 @Controller
 @SessionAttributes("authorizationRequest")
-public class AccessController {
+public class AccessController implements ApplicationListener<AbstractClientAdminEvent> {
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -60,6 +67,10 @@ public class AccessController {
 
 	private ApprovalStore approvalStore = null;
 
+	private long clientCacheExpiry = 60000;
+
+	private final ConcurrentMap<String, ClientConsent> consents = new ConcurrentHashMap<String, ClientConsent>();
+
 	/**
 	 * Explicitly requests caller to point back to an authorization endpoint on "https", even if the incoming request is
 	 * "http" (e.g. when downstream of the SSL termination behind a load balancer).
@@ -78,6 +89,21 @@ public class AccessController {
 		this.approvalStore = approvalStore;
 	}
 
+	/**
+	 * @param clientCacheExpiry how long (millis) to cache the client details used to build the confirmation page
+	 *        (default 60000, 0 to load them on every request)
+	 */
+	public void setClientCacheExpiry(long clientCacheExpiry) {
+		this.clientCacheExpiry = clientCacheExpiry;
+	}
+
+	@Override
+	public void onApplicationEvent(AbstractClientAdminEvent event) {
+		if (event.getClient() != null) {
+			consents.remove(event.getClient().getClientId());
+		}
+	}
+
 	@RequestMapping("/oauth/confirm_access")
 	public String confirm(Map<String, Object> model, final HttpServletRequest request, Principal principal, SessionStatus sessionStatus) throws Exception {
 
@@ -94,41 +120,22 @@ public class AccessController {
 			// response.sendError(HttpServletResponse.SC_BAD_REQUEST);
 		}
 		else {
-			ClientDetails client = clientDetailsService.loadClientByClientId(clientAuthRequest.getClientId());
-			// TODO: Need to fix the copy constructor to copy additionalInfo
-			BaseClientDetails modifiableClient = new BaseClientDetails(client);
-			modifiableClient.setClientSecret(null);
+			ClientConsent consent = getClientConsent(clientAuthRequest.getClientId());
 			model.put("auth_request", clientAuthRequest);
-			model.put("client", modifiableClient); // TODO: remove this once it has gone from jsp pages
+			model.put("client", consent.client); // TODO: remove this once it has gone from jsp pages
 			model.put("client_id", clientAuthRequest.getClientId());
-			model.put("redirect_uri", getRedirectUri(modifiableClient, clientAuthRequest));
+			model.put("redirect_uri", getRedirectUri(consent.client, clientAuthRequest));
 
-			// Find the auto approved scopes for this clients
-			Map<String, Object> additionalInfo = client.getAdditionalInformation();
-			Object autoApproved = additionalInfo.get("autoapprove");
-			Set<String> autoApprovedScopes = new HashSet<String>();
-			if (autoApproved instanceof Collection<?>) {
-				@SuppressWarnings("unchecked")
-				Collection<? extends String> scopes = (Collection<? extends String>) autoApproved;
-				autoApprovedScopes.addAll(scopes);
-			}
-			else if (autoApproved instanceof Boolean && (Boolean) autoApproved || "true".equals(autoApproved)) {
-				autoApprovedScopes.addAll(modifiableClient.getScope());
-			}
+			Set<String> autoApprovedScopes = consent.autoApprovedScopes;
+			Set<String> approvedScopes = new HashSet<String>();
+			Set<String> deniedScopes = new HashSet<String>();
 
-			List<Approval> filteredApprovals = new ArrayList<Approval>();
 			// Remove auto approved scopes
 			List<Approval> approvals = approvalStore.getApprovals(principal.getName(), clientAuthRequest.getClientId());
 			for (Approval approval : approvals) {
-				if (!(autoApprovedScopes.contains(approval.getScope()))) {
-					filteredApprovals.add(approval);
+				if (autoApprovedScopes.contains(approval.getScope())) {
+					continue;
 				}
-			}
-
-			ArrayList<String> approvedScopes = new ArrayList<String>();
-			ArrayList<String> deniedScopes = new ArrayList<String>();
-
-			for(Approval approval : filteredApprovals) {
 				switch (approval.getStatus()) {
 				case APPROVED:
 					approvedScopes.add(approval.getScope());
@@ -142,7 +149,7 @@ public class AccessController {
 				}
 			}
 
-			ArrayList<String> undecidedScopes = new ArrayList<String>();
+			List<String> undecidedScopes = new ArrayList<String>();
 
 			//Filter the scopes approved/denied from the ones requested
 			for(String scope : clientAuthRequest.getScope()) {
@@ -151,27 +158,19 @@ public class AccessController {
 				}
 			}
 
-			model.put("approved_scopes", getScopes(modifiableClient, approvedScopes));
-			model.put("denied_scopes", getScopes(modifiableClient, deniedScopes));
-			model.put("undecided_scopes", getScopes(modifiableClient, undecidedScopes));
+			List<Map<String, String>> approved = getScopes(consent, approvedScopes);
+			List<Map<String, String>> denied = getScopes(consent, deniedScopes);
+			List<Map<String, String>> undecided = getScopes(consent, undecidedScopes);
+			model.put("approved_scopes", approved);
+			model.put("denied_scopes", denied);
+			model.put("undecided_scopes", undecided);
 
 			//For backward compatibility with older login servers
-			List<Map<String, String>> combinedScopes = new ArrayList<Map<String, String>>();
-			if (model.get("approved_scopes") != null) {
-				@SuppressWarnings("unchecked")
-				List<Map<String, String>> scopes = (List<Map<String, String>>) model.get("approved_scopes");
-				combinedScopes.addAll(scopes);
-			}
-			if (model.get("denied_scopes") != null) {
-				@SuppressWarnings("unchecked")
-				List<Map<String, String>> scopes = (List<Map<String, String>>) model.get("denied_scopes");
-				combinedScopes.addAll(scopes);
-			}
-			if (model.get("undecided_scopes") != null) {
-				@SuppressWarnings("unchecked")
-				List<Map<String, String>> scopes = (List<Map<String, String>>) model.get("undecided_scopes");
-				combinedScopes.addAll(scopes);
-			}
+			List<Map<String, String>> combinedScopes = new ArrayList<Map<String, String>>(approved.size()
+					+ denied.size() + undecided.size());
+			combinedScopes.addAll(approved);
+			combinedScopes.addAll(denied);
+			combinedScopes.addAll(undecided);
 
 			model.put("scopes", combinedScopes);
 
@@ -206,44 +205,34 @@ public class AccessController {
 
 	}
 
-	private List<Map<String, String>> getScopes(ClientDetails client, ArrayList<String> scopes) {
+	private ClientConsent getClientConsent(String clientId) {
+		ClientConsent consent = consents.get(clientId);
+		long now = System.currentTimeMillis();
+		if (consent == null || consent.expiresAt <= now) {
+			consent = new ClientConsent(clientDetailsService.loadClientByClientId(clientId), now + clientCacheExpiry);
+			if (clientCacheExpiry > 0) {
+				consents.put(clientId, consent);
+			}
+		}
+		return consent;
+	}
 
-		List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+	private List<Map<String, String>> getScopes(ClientConsent consent, Collection<String> scopes) {
+		if (scopes.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<ScopeDescription> descriptions = new ArrayList<ScopeDescription>(scopes.size());
 		for (String scope : scopes) {
-			if (!scope.contains(".")) {
-				HashMap<String, String> map = new HashMap<String, String>();
-				map.put("code", SCOPE_PREFIX + scope);
-				map.put("text", "Access your data with scope '" + scope + "'");
-				result.add(map);
-			}
-			else {
-				HashMap<String, String> map = new HashMap<String, String>();
-				String value = SCOPE_PREFIX + scope;
-				String resource = scope.substring(0, scope.lastIndexOf("."));
-				if ("uaa".equals(resource)) {
-					// special case: don't need to prompt for internal uaa scopes
-					continue;
-				}
-				String access = scope.substring(scope.lastIndexOf(".") + 1);
-				map.put("code", value);
-				map.put("text", "Access your '" + resource + "' resources with scope '" + access + "'");
-				result.add(map);
+			ScopeDescription description = consent.getScopeDescription(scope);
+			if (description != null) {
+				descriptions.add(description);
 			}
 		}
-		Collections.sort(result, new Comparator<Map<String, String>>() {
-			@Override
-			public int compare(Map<String, String> o1, Map<String, String> o2) {
-				String code1 = o1.get("code");
-				String code2 = o2.get("code");
-				if (code1.startsWith(SCOPE_PREFIX + "password") || code1.startsWith(SCOPE_PREFIX + "openid")) {
-					code1 = "aaa" + code1;
-				}
-				if (code2.startsWith(SCOPE_PREFIX + "password") || code2.startsWith(SCOPE_PREFIX + "openid")) {
-					code2 = "aaa" + code2;
-				}
-				return code1.compareTo(code2);
-			}
-		});
+		Collections.sort(descriptions, SCOPE_ORDER);
+		List<Map<String, String>> result = new ArrayList<Map<String, String>>(descriptions.size());
+		for (ScopeDescription description : descriptions) {
+			result.add(description.model);
+		}
 		return result;
 	}
 
@@ -295,4 +284,104 @@ public class AccessController {
 		return useSsl != null && useSsl ? "https" : request.getScheme();
 	}
 
+	/**
+	 * Scopes that the user cares most about (password and openid) first, then the rest in alphabetical order of their
+	 * codes.
+	 */
+	private static final Comparator<ScopeDescription> SCOPE_ORDER = new Comparator<ScopeDescription>() {
+		@Override
+		public int compare(ScopeDescription o1, ScopeDescription o2) {
+			if (o1.first != o2.first) {
+				return o1.first ? -1 : 1;
+			}
+			return o1.code.compareTo(o2.code);
+		}
+	};
+
+	/**
+	 * The description of a scope on the confirmation page, with a read-only model (<code>code</code> and
+	 * <code>text</code>) that can be shared between requests.
+	 */
+	private static final class ScopeDescription {
+
+		private final String code;
+
+		private final boolean first;
+
+		private final Map<String, String> model;
+
+		private ScopeDescription(String code, String text) {
+			this.code = code;
+			this.first = code.startsWith(SCOPE_PREFIX + "password") || code.startsWith(SCOPE_PREFIX + "openid");
+			Map<String, String> map = new HashMap<String, String>(4);
+			map.put("code", code);
+			map.put("text", text);
+			this.model = Collections.unmodifiableMap(map);
+		}
+
+		/**
+		 * @return the description of the scope, or null if the user does not need to be asked about it
+		 */
+		public static ScopeDescription describe(String scope) {
+			int dot = scope.lastIndexOf(".");
+			if (dot < 0) {
+				return new ScopeDescription(SCOPE_PREFIX + scope, "Access your data with scope '" + scope + "'");
+			}
+			String resource = scope.substring(0, dot);
+			if ("uaa".equals(resource)) {
+				// special case: don't need to prompt for internal uaa scopes
+				return null;
+			}
+			String access = scope.substring(dot + 1);
+			return new ScopeDescription(SCOPE_PREFIX + scope, "Access your '" + resource + "' resources with scope '"
+					+ access + "'");
+		}
+
+	}
+
+	/**
+	 * The parts of the confirmation page model that only depend on the client.
+	 */
+	private static final class ClientConsent {
+
+		private final BaseClientDetails client;
+
+		private final Set<String> autoApprovedScopes = new HashSet<String>();
+
+		private final Map<String, ScopeDescription> scopes = new HashMap<String, ScopeDescription>();
+
+		private final long expiresAt;
+
+		private ClientConsent(ClientDetails client, long expiresAt) {
+			// TODO: Need to fix the copy constructor to copy additionalInfo
+			this.client = new BaseClientDetails(client);
+			this.client.setClientSecret(null);
+			this.expiresAt = expiresAt;
+
+			// Find the auto approved scopes for this clients
+			Map<String, Object> additionalInfo = client.getAdditionalInformation();
+			Object autoApproved = additionalInfo.get("autoapprove");
+			if (autoApproved instanceof Collection<?>) {
+				@SuppressWarnings("unchecked")
+				Collection<? extends String> scopes = (Collection<? extends String>) autoApproved;
+				autoApprovedScopes.addAll(scopes);
+			}
+			else if (autoApproved instanceof Boolean && (Boolean) autoApproved || "true".equals(autoApproved)) {
+				autoApprovedScopes.addAll(this.client.getScope());
+			}
+
+			for (String scope : this.client.getScope()) {
+				scopes.put(scope, ScopeDescription.describe(scope));
+			}
+		}
+
+		public ScopeDescription getScopeDescription(String scope) {
+			if (scopes.containsKey(scope)) {
+				return scopes.get(scope);
+			}
+			return ScopeDescription.describe(scope);
+		}
+
+	}
+
 }
@@ -12,17 +12,23 @@
  */
 package org.cloudfoundry.identity.uaa.oauth;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.token.TokenValidation;
+import org.cloudfoundry.identity.uaa.oauth.token.UaaTokenServices;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.jwt.Jwt;
 import org.springframework.security.jwt.JwtHelper;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.common.exceptions.OAuth2Exception;
 import org.springframework.security.oauth2.provider.error.DefaultWebResponseExceptionTranslator;
@@ -32,6 +38,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
@@ -48,11 +55,19 @@ public class CheckTokenEndpoint implements InitializingBean {
 	private ObjectMapper mapper = new ObjectMapper();
 	protected final Log logger = LogFactory.getLog(getClass());
 	private WebResponseExceptionTranslator exceptionTranslator = new DefaultWebResponseExceptionTranslator();
+	private int maxBatchSize = 100;
 
 	public void setTokenServices(ResourceServerTokenServices resourceServerTokenServices) {
 		this.resourceServerTokenServices = resourceServerTokenServices;
 	}
 
+	/**
+	 * @param maxBatchSize the maximum number of tokens accepted by a single call to /check_tokens (default 100)
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		Assert.notNull(resourceServerTokenServices, "tokenServices must be set");
@@ -62,21 +77,78 @@ public class CheckTokenEndpoint implements InitializingBean {
 	@ResponseBody
 	public Map<String, ?> checkToken(@RequestParam("token") String value) {
 
-		OAuth2AccessToken token = resourceServerTokenServices.readAccessToken(value);
-		if (token == null) {
-			throw new InvalidTokenException("Token was not recognised");
+		TokenValidation validation = validate(value);
+		if (!validation.isValid()) {
+			throw validation.getError();
+		}
+
+		return validation.getClaims().toMap();
+	}
+
+	/**
+	 * Check several tokens in one request. The result has one entry per token, in the order they were supplied:
+	 * either the token claims (as returned by /check_token) or an error and description.
+	 */
+	@RequestMapping(value = "/check_tokens", method = RequestMethod.POST)
+	@ResponseBody
+	public List<Map<String, ?>> checkTokens(@RequestParam("token") String[] values) {
+
+		if (values.length > maxBatchSize) {
+			throw new InvalidRequestException("Too many tokens: " + values.length + " (maximum " + maxBatchSize + ")");
 		}
 
-		if (token.isExpired()) {
-			throw new InvalidTokenException("Token has expired");
+		List<TokenValidation> validations;
+		if (resourceServerTokenServices instanceof UaaTokenServices) {
+			validations = ((UaaTokenServices) resourceServerTokenServices).readAccessTokens(Arrays.asList(values));
+		}
+		else {
+			validations = new ArrayList<TokenValidation>(values.length);
+			for (String value : values) {
+				validations.add(validate(value));
+			}
 		}
 
-		Map<String, ?> response = getClaimsForToken(value);
+		List<Map<String, ?>> response = new ArrayList<Map<String, ?>>(validations.size());
+		for (TokenValidation validation : validations) {
+			if (validation.isValid()) {
+				response.add(validation.getClaims().toMap());
+			}
+			else {
+				Map<String, String> result = new LinkedHashMap<String, String>();
+				result.put(OAuth2Exception.ERROR, validation.getError().getOAuth2ErrorCode());
+				result.put(OAuth2Exception.DESCRIPTION, validation.getError().getMessage());
+				response.add(result);
+			}
+		}
 
 		return response;
 	}
 
-	private Map<String, Object> getClaimsForToken(String token) {
+	private TokenValidation validate(String value) {
+
+		if (resourceServerTokenServices instanceof UaaTokenServices) {
+			// Single pass: the claims are decoded and verified once, along with the validation
+			return ((UaaTokenServices) resourceServerTokenServices).validateToken(value);
+		}
+
+		try {
+			OAuth2AccessToken token = resourceServerTokenServices.readAccessToken(value);
+			if (token == null) {
+				throw new InvalidTokenException("Token was not recognised");
+			}
+
+			if (token.isExpired()) {
+				throw new InvalidTokenException("Token has expired");
+			}
+
+			return TokenValidation.valid(token, getClaimsForToken(value));
+		}
+		catch (InvalidTokenException e) {
+			return TokenValidation.invalid(value, e);
+		}
+	}
+
+	private TokenClaims getClaimsForToken(String token) {
 		Jwt tokenJwt = null;
 		try {
 			tokenJwt = JwtHelper.decode(token);
@@ -84,9 +156,9 @@ public class CheckTokenEndpoint implements InitializingBean {
 			throw new InvalidTokenException("Invalid token (could not decode): " + token);
 		}
 
-		Map<String, Object> claims = null;
+		TokenClaims claims = null;
 		try {
-			claims = mapper.readValue(tokenJwt.getClaims(), new TypeReference<Map<String, Object>>() {});
+			claims = mapper.readValue(tokenJwt.getClaims(), TokenClaims.class);
 		}
 		catch (Exception e) {
 			throw new IllegalStateException("Cannot read token claims", e);
@@ -95,6 +167,12 @@ public class CheckTokenEndpoint implements InitializingBean {
 		return claims;
 	}
 
+	@ExceptionHandler(InvalidRequestException.class)
+	public ResponseEntity<OAuth2Exception> handleInvalidRequest(InvalidRequestException e) throws Exception {
+		logger.info("Handling error: " + e.getClass().getSimpleName() + ", " + e.getMessage());
+		return exceptionTranslator.translate(e);
+	}
+
 	@ExceptionHandler(InvalidTokenException.class)
 	public ResponseEntity<OAuth2Exception> handleException(Exception e) throws Exception {
 		logger.info("Handling error: " + e.getClass().getSimpleName() + ", " + e.getMessage());
@@ -14,23 +14,40 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.crypto.codec.Base64;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.InvalidSignatureException;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.BaseClientDetails;
@@ -46,15 +63,20 @@ import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
 /**
- * Queries the /check_token endpoint to obtain the contents of an access token.
- *
- * If the endpoint returns a 400 response, this indicates that the token is invalid.
+ * Resource server token services that ask the authorization server about incoming access tokens. By default every
+ * token is sent to the <code>/check_token</code> endpoint, and a 400 response means that the token is invalid. If a
+ * token key endpoint URL is set, token signatures and expiry are verified locally instead, with a key fetched from
+ * <code>/token_key</code> and refreshed in the background, and <code>/check_token</code> is only used when no key is
+ * available or (optionally) for user tokens, which can be revoked on the server by a password change or withdrawn
+ * approvals.
  *
  * @author Dave Syer
  * @author Luke Taylor
  *
  */
-public class RemoteTokenServices implements ResourceServerTokenServices {
+public class RemoteTokenServices implements ResourceServerTokenServices, InitializingBean, DisposableBean {
+
+	private static final long MIN_KEY_FETCH_INTERVAL = 10000L;
 
 	protected final Log logger = LogFactory.getLog(getClass());
 
@@ -62,10 +84,31 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 
 	private String checkTokenEndpointUrl;
 
+	private String tokenKeyEndpointUrl;
+
 	private String clientId;
 
 	private String clientSecret;
 
+	private volatile String authorizationHeader;
+
+	private boolean checkUserTokensRemotely = false;
+
+	private long keyRefreshInterval = 5 * 60 * 1000L;
+
+	private volatile SignatureVerifier verifier;
+
+	/**
+	 * The time (millis) of the last attempt to fetch the token key.
+	 */
+	private volatile long keyLastFetched = -1;
+
+	private ScheduledExecutorService keyRefreshExecutor;
+
+	private TokenIntrospectionCache introspectionCache;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
 	public RemoteTokenServices() {
 		restTemplate = new RestTemplate();
 		((RestTemplate)restTemplate).setErrorHandler(new DefaultResponseErrorHandler() {
@@ -83,55 +126,124 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 		this.restTemplate = restTemplate;
 	}
 
+	/**
+	 * Convenience setter for the request factory of the default rest template, e.g. to share a
+	 * {@link org.cloudfoundry.identity.uaa.client.PooledClientHttpRequestFactory} with other components.
+	 *
+	 * @param requestFactory the request factory to set
+	 */
+	public void setRequestFactory(ClientHttpRequestFactory requestFactory) {
+		Assert.state(restTemplate instanceof RestTemplate, "Request factory can only be set on a RestTemplate");
+		((RestTemplate) restTemplate).setRequestFactory(requestFactory);
+	}
+
 	public void setCheckTokenEndpointUrl(String checkTokenEndpointUrl) {
 		this.checkTokenEndpointUrl = checkTokenEndpointUrl;
 	}
 
+	/**
+	 * The URL of the token key endpoint of the authorization server. If set, tokens are verified locally.
+	 *
+	 * @param tokenKeyEndpointUrl the token key endpoint URL to set (default null)
+	 */
+	public void setTokenKeyEndpointUrl(String tokenKeyEndpointUrl) {
+		this.tokenKeyEndpointUrl = tokenKeyEndpointUrl;
+	}
+
+	/**
+	 * Flag to indicate that tokens issued to users should still be sent to the check token endpoint after being
+	 * verified locally, so that tokens revoked on the server are rejected.
+	 *
+	 * @param checkUserTokensRemotely the flag to set (default false)
+	 */
+	public void setCheckUserTokensRemotely(boolean checkUserTokensRemotely) {
+		this.checkUserTokensRemotely = checkUserTokensRemotely;
+	}
+
+	/**
+	 * @param keyRefreshInterval the interval (millis) between background fetches of the token key (default 5
+	 * minutes, 0 or less to only fetch it on demand)
+	 */
+	public void setKeyRefreshInterval(long keyRefreshInterval) {
+		this.keyRefreshInterval = keyRefreshInterval;
+	}
+
+	/**
+	 * @param introspectionCache a cache for the results of the check token endpoint (optional)
+	 */
+	public void setIntrospectionCache(TokenIntrospectionCache introspectionCache) {
+		this.introspectionCache = introspectionCache;
+	}
+
 	public void setClientId(String clientId) {
 		this.clientId = clientId;
+		this.authorizationHeader = null;
 	}
 
 	public void setClientSecret(String clientSecret) {
 		this.clientSecret = clientSecret;
+		this.authorizationHeader = null;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Assert.state(checkTokenEndpointUrl != null || tokenKeyEndpointUrl != null,
+				"Either checkTokenEndpointUrl or tokenKeyEndpointUrl must be set");
+		if (tokenKeyEndpointUrl != null && keyRefreshInterval > 0) {
+			keyRefreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "token-key-refresh");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			keyRefreshExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refreshKey();
+				}
+			}, 0, keyRefreshInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (keyRefreshExecutor != null) {
+			keyRefreshExecutor.shutdownNow();
+		}
 	}
 
 	public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
 
-		MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
-		formData.add("token", accessToken);
-		HttpHeaders headers = new HttpHeaders();
-		headers.set("Authorization", getAuthorizationHeader(clientId, clientSecret));
-		Map<String, Object> map = postForMap(checkTokenEndpointUrl, formData, headers);
+		TokenClaims claims = null;
+		if (tokenKeyEndpointUrl != null) {
+			claims = verifyLocally(accessToken);
+			if (claims != null && checkUserTokensRemotely && claims.getUserName() != null) {
+				claims = null;
+			}
+		}
+		if (claims == null) {
+			if (checkTokenEndpointUrl == null) {
+				throw new InvalidTokenException("No token key available to verify token");
+			}
+			claims = checkToken(accessToken);
+		}
 
-		if (map.containsKey("error")) {
-			logger.debug("check_token returned error: " + map.get("error"));
+		if (claims.contains("error")) {
+			logger.debug("check_token returned error: " + claims.get("error"));
 			throw new InvalidTokenException(accessToken);
 		}
 
-		Assert.state(map.containsKey("client_id"), "Client id must be present in response from auth server");
-		String remoteClientId = (String) map.get("client_id");
+		Assert.state(claims.getClientId() != null, "Client id must be present in response from auth server");
+		String remoteClientId = claims.getClientId();
 
-		Set<String> scope = new HashSet<String>();
-		if (map.containsKey("scope")) {
-			@SuppressWarnings("unchecked")
-			Collection<String> values = (Collection<String>) map.get("scope");
-			scope.addAll(values);
-		}
+		Set<String> scope = claims.getScope();
 		DefaultAuthorizationRequest clientAuthentication = new DefaultAuthorizationRequest(remoteClientId, scope);
 
-		if (map.containsKey("resource_ids") || map.containsKey("client_authorities")) {
-			Set<String> resourceIds = new HashSet<String>();
-			if (map.containsKey("resource_ids")) {
-				@SuppressWarnings("unchecked")
-				Collection<String> values = (Collection<String>) map.get("resource_ids");
-				resourceIds.addAll(values);
-			}
-			Set<GrantedAuthority> clientAuthorities = new HashSet<GrantedAuthority>();
-			if (map.containsKey("client_authorities")) {
-				@SuppressWarnings("unchecked")
-				Collection<String> values = (Collection<String>) map.get("client_authorities");
-				clientAuthorities.addAll(getAuthorities(values));
-			}
+		if (claims.contains("resource_ids") || claims.contains("client_authorities")) {
+			Set<String> resourceIds = new HashSet<String>(getStrings(claims, "resource_ids"));
+			Set<GrantedAuthority> clientAuthorities = getAuthorities(getStrings(claims, "client_authorities"));
 			BaseClientDetails clientDetails = new BaseClientDetails();
 			clientDetails.setClientId(remoteClientId);
 			clientDetails.setResourceIds(resourceIds);
@@ -139,30 +251,143 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 			clientAuthentication.addClientDetails(clientDetails);
 		}
 
-		Authentication userAuthentication = getUserAuthentication(map, scope);
+		Authentication userAuthentication = getUserAuthentication(claims, scope);
 
 		clientAuthentication.setApproved(true);
 		return new OAuth2Authentication(clientAuthentication, userAuthentication);
 	}
 
-	private Authentication getUserAuthentication(Map<String, Object> map, Set<String> scope) {
-		String username = (String) map.get("user_name");
+	private TokenClaims checkToken(final String accessToken) {
+		if (introspectionCache == null) {
+			return postCheckToken(accessToken);
+		}
+		return introspectionCache.get(accessToken, new Callable<TokenClaims>() {
+			@Override
+			public TokenClaims call() throws Exception {
+				return postCheckToken(accessToken);
+			}
+		});
+	}
+
+	private TokenClaims postCheckToken(String accessToken) {
+		MultiValueMap<String, String> formData = new LinkedMultiValueMap<String, String>();
+		formData.add("token", accessToken);
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Authorization", getAuthorizationHeader());
+		return postForObject(checkTokenEndpointUrl, formData, headers, TokenClaims.class);
+	}
+
+	/**
+	 * Verify the signature and expiry of a token with the current token key.
+	 *
+	 * @return the token claims, or null if no key is available
+	 */
+	private TokenClaims verifyLocally(String accessToken) {
+		if (verifier == null && System.currentTimeMillis() - keyLastFetched >= MIN_KEY_FETCH_INTERVAL) {
+			refreshKey();
+		}
+		SignatureVerifier current = verifier;
+		if (current == null) {
+			return null;
+		}
+		Jwt jwt;
+		try {
+			jwt = decodeAndVerify(accessToken, current);
+		}
+		catch (InvalidSignatureException e) {
+			// The key might have been rotated on the server, so fetch it again (but not too often)
+			if (System.currentTimeMillis() - keyLastFetched < MIN_KEY_FETCH_INTERVAL || !refreshKey()) {
+				throw new InvalidTokenException("Invalid token (bad signature): " + accessToken);
+			}
+			try {
+				jwt = decodeAndVerify(accessToken, verifier);
+			}
+			catch (InvalidSignatureException ex) {
+				throw new InvalidTokenException("Invalid token (bad signature): " + accessToken);
+			}
+		}
+
+		TokenClaims claims;
+		try {
+			claims = mapper.readValue(jwt.getClaims(), TokenClaims.class);
+		}
+		catch (Exception e) {
+			throw new InvalidTokenException("Invalid token (could not read claims): " + accessToken);
+		}
+
+		if (claims.isExpired()) {
+			throw new InvalidTokenException("Token has expired");
+		}
+		return claims;
+	}
+
+	private Jwt decodeAndVerify(String accessToken, SignatureVerifier verifier) throws InvalidSignatureException {
+		try {
+			return JwtHelper.decodeAndVerify(accessToken, verifier);
+		}
+		catch (InvalidSignatureException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw new InvalidTokenException("Invalid token (could not decode): " + accessToken);
+		}
+	}
+
+	/**
+	 * Fetch the token key from the authorization server.
+	 *
+	 * @return true if a key was fetched
+	 */
+	private synchronized boolean refreshKey() {
+		keyLastFetched = System.currentTimeMillis();
+		try {
+			HttpHeaders headers = new HttpHeaders();
+			if (clientId != null) {
+				headers.set("Authorization", getAuthorizationHeader());
+			}
+			@SuppressWarnings("rawtypes")
+			Map map = restTemplate.exchange(tokenKeyEndpointUrl, HttpMethod.GET, new HttpEntity<Void>(headers),
+					Map.class).getBody();
+			String key = (String) map.get("value");
+			Assert.state(key != null, "No key in response from token key endpoint");
+			verifier = key.startsWith("-----BEGIN") ? new RsaVerifier(key) : new MacSigner(key);
+			return true;
+		}
+		catch (RuntimeException e) {
+			logger.warn("Could not fetch token key from " + tokenKeyEndpointUrl + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	private Authentication getUserAuthentication(TokenClaims claims, Set<String> scope) {
+		String username = claims.getUserName();
 		if (username==null) {
 			return null;
 		}
-		Set<GrantedAuthority> userAuthorities = new HashSet<GrantedAuthority>();
-		if (map.containsKey("user_authorities")) {
-			@SuppressWarnings("unchecked")
-			Collection<String> values = (Collection<String>) map.get("user_authorities");
-			userAuthorities.addAll(getAuthorities(values));
+		Set<GrantedAuthority> userAuthorities;
+		if (claims.contains("user_authorities")) {
+			userAuthorities = getAuthorities(getStrings(claims, "user_authorities"));
 		}
 		else {
 			// User authorities had better not be empty or we might mistake user for unauthenticated
-			userAuthorities.addAll(getAuthorities(scope));
+			userAuthorities = getAuthorities(scope);
+		}
+		return new RemoteUserAuthentication(claims.getUserId(), username, claims.getEmail(), userAuthorities);
+	}
+
+	/**
+	 * Read a legacy claim that the UAA used to return from check token (a list of strings).
+	 */
+	private Collection<String> getStrings(TokenClaims claims, String name) {
+		Object value = claims.get(name);
+		if (!(value instanceof Collection)) {
+			return Collections.emptySet();
+		}
+		Collection<String> result = new ArrayList<String>();
+		for (Object item : (Collection<?>) value) {
+			result.add(String.valueOf(item));
 		}
-		String email = (String) map.get("email");
-		String id = (String) map.get("user_id");
-		return new RemoteUserAuthentication(id, username, email, userAuthorities);
+		return result;
 	}
 
 	@Override
@@ -178,26 +403,32 @@ public class RemoteTokenServices implements ResourceServerTokenServices {
 		return result;
 	}
 
-	private String getAuthorizationHeader(String clientId, String clientSecret) {
-		String creds = String.format("%s:%s", clientId, clientSecret);
-		try {
-			return "Basic " + new String(Base64.encode(creds.getBytes("UTF-8")));
-		}
-		catch (UnsupportedEncodingException e) {
-			throw new IllegalStateException("Could not convert String");
+	private String getAuthorizationHeader() {
+		String header = authorizationHeader;
+		if (header == null) {
+			String creds = clientId + ":" + clientSecret;
+			try {
+				header = "Basic " + new String(Base64.encode(creds.getBytes("UTF-8")));
+			}
+			catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException("Could not convert String");
+			}
+			authorizationHeader = header;
 		}
+		return header;
 	}
 
-	private Map<String, Object> postForMap(String path, MultiValueMap<String, String> formData, HttpHeaders headers) {
+	/**
+	 * Post a form and read the response body straight into the given type (for token claims, with the streaming
+	 * {@link TokenClaimsDeserializer}).
+	 */
+	private <T> T postForObject(String path, MultiValueMap<String, String> formData, HttpHeaders headers,
+			Class<T> responseType) {
 		if (headers.getContentType() == null) {
 			headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
 		}
-		@SuppressWarnings("rawtypes")
-		Map map = restTemplate.exchange(path, HttpMethod.POST,
-				new HttpEntity<MultiValueMap<String, String>>(formData, headers), Map.class).getBody();
-		@SuppressWarnings("unchecked")
-		Map<String, Object> result = (Map<String, Object>) map;
-		return result;
+		return restTemplate.exchange(path, HttpMethod.POST,
+				new HttpEntity<MultiValueMap<String, String>>(formData, headers), responseType).getBody();
 	}
 
 }
@@ -0,0 +1,493 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth;
+
+import static org.cloudfoundry.identity.uaa.oauth.Claims.ADDITIONAL_AZ_ATTR;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.AUD;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.AUTHORITIES;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.CID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.CLIENT_ID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.EMAIL;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.GRANT_TYPE;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.IAT;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.ISS;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.JTI;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.SCOPE;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.SUB;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.USER_ID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.USER_NAME;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+
+/**
+ * The claims of an access or refresh token, as issued by the UAA. Instances are built by
+ * {@link TokenClaimsDeserializer} (usually from the JSON payload of a JWT) and are immutable. Claims that the UAA does
+ * not issue itself are kept as they were decoded and can be read with {@link #get(String)}.
+ */
+@JsonDeserialize(using = TokenClaimsDeserializer.class)
+public final class TokenClaims {
+
+	private static final int MAX_INTERNED = 4096;
+
+	private static final ConcurrentMap<String, String> interned = new ConcurrentHashMap<String, String>();
+
+	private final String jti;
+
+	private final String sub;
+
+	private final Set<String> scope;
+
+	private final Set<String> authorities;
+
+	private final String clientId;
+
+	private final String cid;
+
+	private final String grantType;
+
+	private final String userId;
+
+	private final String userName;
+
+	private final String email;
+
+	private final long iat;
+
+	private final long exp;
+
+	private final String iss;
+
+	private final Set<String> aud;
+
+	private final Map<String, String> additionalAuthorizationAttributes;
+
+	private final Map<String, Object> other;
+
+	private TokenClaims(Builder builder) {
+		this.jti = builder.jti;
+		this.sub = builder.sub;
+		this.scope = builder.scope;
+		this.authorities = builder.authorities;
+		this.clientId = builder.clientId;
+		this.cid = builder.cid;
+		this.grantType = builder.grantType;
+		this.userId = builder.userId;
+		this.userName = builder.userName;
+		this.email = builder.email;
+		this.iat = builder.iat;
+		this.exp = builder.exp;
+		this.iss = builder.iss;
+		this.aud = builder.aud;
+		this.additionalAuthorizationAttributes = builder.additionalAuthorizationAttributes;
+		this.other = builder.other == null ? null : Collections.unmodifiableMap(new LinkedHashMap<String, Object>(
+				builder.other));
+	}
+
+	public String getJti() {
+		return jti;
+	}
+
+	public String getSub() {
+		return sub;
+	}
+
+	/**
+	 * @return the scopes granted by the token (never null)
+	 */
+	public Set<String> getScope() {
+		return scope;
+	}
+
+	/**
+	 * @return the authorities of a client token, or null if the claim is not present
+	 */
+	public Set<String> getAuthorities() {
+		return authorities;
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public String getCid() {
+		return cid;
+	}
+
+	public String getGrantType() {
+		return grantType;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	/**
+	 * @return the email of the user, or null if this is not a user token
+	 */
+	public String getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return the issue time (seconds since the epoch), or 0 if the claim is not present
+	 */
+	public long getIat() {
+		return iat;
+	}
+
+	/**
+	 * @return the expiry time (seconds since the epoch), or 0 if the claim is not present
+	 */
+	public long getExp() {
+		return exp;
+	}
+
+	public String getIss() {
+		return iss;
+	}
+
+	/**
+	 * @return the audience (resource ids) of the token, or null if the claim is not present
+	 */
+	public Set<String> getAud() {
+		return aud;
+	}
+
+	/**
+	 * @return the additional authorization attributes, or null if the claim is not present
+	 */
+	public Map<String, String> getAdditionalAuthorizationAttributes() {
+		return additionalAuthorizationAttributes;
+	}
+
+	/**
+	 * @return true if the token has an expiry and it is in the past
+	 */
+	public boolean isExpired() {
+		return exp != 0 && exp * 1000L < System.currentTimeMillis();
+	}
+
+	/**
+	 * @param name the name of a claim
+	 * @return true if the claim is present
+	 */
+	public boolean contains(String name) {
+		return get(name) != null;
+	}
+
+	/**
+	 * Look up a claim by name. Prefer the typed getters for the claims the UAA issues.
+	 *
+	 * @param name the name of a claim
+	 * @return the value of the claim, or null if it is not present
+	 */
+	public Object get(String name) {
+		if (JTI.equals(name)) {
+			return jti;
+		}
+		if (SUB.equals(name)) {
+			return sub;
+		}
+		if (SCOPE.equals(name)) {
+			return scope.isEmpty() ? null : scope;
+		}
+		if (AUTHORITIES.equals(name)) {
+			return authorities;
+		}
+		if (CLIENT_ID.equals(name)) {
+			return clientId;
+		}
+		if (CID.equals(name)) {
+			return cid;
+		}
+		if (GRANT_TYPE.equals(name)) {
+			return grantType;
+		}
+		if (USER_ID.equals(name)) {
+			return userId;
+		}
+		if (USER_NAME.equals(name)) {
+			return userName;
+		}
+		if (EMAIL.equals(name)) {
+			return email;
+		}
+		if (IAT.equals(name)) {
+			return iat == 0 ? null : iat;
+		}
+		if (EXP.equals(name)) {
+			return exp == 0 ? null : exp;
+		}
+		if (ISS.equals(name)) {
+			return iss;
+		}
+		if (AUD.equals(name)) {
+			return aud;
+		}
+		if (ADDITIONAL_AZ_ATTR.equals(name)) {
+			return additionalAuthorizationAttributes;
+		}
+		return other == null ? null : other.get(name);
+	}
+
+	/**
+	 * @return all the claims that are present, in the form they would have in the JWT payload
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		put(map, JTI, jti);
+		put(map, SUB, sub);
+		put(map, SCOPE, scope.isEmpty() ? null : scope);
+		put(map, AUTHORITIES, authorities);
+		put(map, CLIENT_ID, clientId);
+		put(map, CID, cid);
+		put(map, GRANT_TYPE, grantType);
+		put(map, USER_ID, userId);
+		put(map, USER_NAME, userName);
+		put(map, EMAIL, email);
+		put(map, IAT, iat == 0 ? null : iat);
+		put(map, EXP, exp == 0 ? null : exp);
+		put(map, ISS, iss);
+		put(map, AUD, aud);
+		put(map, ADDITIONAL_AZ_ATTR, additionalAuthorizationAttributes);
+		if (other != null) {
+			map.putAll(other);
+		}
+		return map;
+	}
+
+	private static void put(Map<String, Object> map, String name, Object value) {
+		if (value != null) {
+			map.put(name, value);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return toMap().toString();
+	}
+
+	/**
+	 * Collects the claims of a token as they are decoded.
+	 */
+	static final class Builder {
+
+		private String jti;
+
+		private String sub;
+
+		private Set<String> scope = Collections.emptySet();
+
+		private Set<String> authorities;
+
+		private String clientId;
+
+		private String cid;
+
+		private String grantType;
+
+		private String userId;
+
+		private String userName;
+
+		private String email;
+
+		private long iat;
+
+		private long exp;
+
+		private String iss;
+
+		private Set<String> aud;
+
+		private Map<String, String> additionalAuthorizationAttributes;
+
+		private Map<String, Object> other;
+
+		void setJti(String jti) {
+			this.jti = jti;
+		}
+
+		void setSub(String sub) {
+			this.sub = sub;
+		}
+
+		void setScope(Set<String> scope) {
+			this.scope = scope;
+		}
+
+		void setAuthorities(Set<String> authorities) {
+			this.authorities = authorities;
+		}
+
+		void setClientId(String clientId) {
+			this.clientId = clientId;
+		}
+
+		void setCid(String cid) {
+			this.cid = cid;
+		}
+
+		void setGrantType(String grantType) {
+			this.grantType = grantType;
+		}
+
+		void setUserId(String userId) {
+			this.userId = userId;
+		}
+
+		void setUserName(String userName) {
+			this.userName = userName;
+		}
+
+		void setEmail(String email) {
+			this.email = email;
+		}
+
+		void setIat(long iat) {
+			this.iat = iat;
+		}
+
+		void setExp(long exp) {
+			this.exp = exp;
+		}
+
+		void setIss(String iss) {
+			this.iss = iss;
+		}
+
+		void setAud(Set<String> aud) {
+			this.aud = aud;
+		}
+
+		void setAdditionalAuthorizationAttributes(Map<String, String> additionalAuthorizationAttributes) {
+			this.additionalAuthorizationAttributes = additionalAuthorizationAttributes;
+		}
+
+		void setOther(String name, Object value) {
+			if (other == null) {
+				other = new LinkedHashMap<String, Object>();
+			}
+			other.put(name, value);
+		}
+
+		TokenClaims build() {
+			return new TokenClaims(this);
+		}
+
+	}
+
+	/**
+	 * Share a single instance of frequently repeated values (scopes, authorities and audiences). Only a bounded number
+	 * of distinct values is kept, so arbitrary input cannot grow the pool without limit.
+	 */
+	static String intern(String value) {
+		String existing = interned.get(value);
+		if (existing != null) {
+			return existing;
+		}
+		if (interned.size() >= MAX_INTERNED) {
+			return value;
+		}
+		existing = interned.putIfAbsent(value, value);
+		return existing != null ? existing : value;
+	}
+
+	/**
+	 * An immutable, insertion ordered set backed by an array. Token scopes and authorities are short lists, so a
+	 * linear scan is cheaper than hashing and the footprint is a fraction of a {@link java.util.HashSet}.
+	 */
+	static final class CompactSet extends AbstractSet<String> {
+
+		private final String[] values;
+
+		CompactSet(Collection<String> values) {
+			String[] unique = new String[values.size()];
+			int size = 0;
+			for (String value : values) {
+				if (!contains(unique, size, value)) {
+					unique[size++] = value;
+				}
+			}
+			if (size < unique.length) {
+				String[] trimmed = new String[size];
+				System.arraycopy(unique, 0, trimmed, 0, size);
+				unique = trimmed;
+			}
+			this.values = unique;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return contains(values, values.length, o);
+		}
+
+		@Override
+		public Iterator<String> iterator() {
+			return new Iterator<String>() {
+
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < values.length;
+				}
+
+				@Override
+				public String next() {
+					if (index >= values.length) {
+						throw new NoSuchElementException();
+					}
+					return values[index++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		private static boolean contains(String[] values, int size, Object o) {
+			for (int i = 0; i < size; i++) {
+				if (values[i].equals(o)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+}
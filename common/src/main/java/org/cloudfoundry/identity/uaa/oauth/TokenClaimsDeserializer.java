@@ -0,0 +1,195 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth;
+
+import static org.cloudfoundry.identity.uaa.oauth.Claims.ADDITIONAL_AZ_ATTR;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.AUD;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.AUTHORITIES;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.CID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.CLIENT_ID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.EMAIL;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.EXP;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.GRANT_TYPE;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.IAT;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.ISS;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.JTI;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.SCOPE;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.SUB;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.USER_ID;
+import static org.cloudfoundry.identity.uaa.oauth.Claims.USER_NAME;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.DeserializationContext;
+import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.springframework.util.StringUtils;
+
+/**
+ * Streams token claims straight into a {@link TokenClaims} without building an intermediate map. String collections
+ * (scopes, authorities and audiences) are interned and stored in compact sets.
+ */
+public class TokenClaimsDeserializer extends JsonDeserializer<TokenClaims> {
+
+	@Override
+	public TokenClaims deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
+			JsonProcessingException {
+
+		TokenClaims.Builder claims = new TokenClaims.Builder();
+
+		JsonToken t = jp.getCurrentToken();
+		if (t == JsonToken.START_OBJECT) {
+			t = jp.nextToken();
+		}
+		for (; t == JsonToken.FIELD_NAME; t = jp.nextToken()) {
+			String fieldName = jp.getCurrentName();
+			t = jp.nextToken();
+			if (t == JsonToken.VALUE_NULL) {
+				continue;
+			}
+			if (JTI.equals(fieldName)) {
+				claims.setJti(readString(jp, ctxt));
+			}
+			else if (SUB.equals(fieldName)) {
+				claims.setSub(readString(jp, ctxt));
+			}
+			else if (SCOPE.equals(fieldName)) {
+				claims.setScope(readStrings(jp, ctxt));
+			}
+			else if (AUTHORITIES.equals(fieldName)) {
+				claims.setAuthorities(readStrings(jp, ctxt));
+			}
+			else if (CLIENT_ID.equals(fieldName)) {
+				claims.setClientId(readString(jp, ctxt));
+			}
+			else if (CID.equals(fieldName)) {
+				claims.setCid(readString(jp, ctxt));
+			}
+			else if (GRANT_TYPE.equals(fieldName)) {
+				claims.setGrantType(readString(jp, ctxt));
+			}
+			else if (USER_ID.equals(fieldName)) {
+				claims.setUserId(readString(jp, ctxt));
+			}
+			else if (USER_NAME.equals(fieldName)) {
+				claims.setUserName(readString(jp, ctxt));
+			}
+			else if (EMAIL.equals(fieldName)) {
+				claims.setEmail(readString(jp, ctxt));
+			}
+			else if (IAT.equals(fieldName)) {
+				claims.setIat(readTime(jp, ctxt));
+			}
+			else if (EXP.equals(fieldName)) {
+				claims.setExp(readTime(jp, ctxt));
+			}
+			else if (ISS.equals(fieldName)) {
+				claims.setIss(readString(jp, ctxt));
+			}
+			else if (AUD.equals(fieldName)) {
+				claims.setAud(readStrings(jp, ctxt));
+			}
+			else if (ADDITIONAL_AZ_ATTR.equals(fieldName)) {
+				claims.setAdditionalAuthorizationAttributes(readAttributes(jp, ctxt));
+			}
+			else {
+				claims.setOther(fieldName, jp.readValueAs(Object.class));
+			}
+		}
+
+		return claims.build();
+	}
+
+	/**
+	 * Read a string claim. Anything else (in particular an object or an array) is rejected rather than read as text,
+	 * which would leave the parser inside the nested value.
+	 */
+	private String readString(JsonParser jp, DeserializationContext ctxt) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.VALUE_STRING) {
+			throw ctxt.mappingException(String.class);
+		}
+		return jp.getText();
+	}
+
+	private long readTime(JsonParser jp, DeserializationContext ctxt) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		if (t == JsonToken.VALUE_NUMBER_INT || t == JsonToken.VALUE_NUMBER_FLOAT) {
+			return jp.getLongValue();
+		}
+		if (t == JsonToken.VALUE_STRING) {
+			try {
+				return Long.parseLong(jp.getText().trim());
+			}
+			catch (NumberFormatException e) {
+				throw new JsonMappingException("Not a valid time in seconds: " + jp.getText(), jp.getCurrentLocation());
+			}
+		}
+		throw ctxt.mappingException(Long.class);
+	}
+
+	/**
+	 * Read an array of strings, or a single comma separated string (some clients send authorities that way).
+	 */
+	private Set<String> readStrings(JsonParser jp, DeserializationContext ctxt) throws IOException {
+		JsonToken t = jp.getCurrentToken();
+		List<String> values = new ArrayList<String>();
+		if (t == JsonToken.START_ARRAY) {
+			while ((t = jp.nextToken()) != JsonToken.END_ARRAY) {
+				if (t != JsonToken.VALUE_NULL) {
+					values.add(TokenClaims.intern(readString(jp, ctxt)));
+				}
+			}
+		}
+		else if (t == JsonToken.VALUE_STRING) {
+			for (String value : StringUtils.commaDelimitedListToSet(jp.getText())) {
+				value = value.trim();
+				if (value.length() > 0) {
+					values.add(TokenClaims.intern(value));
+				}
+			}
+		}
+		else {
+			throw ctxt.mappingException(Set.class);
+		}
+		if (values.isEmpty()) {
+			return Collections.emptySet();
+		}
+		return new TokenClaims.CompactSet(values);
+	}
+
+	private Map<String, String> readAttributes(JsonParser jp, DeserializationContext ctxt) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw ctxt.mappingException(Map.class);
+		}
+		Map<String, String> attributes = new LinkedHashMap<String, String>();
+		for (JsonToken t = jp.nextToken(); t == JsonToken.FIELD_NAME; t = jp.nextToken()) {
+			String name = jp.getCurrentName();
+			t = jp.nextToken();
+			if (t == JsonToken.START_ARRAY || t == JsonToken.START_OBJECT) {
+				throw ctxt.mappingException(String.class);
+			}
+			attributes.put(name, t == JsonToken.VALUE_NULL ? null : jp.getText());
+		}
+		return Collections.unmodifiableMap(attributes);
+	}
+
+}
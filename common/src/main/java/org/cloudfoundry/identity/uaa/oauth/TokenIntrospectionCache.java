@@ -0,0 +1,210 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+/**
+ * Client side cache of token introspection (<code>/check_token</code>) results. Results are kept until the token
+ * expires or a time to live has passed, whichever comes first, and error results are kept for a shorter time to absorb
+ * retries with bad tokens. Concurrent lookups of the same token share a single call to the authorization server.
+ *
+ * @see RemoteTokenServices#setIntrospectionCache(TokenIntrospectionCache)
+ */
+@ManagedResource
+public class TokenIntrospectionCache {
+
+	private int maxEntries = 10000;
+
+	private long timeToLive = 60000;
+
+	private long errorTimeToLive = 5000;
+
+	private final Map<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	private final ConcurrentMap<String, FutureTask<TokenClaims>> inFlight = new ConcurrentHashMap<String, FutureTask<TokenClaims>>();
+
+	private AtomicInteger hits = new AtomicInteger();
+
+	private AtomicInteger errorHits = new AtomicInteger();
+
+	private AtomicInteger misses = new AtomicInteger();
+
+	private AtomicInteger coalesced = new AtomicInteger();
+
+	/**
+	 * @param maxEntries the maximum number of results to keep (default 10000)
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @param timeToLive the maximum time (millis) to keep a result for a valid token (default 60000)
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * @param errorTimeToLive the time (millis) to keep an error result (default 5000)
+	 */
+	public void setErrorTimeToLive(long errorTimeToLive) {
+		this.errorTimeToLive = errorTimeToLive;
+	}
+
+	/**
+	 * Get the introspection result for a token, from the cache or else from the loader. Only one thread calls the
+	 * loader for a given token at a time, the others wait for its result.
+	 *
+	 * @param token the token value
+	 * @param loader the call to the authorization server
+	 * @return the introspection result
+	 */
+	public TokenClaims get(final String token, Callable<TokenClaims> loader) {
+		long now = System.currentTimeMillis();
+		synchronized (results) {
+			CachedResult cached = results.get(token);
+			if (cached != null) {
+				if (cached.expires > now) {
+					(cached.result.contains("error") ? errorHits : hits).incrementAndGet();
+					return cached.result;
+				}
+				results.remove(token);
+			}
+		}
+
+		FutureTask<TokenClaims> task = new FutureTask<TokenClaims>(loader);
+		FutureTask<TokenClaims> existing = inFlight.putIfAbsent(token, task);
+		if (existing == null) {
+			misses.incrementAndGet();
+			try {
+				task.run();
+				TokenClaims result = getResult(task);
+				if (result != null) {
+					put(token, result, System.currentTimeMillis());
+				}
+				return result;
+			}
+			finally {
+				inFlight.remove(token, task);
+			}
+		}
+		coalesced.incrementAndGet();
+		return getResult(existing);
+	}
+
+	private void put(String token, TokenClaims result, long now) {
+		long expires;
+		if (result.contains("error")) {
+			expires = now + errorTimeToLive;
+		}
+		else {
+			expires = now + timeToLive;
+			if (result.getExp() != 0) {
+				expires = Math.min(expires, result.getExp() * 1000L);
+			}
+		}
+		if (expires > now) {
+			synchronized (results) {
+				results.put(token, new CachedResult(result, expires));
+			}
+		}
+	}
+
+	private TokenClaims getResult(FutureTask<TokenClaims> task) {
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for token introspection", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Token introspection failed", e.getCause());
+		}
+	}
+
+	@ManagedOperation(description = "Remove all cached results")
+	public void clear() {
+		synchronized (results) {
+			results.clear();
+		}
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Introspection Cache Hits")
+	public int getHits() {
+		return hits.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Introspection Cache Error Hits")
+	public int getErrorHits() {
+		return errorHits.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Introspection Cache Misses")
+	public int getMisses() {
+		return misses.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Introspection Calls Coalesced")
+	public int getCoalesced() {
+		return coalesced.get();
+	}
+
+	@ManagedMetric(displayName = "Introspection Calls In Flight")
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	@ManagedMetric(displayName = "Introspection Cache Size")
+	public int getSize() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	private static class CachedResult {
+
+		private final TokenClaims result;
+
+		private final long expires;
+
+		public CachedResult(TokenClaims result, long expires) {
+			this.result = result;
+			this.expires = expires;
+		}
+
+	}
+
+}
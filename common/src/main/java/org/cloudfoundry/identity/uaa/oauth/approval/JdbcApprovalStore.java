@@ -20,11 +20,13 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
+import org.cloudfoundry.identity.uaa.rest.jdbc.CaseInsensitiveSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingList;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter;
@@ -59,12 +61,19 @@ public class JdbcApprovalStore implements ApprovalStore {
 
 	private static final String GET_AUTHZ_SQL = String.format("select %s from %s", FIELDS, TABLE_NAME);
 
+	private static final String USER_CLIENT_AUTHZ_QUERY_TEMPLATE = GET_AUTHZ_SQL + " where %s=? and %s=?";
+
+	public static final String DEFAULT_USER_CLIENT_AUTHZ_QUERY = String.format(USER_CLIENT_AUTHZ_QUERY_TEMPLATE,
+			"lower(userName)", "lower(clientId)");
+
 	private static final String DELETE_AUTHZ_SQL = String.format("delete from %s", TABLE_NAME);
 
 	private static final String EXPIRE_AUTHZ_SQL = String.format("update %s set expiresAt = :expiry", TABLE_NAME);
 
 	private boolean handleRevocationsAsExpiry = false;
 
+	private String userClientApprovalsQuery = DEFAULT_USER_CLIENT_AUTHZ_QUERY;
+
 	public JdbcApprovalStore(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory, SearchQueryConverter queryConverter) {
 		Assert.notNull(jdbcTemplate);
 		Assert.notNull(queryConverter);
@@ -77,6 +86,18 @@ public class JdbcApprovalStore implements ApprovalStore {
 		this.handleRevocationsAsExpiry = handleRevocationsAsExpiry;
 	}
 
+	/**
+	 * Generate the query for the approvals of a user for a client with comparisons that match the primary key of the
+	 * approvals table on the current platform, where possible.
+	 *
+	 * @param caseInsensitiveSqlAdapter the platform strategy for case insensitive comparisons
+	 */
+	public void setCaseInsensitiveSqlAdapter(CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter) {
+		this.userClientApprovalsQuery = String.format(USER_CLIENT_AUTHZ_QUERY_TEMPLATE,
+				caseInsensitiveSqlAdapter.getColumnExpression("userName"),
+				caseInsensitiveSqlAdapter.getColumnExpression("clientId"));
+	}
+
 	public boolean refreshApproval(final Approval approval) {
 		logger.debug(String.format("refreshing approval: [%s]", approval));
 		int refreshed = jdbcTemplate.update(REFRESH_AUTHZ_SQL, new PreparedStatementSetter() {
@@ -181,9 +202,14 @@ public class JdbcApprovalStore implements ApprovalStore {
 		}
 	}
 
+	/**
+	 * Look up the approvals of a user for a client directly by key, rather than through a filter, as this is done for
+	 * every authorization and token request. Like a filter, the user name and client id are compared ignoring case.
+	 */
 	@Override
 	public List<Approval> getApprovals(String userName, String clientId) {
-		return getApprovals(String.format("userName eq '%s' and clientId eq '%s'", userName, clientId));
+		return jdbcTemplate.query(userClientApprovalsQuery, rowMapper, userName.toLowerCase(Locale.US),
+				clientId.toLowerCase(Locale.US));
 	}
 
 	private static class AuthorizationRowMapper implements RowMapper<Approval> {
@@ -20,7 +20,7 @@ import org.springframework.security.oauth2.provider.ClientDetails;
 /**
  * @author Dave Syer
  */
-abstract class AbstractClientAdminEvent extends AbstractUaaEvent {
+public abstract class AbstractClientAdminEvent extends AbstractUaaEvent {
 
 	private Principal principal;
 	private ClientDetails client;
@@ -31,7 +31,7 @@ abstract class AbstractClientAdminEvent extends AbstractUaaEvent {
 		this.principal = principal;
 	}
 	
-	ClientDetails getClient() {
+	public ClientDetails getClient() {
 		return client;
 	}
 	
@@ -0,0 +1,229 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.event.AbstractClientAdminEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.ClientDetails;
+import org.springframework.util.Assert;
+
+/**
+ * Cache of access tokens issued to clients in a <code>client_credentials</code> grant, so that a client asking again
+ * for a token with the same scopes and resource ids gets the previous one back instead of a freshly signed token.
+ * Clients opt in with a <code>token_cache</code> flag in their additional information. A cached token is handed out
+ * until a configurable fraction of its lifetime has passed, and all the tokens of a client are dropped when the
+ * client is updated, deleted or changes its secret.
+ *
+ * @see UaaTokenServices#setClientTokenCache(ClientTokenCache)
+ */
+@ManagedResource
+public class ClientTokenCache implements ApplicationListener<AbstractClientAdminEvent> {
+
+	/**
+	 * The key in the client additional information that enables caching for the client.
+	 */
+	public static final String TOKEN_CACHE = "token_cache";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private double reuseFraction = 0.5;
+
+	private int maxEntries = 10000;
+
+	private final Map<String, CachedToken> tokens = new LinkedHashMap<String, CachedToken>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedToken> eldest) {
+			return size() > maxEntries;
+		}
+	};
+
+	private AtomicInteger hits = new AtomicInteger();
+
+	private AtomicInteger misses = new AtomicInteger();
+
+	private AtomicInteger invalidations = new AtomicInteger();
+
+	/**
+	 * The fraction of the lifetime of a token during which it is handed out again. A client receiving a token late
+	 * in that window still has the remaining fraction of the lifetime to use it.
+	 *
+	 * @param reuseFraction the fraction to set, between 0 and 1 (default 0.5)
+	 */
+	public void setReuseFraction(double reuseFraction) {
+		Assert.isTrue(reuseFraction >= 0 && reuseFraction <= 1, "reuseFraction must be between 0 and 1");
+		this.reuseFraction = reuseFraction;
+	}
+
+	/**
+	 * @param maxEntries the maximum number of tokens to keep (default 10000)
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @param client the client requesting a token
+	 * @return true if the client opted in to token caching
+	 */
+	public boolean isEnabled(ClientDetails client) {
+		Object enabled = client.getAdditionalInformation().get(TOKEN_CACHE);
+		return enabled instanceof Boolean && (Boolean) enabled || "true".equals(enabled);
+	}
+
+	/**
+	 * Compute the cache key of a token request. The client authorities and token validity are part of the key, so a
+	 * client changed on another node does not keep getting tokens with stale content.
+	 */
+	public String getKey(ClientDetails client, Collection<String> scopes, Collection<String> resourceIds,
+			Map<String, String> additionalAuthorizationAttributes) {
+		StringBuilder key = new StringBuilder(client.getClientId());
+		key.append("|").append(new TreeSet<String>(scopes));
+		key.append("|").append(resourceIds == null ? "" : new TreeSet<String>(resourceIds));
+		key.append("|").append(new TreeSet<String>(AuthorityUtils.authorityListToSet(client.getAuthorities())));
+		key.append("|").append(client.getAccessTokenValiditySeconds());
+		if (additionalAuthorizationAttributes != null) {
+			key.append("|").append(additionalAuthorizationAttributes);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param key the key of the token request
+	 * @return a cached token that can still be handed out, or null
+	 */
+	public OAuth2AccessToken get(String key) {
+		CachedToken cached;
+		synchronized (tokens) {
+			cached = tokens.get(key);
+			if (cached != null && cached.reusableUntil < System.currentTimeMillis()) {
+				tokens.remove(key);
+				cached = null;
+			}
+		}
+		if (cached == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return cached.token;
+	}
+
+	/**
+	 * Add a newly issued token to the cache. Tokens that never expire are not cached.
+	 *
+	 * @param clientId the client the token was issued to
+	 * @param key the key of the token request
+	 * @param token the token issued
+	 * @param issuedAt the time the token was issued (millis)
+	 */
+	public void put(String clientId, String key, OAuth2AccessToken token, long issuedAt) {
+		if (token.getExpiration() == null) {
+			return;
+		}
+		long lifetime = token.getExpiration().getTime() - issuedAt;
+		CachedToken cached = new CachedToken(clientId, token, issuedAt + (long) (lifetime * reuseFraction));
+		synchronized (tokens) {
+			tokens.put(key, cached);
+		}
+	}
+
+	/**
+	 * Drop all the cached tokens of a client.
+	 *
+	 * @param clientId the client id
+	 */
+	public void invalidate(String clientId) {
+		int count = 0;
+		synchronized (tokens) {
+			for (Iterator<CachedToken> values = tokens.values().iterator(); values.hasNext();) {
+				if (clientId.equals(values.next().clientId)) {
+					values.remove();
+					count++;
+				}
+			}
+		}
+		if (count > 0) {
+			logger.debug("Removed " + count + " cached tokens of client: " + clientId);
+			invalidations.addAndGet(count);
+		}
+	}
+
+	@ManagedOperation(description = "Remove all cached tokens")
+	public void clear() {
+		synchronized (tokens) {
+			invalidations.addAndGet(tokens.size());
+			tokens.clear();
+		}
+	}
+
+	@Override
+	public void onApplicationEvent(AbstractClientAdminEvent event) {
+		if (event.getClient() != null) {
+			invalidate(event.getClient().getClientId());
+		}
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Token Cache Hits")
+	public int getHits() {
+		return hits.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Token Cache Misses")
+	public int getMisses() {
+		return misses.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Token Cache Invalidations")
+	public int getInvalidations() {
+		return invalidations.get();
+	}
+
+	@ManagedMetric(displayName = "Token Cache Size")
+	public int getSize() {
+		synchronized (tokens) {
+			return tokens.size();
+		}
+	}
+
+	private static class CachedToken {
+
+		private final String clientId;
+
+		private final OAuth2AccessToken token;
+
+		private final long reusableUntil;
+
+		public CachedToken(String clientId, OAuth2AccessToken token, long reusableUntil) {
+			this.clientId = clientId;
+			this.token = token;
+			this.reusableUntil = reusableUntil;
+		}
+
+	}
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+/**
+ * In-memory table of revocation epochs, so that token validation can tell whether a token was revoked without loading
+ * the user. A token is revoked if it was issued before the epoch of its user or its client. The epoch of a user is the
+ * time the user was last modified (e.g. a password change) or explicitly revoked, whichever is later, and the epoch of
+ * a client is the time its tokens were last revoked.
+ *
+ * <p>
+ * The table is replicated from the database by polling: only rows modified since the previous poll are read, with a
+ * small overlap to allow for clock skew between servers. Deleting or deactivating a user does not change its
+ * modification time, so the user provisioning {@link #revokeUser(String) revokes} the tokens of the user at the same
+ * time, and the revocation is replicated like any other. Changes are therefore visible after at most one poll
+ * interval, also on the server where they were made. Users deleted outside the UAA are only dropped from the table by
+ * the periodic reconciliation, which reads the ids of all the users. Users the table does not know about (e.g. before
+ * the first load) have no epoch, and callers are expected to fall back to a database lookup.
+ * </p>
+ *
+ * @see UaaTokenServices#setRevocationEpochs(RevocationEpochs)
+ */
+@ManagedResource
+public class RevocationEpochs implements InitializingBean, DisposableBean {
+
+	private static final String USER = "user";
+
+	private static final String CLIENT = "client";
+
+	private static final String USERS_SQL = "select id, lastModified, active from users";
+
+	private static final String MODIFIED_USERS_SQL = USERS_SQL + " where lastModified > ?";
+
+	private static final String REVOCATIONS_SQL = "select subject_type, subject_id, epoch from revocation_epochs where epoch > ?";
+
+	private static final String UPDATE_REVOCATION_SQL = "update revocation_epochs set epoch=? where subject_type=? and subject_id=? and epoch<?";
+
+	private static final String INSERT_REVOCATION_SQL = "insert into revocation_epochs (subject_type, subject_id, epoch) values (?,?,?)";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final ConcurrentMap<String, Long> userModified = new ConcurrentHashMap<String, Long>();
+
+	private final ConcurrentMap<String, Long> userRevocations = new ConcurrentHashMap<String, Long>();
+
+	private final ConcurrentMap<String, Long> clientRevocations = new ConcurrentHashMap<String, Long>();
+
+	private ClientTokenCache clientTokenCache;
+
+	private long pollInterval = 5000;
+
+	private long overlap = 10000;
+
+	private long reconcileInterval = 600000;
+
+	private long reconciledAt = 0;
+
+	private volatile boolean loaded = false;
+
+	private long usersPolledUntil = 0;
+
+	private long revocationsPolledUntil = 0;
+
+	private AtomicInteger polls = new AtomicInteger();
+
+	private AtomicInteger reloads = new AtomicInteger();
+
+	private AtomicInteger revocations = new AtomicInteger();
+
+	private ScheduledExecutorService pollExecutor;
+
+	public RevocationEpochs(JdbcTemplate jdbcTemplate) {
+		this.jdbcTemplate = jdbcTemplate;
+	}
+
+	/**
+	 * @param pollInterval the time (millis) between polls of the database (default 5000, 0 to disable polling)
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * @param overlap how far back (millis) each poll reaches before the previous one, to allow for clock skew between
+	 *        servers writing to the database (default 10000)
+	 */
+	public void setOverlap(long overlap) {
+		this.overlap = overlap;
+	}
+
+	/**
+	 * @param reconcileInterval the time (millis) between full reads of the users table, which drop users deleted
+	 *        without a revocation, e.g. directly in the database (default 600000)
+	 */
+	public void setReconcileInterval(long reconcileInterval) {
+		this.reconcileInterval = reconcileInterval;
+	}
+
+	/**
+	 * @param clientTokenCache a cache of client tokens to invalidate when the tokens of a client are revoked (optional)
+	 */
+	public void setClientTokenCache(ClientTokenCache clientTokenCache) {
+		this.clientTokenCache = clientTokenCache;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (pollInterval > 0) {
+			pollExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "revocation-epochs-poll");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			pollExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						poll();
+					}
+					catch (RuntimeException e) {
+						logger.warn("Could not poll revocation epochs: " + e.getMessage());
+					}
+				}
+			}, 0, pollInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if (pollExecutor != null) {
+			pollExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param userId the id of a user
+	 * @return the time (millis) before which tokens of the user are revoked, or null if the user is not known here
+	 *         (in which case the caller has to check the user some other way)
+	 */
+	public Long getUserEpoch(String userId) {
+		if (userId == null) {
+			return null;
+		}
+		Long modified = userModified.get(userId);
+		if (modified == null) {
+			return null;
+		}
+		Long revoked = userRevocations.get(userId);
+		return revoked != null && revoked > modified ? revoked : modified;
+	}
+
+	/**
+	 * @param userId the id of a user
+	 * @return the time (millis) the tokens of the user were explicitly revoked, or 0 if they never were
+	 */
+	public long getUserRevocation(String userId) {
+		Long revoked = userId == null ? null : userRevocations.get(userId);
+		return revoked != null ? revoked : 0;
+	}
+
+	/**
+	 * @param clientId the id of a client
+	 * @return the time (millis) before which tokens of the client are revoked, or 0 if they never were
+	 */
+	public long getClientEpoch(String clientId) {
+		Long revoked = clientId == null ? null : clientRevocations.get(clientId);
+		return revoked != null ? revoked : 0;
+	}
+
+	@ManagedOperation(description = "Revoke all the tokens issued so far for a user (by id)")
+	public void revokeUser(String userId) {
+		revoke(USER, userId);
+	}
+
+	@ManagedOperation(description = "Revoke all the tokens issued so far to a client")
+	public void revokeClient(String clientId) {
+		revoke(CLIENT, clientId);
+	}
+
+	private void revoke(String type, String id) {
+		long epoch = System.currentTimeMillis();
+		if (jdbcTemplate.update(UPDATE_REVOCATION_SQL, epoch, type, id, epoch) == 0) {
+			try {
+				jdbcTemplate.update(INSERT_REVOCATION_SQL, type, id, epoch);
+			}
+			catch (RuntimeException e) {
+				// Lost a race with another server revoking the same tokens: it set an epoch at least as recent
+				logger.debug("Revocation epoch for " + type + " " + id + " already recorded: " + e.getMessage());
+			}
+		}
+		revocations.incrementAndGet();
+		apply(type, id, epoch);
+	}
+
+	/**
+	 * Bring the table up to date with the database.
+	 */
+	@ManagedOperation(description = "Poll the database for new revocation epochs now")
+	public synchronized void poll() {
+		long now = System.currentTimeMillis();
+		if (!loaded || now - reconciledAt >= reconcileInterval) {
+			reload(now);
+			return;
+		}
+		jdbcTemplate.query(MODIFIED_USERS_SQL, new UserCallback(null), new Timestamp(usersPolledUntil - overlap));
+		usersPolledUntil = now;
+		pollRevocations(now);
+		polls.incrementAndGet();
+	}
+
+	/**
+	 * Read the whole users table and drop the users that are no longer there.
+	 */
+	@ManagedOperation(description = "Read all the users now, dropping the ones deleted without a revocation")
+	public synchronized void reconcile() {
+		reload(System.currentTimeMillis());
+	}
+
+	private void reload(long now) {
+		long start = System.currentTimeMillis();
+		// Entries are replaced in place rather than cleared first, so that lookups never see an empty table
+		Set<String> seen = new HashSet<String>();
+		jdbcTemplate.query(USERS_SQL, new UserCallback(seen));
+		userModified.keySet().retainAll(seen);
+		usersPolledUntil = now;
+		reconciledAt = now;
+		pollRevocations(now);
+		loaded = true;
+		reloads.incrementAndGet();
+		logger.info("Loaded revocation epochs for " + userModified.size() + " users in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private void pollRevocations(long now) {
+		jdbcTemplate.query(REVOCATIONS_SQL, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				apply(rs.getString(1), rs.getString(2), rs.getLong(3));
+			}
+		}, revocationsPolledUntil - overlap);
+		revocationsPolledUntil = now;
+	}
+
+	private void apply(String type, String id, long epoch) {
+		if (CLIENT.equals(type)) {
+			if (increase(clientRevocations, id, epoch) && clientTokenCache != null) {
+				clientTokenCache.invalidate(id);
+			}
+		}
+		else if (USER.equals(type)) {
+			increase(userRevocations, id, epoch);
+		}
+	}
+
+	/**
+	 * Raise the epoch for a key, never lower it.
+	 *
+	 * @return true if the epoch changed
+	 */
+	private static boolean increase(ConcurrentMap<String, Long> epochs, String key, long epoch) {
+		while (true) {
+			Long current = epochs.get(key);
+			if (current == null) {
+				if (epochs.putIfAbsent(key, epoch) == null) {
+					return true;
+				}
+			}
+			else if (current >= epoch) {
+				return false;
+			}
+			else if (epochs.replace(key, current, epoch)) {
+				return true;
+			}
+		}
+	}
+
+	private class UserCallback implements RowCallbackHandler {
+
+		private final Set<String> seen;
+
+		/**
+		 * @param seen collects the ids of the active users read (optional)
+		 */
+		public UserCallback(Set<String> seen) {
+			this.seen = seen;
+		}
+
+		@Override
+		public void processRow(ResultSet rs) throws SQLException {
+			String id = rs.getString(1);
+			if (!rs.getBoolean(3)) {
+				userModified.remove(id);
+				return;
+			}
+			if (seen != null) {
+				seen.add(id);
+			}
+			Timestamp modified = rs.getTimestamp(2);
+			userModified.put(id, modified != null ? modified.getTime() : 0L);
+		}
+	}
+
+	@ManagedMetric(displayName = "Users Tracked")
+	public int getUserCount() {
+		return userModified.size();
+	}
+
+	@ManagedMetric(displayName = "Revoked Clients")
+	public int getRevokedClientCount() {
+		return clientRevocations.size();
+	}
+
+	@ManagedMetric(displayName = "Revoked Users")
+	public int getRevokedUserCount() {
+		return userRevocations.size();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Revocations")
+	public int getRevocations() {
+		return revocations.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Revocation Epoch Polls")
+	public int getPolls() {
+		return polls.get();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Revocation Epoch Reloads")
+	public int getReloads() {
+		return reloads.get();
+	}
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.identity.uaa.metrics.LatencyHistogram;
+import org.cloudfoundry.identity.uaa.metrics.MetricsSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedMetric;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.support.MetricType;
+
+/**
+ * Counters and latency histograms for the token services: how many tokens are issued per grant type, and how long it
+ * takes to issue, refresh, read and load tokens, with a breakdown of the time spent in the database, signing or
+ * verifying and reading or writing JSON. All latencies are in microseconds.
+ *
+ * <p>
+ * An operation is timed with a {@link Sample} obtained from {@link #start(Operation)}, and the phases inside it are
+ * attributed with {@link #record(Phase, long)} on the same thread, so the code in between does not need to pass the
+ * sample around.
+ * </p>
+ *
+ * @see UaaTokenServices#setMetrics(TokenMetrics)
+ */
+@ManagedResource
+public class TokenMetrics implements MetricsSource {
+
+	public static enum Operation {
+		CREATE("createAccessToken"), REFRESH("refreshAccessToken"), READ("readAccessToken"), LOAD(
+				"loadAuthentication");
+
+		private final String name;
+
+		private Operation(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	public static enum Phase {
+		DB("db"), SIGNING("signing"), JSON("json");
+
+		private final String name;
+
+		private Phase(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<Operation, LatencyHistogram>(
+			Operation.class);
+
+	private final Map<Operation, LatencyHistogram[]> phaseLatencies = new EnumMap<Operation, LatencyHistogram[]>(
+			Operation.class);
+
+	private final Map<Operation, AtomicInteger> failures = new EnumMap<Operation, AtomicInteger>(Operation.class);
+
+	private final ConcurrentMap<String, AtomicInteger> issued = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final ConcurrentMap<String, AtomicInteger> cached = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private final ThreadLocal<Sample> current = new ThreadLocal<Sample>();
+
+	public TokenMetrics() {
+		for (Operation operation : Operation.values()) {
+			latencies.put(operation, new LatencyHistogram());
+			LatencyHistogram[] phases = new LatencyHistogram[PHASES.length];
+			for (int i = 0; i < phases.length; i++) {
+				phases[i] = new LatencyHistogram();
+			}
+			phaseLatencies.put(operation, phases);
+			failures.put(operation, new AtomicInteger());
+		}
+	}
+
+	/**
+	 * Start timing an operation on the current thread. The caller must {@link Sample#stop(boolean) stop} the sample
+	 * on the same thread, usually in a finally block.
+	 *
+	 * @param operation the operation to time
+	 * @return the new sample
+	 */
+	public Sample start(Operation operation) {
+		Sample sample = new Sample(operation, current.get());
+		current.set(sample);
+		return sample;
+	}
+
+	/**
+	 * Attribute the time since <code>startNanos</code> to a phase of the operation running on the current thread (if
+	 * any).
+	 *
+	 * @param phase the phase
+	 * @param startNanos the start of the phase, from {@link System#nanoTime()}
+	 */
+	public void record(Phase phase, long startNanos) {
+		Sample sample = current.get();
+		if (sample != null) {
+			sample.phases[phase.ordinal()] += System.nanoTime() - startNanos;
+		}
+	}
+
+	/**
+	 * Count an access token issued with the given grant type.
+	 *
+	 * @param grantType the grant type (may be null)
+	 */
+	public void issued(String grantType) {
+		increment(issued, grantType);
+	}
+
+	/**
+	 * Count an access token served from the client token cache instead of being issued.
+	 *
+	 * @param grantType the grant type (may be null)
+	 */
+	public void cached(String grantType) {
+		increment(cached, grantType);
+	}
+
+	private void increment(ConcurrentMap<String, AtomicInteger> counters, String grantType) {
+		String key = grantType == null ? "unknown" : grantType;
+		AtomicInteger counter = counters.get(key);
+		if (counter == null) {
+			AtomicInteger existing = counters.putIfAbsent(key, counter = new AtomicInteger());
+			if (existing != null) {
+				counter = existing;
+			}
+		}
+		counter.incrementAndGet();
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Access Tokens Created")
+	public long getCreateCount() {
+		return latencies.get(Operation.CREATE).getCount();
+	}
+
+	@ManagedMetric(displayName = "Access Token Creation 99th Percentile (micros)")
+	public long getCreateLatency99() {
+		return latencies.get(Operation.CREATE).getPercentile(99);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Access Tokens Refreshed")
+	public long getRefreshCount() {
+		return latencies.get(Operation.REFRESH).getCount();
+	}
+
+	@ManagedMetric(displayName = "Access Token Refresh 99th Percentile (micros)")
+	public long getRefreshLatency99() {
+		return latencies.get(Operation.REFRESH).getPercentile(99);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Access Tokens Read")
+	public long getReadCount() {
+		return latencies.get(Operation.READ).getCount();
+	}
+
+	@ManagedMetric(displayName = "Access Token Read 99th Percentile (micros)")
+	public long getReadLatency99() {
+		return latencies.get(Operation.READ).getPercentile(99);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Authentications Loaded")
+	public long getLoadCount() {
+		return latencies.get(Operation.LOAD).getCount();
+	}
+
+	@ManagedMetric(displayName = "Authentication Load 99th Percentile (micros)")
+	public long getLoadLatency99() {
+		return latencies.get(Operation.LOAD).getPercentile(99);
+	}
+
+	@ManagedMetric(metricType = MetricType.COUNTER, displayName = "Failed Token Operations")
+	public int getFailureCount() {
+		int count = 0;
+		for (AtomicInteger value : failures.values()) {
+			count += value.get();
+		}
+		return count;
+	}
+
+	@ManagedAttribute(description = "Access tokens issued per grant type")
+	public Map<String, Integer> getIssuedByGrantType() {
+		return counts(issued);
+	}
+
+	@ManagedAttribute(description = "Access tokens served from the client token cache per grant type")
+	public Map<String, Integer> getCachedByGrantType() {
+		return counts(cached);
+	}
+
+	private Map<String, Integer> counts(Map<String, AtomicInteger> counters) {
+		Map<String, Integer> result = new TreeMap<String, Integer>();
+		for (Map.Entry<String, AtomicInteger> entry : counters.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().get());
+		}
+		return result;
+	}
+
+	@ManagedAttribute(description = "Latency summaries (micros) per operation, with a breakdown per phase")
+	public Map<String, Map<String, Object>> getLatencies() {
+		Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+		for (Operation operation : Operation.values()) {
+			Map<String, Object> summary = new LinkedHashMap<String, Object>(latencies.get(operation).snapshot());
+			summary.put("failures", failures.get(operation).get());
+			LatencyHistogram[] phases = phaseLatencies.get(operation);
+			for (int i = 0; i < phases.length; i++) {
+				summary.put(PHASES[i].toString(), phases[i].snapshot());
+			}
+			result.put(operation.toString(), summary);
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, ?> getMetrics() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("issued", getIssuedByGrantType());
+		result.put("cached", getCachedByGrantType());
+		result.put("latencies", getLatencies());
+		return result;
+	}
+
+	@ManagedOperation(description = "Reset all the token counters and latency histograms")
+	public void reset() {
+		for (Operation operation : Operation.values()) {
+			latencies.get(operation).reset();
+			for (LatencyHistogram phase : phaseLatencies.get(operation)) {
+				phase.reset();
+			}
+			failures.get(operation).set(0);
+		}
+		issued.clear();
+		cached.clear();
+	}
+
+	/**
+	 * The timing of a single operation in progress.
+	 */
+	public final class Sample {
+
+		private final Operation operation;
+
+		private final Sample outer;
+
+		private final long start = System.nanoTime();
+
+		private final long[] phases = new long[PHASES.length];
+
+		private Sample(Operation operation, Sample outer) {
+			this.operation = operation;
+			this.outer = outer;
+		}
+
+		/**
+		 * Record the latency of the operation and of its phases.
+		 *
+		 * @param success false if the operation failed (failures are counted separately but timed all the same)
+		 */
+		public void stop(boolean success) {
+			if (outer == null) {
+				current.remove();
+			}
+			else {
+				current.set(outer);
+			}
+			latencies.get(operation).record(System.nanoTime() - start);
+			LatencyHistogram[] histograms = phaseLatencies.get(operation);
+			for (int i = 0; i < phases.length; i++) {
+				histograms[i].record(phases[i]);
+			}
+			if (!success) {
+				failures.get(operation).incrementAndGet();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import org.cloudfoundry.identity.uaa.oauth.TokenClaims;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+
+/**
+ * The outcome of validating a single access token: either the token and its verified claims or the reason it was
+ * rejected.
+ */
+public class TokenValidation {
+
+	private final String value;
+
+	private final OAuth2AccessToken token;
+
+	private final TokenClaims claims;
+
+	private final InvalidTokenException error;
+
+	private TokenValidation(String value, OAuth2AccessToken token, TokenClaims claims,
+			InvalidTokenException error) {
+		this.value = value;
+		this.token = token;
+		this.claims = claims;
+		this.error = error;
+	}
+
+	public static TokenValidation valid(OAuth2AccessToken token, TokenClaims claims) {
+		return new TokenValidation(token.getValue(), token, claims, null);
+	}
+
+	public static TokenValidation invalid(String value, InvalidTokenException error) {
+		return new TokenValidation(value, null, null, error);
+	}
+
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * @return the raw token value
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the token if it was valid, otherwise null
+	 */
+	public OAuth2AccessToken getToken() {
+		return token;
+	}
+
+	/**
+	 * @return the verified claims of a valid token, otherwise null
+	 */
+	public TokenClaims getClaims() {
+		return claims;
+	}
+
+	/**
+	 * @return the reason the token was rejected, or null if it was valid
+	 */
+	public InvalidTokenException getError() {
+		return error;
+	}
+
+}
@@ -30,6 +30,7 @@ import static org.cloudfoundry.identity.uaa.oauth.Claims.USER_NAME;
 
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -45,19 +46,22 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthentication;
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
+import org.cloudfoundry.identity.uaa.oauth.TokenClaims;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
 import org.cloudfoundry.identity.uaa.oauth.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.token.TokenMetrics.Operation;
+import org.cloudfoundry.identity.uaa.oauth.token.TokenMetrics.Phase;
 import org.cloudfoundry.identity.uaa.user.UaaAuthority;
 import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.type.TypeReference;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.jwt.Jwt;
 import org.springframework.security.jwt.JwtHelper;
 import org.springframework.security.oauth2.common.DefaultExpiringOAuth2RefreshToken;
@@ -89,9 +93,9 @@ import org.springframework.util.StringUtils;
 public class UaaTokenServices implements AuthorizationServerTokenServices, ResourceServerTokenServices,
 		InitializingBean {
 
-	private int refreshTokenValiditySeconds = 60 * 60 * 24 * 30; // default 30 days.
+	private volatile int refreshTokenValiditySeconds = 60 * 60 * 24 * 30; // default 30 days.
 
-	private int accessTokenValiditySeconds = 60 * 60 * 12; // default 12 hours.
+	private volatile int accessTokenValiditySeconds = 60 * 60 * 12; // default 12 hours.
 
 	private final Log logger = LogFactory.getLog(getClass());
 
@@ -109,9 +113,29 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
 	private ApprovalStore approvalStore = null;
 
+	private ClientTokenCache clientTokenCache = null;
+
+	private RevocationEpochs revocationEpochs = null;
+
+	private TokenMetrics metrics = new TokenMetrics();
+
 	@Override
 	public OAuth2AccessToken refreshAccessToken(String refreshTokenValue, AuthorizationRequest request)
 			throws AuthenticationException {
+		TokenMetrics.Sample sample = metrics.start(Operation.REFRESH);
+		boolean success = false;
+		try {
+			OAuth2AccessToken accessToken = doRefreshAccessToken(refreshTokenValue, request);
+			metrics.issued("refresh_token");
+			success = true;
+			return accessToken;
+		}
+		finally {
+			sample.stop(success);
+		}
+	}
+
+	private OAuth2AccessToken doRefreshAccessToken(String refreshTokenValue, AuthorizationRequest request) {
 
 		if (null == refreshTokenValue) {
 			throw new InvalidTokenException("Invalid refresh token (empty token)");
@@ -122,7 +146,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 					+ request.getAuthorizationParameters().get("grant_type"));
 		}
 
-		Map<String, Object> claims = getClaimsForToken(refreshTokenValue);
+		TokenClaims claims = getClaimsForToken(refreshTokenValue);
 
 		// TODO: Should reuse the access token you get after the first successful authentication.
 		// You will get an invalid_grant error if your previous token has not expired yet.
@@ -131,18 +155,23 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		// throw new InvalidGrantException("Invalid refresh token: " + refreshTokenValue);
 		// }
 
-		String clientId = (String) claims.get(CID);
+		String clientId = claims.getCid();
 		if (clientId == null || !clientId.equals(request.getClientId())) {
 			throw new InvalidGrantException("Wrong client for this refresh token: " + refreshTokenValue);
 		}
 
-		String username = (String) claims.get(USER_NAME);
-
-		// TODO: Need to add a lookup by id so that the refresh token does not need to contain a name
-		UaaUser user = userDatabase.retrieveUserByName(username);
+		// Older refresh tokens only have the user id in the subject
+		String userId = claims.getUserId() != null ? claims.getUserId() : claims.getSub();
+		UaaUser user;
+		try {
+			user = loadUserById(userId);
+		}
+		catch (UsernameNotFoundException e) {
+			throw new InvalidTokenException("Invalid refresh token (user not found): " + refreshTokenValue);
+		}
+		String username = user.getUsername();
 
-		Integer refreshTokenIssuedAt = (Integer) claims.get(IAT);
-		long refreshTokenIssueDate = refreshTokenIssuedAt.longValue() * 1000l;
+		long refreshTokenIssueDate = claims.getIat() * 1000l;
 
 		// If the user changed their password, expire the refresh token
 		if (user.getModified().after(new Date(refreshTokenIssueDate))) {
@@ -151,16 +180,16 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 			throw new InvalidTokenException("Invalid refresh token (password changed): " + refreshTokenValue);
 		}
 
-		Integer refreshTokenExpiry = (Integer) claims.get(EXP);
-		long refreshTokenExpireDate = refreshTokenExpiry.longValue() * 1000l;
+		checkRevocation(clientId, user.getId(), refreshTokenIssueDate, refreshTokenValue);
+
+		long refreshTokenExpireDate = claims.getExp() * 1000l;
 
 		if (new Date(refreshTokenExpireDate).before(new Date())) {
 			throw new InvalidTokenException("Invalid refresh token (expired): " + refreshTokenValue + " expired at "
 					+ new Date(refreshTokenExpireDate));
 		}
 
-		@SuppressWarnings("unchecked")
-		ArrayList<String> tokenScopes = (ArrayList<String>) claims.get(SCOPE);
+		Set<String> tokenScopes = claims.getScope();
 
 		// default request scopes to what is in the refresh token
 		Set<String> requestedScopes = request.getScope();
@@ -176,8 +205,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
 		// from this point on, we only care about the scopes requested, not what is in the refresh token
 		// ensure all requested scopes are approved: either automatically or explicitly by the user
-		ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
-		String grantType = claims.get(GRANT_TYPE).toString();
+		ClientDetails client = loadClient(clientId);
+		String grantType = claims.getGrantType();
 		checkForApproval(username, clientId, requestedScopes,
 								getAutoApprovedScopes(grantType, tokenScopes, client),
 								new Date(refreshTokenIssueDate));
@@ -185,8 +214,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		// if we have reached so far, issue an access token
 		Integer validity = client.getAccessTokenValiditySeconds();
 
-		@SuppressWarnings("unchecked")
-		Map<String, String> additionalAuthorizationInfo = (Map<String, String>) claims.get(ADDITIONAL_AZ_ATTR);
+		Map<String, String> additionalAuthorizationInfo = claims.getAdditionalAuthorizationAttributes();
 
 		OAuth2AccessToken accessToken = createAccessToken(user.getId(), user.getUsername(), user.getEmail(),
 				validity != null ? validity.intValue() : accessTokenValiditySeconds, null, requestedScopes, clientId,
@@ -196,12 +224,15 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 	}
 
 	private void checkForApproval (String username, String clientId, Collection<String> requestedScopes, Collection<String> autoApprovedScopes, Date updateCutOff) {
+		checkForApproval(loadApprovals(username, clientId), requestedScopes, autoApprovedScopes, updateCutOff);
+	}
+
+	private void checkForApproval (List<Approval> approvals, Collection<String> requestedScopes, Collection<String> autoApprovedScopes, Date updateCutOff) {
 		Set<String> approvedScopes = new HashSet<String>();
 		approvedScopes.addAll(autoApprovedScopes);
 
 		// Search through the users approvals for scopes that are requested, not auto approved, not expired,
 		// not DENIED and not approved more recently than when this access token was issued.
-		List<Approval> approvals = approvalStore.getApprovals(username, clientId);
 		for (Approval approval : approvals) {
 			if (requestedScopes.contains(approval.getScope()) && approval.getStatus() == ApprovalStatus.APPROVED) {
 				if (!approval.isCurrentlyActive()) {
@@ -253,6 +284,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		accessToken.setAdditionalInformation(info);
 
 		String content;
+		long start = System.nanoTime();
 		try {
 			content = mapper.writeValueAsString(createJWTAccessToken(accessToken, userId, username, userEmail,
 					clientScopes, requestedScopes, clientId, resourceIds, grantType, refreshToken));
@@ -260,7 +292,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		catch (Exception e) {
 			throw new IllegalStateException("Cannot convert access token to JSON", e);
 		}
-		String token = JwtHelper.encode(content, signerProvider.getSigner()).getEncoded();
+		metrics.record(Phase.JSON, start);
+		String token = encode(content);
 
 		// This setter copies the value and returns. Don't change.
 		accessToken = accessToken.setValue(token);
@@ -315,6 +348,19 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
 	@Override
 	public OAuth2AccessToken createAccessToken(OAuth2Authentication authentication) throws AuthenticationException {
+		TokenMetrics.Sample sample = metrics.start(Operation.CREATE);
+		boolean success = false;
+		try {
+			OAuth2AccessToken accessToken = doCreateAccessToken(authentication);
+			success = true;
+			return accessToken;
+		}
+		finally {
+			sample.stop(success);
+		}
+	}
+
+	private OAuth2AccessToken doCreateAccessToken(OAuth2Authentication authentication) {
 
 		OAuth2RefreshToken refreshToken = createRefreshToken(authentication);
 
@@ -325,12 +371,12 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		Collection<GrantedAuthority> clientScopes = null;
 		// Clients should really by different kinds of users
 		if (authentication.isClientOnly()) {
-			ClientDetails client = clientDetailsService.loadClientByClientId(authentication.getName());
+			ClientDetails client = loadClient(authentication.getName());
 			userId = client.getClientId();
 			clientScopes = client.getAuthorities();
 		}
 		else {
-			UaaUser user = userDatabase.retrieveUserByName(authentication.getName());
+			UaaUser user = loadUser(authentication.getName());
 			userId = user.getId();
 			username = user.getUsername();
 			userEmail = user.getEmail();
@@ -351,13 +397,34 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		Map<String, String> additionalAuthorizationAttributes = getAdditionalAuthorizationAttributes(authentication
 				.getAuthorizationRequest().getAuthorizationParameters().get("authorities"));
 
-		ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
+		ClientDetails client = loadClient(clientId);
 		Integer validity = client.getAccessTokenValiditySeconds();
+		Set<String> resourceIds = authentication.getAuthorizationRequest().getResourceIds();
+
+		// Clients that opted in get their previous token back for an identical request
+		String cacheKey = null;
+		if (clientTokenCache != null && authentication.isClientOnly() && "client_credentials".equals(grantType)
+				&& clientTokenCache.isEnabled(client)) {
+			cacheKey = clientTokenCache.getKey(client, modifiableUserScopes, resourceIds,
+					additionalAuthorizationAttributes);
+			OAuth2AccessToken cached = clientTokenCache.get(cacheKey);
+			if (cached != null) {
+				metrics.cached(grantType);
+				return cached;
+			}
+		}
 
+		long issuedAt = System.currentTimeMillis();
 		OAuth2AccessToken accessToken = createAccessToken(userId, username, userEmail,
 				validity != null ? validity.intValue() : accessTokenValiditySeconds, clientScopes, modifiableUserScopes,
-				clientId, authentication.getAuthorizationRequest().getResourceIds(), grantType,
-				refreshToken != null ? refreshToken.getValue() : null, additionalAuthorizationAttributes);
+				clientId, resourceIds, grantType, refreshToken != null ? refreshToken.getValue() : null,
+				additionalAuthorizationAttributes);
+
+		metrics.issued(grantType);
+
+		if (cacheKey != null) {
+			clientTokenCache.put(clientId, cacheKey, accessToken, issuedAt);
+		}
 
 		return accessToken;
 
@@ -374,7 +441,9 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		if (StringUtils.hasLength(authoritiesJson)) {
 			Map authorities = null;
 			try {
+				long start = System.nanoTime();
 				authorities = mapper.readValue(authoritiesJson.getBytes(), Map.class);
+				metrics.record(Phase.JSON, start);
 				@SuppressWarnings("unchecked")
 				Map<String, String> additionalAuthorizationAttributes = (Map<String, String>) authorities
 						.get("az_attr");
@@ -403,9 +472,10 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		ExpiringOAuth2RefreshToken token = new DefaultExpiringOAuth2RefreshToken(UUID.randomUUID().toString(),
 				new Date(System.currentTimeMillis() + (validitySeconds * 1000L)));
 
-		UaaUser user = userDatabase.retrieveUserByName(((Principal) authentication.getPrincipal()).getName());
+		UaaUser user = loadUser(((Principal) authentication.getPrincipal()).getName());
 
 		String content;
+		long start = System.nanoTime();
 		try {
 			content = mapper.writeValueAsString(createJWTRefreshToken(token, user, authentication
 					.getAuthorizationRequest().getScope(), authentication.getAuthorizationRequest().getClientId(), grantType, additionalAuthorizationAttributes));
@@ -413,7 +483,8 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		catch (Exception e) {
 			throw new IllegalStateException("Cannot convert access token to JSON", e);
 		}
-		String jwtToken = JwtHelper.encode(content, signerProvider.getSigner()).getEncoded();
+		metrics.record(Phase.JSON, start);
+		String jwtToken = encode(content);
 
 		ExpiringOAuth2RefreshToken refreshToken = new DefaultExpiringOAuth2RefreshToken(jwtToken, token.getExpiration());
 
@@ -447,6 +518,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 			response.put(GRANT_TYPE, grantType);
 		}
 		if (!"client_credentials".equals(grantType)) {
+			response.put(USER_ID, user.getId());
 			response.put(USER_NAME, user.getUsername());
 		}
 
@@ -471,7 +543,7 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 	 * @return the refresh token validity period in seconds
 	 */
 	protected int getRefreshTokenValiditySeconds(AuthorizationRequest authorizationRequest) {
-		ClientDetails client = clientDetailsService.loadClientByClientId(authorizationRequest.getClientId());
+		ClientDetails client = loadClient(authorizationRequest.getClientId());
 		Integer validity = client.getRefreshTokenValiditySeconds();
 		if (validity != null) {
 			return validity;
@@ -492,35 +564,43 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 
 	@Override
 	public OAuth2Authentication loadAuthentication(String accessToken) throws AuthenticationException {
-		Map<String, Object> claims = getClaimsForToken(accessToken);
+		TokenMetrics.Sample sample = metrics.start(Operation.LOAD);
+		boolean success = false;
+		try {
+			OAuth2Authentication authentication = doLoadAuthentication(accessToken);
+			success = true;
+			return authentication;
+		}
+		finally {
+			sample.stop(success);
+		}
+	}
 
-		@SuppressWarnings("unchecked")
-		ArrayList<String> scopes = (ArrayList<String>) claims.get(SCOPE);
+	private OAuth2Authentication doLoadAuthentication(String accessToken) {
+		TokenClaims claims = getClaimsForToken(accessToken);
 
-		AuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest((String) claims.get(CLIENT_ID),
-				scopes);
+		// Cheap in-memory check, no database access on this path
+		String userId = claims.getEmail() != null ? claims.getUserId() : null;
+		checkRevocation(claims.getClientId(), userId, claims.getIat() * 1000l, accessToken);
+
+		AuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest(claims.getClientId(),
+				claims.getScope());
 		((DefaultAuthorizationRequest) authorizationRequest).setResourceIds(null);
 		((DefaultAuthorizationRequest) authorizationRequest).setApproved(true);
 
 		Collection<? extends GrantedAuthority> authorities = AuthorityUtils
 				.commaSeparatedStringToAuthorityList(StringUtils
 						.collectionToCommaDelimitedString(defaultUserAuthorities));
-		if (claims.containsKey("authorities")) {
-			Object authoritiesFromClaims = claims.get("authorities");
-			if (authoritiesFromClaims instanceof String) {
-				authorities = AuthorityUtils.commaSeparatedStringToAuthorityList((String) authoritiesFromClaims);
-			}
-			if (authoritiesFromClaims instanceof Collection) {
-				authorities = AuthorityUtils.commaSeparatedStringToAuthorityList(StringUtils
-						.collectionToCommaDelimitedString((Collection<?>) authoritiesFromClaims));
-			}
+		if (claims.getAuthorities() != null) {
+			authorities = AuthorityUtils.createAuthorityList(claims.getAuthorities().toArray(
+					new String[claims.getAuthorities().size()]));
 		}
 
 		Authentication userAuthentication = null;
 		// Is this a user token?
-		if (claims.containsKey(EMAIL)) {
-			UaaUser user = new UaaUser((String) claims.get(USER_ID), (String) claims.get(USER_NAME), null,
-					(String) claims.get(EMAIL), UaaAuthority.USER_AUTHORITIES, null, null, null, null);
+		if (claims.getEmail() != null) {
+			UaaUser user = new UaaUser(claims.getUserId(), claims.getUserName(), null, claims.getEmail(),
+					UaaAuthority.USER_AUTHORITIES, null, null, null, null);
 
 			UaaPrincipal principal = new UaaPrincipal(user);
 			userAuthentication = new UaaAuthentication(principal, UaaAuthority.USER_AUTHORITIES, null);
@@ -539,57 +619,180 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 	 */
 	@Override
 	public OAuth2AccessToken readAccessToken(String accessToken) {
-		Map<String, Object> claims = getClaimsForToken(accessToken);
+		TokenMetrics.Sample sample = metrics.start(Operation.READ);
+		boolean success = false;
+		try {
+			OAuth2AccessToken token = readAccessToken(accessToken, getClaimsForToken(accessToken), new Lookups());
+			success = true;
+			return token;
+		}
+		finally {
+			sample.stop(success);
+		}
+	}
 
+	/**
+	 * Decode, verify and validate an access token in a single pass, including the expiry check. Unlike
+	 * {@link #readAccessToken(String)} the verified claims are returned along with the outcome, so callers do not
+	 * need to decode the token again, and an invalid token is reported in the result instead of being thrown.
+	 *
+	 * @param accessToken the token value
+	 * @return the validation result
+	 */
+	public TokenValidation validateToken(String accessToken) {
+		return validateToken(accessToken, new Lookups());
+	}
+
+	/**
+	 * Validate a batch of access tokens, as {@link #validateToken(String)} does for a single one. The user, client
+	 * and approval lookups are shared across the batch, so tokens that belong to the same user or client only load
+	 * them once, and the users of all the tokens are loaded together up front.
+	 *
+	 * @param accessTokens the token values
+	 * @return the validation results, one per token and in the same order
+	 */
+	public List<TokenValidation> readAccessTokens(List<String> accessTokens) {
+		Lookups lookups = new Lookups();
+		List<TokenClaims> claims = new ArrayList<TokenClaims>(accessTokens.size());
+		Set<String> userIds = new HashSet<String>();
+		for (String accessToken : accessTokens) {
+			TokenClaims tokenClaims = null;
+			try {
+				tokenClaims = getClaimsForToken(accessToken);
+				if (null != tokenClaims.getEmail() && (revocationEpochs == null
+						|| revocationEpochs.getUserEpoch(tokenClaims.getUserId()) == null)) {
+					userIds.add(tokenClaims.getUserId());
+				}
+			}
+			catch (InvalidTokenException e) {
+				// Reported when the token is validated below
+			}
+			claims.add(tokenClaims);
+		}
+		lookups.loadUsers(userIds);
+
+		List<TokenValidation> result = new ArrayList<TokenValidation>(accessTokens.size());
+		for (int i = 0; i < accessTokens.size(); i++) {
+			result.add(validateToken(accessTokens.get(i), claims.get(i), lookups));
+		}
+		return result;
+	}
+
+	private TokenValidation validateToken(String accessToken, Lookups lookups) {
+		return validateToken(accessToken, null, lookups);
+	}
+
+	private TokenValidation validateToken(String accessToken, TokenClaims claims, Lookups lookups) {
+		TokenMetrics.Sample sample = metrics.start(Operation.READ);
+		TokenValidation validation = null;
+		try {
+			validation = doValidateToken(accessToken, claims, lookups);
+			return validation;
+		}
+		finally {
+			sample.stop(validation != null && validation.isValid());
+		}
+	}
+
+	private TokenValidation doValidateToken(String accessToken, TokenClaims claims, Lookups lookups) {
+		try {
+			if (claims == null) {
+				claims = getClaimsForToken(accessToken);
+			}
+			OAuth2AccessToken token = readAccessToken(accessToken, claims, lookups);
+			if (token.isExpired()) {
+				return TokenValidation.invalid(accessToken, new InvalidTokenException("Token has expired"));
+			}
+			return TokenValidation.valid(token, claims);
+		}
+		catch (InvalidTokenException e) {
+			return TokenValidation.invalid(accessToken, e);
+		}
+		catch (UsernameNotFoundException e) {
+			return TokenValidation.invalid(accessToken, new InvalidTokenException(
+					"Invalid access token (user not found): " + accessToken));
+		}
+	}
+
+	private OAuth2AccessToken readAccessToken(String accessToken, TokenClaims claims, Lookups lookups) {
 		// Expiry is verified by check_token
 		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken(accessToken);
 		token.setTokenType(OAuth2AccessToken.BEARER_TYPE);
-		Integer exp = (Integer) claims.get(EXP);
-		if (null != exp) {
-			token.setExpiration(new Date(exp.longValue() * 1000l));
+		if (0 != claims.getExp()) {
+			token.setExpiration(new Date(claims.getExp() * 1000l));
 		}
 
-		@SuppressWarnings("unchecked")
-		ArrayList<String> scopes = (ArrayList<String>) claims.get(SCOPE);
-		if (null != scopes && scopes.size() > 0) {
-			token.setScope(new HashSet<String>(scopes));
+		Set<String> tokenScopes = claims.getScope();
+		if (tokenScopes.size() > 0) {
+			token.setScope(tokenScopes);
 		}
 
-		String email = (String) claims.get(EMAIL);
-
-		// Only check user access tokens
-		if (null != email) {
-			String username = (String) claims.get(USER_NAME);
+		long accessTokenIssueDate = claims.getIat() * 1000l;
+		boolean userToken = null != claims.getEmail();
 
-			UaaUser user = userDatabase.retrieveUserByName(username);
+		checkRevocation(claims.getClientId(), userToken ? claims.getUserId() : null, accessTokenIssueDate,
+				accessToken);
 
-			Integer accessTokenIssuedAt = (Integer) claims.get(IAT);
-			long accessTokenIssueDate = accessTokenIssuedAt.longValue() * 1000l;
-
-			// If the user changed their password, expire the access token
-			if (user.getModified().after(new Date(accessTokenIssueDate))) {
-				logger.debug("User was last modified at " + user.getModified() + " access token was issued at "
-						+ new Date(accessTokenIssueDate));
-				throw new InvalidTokenException("Invalid access token (password changed): " + accessToken);
+		// Only check user access tokens
+		if (userToken) {
+			String username = claims.getUserName();
+			String userId = claims.getUserId();
+
+			// If the revocation epochs don't know when the user was last modified, load the user and expire the
+			// access token if they changed their password
+			if (revocationEpochs == null || revocationEpochs.getUserEpoch(userId) == null) {
+				Date lastModified = lookups.getUser(userId).getModified();
+				if (lastModified.after(new Date(accessTokenIssueDate))) {
+					logger.debug("User was last modified at " + lastModified + " access token was issued at "
+							+ new Date(accessTokenIssueDate));
+					throw new InvalidTokenException("Invalid access token (password changed): " + accessToken);
+				}
 			}
 
 			// Check approvals to make sure they're all valid, approved and not more recent
 			// than the token itself
-			String clientId = (String) claims.get(CLIENT_ID);
-			ClientDetails client = clientDetailsService.loadClientByClientId(clientId);
+			String clientId = claims.getClientId();
+			ClientDetails client = lookups.getClient(clientId);
 
-			@SuppressWarnings("unchecked")
-			ArrayList<String> tokenScopes = (ArrayList<String>) claims.get(SCOPE);
-			Set<String> autoApprovedScopes = getAutoApprovedScopes(claims.get(GRANT_TYPE), tokenScopes, client);
+			Set<String> autoApprovedScopes = getAutoApprovedScopes(claims.getGrantType(), tokenScopes, client);
 			if (autoApprovedScopes.containsAll(tokenScopes)) {
 				return token;
 			}
-			checkForApproval(username, clientId, tokenScopes, autoApprovedScopes, new Date(accessTokenIssueDate));
+			checkForApproval(lookups.getApprovals(username, clientId), tokenScopes, autoApprovedScopes, new Date(
+					accessTokenIssueDate));
 		}
 
 		return token;
 	}
 
+	/**
+	 * Check the revocation epochs (if there are any) of the client and user of a token, including when the user was
+	 * last modified (e.g. changed their password) if that is known.
+	 *
+	 * @param clientId the client the token was issued to
+	 * @param userId the user the token was issued for (null for a client token)
+	 * @param issueDate the time (millis) the token was issued
+	 * @param tokenValue the token (for error messages)
+	 */
+	private void checkRevocation(String clientId, String userId, long issueDate, String tokenValue) {
+		if (revocationEpochs == null) {
+			return;
+		}
+		if (revocationEpochs.getClientEpoch(clientId) > issueDate) {
+			throw new InvalidTokenException("Invalid token (client tokens revoked): " + tokenValue);
+		}
+		if (userId == null) {
+			return;
+		}
+		if (revocationEpochs.getUserRevocation(userId) > issueDate) {
+			throw new InvalidTokenException("Invalid token (user tokens revoked): " + tokenValue);
+		}
+		Long userEpoch = revocationEpochs.getUserEpoch(userId);
+		if (userEpoch != null && userEpoch > issueDate) {
+			throw new InvalidTokenException("Invalid token (password changed): " + tokenValue);
+		}
+	}
+
 	private Set<String> getAutoApprovedScopes(Object grantType, Collection<String> tokenScopes, ClientDetails client) {
 		// ALL requested scopes are considered auto-approved for password grant
 		if (grantType != null && "password".equals(grantType.toString())) {
@@ -612,8 +815,9 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		return autoApprovedScopes;
 	}
 
-	private Map<String, Object> getClaimsForToken(String token) {
+	private TokenClaims getClaimsForToken(String token) {
 		Jwt tokenJwt = null;
+		long start = System.nanoTime();
 		try {
 			tokenJwt = JwtHelper.decodeAndVerify(token, signerProvider.getVerifier());
 		}
@@ -621,19 +825,68 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 			logger.debug("Invalid token (could not decode)");
 			throw new InvalidTokenException("Invalid token (could not decode): " + token);
 		}
+		metrics.record(Phase.SIGNING, start);
 
-		Map<String, Object> claims = null;
+		TokenClaims claims = null;
+		start = System.nanoTime();
 		try {
-			claims = mapper.readValue(tokenJwt.getClaims(), new TypeReference<Map<String, Object>>() {
-			});
+			claims = mapper.readValue(tokenJwt.getClaims(), TokenClaims.class);
 		}
 		catch (Exception e) {
 			throw new IllegalStateException("Cannot read token claims", e);
 		}
+		metrics.record(Phase.JSON, start);
 
 		return claims;
 	}
 
+	private String encode(String content) {
+		long start = System.nanoTime();
+		String token = JwtHelper.encode(content, signerProvider.getSigner()).getEncoded();
+		metrics.record(Phase.SIGNING, start);
+		return token;
+	}
+
+	private UaaUser loadUser(String username) {
+		long start = System.nanoTime();
+		try {
+			return userDatabase.retrieveUserByName(username);
+		}
+		finally {
+			metrics.record(Phase.DB, start);
+		}
+	}
+
+	private UaaUser loadUserById(String userId) {
+		long start = System.nanoTime();
+		try {
+			return userDatabase.retrieveUserById(userId);
+		}
+		finally {
+			metrics.record(Phase.DB, start);
+		}
+	}
+
+	private ClientDetails loadClient(String clientId) {
+		long start = System.nanoTime();
+		try {
+			return clientDetailsService.loadClientByClientId(clientId);
+		}
+		finally {
+			metrics.record(Phase.DB, start);
+		}
+	}
+
+	private List<Approval> loadApprovals(String username, String clientId) {
+		long start = System.nanoTime();
+		try {
+			return approvalStore.getApprovals(username, clientId);
+		}
+		finally {
+			metrics.record(Phase.DB, start);
+		}
+	}
+
 	/**
 	 * This method is implemented only to support older API calls that assume the presence of a token store
 	 */
@@ -642,6 +895,22 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		return null;
 	}
 
+	/**
+	 * @param accessTokenValiditySeconds the validity of access tokens for clients that do not set their own (default
+	 *        12 hours)
+	 */
+	public void setAccessTokenValiditySeconds(int accessTokenValiditySeconds) {
+		this.accessTokenValiditySeconds = accessTokenValiditySeconds;
+	}
+
+	/**
+	 * @param refreshTokenValiditySeconds the validity of refresh tokens for clients that do not set their own
+	 *        (default 30 days)
+	 */
+	public void setRefreshTokenValiditySeconds(int refreshTokenValiditySeconds) {
+		this.refreshTokenValiditySeconds = refreshTokenValiditySeconds;
+	}
+
 	public void setIssuer(String issuer) {
 		this.issuer = issuer;
 	}
@@ -662,4 +931,84 @@ public class UaaTokenServices implements AuthorizationServerTokenServices, Resou
 		this.approvalStore = approvalStore;
 	}
 
+	/**
+	 * @param clientTokenCache a cache of client_credentials tokens for clients that opt in (optional)
+	 */
+	public void setClientTokenCache(ClientTokenCache clientTokenCache) {
+		this.clientTokenCache = clientTokenCache;
+	}
+
+	/**
+	 * @param revocationEpochs an in-memory table of user and client revocation epochs, used to validate tokens
+	 *        without loading the user (optional)
+	 */
+	public void setRevocationEpochs(RevocationEpochs revocationEpochs) {
+		this.revocationEpochs = revocationEpochs;
+	}
+
+	/**
+	 * @param metrics the counters and latency histograms to record token operations in (defaults to a private
+	 *        instance)
+	 */
+	public void setMetrics(TokenMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Memoizes the user, client and approval lookups made while validating access tokens. A new instance is used
+	 * for each call (or batch of calls), so nothing is cached beyond a single request.
+	 */
+	private class Lookups {
+
+		private final Map<String, UaaUser> users = new HashMap<String, UaaUser>();
+
+		private final Map<String, ClientDetails> clients = new HashMap<String, ClientDetails>();
+
+		private final Map<List<String>, List<Approval>> approvals = new HashMap<List<String>, List<Approval>>();
+
+		public UaaUser getUser(String userId) {
+			UaaUser user = users.get(userId);
+			if (user == null) {
+				user = loadUserById(userId);
+				users.put(userId, user);
+			}
+			return user;
+		}
+
+		public void loadUsers(Collection<String> userIds) {
+			if (userIds.isEmpty()) {
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				for (UaaUser user : userDatabase.retrieveUsersByIds(userIds)) {
+					users.put(user.getId(), user);
+				}
+			}
+			finally {
+				metrics.record(Phase.DB, start);
+			}
+		}
+
+		public ClientDetails getClient(String clientId) {
+			ClientDetails client = clients.get(clientId);
+			if (client == null) {
+				client = loadClient(clientId);
+				clients.put(clientId, client);
+			}
+			return client;
+		}
+
+		public List<Approval> getApprovals(String username, String clientId) {
+			List<String> key = Arrays.asList(username, clientId);
+			List<Approval> result = approvals.get(key);
+			if (result == null) {
+				result = loadApprovals(username, clientId);
+				approvals.put(key, result);
+			}
+			return result;
+		}
+
+	}
+
 }
@@ -0,0 +1,16 @@
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+/**
+ * Strategy for the column side of case insensitive comparisons. The expression returned has to match the index
+ * declared for the column by the platform schema scripts, otherwise lookups fall back to full table scans.
+ */
+public interface CaseInsensitiveSqlAdapter {
+
+	/**
+	 * @param column the column name
+	 * @return an SQL expression for the column that compares equal to a lower case literal regardless of the case of
+	 * the stored value
+	 */
+	public String getColumnExpression(String column);
+
+}
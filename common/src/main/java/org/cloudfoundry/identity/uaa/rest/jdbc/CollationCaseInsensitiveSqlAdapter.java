@@ -0,0 +1,35 @@
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * For platforms without functional indexes, where some columns are declared with a case insensitive type or collation
+ * (e.g. <code>VARCHAR_IGNORECASE</code> on HSQLDB, the default collation on MySQL). Those columns are compared as they
+ * are so the plain index on them can be used, all others are wrapped in <code>lower()</code>.
+ */
+public class CollationCaseInsensitiveSqlAdapter implements CaseInsensitiveSqlAdapter {
+
+	private Set<String> columns = Collections.emptySet();
+
+	/**
+	 * @param columns the names of the columns that already compare case insensitively (matched ignoring case)
+	 */
+	public void setColumns(Set<String> columns) {
+		Set<String> result = new HashSet<String>();
+		for (String column : columns) {
+			result.add(column.toLowerCase());
+		}
+		this.columns = result;
+	}
+
+	@Override
+	public String getColumnExpression(String column) {
+		if (columns.contains(column.toLowerCase())) {
+			return column;
+		}
+		return "lower(" + column + ")";
+	}
+
+}
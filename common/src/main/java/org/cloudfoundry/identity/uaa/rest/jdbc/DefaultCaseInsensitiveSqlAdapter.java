@@ -0,0 +1,14 @@
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+/**
+ * Wraps every column in <code>lower()</code>, which matches the functional indexes declared on platforms that support
+ * them (e.g. PostgreSQL).
+ */
+public class DefaultCaseInsensitiveSqlAdapter implements CaseInsensitiveSqlAdapter {
+
+	@Override
+	public String getColumnExpression(String column) {
+		return "lower(" + column + ")";
+	}
+
+}
@@ -31,10 +31,20 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
 	private AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.<String, String> emptyMap());
 
+	private CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter = new DefaultCaseInsensitiveSqlAdapter();
+
 	public void setAttributeNameMapper(AttributeNameMapper mapper) {
 		this.mapper = mapper;
 	}
 
+	/**
+	 * @param caseInsensitiveSqlAdapter the strategy for the column side of case insensitive comparisons (default wraps
+	 * every column in lower())
+	 */
+	public void setCaseInsensitiveSqlAdapter(CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter) {
+		this.caseInsensitiveSqlAdapter = caseInsensitiveSqlAdapter;
+	}
+
 	@Override
 	public ProcessedFilter convert(String filter, String sortBy, boolean ascending) {
 		return convert(filter, sortBy, ascending, mapper);
@@ -59,7 +69,7 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 
 		where = mapper.mapToInternal(where);
 
-		where = makeCaseInsensitive(where, equalsPattern, "%slower(%s) = :?%s", "%s", values);
+		where = makeCaseInsensitive(where, equalsPattern, "%s%s = :?%s", "%s", values);
 		where = existsPattern.matcher(where).replaceAll(" is not null$1");
 		// This will catch equality of number literals
 		where = where.replaceAll(" == ", " = ");
@@ -75,7 +85,8 @@ public class SimpleSearchQueryConverter implements SearchQueryConverter {
 		while (matcher.matches()) {
 			values.put("value" + count, String.format(valueTemplate, matcher.group(3).toLowerCase()));
 			String query = template.replace("?", "value" + count);
-			output = matcher.replaceFirst(String.format(query, matcher.group(1), matcher.group(2), matcher.group(4)));
+			String column = caseInsensitiveSqlAdapter.getColumnExpression(matcher.group(2));
+			output = matcher.replaceFirst(String.format(query, matcher.group(1), column, matcher.group(4)));
 			matcher = pattern.matcher(output);
 			count++;
 		}
@@ -30,6 +30,10 @@ public class DelegatingRequestMatcher implements RequestMatcher {
 		this.matchers = new ArrayList<RequestMatcher>(matchers);
 	}
 
+	List<RequestMatcher> getMatchers() {
+		return matchers;
+	}
+
 	@Override
 	public boolean matches(HttpServletRequest request) {
 		for (RequestMatcher m: matchers) {
@@ -0,0 +1,215 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.security.web;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.security.web.util.AntPathRequestMatcher;
+import org.springframework.security.web.util.RequestMatcher;
+import org.springframework.util.StringUtils;
+
+/**
+ * Finds the first of an ordered list of {@link RequestMatcher}s that matches a request, without trying them all in
+ * turn. The matchers are indexed by the path that a request has to start with to match: {@link UaaRequestMatcher}s by
+ * their path (a prefix of the request URI), in a trie of characters, and {@link AntPathRequestMatcher}s by the
+ * literal segments at the start of their pattern, in a trie of path segments. A lookup walks both tries along the
+ * request path, which gives the matchers that could match in time proportional to the length of the path, and only
+ * those are tried, in their original order. Matchers of {@link DelegatingRequestMatcher}s are indexed individually
+ * and other matchers are always tried, so the result is the same as trying all the matchers in order.
+ *
+ * <p>
+ * The result of a lookup is kept in the request, so the same request can be checked against each of the matchers
+ * (see {@link #getRequestMatcher(int)}) at the cost of a single lookup.
+ * </p>
+ */
+public class RequestMatcherIndex {
+
+	private final String attributeName = RequestMatcherIndex.class.getName() + "." + System.identityHashCode(this);
+
+	private final List<RequestMatcher> matchers;
+
+	private final Node<Character> uriTrie = new Node<Character>();
+
+	private final Node<String> segmentTrie = new Node<String>();
+
+	private final BitSet unindexed = new BitSet();
+
+	/**
+	 * @param matchers the matchers in the order they should be tried
+	 */
+	public RequestMatcherIndex(List<RequestMatcher> matchers) {
+		this.matchers = new ArrayList<RequestMatcher>(matchers);
+		for (int i = 0; i < this.matchers.size(); i++) {
+			add(i, this.matchers.get(i));
+		}
+	}
+
+	/**
+	 * @param request a request
+	 * @return the position of the first matcher that matches the request, or -1 if none does
+	 */
+	public int indexOf(HttpServletRequest request) {
+		Object cached = request.getAttribute(attributeName);
+		if (cached instanceof Selection && ((Selection) cached).request == request) {
+			return ((Selection) cached).index;
+		}
+		int index = select(request);
+		request.setAttribute(attributeName, new Selection(request, index));
+		return index;
+	}
+
+	/**
+	 * @param position the position of one of the matchers
+	 * @return a matcher that matches a request if the matcher at that position is the first one that matches it
+	 */
+	public RequestMatcher getRequestMatcher(final int position) {
+		return new RequestMatcher() {
+			@Override
+			public boolean matches(HttpServletRequest request) {
+				return indexOf(request) == position;
+			}
+
+			@Override
+			public String toString() {
+				return "Indexed " + matchers.get(position);
+			}
+		};
+	}
+
+	private int select(HttpServletRequest request) {
+		BitSet candidates = (BitSet) unindexed.clone();
+
+		String uri = request.getRequestURI();
+		String contextPath = request.getContextPath();
+		if (uri != null && uri.startsWith(contextPath)) {
+			String method = request.getMethod();
+			Node<Character> node = uriTrie;
+			for (int i = contextPath.length(); node != null; i++) {
+				node.addCandidates(candidates, method);
+				node = i < uri.length() ? node.children.get(uri.charAt(i)) : null;
+			}
+		}
+
+		String path = getServletPath(request);
+		Node<String> node = segmentTrie;
+		String[] segments = StringUtils.tokenizeToStringArray(path, "/");
+		for (int i = 0; node != null; i++) {
+			node.addCandidates(candidates, null);
+			node = i < segments.length ? node.children.get(segments[i]) : null;
+		}
+
+		for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+			if (matchers.get(i).matches(request)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void add(int position, RequestMatcher matcher) {
+		if (matcher instanceof DelegatingRequestMatcher) {
+			for (RequestMatcher delegate : ((DelegatingRequestMatcher) matcher).getMatchers()) {
+				add(position, delegate);
+			}
+		}
+		else if (matcher instanceof UaaRequestMatcher) {
+			UaaRequestMatcher uaaMatcher = (UaaRequestMatcher) matcher;
+			Node<Character> node = uriTrie;
+			for (char c : uaaMatcher.getPath().toCharArray()) {
+				node = node.getChild(c);
+			}
+			node.add(position, uaaMatcher.getMethod());
+		}
+		else if (matcher instanceof AntPathRequestMatcher && ((AntPathRequestMatcher) matcher).getPattern().startsWith("/")) {
+			// Ant paths are matched segment by segment, with the segments trimmed and empty ones ignored, so a pattern
+			// starting with literal segments only matches paths starting with the same segments
+			Node<String> node = segmentTrie;
+			for (String segment : StringUtils.tokenizeToStringArray(((AntPathRequestMatcher) matcher).getPattern(), "/")) {
+				if (segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0 || segment.indexOf('{') >= 0) {
+					break;
+				}
+				node = node.getChild(segment);
+			}
+			node.add(position, null);
+		}
+		else {
+			unindexed.set(position);
+		}
+	}
+
+	/**
+	 * The path that an {@link AntPathRequestMatcher} matches against.
+	 */
+	private static String getServletPath(HttpServletRequest request) {
+		String path = request.getServletPath();
+		if (request.getPathInfo() != null) {
+			path += request.getPathInfo();
+		}
+		return path.toLowerCase();
+	}
+
+	private static class Node<K> {
+
+		private final Map<K, Node<K>> children = new HashMap<K, Node<K>>();
+
+		private final List<Integer> positions = new ArrayList<Integer>();
+
+		private final List<HttpMethod> methods = new ArrayList<HttpMethod>();
+
+		public Node<K> getChild(K key) {
+			Node<K> child = children.get(key);
+			if (child == null) {
+				child = new Node<K>();
+				children.put(key, child);
+			}
+			return child;
+		}
+
+		public void add(int position, HttpMethod method) {
+			positions.add(position);
+			methods.add(method);
+		}
+
+		public void addCandidates(BitSet candidates, String requestMethod) {
+			for (int i = 0; i < positions.size(); i++) {
+				HttpMethod method = methods.get(i);
+				// Same check as UaaRequestMatcher
+				if (method == null || requestMethod == null || method.toString().equals(requestMethod.toUpperCase())) {
+					candidates.set(positions.get(i));
+				}
+			}
+		}
+
+	}
+
+	private static class Selection {
+
+		private final HttpServletRequest request;
+
+		private final int index;
+
+		public Selection(HttpServletRequest request, int index) {
+			this.request = request;
+			this.index = index;
+		}
+
+	}
+
+}
@@ -18,6 +18,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
@@ -29,8 +30,11 @@ import org.springframework.beans.factory.config.BeanPostProcessor;
 import org.springframework.http.MediaType;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.web.DefaultSecurityFilterChain;
+import org.springframework.security.web.FilterChainProxy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.util.RedirectUrlBuilder;
+import org.springframework.security.web.util.RequestMatcher;
 import org.springframework.util.Assert;
 
 /**
@@ -48,6 +52,9 @@ import org.springframework.util.Assert;
  * The filter also wraps calls to the <tt>getRemoteAddr</tt> to give a more accurate value for the remote client IP,
  * making use of the <tt>clientAddrHeader</tt> if available in the request.
  *
+ * If the indexFilterChains property is set, the filter chain proxy is replaced by one that picks the filter chain for
+ * a request with a {@link RequestMatcherIndex} instead of trying the chains one by one.
+ *
  *
  * @author Luke Taylor
  */
@@ -58,8 +65,13 @@ public class SecurityFilterChainPostProcessor implements BeanPostProcessor {
 	private List<String> redirectToHttps = Collections.emptyList();
 	private List<String> ignore = Collections.emptyList();
 	private boolean dumpRequests = false;
+	private boolean indexFilterChains = true;
 
 	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		if (bean instanceof FilterChainProxy && indexFilterChains) {
+			return indexFilterChains((FilterChainProxy) bean);
+		}
+
 		if (bean instanceof SecurityFilterChain && !ignore.contains(beanName)) {
 			logger.info("Processing security filter chain " + beanName);
 
@@ -82,6 +94,33 @@ public class SecurityFilterChainPostProcessor implements BeanPostProcessor {
 		return bean;
 	}
 
+	private FilterChainProxy indexFilterChains(FilterChainProxy proxy) {
+		List<SecurityFilterChain> chains = proxy.getFilterChains();
+		List<RequestMatcher> matchers = new ArrayList<RequestMatcher>();
+		for (final SecurityFilterChain chain : chains) {
+			if (chain instanceof DefaultSecurityFilterChain) {
+				matchers.add(((DefaultSecurityFilterChain) chain).getRequestMatcher());
+			}
+			else {
+				matchers.add(new RequestMatcher() {
+					@Override
+					public boolean matches(HttpServletRequest request) {
+						return chain.matches(request);
+					}
+				});
+			}
+		}
+		RequestMatcherIndex index = new RequestMatcherIndex(matchers);
+		List<SecurityFilterChain> indexed = new ArrayList<SecurityFilterChain>();
+		for (int i = 0; i < chains.size(); i++) {
+			indexed.add(new DefaultSecurityFilterChain(index.getRequestMatcher(i), chains.get(i).getFilters()));
+		}
+		logger.info("Indexed " + chains.size() + " security filter chains");
+		FilterChainProxy result = new FilterChainProxy(indexed);
+		result.afterPropertiesSet();
+		return result;
+	}
+
 	/**
 	 * If set to true, HTTPS will be required for all requests.
 	 */
@@ -102,6 +141,14 @@ public class SecurityFilterChainPostProcessor implements BeanPostProcessor {
 		this.redirectToHttps = redirectToHttps;
 	}
 
+	/**
+	 * If set to true (the default), the filter chain for a request is picked with an index of the request matchers
+	 * of the chains instead of trying them in turn. The result is the same.
+	 */
+	public void setIndexFilterChains(boolean indexFilterChains) {
+		this.indexFilterChains = indexFilterChains;
+	}
+
 	/**
 	 * List of filter chains which should be ignored completely.
 	 */
@@ -50,6 +50,9 @@ public final class UaaRequestMatcher implements RequestMatcher {
 
 	private Map<String, List<String>> expectedHeaders = new HashMap<String, List<String>>();
 
+	// Parsed once, as they are checked on every request
+	private Map<String, List<MediaType>> expectedMediaTypes = new HashMap<String, List<MediaType>>();
+
 	public UaaRequestMatcher(String path) {
 		Assert.hasText(path);
 		if (path.contains("*")) {
@@ -88,6 +91,20 @@ public final class UaaRequestMatcher implements RequestMatcher {
 		this.parameters = parameters;
 	}
 
+	/**
+	 * @return the path (after the context path) that requests have to start with
+	 */
+	String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the method requests have to be made with (null for any)
+	 */
+	HttpMethod getMethod() {
+		return method;
+	}
+
 	@Override
 	public boolean matches(HttpServletRequest request) {
 		String message = "";
@@ -108,7 +125,7 @@ public final class UaaRequestMatcher implements RequestMatcher {
 		for (Entry<String, List<String>> expectedHeaderEntry : expectedHeaders.entrySet()) {
 			String requestValue = request.getHeader(expectedHeaderEntry.getKey());
 			if ("accept".equalsIgnoreCase(expectedHeaderEntry.getKey())) {
-				if (!matchesAcceptHeader(requestValue, expectedHeaderEntry.getValue())) {
+				if (!matchesAcceptHeader(requestValue, expectedMediaTypes.get(expectedHeaderEntry.getKey()))) {
 					return false;
 				}
 			}
@@ -139,15 +156,15 @@ public final class UaaRequestMatcher implements RequestMatcher {
 		return true;
 	}
 
-	private boolean matchesAcceptHeader(String requestValue, List<String> expectedValues) {
+	private boolean matchesAcceptHeader(String requestValue, List<MediaType> expectedValues) {
 		// Accept header is not required to be checked!
 		if (requestValue == null) {
 			return true;
 		}
 
 		List<MediaType> requestValues = MediaType.parseMediaTypes(requestValue);
-		for (String expectedValue : expectedValues) {
-			if (MediaType.parseMediaType(expectedValue).includes(requestValues.get(0))) {
+		for (MediaType expectedValue : expectedValues) {
+			if (expectedValue.includes(requestValues.get(0))) {
 				return true;
 			}
 		}
@@ -222,6 +239,13 @@ public final class UaaRequestMatcher implements RequestMatcher {
 			List<String> expectedValues = new ArrayList<String>();
 			expectedValues.addAll(headers.get(headerName));
 			expectedHeaders.put(headerName, expectedValues);
+			if ("accept".equalsIgnoreCase(headerName)) {
+				List<MediaType> mediaTypes = new ArrayList<MediaType>();
+				for (String expectedValue : expectedValues) {
+					mediaTypes.add(MediaType.parseMediaType(expectedValue));
+				}
+				expectedMediaTypes.put(headerName, mediaTypes);
+			}
 		}
 	}
 }
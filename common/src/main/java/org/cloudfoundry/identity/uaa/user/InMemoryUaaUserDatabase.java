@@ -12,7 +12,12 @@
  */
 package org.cloudfoundry.identity.uaa.user;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
@@ -42,6 +47,40 @@ public class InMemoryUaaUserDatabase implements UaaUserDatabase {
 
 	}
 
+	@Override
+	public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+		for (UaaUser u : users.values()) {
+			if (u.getId().equals(id)) {
+				return u;
+			}
+		}
+		throw new UsernameNotFoundException("User " + id + " not found");
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByNames(Collection<String> usernames) {
+		List<UaaUser> result = new ArrayList<UaaUser>();
+		for (String username : new HashSet<String>(usernames)) {
+			UaaUser u = users.get(username);
+			if (u != null) {
+				result.add(u);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByIds(Collection<String> ids) {
+		Set<String> wanted = new HashSet<String>(ids);
+		List<UaaUser> result = new ArrayList<UaaUser>();
+		for (UaaUser u : users.values()) {
+			if (wanted.contains(u.getId())) {
+				result.add(u);
+			}
+		}
+		return result;
+	}
+
 	public void updateUser(String username, UaaUser user) throws UsernameNotFoundException {
 
 		if (!users.containsKey(username)) {
@@ -14,14 +14,22 @@ package org.cloudfoundry.identity.uaa.user;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
+import org.cloudfoundry.identity.uaa.rest.jdbc.CaseInsensitiveSqlAdapter;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
@@ -38,29 +46,129 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 
 	public static final String USER_FIELDS = "id,username,password,email,givenName,familyName,created,lastModified ";
 
-	public static final String DEFAULT_USER_BY_USERNAME_QUERY = "select " + USER_FIELDS + "from users "
-			+ "where lower(username) = ? and active=?";
+	private static final String USER_BY_USERNAME_QUERY_TEMPLATE = "select " + USER_FIELDS + "from users "
+			+ "where %s = ? and active=?";
+
+	public static final String DEFAULT_USER_BY_USERNAME_QUERY = String.format(USER_BY_USERNAME_QUERY_TEMPLATE,
+			"lower(username)");
 
 	public static final String DEFAULT_USER_AUTHORITIES_QUERY = "select authorities from users where id = ?";
 
+	public static final String DEFAULT_USER_BY_ID_QUERY = "select id,username,email,lastModified,authorities "
+			+ "from users where id = ? and active=?";
+
+	// The bulk queries have a %s for the placeholders of the in clause
+
+	private static final String USERS_BY_USERNAMES_QUERY_TEMPLATE = "select " + USER_FIELDS + "from users "
+			+ "where %s in (%%s) and active=?";
+
+	public static final String DEFAULT_USERS_BY_USERNAMES_QUERY = String.format(USERS_BY_USERNAMES_QUERY_TEMPLATE,
+			"lower(username)");
+
+	public static final String DEFAULT_USERS_BY_IDS_QUERY = "select " + USER_FIELDS + "from users "
+			+ "where id in (%s) and active=?";
+
+	public static final String DEFAULT_USERS_AUTHORITIES_QUERY = "select id, authorities from users where id in (%s)";
+
 	private String userAuthoritiesQuery = DEFAULT_USER_AUTHORITIES_QUERY;
 
+	private String usersAuthoritiesQuery;
+
 	private String userByUserNameQuery = DEFAULT_USER_BY_USERNAME_QUERY;
 
+	private String userByIdQuery;
+
+	private String usersByUserNamesQuery = DEFAULT_USERS_BY_USERNAMES_QUERY;
+
+	private String usersByIdsQuery = DEFAULT_USERS_BY_IDS_QUERY;
+
+	private int maxInClauseSize = 100;
+
 	private JdbcTemplate jdbcTemplate;
 
 	private final RowMapper<UaaUser> mapper = new UaaUserRowMapper();
 
+	private final RowMapper<UaaUser> bulkMapper = new BulkUaaUserRowMapper();
+
+	private final ResultSetExtractor<UaaUser> userByIdExtractor = new UaaUserByIdExtractor();
+
 	private Set<String> defaultAuthorities = new HashSet<String>();
 
 	public void setUserByUserNameQuery(String userByUserNameQuery) {
 		this.userByUserNameQuery = userByUserNameQuery;
 	}
 
+	/**
+	 * Generate the default user by name query with a username comparison that matches the index on the users table for
+	 * the current platform. Has no effect if a custom {@link #setUserByUserNameQuery(String) query} was provided.
+	 *
+	 * @param caseInsensitiveSqlAdapter the platform strategy for case insensitive comparisons
+	 */
+	public void setCaseInsensitiveSqlAdapter(CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter) {
+		if (DEFAULT_USER_BY_USERNAME_QUERY.equals(userByUserNameQuery)) {
+			this.userByUserNameQuery = String.format(USER_BY_USERNAME_QUERY_TEMPLATE,
+					caseInsensitiveSqlAdapter.getColumnExpression("username"));
+		}
+		if (DEFAULT_USERS_BY_USERNAMES_QUERY.equals(usersByUserNamesQuery)) {
+			this.usersByUserNamesQuery = String.format(USERS_BY_USERNAMES_QUERY_TEMPLATE,
+					caseInsensitiveSqlAdapter.getColumnExpression("username"));
+		}
+	}
+
+	/**
+	 * The query for {@link #retrieveUserById(String)}. It returns the id, username, email, last modification time and
+	 * an authority (or a comma separated list of them) of the user, in as many rows as it takes to list all the
+	 * authorities, so a join with the source of the authorities gets the user in one round trip. Defaults to reading
+	 * the authorities column of the users table. If the user authorities query is customized and this is not, the
+	 * authorities are loaded with a second query.
+	 * 
+	 * @param userByIdQuery the user by id query, with placeholders for the id and the active flag
+	 */
+	public void setUserByIdQuery(String userByIdQuery) {
+		this.userByIdQuery = userByIdQuery;
+	}
+
+	/**
+	 * @param usersByUserNamesQuery the query for {@link #retrieveUsersByNames(Collection)}, with the same columns as
+	 *        the user by name query and a <code>%s</code> where the placeholders for the (lower case) usernames go
+	 */
+	public void setUsersByUserNamesQuery(String usersByUserNamesQuery) {
+		this.usersByUserNamesQuery = usersByUserNamesQuery;
+	}
+
+	/**
+	 * @param usersByIdsQuery the query for {@link #retrieveUsersByIds(Collection)}, with the same columns as the user
+	 *        by name query and a <code>%s</code> where the placeholders for the ids go
+	 */
+	public void setUsersByIdsQuery(String usersByIdsQuery) {
+		this.usersByIdsQuery = usersByIdsQuery;
+	}
+
 	public void setUserAuthoritiesQuery(String userAuthoritiesQuery) {
 		this.userAuthoritiesQuery = userAuthoritiesQuery;
 	}
 
+	/**
+	 * The authorities of many users in one query, for the bulk lookups. Defaults to the equivalent of the default
+	 * user authorities query. If the user authorities query is customized and this is not, the bulk lookups fall back
+	 * to one authorities query per user.
+	 * 
+	 * @param usersAuthoritiesQuery a query returning the user id and an authority (or a comma separated list of
+	 *        them) in each row, with a <code>%s</code> where the placeholders for the ids go
+	 */
+	public void setUsersAuthoritiesQuery(String usersAuthoritiesQuery) {
+		this.usersAuthoritiesQuery = usersAuthoritiesQuery;
+	}
+
+	/**
+	 * @param maxInClauseSize the most values to put in the in clause of one bulk query (default 100); longer lists
+	 *        are split into several queries
+	 */
+	public void setMaxInClauseSize(int maxInClauseSize) {
+		Assert.isTrue(maxInClauseSize > 0, "The in clause size must be positive");
+		this.maxInClauseSize = maxInClauseSize;
+	}
+
 	public void setDefaultAuthorities(Set<String> defaultAuthorities) {
 		this.defaultAuthorities = defaultAuthorities;
 	}
@@ -80,6 +188,145 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 		}
 	}
 
+	@Override
+	public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+		String query = userByIdQuery;
+		boolean authoritiesInQuery = true;
+		if (query == null) {
+			query = DEFAULT_USER_BY_ID_QUERY;
+			authoritiesInQuery = DEFAULT_USER_AUTHORITIES_QUERY.equals(userAuthoritiesQuery);
+		}
+		UaaUser user = jdbcTemplate.query(query, userByIdExtractor, id, true);
+		if (user == null) {
+			throw new UsernameNotFoundException(id);
+		}
+		return authoritiesInQuery ? user : withAuthorities(user, getAuthorities(id));
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByNames(Collection<String> usernames) {
+		Set<String> values = new LinkedHashSet<String>();
+		for (String username : usernames) {
+			values.add(username.toLowerCase(Locale.US));
+		}
+		return withAuthorities(queryInChunks(usersByUserNamesQuery, values));
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByIds(Collection<String> ids) {
+		return withAuthorities(queryInChunks(usersByIdsQuery, new LinkedHashSet<String>(ids)));
+	}
+
+	private List<UaaUser> queryInChunks(String query, Collection<String> values) {
+		List<UaaUser> result = new ArrayList<UaaUser>();
+		List<String> list = new ArrayList<String>(values);
+		for (int i = 0; i < list.size(); i += maxInClauseSize) {
+			List<String> chunk = list.subList(i, Math.min(i + maxInClauseSize, list.size()));
+			List<Object> args = new ArrayList<Object>(chunk);
+			args.add(true);
+			result.addAll(jdbcTemplate.query(String.format(query, placeholders(chunk.size())), bulkMapper,
+					args.toArray()));
+		}
+		return result;
+	}
+
+	private List<UaaUser> withAuthorities(List<UaaUser> users) {
+		String query = usersAuthoritiesQuery;
+		if (query == null && DEFAULT_USER_AUTHORITIES_QUERY.equals(userAuthoritiesQuery)) {
+			query = DEFAULT_USERS_AUTHORITIES_QUERY;
+		}
+		if (query == null) {
+			// Custom per user query and no bulk equivalent
+			List<UaaUser> result = new ArrayList<UaaUser>(users.size());
+			for (UaaUser user : users) {
+				result.add(withAuthorities(user, getAuthorities(user.getId())));
+			}
+			return result;
+		}
+
+		final Map<String, Set<String>> authorities = new HashMap<String, Set<String>>();
+		List<String> ids = new ArrayList<String>(users.size());
+		for (UaaUser user : users) {
+			ids.add(user.getId());
+			authorities.put(user.getId(), new HashSet<String>(defaultAuthorities));
+		}
+		for (int i = 0; i < ids.size(); i += maxInClauseSize) {
+			List<String> chunk = ids.subList(i, Math.min(i + maxInClauseSize, ids.size()));
+			jdbcTemplate.query(String.format(query, placeholders(chunk.size())), new RowCallbackHandler() {
+				@Override
+				public void processRow(ResultSet rs) throws SQLException {
+					Set<String> values = authorities.get(rs.getString(1));
+					if (values != null) {
+						values.addAll(StringUtils.commaDelimitedListToSet(rs.getString(2)));
+					}
+				}
+			}, chunk.toArray());
+		}
+
+		List<UaaUser> result = new ArrayList<UaaUser>(users.size());
+		for (UaaUser user : users) {
+			result.add(withAuthorities(user, StringUtils.collectionToCommaDelimitedString(authorities.get(user.getId()))));
+		}
+		return result;
+	}
+
+	private UaaUser withAuthorities(UaaUser user, String authorities) {
+		return new UaaUser(user.getId(), user.getUsername(), user.getPassword(), user.getEmail(),
+				AuthorityUtils.commaSeparatedStringToAuthorityList(authorities), user.getGivenName(),
+				user.getFamilyName(), user.getCreated(), user.getModified());
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder builder = new StringBuilder("?");
+		for (int i = 1; i < count; i++) {
+			builder.append(",?");
+		}
+		return builder.toString();
+	}
+
+	private String getAuthorities(final String userId) {
+		List<String> authorities;
+		try {
+			authorities = jdbcTemplate.queryForList(userAuthoritiesQuery, String.class, userId);
+		} catch (EmptyResultDataAccessException ex) {
+			authorities = Collections.<String>emptyList();
+		}
+		authorities.addAll(defaultAuthorities);
+		return StringUtils.collectionToCommaDelimitedString(new HashSet<String>(authorities));
+	}
+
+	/**
+	 * Reads the rows of the user by id query into one user, with the default authorities and the authorities from all
+	 * the rows. Returns null if there are no rows.
+	 */
+	private final class UaaUserByIdExtractor implements ResultSetExtractor<UaaUser> {
+		@Override
+		public UaaUser extractData(ResultSet rs) throws SQLException {
+			UaaUser user = null;
+			Set<String> authorities = new HashSet<String>(defaultAuthorities);
+			while (rs.next()) {
+				if (user == null) {
+					user = new UaaUser(rs.getString(1), rs.getString(2), null, rs.getString(3),
+							Collections.<GrantedAuthority> emptyList(), null, null, null, rs.getTimestamp(4));
+				}
+				authorities.addAll(StringUtils.commaDelimitedListToSet(rs.getString(5)));
+			}
+			return user == null ? null : withAuthorities(user, StringUtils.collectionToCommaDelimitedString(authorities));
+		}
+	}
+
+	/**
+	 * Maps the user columns only, the bulk lookups add the authorities afterwards.
+	 */
+	private static final class BulkUaaUserRowMapper implements RowMapper<UaaUser> {
+		@Override
+		public UaaUser mapRow(ResultSet rs, int rowNum) throws SQLException {
+			return new UaaUser(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+					Collections.<GrantedAuthority> emptyList(), rs.getString(5), rs.getString(6), rs.getTimestamp(7),
+					rs.getTimestamp(8));
+		}
+	}
+
 	private final class UaaUserRowMapper implements RowMapper<UaaUser> {
 		@Override
 		public UaaUser mapRow(ResultSet rs, int rowNum) throws SQLException {
@@ -89,16 +336,5 @@ public class JdbcUaaUserDatabase implements UaaUserDatabase {
 					authorities, rs.getString(5), rs.getString(6),
 					rs.getTimestamp(7), rs.getTimestamp(8));
 		}
-
-		private String getAuthorities(final String userId) {
-			List<String> authorities;
-			try {
-				authorities = jdbcTemplate.queryForList(userAuthoritiesQuery, String.class, userId);
-			} catch (EmptyResultDataAccessException ex) {
-				authorities = Collections.<String>emptyList();
-			}
-			authorities.addAll(defaultAuthorities);
-			return StringUtils.collectionToCommaDelimitedString(new HashSet<String>(authorities));
-		}
 	}
 }
@@ -123,6 +123,10 @@ public class UaaUser {
 				+ ", familyName=" + familyName + "}]";
 	}
 
+	public Date getCreated() {
+		return created;
+	}
+
 	public Date getModified() {
 		return modified;
 	}
@@ -12,6 +12,9 @@
  */
 package org.cloudfoundry.identity.uaa.user;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
 /**
@@ -19,4 +22,30 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
  */
 public interface UaaUserDatabase {
 	UaaUser retrieveUserByName(String username) throws UsernameNotFoundException;
+
+	/**
+	 * Load a user by primary key with only the fields that token issuance and validation need: id, username, email,
+	 * last modification time and authorities. The other fields may be null.
+	 * 
+	 * @param id the user id
+	 * @return the user
+	 * @throws UsernameNotFoundException if there is no active user with this id
+	 */
+	UaaUser retrieveUserById(String id) throws UsernameNotFoundException;
+
+	/**
+	 * Load several users at once, for callers that would otherwise call {@link #retrieveUserByName(String)} in a loop.
+	 * 
+	 * @param usernames the usernames to look up
+	 * @return the users that were found, in no particular order (unknown usernames are left out)
+	 */
+	List<UaaUser> retrieveUsersByNames(Collection<String> usernames);
+
+	/**
+	 * Load several users at once by their ids.
+	 * 
+	 * @param ids the user ids to look up
+	 * @return the users that were found, in no particular order (unknown ids are left out)
+	 */
+	List<UaaUser> retrieveUsersByIds(Collection<String> ids);
 }
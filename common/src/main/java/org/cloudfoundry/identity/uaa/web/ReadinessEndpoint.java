@@ -0,0 +1,349 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+
+package org.cloudfoundry.identity.uaa.web;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.metrics.MetricsSource;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+/**
+ * Readiness check for load balancers: unlike <code>/healthz</code>, which only says that the application is running,
+ * <code>/healthz/ready</code> says whether it can serve requests promptly. It runs a timed validation query against
+ * the database and looks at the connection pool (active and idle connections, and threads waiting for one). Each check
+ * is <code>UP</code>, <code>DEGRADED</code> (working, but close to its limits) or <code>DOWN</code>, and the overall
+ * status is the worst of them. <code>DOWN</code> is reported with a 503, so that traffic moves to other nodes before
+ * latency collapses on this one.
+ *
+ * <p>
+ * The pool is checked first, and the database is only queried if the pool has a connection to spare: a probe never
+ * queues for a connection behind the requests it is meant to protect. The checks run on a background thread, and a
+ * probe waits for them at most as long as the unready latency before it reports <code>DOWN</code>. The result is
+ * cached for a short interval, so probes are cheap however often they come, and concurrent probes share a single run
+ * of the checks. Errors are logged, not returned, as the endpoint is not secured.
+ * </p>
+ */
+@Controller
+@ManagedResource
+public class ReadinessEndpoint implements MetricsSource, DisposableBean {
+
+	public static final String UP = "UP";
+
+	public static final String DEGRADED = "DEGRADED";
+
+	public static final String DOWN = "DOWN";
+
+	private final Log logger = LogFactory.getLog(getClass());
+
+	private final DataSource dataSource;
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private String validationQuery = "select 1";
+
+	private long cacheInterval = 2000;
+
+	private long degradedLatency = 100;
+
+	private long unreadyLatency = 1000;
+
+	private double degradedUtilization = 0.8;
+
+	private int unreadyWaiters = 10;
+
+	private volatile Map<String, Object> cached;
+
+	private volatile long cachedAt;
+
+	private final AtomicReference<FutureTask<Map<String, Object>>> pending = new AtomicReference<FutureTask<Map<String, Object>>>();
+
+	private final ExecutorService checkExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "readiness-check");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @param dataSource the data source to check: preferably the connection pool itself rather than a wrapper, so
+	 *        that the pool statistics are available and the probes do not show up in the SQL statistics
+	 */
+	public ReadinessEndpoint(DataSource dataSource) {
+		this.dataSource = dataSource;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		setUnreadyLatency(unreadyLatency);
+	}
+
+	/**
+	 * @param validationQuery the query used to check the database (default "select 1")
+	 */
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	/**
+	 * @param cacheInterval how long (millis) a result is reused before the checks run again (default 2000)
+	 */
+	public void setCacheInterval(long cacheInterval) {
+		this.cacheInterval = cacheInterval;
+	}
+
+	/**
+	 * @param degradedLatency validation query time (millis) above which the database is degraded (default 100)
+	 */
+	public void setDegradedLatency(long degradedLatency) {
+		this.degradedLatency = degradedLatency;
+	}
+
+	/**
+	 * @param unreadyLatency validation query time (millis) above which the database is down (default 1000). The
+	 *        query is also cancelled after this long (rounded up to a second).
+	 */
+	public void setUnreadyLatency(long unreadyLatency) {
+		this.unreadyLatency = unreadyLatency;
+		jdbcTemplate.setQueryTimeout((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(unreadyLatency + 999)));
+	}
+
+	/**
+	 * @param degradedUtilization the fraction of the maximum active connections in use above which the pool is
+	 *        degraded (default 0.8)
+	 */
+	public void setDegradedUtilization(double degradedUtilization) {
+		this.degradedUtilization = degradedUtilization;
+	}
+
+	/**
+	 * @param unreadyWaiters the number of threads waiting for a connection above which the pool is down (default 10).
+	 *        Any waiting thread makes the pool degraded.
+	 */
+	public void setUnreadyWaiters(int unreadyWaiters) {
+		this.unreadyWaiters = unreadyWaiters;
+	}
+
+	@RequestMapping("/healthz/ready")
+	public ResponseEntity<Map<String, Object>> getReadiness() {
+		Map<String, Object> result = getResult();
+		HttpStatus status = DOWN.equals(result.get("status")) ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK;
+		return new ResponseEntity<Map<String, Object>>(result, status);
+	}
+
+	@ManagedAttribute(description = "Readiness of this node (UP, DEGRADED or DOWN)")
+	public String getStatus() {
+		return (String) getResult().get("status");
+	}
+
+	@Override
+	public Map<String, ?> getMetrics() {
+		return getResult();
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		checkExecutor.shutdownNow();
+	}
+
+	private Map<String, Object> getResult() {
+		Map<String, Object> result = cached;
+		if (result != null && System.currentTimeMillis() - cachedAt < cacheInterval) {
+			return result;
+		}
+		FutureTask<Map<String, Object>> task = pending.get();
+		if (task == null) {
+			FutureTask<Map<String, Object>> created = new FutureTask<Map<String, Object>>(new Callable<Map<String, Object>>() {
+				@Override
+				public Map<String, Object> call() throws Exception {
+					try {
+						Map<String, Object> checked = check();
+						cached = checked;
+						cachedAt = System.currentTimeMillis();
+						return checked;
+					}
+					finally {
+						pending.set(null);
+					}
+				}
+			});
+			if (pending.compareAndSet(null, created)) {
+				checkExecutor.execute(created);
+				task = created;
+			}
+			else {
+				task = pending.get();
+			}
+		}
+		if (task == null) {
+			// Completed in the meantime
+			result = cached;
+			return result != null ? result : timedOut();
+		}
+		try {
+			return task.get(unreadyLatency, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			return timedOut();
+		}
+		catch (ExecutionException e) {
+			logger.warn("Readiness check failed", e.getCause());
+			return timedOut();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return timedOut();
+		}
+	}
+
+	private Map<String, Object> timedOut() {
+		Map<String, Object> database = new LinkedHashMap<String, Object>();
+		database.put("status", DOWN);
+		database.put("latency_ms", unreadyLatency);
+		Map<String, Object> checks = new LinkedHashMap<String, Object>();
+		checks.put("database", database);
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("status", DOWN);
+		result.put("checked", System.currentTimeMillis());
+		result.put("checks", checks);
+		return Collections.unmodifiableMap(result);
+	}
+
+	private Map<String, Object> check() {
+		Map<String, Object> checks = new LinkedHashMap<String, Object>();
+		Map<String, Object> pool = checkPool();
+		if (pool != null && (DOWN.equals(pool.get("status")) || Boolean.TRUE.equals(pool.get("saturated")))) {
+			// Borrowing a connection would only add to the queue
+			Map<String, Object> database = new LinkedHashMap<String, Object>();
+			database.put("status", pool.get("status"));
+			database.put("skipped", true);
+			checks.put("database", database);
+		}
+		else {
+			checks.put("database", checkDatabase());
+		}
+		if (pool != null) {
+			checks.put("pool", pool);
+		}
+		String status = UP;
+		for (Object check : checks.values()) {
+			status = worst(status, (String) ((Map<?, ?>) check).get("status"));
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("status", status);
+		result.put("checked", System.currentTimeMillis());
+		result.put("checks", checks);
+		if (!UP.equals(status)) {
+			logger.info("Readiness " + status + ": " + checks);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	private Map<String, Object> checkDatabase() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		long start = System.nanoTime();
+		String status;
+		try {
+			jdbcTemplate.execute(validationQuery);
+			long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			status = latency > unreadyLatency ? DOWN : latency > degradedLatency ? DEGRADED : UP;
+		}
+		catch (RuntimeException e) {
+			status = DOWN;
+			logger.warn("Readiness validation query failed: " + e.getMessage());
+		}
+		result.put("status", status);
+		result.put("latency_ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return result;
+	}
+
+	/**
+	 * @return the state of the connection pool, or null if the data source does not expose it
+	 */
+	private Map<String, Object> checkPool() {
+		BeanWrapper pool = new BeanWrapperImpl(dataSource);
+		Integer active = getInt(pool, "numActive");
+		Integer maxActive = getInt(pool, "maxActive");
+		if (active == null || maxActive == null) {
+			return null;
+		}
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		Integer idle = getInt(pool, "numIdle");
+		Integer waiting = getInt(pool, "waitCount");
+		double utilization = maxActive > 0 ? (double) active / maxActive : 0;
+		boolean saturated = maxActive > 0 && active >= maxActive;
+		String status = UP;
+		if (utilization > degradedUtilization || saturated) {
+			status = DEGRADED;
+		}
+		if (waiting != null && waiting > 0) {
+			status = waiting > unreadyWaiters ? DOWN : DEGRADED;
+		}
+		result.put("status", status);
+		result.put("active", active);
+		result.put("max_active", maxActive);
+		if (idle != null) {
+			result.put("idle", idle);
+		}
+		if (waiting != null) {
+			result.put("waiting", waiting);
+		}
+		result.put("utilization", Math.round(utilization * 100) / 100.0);
+		if (saturated) {
+			result.put("saturated", true);
+		}
+		return result;
+	}
+
+	private static Integer getInt(BeanWrapper wrapper, String property) {
+		if (!wrapper.isReadableProperty(property)) {
+			return null;
+		}
+		Object value = wrapper.getPropertyValue(property);
+		return value instanceof Number ? ((Number) value).intValue() : null;
+	}
+
+	private static String worst(String one, String other) {
+		if (DOWN.equals(one) || DOWN.equals(other)) {
+			return DOWN;
+		}
+		if (DEGRADED.equals(one) || DEGRADED.equals(other)) {
+			return DEGRADED;
+		}
+		return UP;
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+
+package org.cloudfoundry.identity.uaa.web;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.cloudfoundry.identity.uaa.metrics.MetricsSource;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Lightweight controller that returns the metrics of the application as JSON, for monitoring agents that cannot use
+ * JMX. Each {@link MetricsSource} contributes a section under its own name, next to some basic information about the
+ * JVM.
+ */
+@Controller
+public class VarzEndpoint {
+
+	private Map<String, MetricsSource> sources = new LinkedHashMap<String, MetricsSource>();
+
+	/**
+	 * @param sources the metrics to publish, keyed by the name of their section in the response
+	 */
+	public void setSources(Map<String, MetricsSource> sources) {
+		this.sources = new LinkedHashMap<String, MetricsSource>(sources);
+	}
+
+	@RequestMapping("/varz")
+	@ResponseBody
+	public Map<String, ?> getVarz() throws Exception {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("uptime", ManagementFactory.getRuntimeMXBean().getUptime() / 1000);
+		result.put("mem", getMemory());
+		result.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+		for (Map.Entry<String, MetricsSource> entry : sources.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().getMetrics());
+		}
+		return result;
+	}
+
+	private Map<String, Long> getMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		Map<String, Long> memory = new LinkedHashMap<String, Long>();
+		memory.put("free", runtime.freeMemory());
+		memory.put("total", runtime.totalMemory());
+		memory.put("max", runtime.maxMemory());
+		return memory;
+	}
+
+}
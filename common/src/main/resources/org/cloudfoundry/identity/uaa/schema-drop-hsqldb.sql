@@ -18,4 +18,6 @@ DROP TABLE  OAUTH_CLIENT_DETAILS IF EXISTS;
 DROP TABLE  GROUP_MEMBERSHIP IF EXISTS;
 DROP TABLE  GROUPS IF EXISTS;
 DROP TABLE  oauth_code IF EXISTS;
-DROP TABLE  AUTHZ_APPROVALS IF EXISTS;
\ No newline at end of file
+DROP TABLE  AUTHZ_APPROVALS IF EXISTS;
+DROP TABLE  REVOCATION_EPOCHS IF EXISTS;
+DROP TABLE  SCHEMA_VERSION IF EXISTS;
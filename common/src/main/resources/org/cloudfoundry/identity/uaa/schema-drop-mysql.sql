@@ -16,4 +16,6 @@ DROP TABLE  users ;
 DROP TABLE  sec_audit ;
 DROP TABLE  oauth_client_details ;
 DROP TABLE  authz_approvals ;
-DROP TABLE  oauth_code ;
\ No newline at end of file
+DROP TABLE  oauth_code ;
+DROP TABLE  revocation_epochs ;
+DROP TABLE  schema_version ;
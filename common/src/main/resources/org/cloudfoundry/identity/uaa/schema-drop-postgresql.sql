@@ -18,4 +18,6 @@ DROP TABLE  OAUTH_CLIENT_DETAILS ;
 DROP TABLE  GROUP_MEMBERSHIP ;
 DROP TABLE  GROUPS ;
 DROP TABLE  AUTHZ_APPROVALS ;
-DROP TABLE  oauth_code ;
\ No newline at end of file
+DROP TABLE  oauth_code ;
+DROP TABLE  REVOCATION_EPOCHS ;
+DROP TABLE  SCHEMA_VERSION ;
@@ -19,7 +19,7 @@ CREATE TABLE USERS (
    version BIGINT default 0 not null,
    username VARCHAR_IGNORECASE(255) not null,
    password VARCHAR(255) not null,
-   email VARCHAR(255) not null,
+   email VARCHAR_IGNORECASE(255) not null,
    authorities VARCHAR(1024) default 'uaa.user' not null,
    givenName VARCHAR(255),
    familyName VARCHAR(255),
@@ -29,6 +29,8 @@ CREATE TABLE USERS (
 
 CREATE UNIQUE INDEX unique_uk_1 on users (username);
 
+CREATE INDEX users_email on users (email);
+
 CREATE TABLE SEC_AUDIT (
    principal_id char(36) not null,
    event_type INTEGER not null,
@@ -55,7 +57,7 @@ create table oauth_code (
 ) ;
 
 CREATE TABLE AUTHZ_APPROVALS (
-  userName VARCHAR(36) not null,
+  userName VARCHAR_IGNORECASE(36) not null,
   clientId VARCHAR(36) not null,
   scope VARCHAR(255) not null,
   expiresAt TIMESTAMP default current_timestamp not null,
@@ -63,3 +65,16 @@ CREATE TABLE AUTHZ_APPROVALS (
   lastModifiedAt TIMESTAMP default current_timestamp not null,
   primary key (userName, clientId, scope)
 ) ;
+
+CREATE TABLE REVOCATION_EPOCHS (
+  subject_type VARCHAR(10) not null,
+  subject_id VARCHAR(255) not null,
+  epoch BIGINT not null,
+  primary key (subject_type, subject_id)
+) ;
+
+CREATE INDEX revocation_epochs_epoch on revocation_epochs (epoch);
+
+CREATE INDEX users_lastmodified on users (lastModified);
+
+CREATE INDEX users_token_fields on users (id, active, username, email, lastModified);
@@ -29,6 +29,8 @@ CREATE TABLE users (
 
 CREATE UNIQUE INDEX unique_uk_1 on users (username);
 
+CREATE INDEX users_email on users (email);
+
 CREATE TABLE sec_audit (
    principal_id char(36) not null,
    event_type INTEGER not null,
@@ -64,3 +66,16 @@ CREATE TABLE authz_approvals (
   lastModifiedAt TIMESTAMP not null,
   primary key (userName, clientId, scope)
 ) ;
+
+CREATE TABLE revocation_epochs (
+  subject_type VARCHAR(10) not null,
+  subject_id VARCHAR(255) not null,
+  epoch BIGINT not null,
+  primary key (subject_type, subject_id)
+) ;
+
+CREATE INDEX revocation_epochs_epoch on revocation_epochs (epoch);
+
+CREATE INDEX users_lastmodified on users (lastModified);
+
+CREATE INDEX users_token_fields on users (id, active, username, email, lastModified);
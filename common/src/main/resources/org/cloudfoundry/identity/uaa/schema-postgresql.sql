@@ -29,6 +29,8 @@ CREATE TABLE USERS (
 
 CREATE UNIQUE INDEX unique_uk_1 on users (lower(username));
 
+CREATE INDEX users_email on users (lower(email));
+
 CREATE TABLE SEC_AUDIT (
    principal_id char(36) not null,
    event_type INTEGER not null,
@@ -63,3 +65,16 @@ CREATE TABLE AUTHZ_APPROVALS (
   lastModifiedAt TIMESTAMP default current_timestamp not null,
   primary key (userName, clientId, scope)
 ) ;
+
+CREATE TABLE REVOCATION_EPOCHS (
+  subject_type VARCHAR(10) not null,
+  subject_id VARCHAR(255) not null,
+  epoch BIGINT not null,
+  primary key (subject_type, subject_id)
+) ;
+
+CREATE INDEX revocation_epochs_epoch on revocation_epochs (epoch);
+
+CREATE INDEX users_lastmodified on users (lastModified);
+
+CREATE INDEX users_token_fields on users (id, active, username, email, lastModified);
@@ -0,0 +1,173 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.authentication.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql", "test,mysql", "test,oracle" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class PasswordRehasherTests {
+
+	private static final String ADD_USER_SQL = "insert into users (id, username, password, email, lastModified) values (?,?,?,?,?)";
+
+	// "password", with cost 10
+	private static final String PASSWORD = "$2a$10$HoWPAUn9zqmmb0b.2TBZWe6cjQcxyo8TDwTX.5G46PBL347N3/0zO";
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate template;
+
+	private BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(4);
+
+	private PasswordRehasher rehasher;
+
+	private String joeId = UUID.randomUUID().toString();
+
+	// Whole seconds, so that the comparisons also work on databases that truncate timestamps
+	private long joeModified = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+
+	@Before
+	public void initializeDb() throws Exception {
+		template = new JdbcTemplate(dataSource);
+		template.update(ADD_USER_SQL, joeId, "joe", PASSWORD, "joe@test.org", new Timestamp(joeModified));
+		rehasher = new PasswordRehasher(template, encoder, 4);
+		rehasher.setMaxPerSecond(0);
+		rehasher.afterPropertiesSet();
+	}
+
+	@After
+	public void clearDb() throws Exception {
+		rehasher.destroy();
+		TestUtils.deleteFrom(dataSource, "users", "oauth_client_details");
+	}
+
+	@Test
+	public void testOutdatedHashes() {
+		assertTrue(rehasher.isOutdated(PASSWORD));
+		assertTrue(rehasher.isOutdated("password"));
+		assertTrue(rehasher.isOutdated(null));
+		assertFalse(rehasher.isOutdated(encoder.encode("password")));
+	}
+
+	@Test
+	public void testOtherBcryptVersionsAreRecognized() {
+		String costAndHash = PASSWORD.substring(4);
+		assertEquals(10, PasswordRehasher.getCost("$2b$" + costAndHash));
+		assertEquals(10, PasswordRehasher.getCost("$2y$" + costAndHash));
+		assertEquals(-1, PasswordRehasher.getCost("$3a$" + costAndHash));
+		assertEquals(-1, PasswordRehasher.getCost("$2$$" + costAndHash));
+	}
+
+	@Test
+	public void testOutdatedPasswordIsRehashed() throws Exception {
+		rehasher.rehash(joeId, PASSWORD, "password");
+		rehasher.destroy();
+		String hash = template.queryForObject("select password from users where id=?", String.class, joeId);
+		assertFalse(rehasher.isOutdated(hash));
+		assertTrue(encoder.matches("password", hash));
+		assertEquals(1, rehasher.getRehashed());
+		// The last modified time is used to revoke tokens, so it must not change
+		assertEquals(joeModified,
+				template.queryForObject("select lastModified from users where id=?", Timestamp.class, joeId).getTime());
+	}
+
+	@Test
+	public void testCurrentPasswordIsNotRehashed() throws Exception {
+		String current = encoder.encode("password");
+		template.update("update users set password=? where id=?", current, joeId);
+		rehasher.rehash(joeId, current, "password");
+		rehasher.destroy();
+		assertEquals(current, template.queryForObject("select password from users where id=?", String.class, joeId));
+		assertEquals(0, rehasher.getRehashed());
+	}
+
+	@Test
+	public void testChangedPasswordIsNotOverwritten() throws Exception {
+		template.update("update users set password=? where id=?", "changed", joeId);
+		rehasher.rehash(joeId, PASSWORD, "password");
+		rehasher.destroy();
+		assertEquals("changed", template.queryForObject("select password from users where id=?", String.class, joeId));
+		assertEquals(0, rehasher.getRehashed());
+	}
+
+	@Test
+	public void testRehashesAreDroppedWhenQueueIsFull() throws Exception {
+		rehasher.destroy();
+		rehasher = new PasswordRehasher(template, encoder, 4);
+		rehasher.setQueueSize(1);
+		rehasher.afterPropertiesSet();
+		for (int i = 0; i < 10; i++) {
+			rehasher.rehash(UUID.randomUUID().toString(), PASSWORD, "password");
+		}
+		assertTrue(rehasher.getDropped() > 0);
+	}
+
+	@Test
+	public void testRehashesThatWaitTooLongAreDropped() throws Exception {
+		rehasher.destroy();
+		rehasher = new PasswordRehasher(template, encoder, 4);
+		rehasher.setMaxPerSecond(1);
+		rehasher.setMaxWait(100);
+		rehasher.afterPropertiesSet();
+		rehasher.rehash(joeId, PASSWORD, "password");
+		// The next slot is a second away, well past the maximum wait
+		rehasher.rehash(UUID.randomUUID().toString(), PASSWORD, "password");
+		rehasher.destroy();
+		assertTrue(rehasher.getDropped() > 0);
+		assertEquals(0, rehasher.getPending());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testReportCountsCosts() throws Exception {
+		template.update(ADD_USER_SQL, UUID.randomUUID().toString(), "mabel", encoder.encode("password"),
+				"mabel@test.org", new Timestamp(joeModified));
+		template.update("insert into oauth_client_details (client_id, client_secret) values (?,?)", "app", "");
+		assertTrue(rehasher.startReport());
+		long timeout = System.currentTimeMillis() + 10000;
+		while (rehasher.getReport().isEmpty() && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10);
+		}
+		Map<String, Integer> users = (Map<String, Integer>) rehasher.getReport().get("users");
+		assertEquals(1, users.get("10").intValue());
+		assertEquals(1, users.get("4").intValue());
+		Map<String, Integer> clients = (Map<String, Integer>) rehasher.getReport().get("clients");
+		assertEquals(1, clients.get("none").intValue());
+	}
+
+}
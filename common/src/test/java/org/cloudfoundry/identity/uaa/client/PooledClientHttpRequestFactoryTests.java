@@ -0,0 +1,109 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.cloudfoundry.identity.uaa.oauth.RemoteTokenServices;
+import org.cloudfoundry.identity.uaa.oauth.RemoteUserAuthentication;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledClientHttpRequestFactoryTests {
+
+	private HttpServer server;
+
+	private String baseUrl;
+
+	private PooledClientHttpRequestFactory requestFactory = new PooledClientHttpRequestFactory();
+
+	private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+
+	private volatile String authorization;
+
+	@Before
+	public void start() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				clientPorts.add(exchange.getRemoteAddress().getPort());
+				authorization = exchange.getRequestHeaders().getFirst("Authorization");
+				byte[] body = ("{\"client_id\":\"app\",\"user_name\":\"marissa\",\"user_id\":\"12345\","
+						+ "\"scope\":[\"openid\"]}").getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		server.start();
+		baseUrl = "http://localhost:" + server.getAddress().getPort();
+		requestFactory.setMaxPerRoute(2);
+		requestFactory.setReadTimeout(5000);
+		requestFactory.afterPropertiesSet();
+	}
+
+	@After
+	public void stop() throws Exception {
+		requestFactory.destroy();
+		server.stop(0);
+	}
+
+	@Test
+	public void testConnectionsAreReused() throws Exception {
+		RestTemplate template = new RestTemplate(requestFactory);
+		for (int i = 0; i < 10; i++) {
+			template.getForObject(baseUrl + "/info", String.class);
+		}
+		assertEquals(1, clientPorts.size());
+		assertEquals(0, requestFactory.getLeased());
+		assertEquals(1, requestFactory.getAvailable());
+		assertTrue(requestFactory.getMax() >= 2);
+	}
+
+	@Test
+	public void testRemoteTokenServices() throws Exception {
+		RemoteTokenServices services = new RemoteTokenServices();
+		services.setRequestFactory(requestFactory);
+		services.setCheckTokenEndpointUrl(baseUrl + "/check_token");
+		services.setClientId("app");
+		services.setClientSecret("appclientsecret");
+		services.afterPropertiesSet();
+		for (int i = 0; i < 5; i++) {
+			OAuth2Authentication authentication = services.loadAuthentication("FOO");
+			assertEquals("marissa", authentication.getUserAuthentication().getName());
+			assertEquals("12345", ((RemoteUserAuthentication) authentication.getUserAuthentication()).getId());
+		}
+		assertEquals("Basic YXBwOmFwcGNsaWVudHNlY3JldA==", authorization);
+		assertEquals(1, clientPorts.size());
+		services.destroy();
+	}
+
+}
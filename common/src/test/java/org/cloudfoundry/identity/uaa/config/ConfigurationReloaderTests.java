@@ -0,0 +1,142 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+public class ConfigurationReloaderTests {
+
+	private File file;
+
+	private StandardEnvironment environment = new StandardEnvironment();
+
+	private Settings settings = new Settings();
+
+	private ConfigurationReloader reloader = new ConfigurationReloader();
+
+	@Before
+	public void setup() throws Exception {
+		file = File.createTempFile("uaa", ".yml");
+		write("lockout:\n  failures: 5\n  period: 300\nissuer: http://localhost:8080/uaa\n");
+		List<Resource> resources = Collections.<Resource> singletonList(new FileSystemResource(file));
+		environment.getPropertySources().addFirst(
+				YamlServletProfileInitializer.loadPropertySource(resources,
+						YamlServletProfileInitializer.DEFAULT_YAML_KEY));
+
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		properties.put("lockout.failures", "failures");
+		properties.put("lockout.period", "period");
+		ConfigurationBinding binding = new ConfigurationBinding(settings);
+		binding.setProperties(properties);
+		binding.setReinitialize(true);
+
+		reloader.setEnvironment(environment);
+		reloader.setBindings(Arrays.asList(binding));
+		reloader.setPollInterval(0);
+		reloader.afterPropertiesSet();
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		reloader.destroy();
+		file.delete();
+	}
+
+	@Test
+	public void unchangedConfigurationIsNotApplied() throws Exception {
+		assertEquals("No changes", reloader.reload());
+		assertEquals(0, settings.initialized);
+	}
+
+	@Test
+	public void boundChangesAreApplied() throws Exception {
+		write("lockout:\n  failures: 3\n  period: 300\nissuer: http://localhost:8080/uaa\n");
+		reloader.reload();
+		assertEquals(3, settings.failures);
+		assertEquals(0, settings.period);
+		assertEquals(1, settings.initialized);
+		assertEquals("3", environment.getProperty("lockout.failures"));
+		assertTrue(reloader.getRestartRequired().isEmpty());
+	}
+
+	@Test
+	public void unboundChangesRequireRestart() throws Exception {
+		write("lockout:\n  failures: 5\n  period: 300\nissuer: http://uaa.example.com\n");
+		reloader.reload();
+		assertEquals(0, settings.initialized);
+		assertEquals("[issuer]", reloader.getRestartRequired().toString());
+		assertEquals("http://uaa.example.com", environment.getProperty("issuer"));
+	}
+
+	@Test
+	public void removedKeysKeepTheirValue() throws Exception {
+		settings.period = 300;
+		write("lockout:\n  failures: 5\nissuer: http://localhost:8080/uaa\n");
+		reloader.reload();
+		assertEquals(300, settings.period);
+		assertEquals(0, settings.initialized);
+		assertEquals("[lockout.period]", reloader.getRestartRequired().toString());
+	}
+
+	private void write(String yaml) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(yaml);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	public static class Settings implements InitializingBean {
+
+		private int failures;
+
+		private int period;
+
+		private int initialized;
+
+		public void setFailures(int failures) {
+			this.failures = failures;
+		}
+
+		public void setPeriod(int period) {
+			this.period = period;
+		}
+
+		@Override
+		public void afterPropertiesSet() throws Exception {
+			initialized++;
+		}
+
+	}
+
+}
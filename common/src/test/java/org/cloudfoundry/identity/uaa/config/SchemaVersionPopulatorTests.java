@@ -0,0 +1,145 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql", "test,mysql", "test,oracle" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class SchemaVersionPopulatorTests {
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate template;
+
+	private File script;
+
+	private SchemaVersionPopulator populator = new SchemaVersionPopulator();
+
+	@Before
+	public void setup() throws Exception {
+		template = new JdbcTemplate(dataSource);
+		script = File.createTempFile("schema", ".sql");
+		write("create table schema_test (id integer);\ninsert into schema_test (id) values (1);\n");
+		populator.setLocations(Arrays.asList(script.toURI().toString()));
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		script.delete();
+		template.execute("drop table schema_test");
+		template.execute("drop table schema_version");
+	}
+
+	@Test
+	public void scriptsRunOnFirstStart() throws Exception {
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		assertEquals(1, template.queryForInt("select count(*) from schema_test"));
+		assertNotNull(populator.getVersion());
+		assertEquals(populator.getVersion(), template.queryForObject("select version from schema_version", String.class));
+	}
+
+	@Test
+	public void scriptsDoNotRunWhenSchemaIsCurrent() throws Exception {
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		assertEquals(1, template.queryForInt("select count(*) from schema_test"));
+	}
+
+	@Test
+	public void changedScriptsRunAgain() throws Exception {
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		String version = populator.getVersion();
+		write("create table schema_test (id integer);\ninsert into schema_test (id) values (2);\n");
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		// The create fails, but the rest of the script still runs
+		assertEquals(2, template.queryForInt("select count(*) from schema_test"));
+		assertEquals(1, template.queryForInt("select count(*) from schema_version"));
+		assertEquals(populator.getVersion(),
+				template.queryForObject("select version from schema_version", String.class));
+		assertFalse(version.equals(populator.getVersion()));
+	}
+
+	@Test
+	public void versionNotSavedWhenAStatementFails() throws Exception {
+		write("create table schema_test (id integer);\ninsert into no_such_table (id) values (1);\n");
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		assertEquals(0, template.queryForInt("select count(*) from schema_test"));
+		assertNull(getSavedVersion());
+		// Fixed script
+		write("create table schema_test (id integer);\ninsert into schema_test (id) values (1);\n");
+		DatabasePopulatorUtils.execute(populator, dataSource);
+		assertEquals(1, template.queryForInt("select count(*) from schema_test"));
+		assertEquals(populator.getVersion(), getSavedVersion());
+	}
+
+	@Test
+	public void alreadyAppliedErrorsAreRecognized() {
+		String create = "create index foo on bar (id)";
+		assertTrue(SchemaVersionPopulator.isAlreadyApplied(create, new SQLException("exists", "42P07")));
+		assertTrue(SchemaVersionPopulator.isAlreadyApplied(create, new SQLException("Duplicate key name", "42000", 1061)));
+		assertFalse(SchemaVersionPopulator.isAlreadyApplied(create, new SQLException("syntax error", "42601")));
+		String drop = "ALTER TABLE users DROP CONSTRAINT foo";
+		assertTrue(SchemaVersionPopulator.isAlreadyApplied(drop, new SQLException("does not exist", "42704")));
+		assertFalse(SchemaVersionPopulator.isAlreadyApplied(create, new SQLException("does not exist", "42704")));
+	}
+
+	private String getSavedVersion() {
+		try {
+			return template.queryForObject("select version from schema_version", String.class);
+		}
+		catch (DataAccessException e) {
+			return null;
+		}
+	}
+
+	private void write(String sql) throws IOException {
+		FileWriter writer = new FileWriter(script);
+		try {
+			writer.write(sql);
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+}
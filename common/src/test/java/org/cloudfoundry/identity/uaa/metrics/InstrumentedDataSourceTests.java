@@ -0,0 +1,114 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql", "test,mysql", "test,oracle" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class InstrumentedDataSourceTests {
+
+	@Autowired
+	private DataSource dataSource;
+
+	private SqlStatistics statistics = new SqlStatistics();
+
+	private JdbcTemplate template;
+
+	@Before
+	public void init() {
+		template = new JdbcTemplate(new InstrumentedDataSource(dataSource, statistics));
+		template.update("delete from oauth_code");
+	}
+
+	@Test
+	public void testUpdatesAndQueriesAreRecorded() {
+		template.update("insert into oauth_code (code) values (?)", "foo");
+		template.update("insert into oauth_code (code) values (?)", "bar");
+		assertEquals(2, template.queryForList("select code from oauth_code", String.class).size());
+
+		Map<String, Map<String, Object>> statements = statistics.getStatements();
+		Map<String, Object> insert = statements.get("insert into oauth_code (code) values (?)");
+		assertEquals(2L, insert.get("count"));
+		assertEquals(2L, insert.get("rows"));
+		Map<String, Object> select = statements.get("select code from oauth_code");
+		assertEquals(1L, select.get("count"));
+		assertEquals(2L, select.get("rows"));
+		assertEquals(4, statistics.getStatementCount());
+	}
+
+	@Test
+	public void testNamedParameterTemplate() {
+		new NamedParameterJdbcTemplate(template).update("insert into oauth_code (code) values (:code)",
+				new MapSqlParameterSource("code", "foo"));
+		assertTrue(statistics.getStatements().containsKey("insert into oauth_code (code) values (?)"));
+	}
+
+	@Test
+	public void testErrorsAreRecorded() {
+		try {
+			template.queryForInt("select count(*) from no_such_table");
+		}
+		catch (DataAccessException e) {
+			// expected
+		}
+		assertEquals(1, statistics.getErrorCount());
+	}
+
+	@Test
+	public void testSlowQueries() {
+		statistics.setSlowQueryThreshold(-1);
+		template.queryForInt("select count(*) from oauth_code");
+		assertEquals(1, statistics.getSlowStatementCount());
+	}
+
+	@Test
+	public void testRequestTotalsByEndpoint() {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/uaa/Users/7f3e-42/approvals");
+		request.setContextPath("/uaa");
+		String endpoint = SqlStatisticsFilter.getEndpoint(request);
+		assertEquals("GET /Users/{id}/approvals", endpoint);
+
+		statistics.startRequest();
+		template.queryForInt("select count(*) from oauth_code");
+		template.queryForInt("select count(*) from oauth_code");
+		assertTrue(statistics.endRequest(endpoint).startsWith("2 statements"));
+
+		Map<String, Object> totals = statistics.getEndpoints().get(endpoint);
+		assertEquals(1L, totals.get("count"));
+		assertEquals(2L, totals.get("statements"));
+	}
+
+}
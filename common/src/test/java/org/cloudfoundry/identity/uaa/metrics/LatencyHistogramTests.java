@@ -0,0 +1,83 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTests {
+
+	private LatencyHistogram histogram = new LatencyHistogram();
+
+	@Test
+	public void testEmpty() {
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testBucketsAreContiguous() {
+		for (int i = 1; i < 900; i++) {
+			assertEquals(i, LatencyHistogram.index(lowerBound(i)));
+			assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+		}
+	}
+
+	@Test
+	public void testPrecision() {
+		for (long value = 1; value < Long.MAX_VALUE / 2; value = value * 3 + 1) {
+			long upper = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+			assertTrue(upper >= value);
+			assertTrue("Imprecise bucket for " + value, upper - value <= value / 16 + 1);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500, histogram.getMean());
+		assertEquals(1000, histogram.getMax());
+		assertWithin(500, histogram.getPercentile(50));
+		assertWithin(990, histogram.getPercentile(99));
+		assertEquals(1000, histogram.getPercentile(100));
+	}
+
+	@Test
+	public void testSnapshotAndReset() {
+		histogram.record(TimeUnit.MILLISECONDS.toNanos(2));
+		Map<String, Long> snapshot = histogram.snapshot();
+		assertEquals(1, snapshot.get("count").longValue());
+		assertEquals(2000, snapshot.get("max").longValue());
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMax());
+	}
+
+	private void assertWithin(long expected, long actual) {
+		assertTrue("Expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 16);
+	}
+
+	private long lowerBound(int index) {
+		return index == 0 ? 0 : LatencyHistogram.upperBound(index - 1) + 1;
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SqlNormalizerTests {
+
+	@Test
+	public void testPlaceholdersUnchanged() {
+		assertEquals("select id from users where username=?",
+				SqlNormalizer.normalize("select id from users where username=?"));
+	}
+
+	@Test
+	public void testLiteralsReplaced() {
+		assertEquals("select id from users where username=? and version=? and active=true",
+				SqlNormalizer.normalize("select id from users where username='it''s me' and version=12 and active=true"));
+	}
+
+	@Test
+	public void testIdentifiersWithDigitsKept() {
+		assertEquals("select * from group_membership g1 where g1.x=?",
+				SqlNormalizer.normalize("select * from group_membership g1 where g1.x=3"));
+	}
+
+	@Test
+	public void testWhitespaceCollapsed() {
+		assertEquals("select id from users where id=?",
+				SqlNormalizer.normalize("  select id\n\tfrom users   where id=? "));
+	}
+
+	@Test
+	public void testPlaceholderListsCollapsed() {
+		assertEquals("select id from users where id in (?) and lower(email) in (?)",
+				SqlNormalizer.normalize("select id from users where id in (?, ?,?) and lower(email) in ('a','b')"));
+		assertEquals("insert into users (id,username) values (?)",
+				SqlNormalizer.normalize("insert into users (id,username) values (?,?)"));
+		assertEquals("select count(?) from users where lower(email) = ?",
+				SqlNormalizer.normalize("select count(1) from users where lower(email) = ?"));
+	}
+
+	@Test
+	public void testNull() {
+		assertEquals("unknown", SqlNormalizer.normalize(null));
+	}
+
+}
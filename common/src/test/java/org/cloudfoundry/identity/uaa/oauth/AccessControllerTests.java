@@ -14,16 +14,20 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
 import org.cloudfoundry.identity.uaa.oauth.approval.ApprovalStore;
+import org.cloudfoundry.identity.uaa.oauth.event.ClientUpdateEvent;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.oauth2.provider.BaseClientDetails;
+import org.springframework.security.oauth2.provider.ClientDetailsService;
 import org.springframework.security.oauth2.provider.DefaultAuthorizationRequest;
 import org.springframework.security.oauth2.provider.InMemoryClientDetailsService;
 import org.springframework.ui.ModelMap;
@@ -67,4 +71,49 @@ public class AccessControllerTests {
 		assertEquals("/oauth/authorize", options.get("path"));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testScopesOrderedWithUserScopesFirst() throws Exception {
+		BaseClientDetails client = new BaseClientDetails("client", null,
+				"foo,cloud_controller.read,uaa.user,password.write,openid", "authorization_code", null);
+		InMemoryClientDetailsService clientDetailsService = new InMemoryClientDetailsService();
+		clientDetailsService.setClientDetailsStore(Collections.singletonMap("client", client));
+		controller.setClientDetailsService(clientDetailsService);
+		controller.setApprovalStore(Mockito.mock(ApprovalStore.class));
+		ModelMap model = new ModelMap();
+		model.put("authorizationRequest", new DefaultAuthorizationRequest("client", client.getScope()));
+		Authentication auth = UaaAuthenticationTestFactory.getAuthentication("foo@bar.com", "Foo Bar", "foo@bar.com");
+		controller.confirm(model, new MockHttpServletRequest(), auth, new SimpleSessionStatus());
+		List<Map<String, String>> scopes = (List<Map<String, String>>) model.get("undecided_scopes");
+		assertEquals(4, scopes.size());
+		assertEquals("scope.openid", scopes.get(0).get("code"));
+		assertEquals("scope.password.write", scopes.get(1).get("code"));
+		assertEquals("scope.cloud_controller.read", scopes.get(2).get("code"));
+		assertEquals("Access your 'cloud_controller' resources with scope 'read'", scopes.get(2).get("text"));
+		assertEquals("scope.foo", scopes.get(3).get("code"));
+		assertEquals("Access your data with scope 'foo'", scopes.get(3).get("text"));
+		assertEquals(scopes, model.get("scopes"));
+	}
+
+	@Test
+	public void testClientCachedUntilUpdated() throws Exception {
+		BaseClientDetails client = new BaseClientDetails("client", null, "openid", "authorization_code", null);
+		ClientDetailsService clientDetailsService = Mockito.mock(ClientDetailsService.class);
+		Mockito.when(clientDetailsService.loadClientByClientId("client")).thenReturn(client);
+		controller.setClientDetailsService(clientDetailsService);
+		controller.setApprovalStore(Mockito.mock(ApprovalStore.class));
+		Authentication auth = UaaAuthenticationTestFactory.getAuthentication("foo@bar.com", "Foo Bar", "foo@bar.com");
+		for (int i = 0; i < 2; i++) {
+			ModelMap model = new ModelMap();
+			model.put("authorizationRequest", new DefaultAuthorizationRequest("client", Arrays.asList("openid")));
+			controller.confirm(model, new MockHttpServletRequest(), auth, new SimpleSessionStatus());
+		}
+		Mockito.verify(clientDetailsService, Mockito.times(1)).loadClientByClientId("client");
+		controller.onApplicationEvent(new ClientUpdateEvent(client, auth));
+		ModelMap model = new ModelMap();
+		model.put("authorizationRequest", new DefaultAuthorizationRequest("client", Arrays.asList("openid")));
+		controller.confirm(model, new MockHttpServletRequest(), auth, new SimpleSessionStatus());
+		Mockito.verify(clientDetailsService, Mockito.times(2)).loadClientByClientId("client");
+	}
+
 }
@@ -13,10 +13,12 @@
 package org.cloudfoundry.identity.uaa.oauth;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.cloudfoundry.identity.uaa.authentication.UaaAuthenticationTestFactory;
@@ -30,6 +32,7 @@ import org.cloudfoundry.identity.uaa.user.MockUaaUserDatabase;
 import org.cloudfoundry.identity.uaa.user.UaaUserDatabase;
 import org.junit.Test;
 import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidRequestException;
 import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.BaseClientDetails;
 import org.springframework.security.oauth2.provider.ClientDetails;
@@ -56,7 +59,15 @@ public class CheckTokenEndpointTests {
 
 	private InMemoryClientDetailsService clientDetailsService = new InMemoryClientDetailsService();
 
-	private ApprovalStore approvalStore = new InMemoryApprovalStore();
+	private int approvalLookups = 0;
+
+	private ApprovalStore approvalStore = new InMemoryApprovalStore() {
+		@Override
+		public List<Approval> getApprovals(String userName, String clientId) {
+			approvalLookups++;
+			return super.getApprovals(userName, clientId);
+		}
+	};
 
 	public CheckTokenEndpointTests() {
 		authentication = new OAuth2Authentication(new DefaultAuthorizationRequest("client", Collections.singleton("read")),
@@ -177,4 +188,43 @@ public class CheckTokenEndpointTests {
 		assertEquals("client", result.get("user_id"));
 	}
 
+	@Test
+	public void testBatchOfTokens() {
+		OAuth2AccessToken other = tokenServices.createAccessToken(authentication);
+		List<Map<String, ?>> result = endpoint.checkTokens(new String[] { accessToken.getValue(), "FOO",
+				other.getValue() });
+		assertEquals(3, result.size());
+		assertEquals("olds", result.get(0).get("user_name"));
+		assertEquals("invalid_token", result.get(1).get("error"));
+		assertNotNull(result.get(1).get("error_description"));
+		assertEquals("olds", result.get(2).get("user_name"));
+	}
+
+	@Test
+	public void testBatchSharesApprovalLookups() {
+		OAuth2AccessToken other = tokenServices.createAccessToken(authentication);
+		approvalLookups = 0;
+		endpoint.checkTokens(new String[] { accessToken.getValue(), other.getValue() });
+		assertEquals(1, approvalLookups);
+	}
+
+	@Test
+	public void testBatchReportsRevokedApprovalsPerToken() {
+		Date thirtySecondsAhead = new Date(System.currentTimeMillis() + 30000);
+		approvalStore.addApproval(new Approval("olds", "client", "read", thirtySecondsAhead, ApprovalStatus.APPROVED,
+				new Date()));
+		authentication = new OAuth2Authentication(new DefaultAuthorizationRequest("client", Collections.singleton("read")), null);
+		OAuth2AccessToken clientToken = tokenServices.createAccessToken(authentication);
+		List<Map<String, ?>> result = endpoint.checkTokens(new String[] { accessToken.getValue(),
+				clientToken.getValue() });
+		assertEquals("invalid_token", result.get(0).get("error"));
+		assertEquals("client", result.get(1).get("client_id"));
+	}
+
+	@Test(expected = InvalidRequestException.class)
+	public void testBatchTooLarge() {
+		endpoint.setMaxBatchSize(1);
+		endpoint.checkTokens(new String[] { accessToken.getValue(), accessToken.getValue() });
+	}
+
 }
@@ -14,17 +14,22 @@ package org.cloudfoundry.identity.uaa.oauth;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.cloudfoundry.identity.uaa.oauth.RemoteTokenServices;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Test;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.MacSigner;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
@@ -43,6 +48,16 @@ public class RemoteTokenServicesTests {
 
 	private HttpStatus status = HttpStatus.OK;
 
+	private static final String KEY = "tokenkey";
+
+	private String tokenKey = KEY;
+
+	private int tokenKeyCalls = 0;
+
+	private int checkTokenCalls = 0;
+
+	private ObjectMapper mapper = new ObjectMapper();
+
 	public RemoteTokenServicesTests() {
 		services.setClientId("client");
 		services.setClientSecret("secret");
@@ -51,11 +66,10 @@ public class RemoteTokenServicesTests {
 		body.put(Claims.EMAIL, "olds@vmware.com");
 		body.put(Claims.USER_ID, "HDGFJSHGDF");
 		services.setRestTemplate(new RestTemplate() {
-			@SuppressWarnings("unchecked")
 			@Override
 			public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
 					Class<T> responseType, Object... uriVariables) throws RestClientException {
-				return new ResponseEntity<T>((T) body, headers, status);
+				return new ResponseEntity<T>(mapper.convertValue(body, responseType), headers, status);
 			}
 		});
 	}
@@ -85,4 +99,97 @@ public class RemoteTokenServicesTests {
 		assertEquals("[uaa.user]", result.getUserAuthentication().getAuthorities().toString());
 	}
 
+	@Test
+	public void testLocalVerification() throws Exception {
+		useLocalVerification();
+		OAuth2Authentication result = services.loadAuthentication(createToken(body));
+		assertEquals("remote", result.getAuthorizationRequest().getClientId());
+		assertEquals("olds", result.getUserAuthentication().getName());
+		assertEquals("HDGFJSHGDF", ((RemoteUserAuthentication) result.getUserAuthentication()).getId());
+		assertEquals(0, checkTokenCalls);
+		assertEquals(1, tokenKeyCalls);
+		services.loadAuthentication(createToken(body));
+		assertEquals(1, tokenKeyCalls);
+	}
+
+	@Test
+	public void testLocalVerificationBuildsSameAuthenticationAsRemote() throws Exception {
+		body.put(Claims.SCOPE, Arrays.asList("openid", "cloud_controller.read"));
+		OAuth2Authentication remote = services.loadAuthentication("FOO");
+		useLocalVerification();
+		OAuth2Authentication local = services.loadAuthentication(createToken(body));
+		assertEquals(remote.getAuthorizationRequest().getScope(), local.getAuthorizationRequest().getScope());
+		assertEquals(remote.getAuthorities(), local.getAuthorities());
+		assertEquals(remote.getUserAuthentication().getAuthorities(), local.getUserAuthentication().getAuthorities());
+	}
+
+	@Test(expected = InvalidTokenException.class)
+	public void testLocalVerificationRejectsExpiredToken() throws Exception {
+		useLocalVerification();
+		body.put(Claims.EXP, System.currentTimeMillis() / 1000 - 10);
+		services.loadAuthentication(createToken(body));
+	}
+
+	@Test(expected = InvalidTokenException.class)
+	public void testLocalVerificationRejectsBadSignature() throws Exception {
+		useLocalVerification();
+		services.loadAuthentication(JwtHelper.encode(mapper.writeValueAsString(body), new MacSigner("other"))
+				.getEncoded());
+	}
+
+	@Test
+	public void testUserTokensCheckedRemotely() throws Exception {
+		useLocalVerification();
+		services.setCheckUserTokensRemotely(true);
+		services.loadAuthentication(createToken(body));
+		assertEquals(1, checkTokenCalls);
+	}
+
+	@Test
+	public void testRemoteFallbackWhenNoKeyAvailable() throws Exception {
+		useLocalVerification();
+		tokenKey = null;
+		OAuth2Authentication result = services.loadAuthentication(createToken(body));
+		assertEquals("olds", result.getUserAuthentication().getName());
+		assertEquals(1, checkTokenCalls);
+	}
+
+	private void useLocalVerification() {
+		services.setCheckTokenEndpointUrl("http://localhost/check_token");
+		services.setTokenKeyEndpointUrl("http://localhost/token_key");
+		services.setKeyRefreshInterval(0);
+		services.setRestTemplate(new RestTemplate() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
+					Class<T> responseType, Object... uriVariables) throws RestClientException {
+				if (method == HttpMethod.GET) {
+					tokenKeyCalls++;
+					if (tokenKey == null) {
+						throw new RestClientException("Not available");
+					}
+					return new ResponseEntity<T>((T) Collections.singletonMap("value", tokenKey), headers, status);
+				}
+				checkTokenCalls++;
+				return new ResponseEntity<T>(mapper.convertValue(body, responseType), headers, status);
+			}
+		});
+	}
+
+	private String createToken(Map<String, Object> claims) throws Exception {
+		return JwtHelper.encode(mapper.writeValueAsString(claims), new MacSigner(KEY)).getEncoded();
+	}
+
+	@Test
+	public void testIntrospectionResultsCached() throws Exception {
+		useLocalVerification();
+		services.setTokenKeyEndpointUrl(null);
+		TokenIntrospectionCache cache = new TokenIntrospectionCache();
+		services.setIntrospectionCache(cache);
+		services.loadAuthentication("FOO");
+		services.loadAuthentication("FOO");
+		assertEquals(1, checkTokenCalls);
+		assertEquals(1, cache.getHits());
+	}
+
 }
@@ -0,0 +1,139 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class TokenClaimsTests {
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void testUserTokenClaims() throws Exception {
+		TokenClaims claims = mapper.readValue("{\"jti\":\"FOO\",\"sub\":\"12345\",\"scope\":[\"openid\",\"cloud_controller.read\"],"
+				+ "\"client_id\":\"vmc\",\"cid\":\"vmc\",\"grant_type\":\"password\",\"user_id\":\"12345\","
+				+ "\"user_name\":\"marissa\",\"email\":\"marissa@test.org\",\"iat\":1360000000,\"exp\":1360043200,"
+				+ "\"iss\":\"http://localhost:8080/uaa/oauth/token\",\"aud\":[\"openid\",\"cloud_controller\"],"
+				+ "\"az_attr\":{\"external_group\":\"admins\"}}", TokenClaims.class);
+		assertEquals("FOO", claims.getJti());
+		assertEquals("12345", claims.getSub());
+		assertEquals(new HashSet<String>(Arrays.asList("openid", "cloud_controller.read")), claims.getScope());
+		assertNull(claims.getAuthorities());
+		assertEquals("vmc", claims.getClientId());
+		assertEquals("vmc", claims.getCid());
+		assertEquals("password", claims.getGrantType());
+		assertEquals("12345", claims.getUserId());
+		assertEquals("marissa", claims.getUserName());
+		assertEquals("marissa@test.org", claims.getEmail());
+		assertEquals(1360000000L, claims.getIat());
+		assertEquals(1360043200L, claims.getExp());
+		assertTrue(claims.isExpired());
+		assertEquals("http://localhost:8080/uaa/oauth/token", claims.getIss());
+		assertEquals(new HashSet<String>(Arrays.asList("openid", "cloud_controller")), claims.getAud());
+		assertEquals(Collections.singletonMap("external_group", "admins"),
+				claims.getAdditionalAuthorizationAttributes());
+	}
+
+	@Test
+	public void testScopesAreInterned() throws Exception {
+		TokenClaims first = mapper.readValue("{\"scope\":[\"openid\"]}", TokenClaims.class);
+		TokenClaims second = mapper.readValue("{\"scope\":[\"openid\"]}", TokenClaims.class);
+		assertSame(first.getScope().iterator().next(), second.getScope().iterator().next());
+	}
+
+	@Test
+	public void testDuplicateScopes() throws Exception {
+		TokenClaims claims = mapper.readValue("{\"scope\":[\"openid\",\"openid\",\"password.write\"]}",
+				TokenClaims.class);
+		assertEquals(2, claims.getScope().size());
+		assertTrue(claims.getScope().contains("password.write"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testScopesAreReadOnly() throws Exception {
+		TokenClaims claims = mapper.readValue("{\"scope\":[\"openid\"]}", TokenClaims.class);
+		claims.getScope().add("uaa.admin");
+	}
+
+	@Test
+	public void testMissingClaims() throws Exception {
+		TokenClaims claims = mapper.readValue("{\"client_id\":\"vmc\",\"email\":null}", TokenClaims.class);
+		assertTrue(claims.getScope().isEmpty());
+		assertNull(claims.getEmail());
+		assertEquals(0, claims.getExp());
+		assertFalse(claims.isExpired());
+		assertFalse(claims.contains("exp"));
+		assertEquals(Collections.singletonMap("client_id", "vmc"), claims.toMap());
+	}
+
+	@Test
+	public void testAuthoritiesAsString() throws Exception {
+		TokenClaims claims = mapper.readValue("{\"authorities\":\"uaa.admin, scim.read\"}", TokenClaims.class);
+		assertEquals(new HashSet<String>(Arrays.asList("uaa.admin", "scim.read")), claims.getAuthorities());
+	}
+
+	@Test
+	public void testOtherClaimsArePreserved() throws Exception {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("client_id", "vmc");
+		map.put("resource_ids", Arrays.asList("scim"));
+		map.put("error", "invalid_token");
+		TokenClaims claims = mapper.convertValue(map, TokenClaims.class);
+		assertEquals("vmc", claims.getClientId());
+		assertEquals(Arrays.asList("scim"), claims.get("resource_ids"));
+		assertTrue(claims.contains("error"));
+		assertEquals(map, claims.toMap());
+	}
+
+	@Test
+	public void testNestedValueInStringClaimIsRejected() throws Exception {
+		try {
+			mapper.readValue("{\"sub\":{\"client_id\":\"admin\"},\"client_id\":\"vmc\"}", TokenClaims.class);
+			fail("Expected JsonMappingException");
+		}
+		catch (JsonMappingException e) {
+			// expected
+		}
+		try {
+			mapper.readValue("{\"scope\":[[\"openid\"]],\"client_id\":\"vmc\"}", TokenClaims.class);
+			fail("Expected JsonMappingException");
+		}
+		catch (JsonMappingException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testToMapRoundTrip() throws Exception {
+		String json = "{\"jti\":\"FOO\",\"scope\":[\"openid\"],\"client_id\":\"vmc\",\"exp\":1360043200,\"foo\":\"bar\"}";
+		TokenClaims claims = mapper.readValue(json, TokenClaims.class);
+		assertEquals(mapper.readValue(json, Map.class), mapper.readValue(mapper.writeValueAsString(claims.toMap()),
+				Map.class));
+	}
+
+}
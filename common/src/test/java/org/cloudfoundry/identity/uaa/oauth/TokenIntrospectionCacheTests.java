@@ -0,0 +1,143 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TokenIntrospectionCacheTests {
+
+	private TokenIntrospectionCache cache = new TokenIntrospectionCache();
+
+	private AtomicInteger calls = new AtomicInteger();
+
+	private TokenClaims.Builder builder = new TokenClaims.Builder();
+
+	private TokenClaims result = builder.build();
+
+	private Callable<TokenClaims> loader = new Callable<TokenClaims>() {
+		@Override
+		public TokenClaims call() throws Exception {
+			calls.incrementAndGet();
+			return result;
+		}
+	};
+
+	@Test
+	public void testResultIsCached() {
+		assertSame(result, cache.get("FOO", loader));
+		assertSame(result, cache.get("FOO", loader));
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testResultNotCachedPastTokenExpiry() {
+		builder.setExp(System.currentTimeMillis() / 1000 - 1);
+		result = builder.build();
+		cache.get("FOO", loader);
+		cache.get("FOO", loader);
+		assertEquals(2, calls.get());
+	}
+
+	@Test
+	public void testErrorResultCachedBriefly() throws Exception {
+		builder.setOther("error", "invalid_token");
+		result = builder.build();
+		cache.setErrorTimeToLive(50);
+		cache.get("FOO", loader);
+		cache.get("FOO", loader);
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getErrorHits());
+		Thread.sleep(100);
+		cache.get("FOO", loader);
+		assertEquals(2, calls.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailureNotCached() {
+		try {
+			cache.get("FOO", new Callable<TokenClaims>() {
+				@Override
+				public TokenClaims call() throws Exception {
+					throw new IllegalStateException("Planned");
+				}
+			});
+		}
+		finally {
+			assertEquals(0, cache.getSize());
+			assertEquals(0, cache.getInFlight());
+		}
+	}
+
+	@Test
+	public void testConcurrentLookupsAreCoalesced() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<TokenClaims> slowLoader = new Callable<TokenClaims>() {
+			@Override
+			public TokenClaims call() throws Exception {
+				calls.incrementAndGet();
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return result;
+			}
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<TokenClaims>> futures = new ArrayList<Future<TokenClaims>>();
+			futures.add(executor.submit(new Callable<TokenClaims>() {
+				@Override
+				public TokenClaims call() throws Exception {
+					return cache.get("FOO", slowLoader);
+				}
+			}));
+			started.await(5, TimeUnit.SECONDS);
+			for (int i = 0; i < 3; i++) {
+				futures.add(executor.submit(new Callable<TokenClaims>() {
+					@Override
+					public TokenClaims call() throws Exception {
+						return cache.get("FOO", slowLoader);
+					}
+				}));
+			}
+			for (int i = 0; i < 500 && cache.getCoalesced() < 3; i++) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			for (Future<TokenClaims> future : futures) {
+				assertSame(result, future.get(5, TimeUnit.SECONDS));
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertEquals(1, calls.get());
+		assertEquals(3, cache.getCoalesced());
+		assertEquals(1, cache.getSize());
+	}
+
+}
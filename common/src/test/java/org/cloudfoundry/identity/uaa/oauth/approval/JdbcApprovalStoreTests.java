@@ -24,6 +24,7 @@ import java.util.List;
 import javax.sql.DataSource;
 
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
+import org.cloudfoundry.identity.uaa.rest.jdbc.CaseInsensitiveSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.rest.jdbc.LimitSqlAdapter;
@@ -54,6 +55,9 @@ public class JdbcApprovalStoreTests {
 	@Autowired
 	private LimitSqlAdapter limitSqlAdapter;
 
+	@Autowired
+	private CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter;
+
 	private JdbcApprovalStore dao;
 
 	@Before
@@ -113,6 +117,22 @@ public class JdbcApprovalStoreTests {
 		assertEquals(1, dao.getApprovals("u1", "c1").size());
 	}
 
+	@Test
+	public void canGetApprovalsOfUserWithQuoteInName() {
+		addApproval("o'brien", "c1", "openid", 6000, APPROVED);
+		assertEquals(1, dao.getApprovals("o'brien", "c1").size());
+		assertEquals(0, dao.getApprovals("o'brien", "c2").size());
+	}
+
+	@Test
+	public void canGetApprovalsOfUserAndClientIgnoringCase() {
+		addApproval("Marissa", "c1", "openid", 6000, APPROVED);
+		assertEquals(1, dao.getApprovals("marissa", "C1").size());
+		dao.setCaseInsensitiveSqlAdapter(caseInsensitiveSqlAdapter);
+		assertEquals(1, dao.getApprovals("MARISSA", "c1").size());
+		assertEquals(1, dao.getApprovals("U1", "c2").size());
+	}
+
 	@Test
 	public void canAddApproval() {
 		assertTrue(dao.addApproval(new Approval("u2", "c2", "dash.user", 12000, APPROVED)));
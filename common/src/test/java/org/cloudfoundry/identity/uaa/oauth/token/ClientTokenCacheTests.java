@@ -0,0 +1,103 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.cloudfoundry.identity.uaa.oauth.event.ClientUpdateEvent;
+import org.cloudfoundry.identity.uaa.oauth.event.SecretChangeEvent;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.provider.BaseClientDetails;
+
+public class ClientTokenCacheTests {
+
+	private ClientTokenCache cache = new ClientTokenCache();
+
+	private BaseClientDetails client = new BaseClientDetails("client", "scim", "read, write", "client_credentials",
+			"uaa.none");
+
+	private UsernamePasswordAuthenticationToken admin = new UsernamePasswordAuthenticationToken("admin", "");
+
+	@Test
+	public void testCachingIsOptIn() {
+		assertFalse(cache.isEnabled(client));
+		client.addAdditionalInformation(ClientTokenCache.TOKEN_CACHE, "true");
+		assertTrue(cache.isEnabled(client));
+	}
+
+	@Test
+	public void testKeyIgnoresScopeOrder() {
+		assertEquals(cache.getKey(client, Arrays.asList("read", "write"), null, null),
+				cache.getKey(client, Arrays.asList("write", "read"), null, null));
+		assertFalse(cache.getKey(client, Arrays.asList("read"), null, null).equals(
+				cache.getKey(client, Arrays.asList("read"), Collections.singleton("scim"), null)));
+	}
+
+	@Test
+	public void testTokenReusedForFractionOfLifetime() {
+		long now = System.currentTimeMillis();
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("FOO");
+		token.setExpiration(new Date(now + 60000));
+		cache.put("client", "key", token, now);
+		assertSame(token, cache.get("key"));
+
+		// more than half the lifetime has passed
+		cache.put("client", "key", token, now - 40000);
+		assertNull(cache.get("key"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testTokenWithoutExpiryNotCached() {
+		cache.put("client", "key", new DefaultOAuth2AccessToken("FOO"), System.currentTimeMillis());
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testClientEventsInvalidateTokens() {
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("FOO");
+		token.setExpiration(new Date(System.currentTimeMillis() + 60000));
+		cache.put("client", "key1", token, System.currentTimeMillis());
+		cache.put("other", "key2", token, System.currentTimeMillis());
+		cache.onApplicationEvent(new ClientUpdateEvent(client, admin));
+		assertNull(cache.get("key1"));
+		assertSame(token, cache.get("key2"));
+		cache.onApplicationEvent(new SecretChangeEvent(new BaseClientDetails("other", null, null, null, null), admin));
+		assertEquals(0, cache.getSize());
+		assertEquals(2, cache.getInvalidations());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		cache.setMaxEntries(1);
+		DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("FOO");
+		token.setExpiration(new Date(System.currentTimeMillis() + 60000));
+		cache.put("client", "key1", token, System.currentTimeMillis());
+		cache.put("client", "key2", token, System.currentTimeMillis());
+		assertEquals(1, cache.getSize());
+		assertNull(cache.get("key1"));
+	}
+
+}
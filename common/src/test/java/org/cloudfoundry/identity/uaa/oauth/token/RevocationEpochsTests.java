@@ -0,0 +1,191 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.cloudfoundry.identity.uaa.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql", "test,mysql", "test,oracle" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class RevocationEpochsTests {
+
+	private static final String ADD_USER_SQL = "insert into users (id, username, password, email, lastModified, active) values (?,?,?,?,?,?)";
+
+	@Autowired
+	private DataSource dataSource;
+
+	private JdbcTemplate template;
+
+	private RevocationEpochs epochs;
+
+	private String joeId = UUID.randomUUID().toString();
+
+	// Whole seconds, so that the comparisons also work on databases that truncate timestamps
+	private long joeModified = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+
+	@Before
+	public void initializeDb() throws Exception {
+		template = new JdbcTemplate(dataSource);
+		addUser(joeId, "joe", joeModified, true);
+		epochs = new RevocationEpochs(template);
+		epochs.setPollInterval(0);
+		epochs.afterPropertiesSet();
+	}
+
+	@After
+	public void clearDb() throws Exception {
+		epochs.destroy();
+		TestUtils.deleteFrom(dataSource, "users", "revocation_epochs");
+	}
+
+	private void addUser(String id, String name, long modified, boolean active) {
+		template.update(ADD_USER_SQL, id, name, "secret", name + "@test.org", new Timestamp(modified), active);
+	}
+
+	@Test
+	public void testUnknownBeforeFirstPoll() {
+		assertNull(epochs.getUserEpoch(joeId));
+		assertEquals(0, epochs.getClientEpoch("app"));
+	}
+
+	@Test
+	public void testFirstPollLoadsActiveUsers() {
+		addUser(UUID.randomUUID().toString(), "inactive", joeModified, false);
+		epochs.poll();
+		assertEquals(1, epochs.getUserCount());
+		assertEquals(1, epochs.getReloads());
+		assertEquals(joeModified, epochs.getUserEpoch(joeId).longValue());
+	}
+
+	@Test
+	public void testPollSeesModifiedUser() {
+		epochs.poll();
+		long modified = System.currentTimeMillis() / 1000 * 1000;
+		template.update("update users set lastModified=? where id=?", new Timestamp(modified), joeId);
+		epochs.poll();
+		assertEquals(modified, epochs.getUserEpoch(joeId).longValue());
+		assertEquals(1, epochs.getReloads());
+	}
+
+	@Test
+	public void testPollSeesNewUser() {
+		epochs.poll();
+		String id = UUID.randomUUID().toString();
+		addUser(id, "mabel", System.currentTimeMillis(), true);
+		epochs.poll();
+		assertEquals(2, epochs.getUserCount());
+		assertEquals(1, epochs.getReloads());
+	}
+
+	@Test
+	public void testNewUserDoesNotTriggerReload() {
+		epochs.poll();
+		addUser(UUID.randomUUID().toString(), "mabel", joeModified, true);
+		epochs.poll();
+		assertEquals(1, epochs.getReloads());
+	}
+
+	@Test
+	public void testDeletedUserWithRevocationIsRejected() {
+		epochs.poll();
+		template.update("delete from users where id=?", joeId);
+		long before = System.currentTimeMillis();
+		epochs.revokeUser(joeId);
+		epochs.poll();
+		assertTrue(epochs.getUserEpoch(joeId) >= before);
+		assertEquals(1, epochs.getReloads());
+	}
+
+	@Test
+	public void testReconcileDropsDeletedUser() {
+		epochs.poll();
+		template.update("delete from users where id=?", joeId);
+		epochs.poll();
+		assertEquals(1, epochs.getReloads());
+		epochs.reconcile();
+		assertNull(epochs.getUserEpoch(joeId));
+		assertEquals(0, epochs.getUserCount());
+		assertEquals(2, epochs.getReloads());
+	}
+
+	@Test
+	public void testPollReconcilesAfterInterval() {
+		epochs.setReconcileInterval(0);
+		epochs.poll();
+		template.update("delete from users where id=?", joeId);
+		epochs.poll();
+		assertNull(epochs.getUserEpoch(joeId));
+		assertEquals(2, epochs.getReloads());
+	}
+
+	@Test
+	public void testRevokeClient() {
+		epochs.poll();
+		long before = System.currentTimeMillis();
+		epochs.revokeClient("app");
+		assertTrue(epochs.getClientEpoch("app") >= before);
+		assertEquals(0, epochs.getClientEpoch("other"));
+	}
+
+	@Test
+	public void testRevokeUserRaisesEpoch() {
+		epochs.poll();
+		long before = System.currentTimeMillis();
+		epochs.revokeUser(joeId);
+		assertTrue(epochs.getUserEpoch(joeId) >= before);
+		assertTrue(epochs.getUserRevocation(joeId) >= before);
+	}
+
+	@Test
+	public void testRevocationsAreReplicated() {
+		epochs.revokeClient("app");
+		epochs.revokeUser(joeId);
+		RevocationEpochs other = new RevocationEpochs(template);
+		other.poll();
+		assertEquals(epochs.getClientEpoch("app"), other.getClientEpoch("app"));
+		assertEquals(epochs.getUserRevocation(joeId), other.getUserRevocation(joeId));
+		assertEquals(epochs.getUserRevocation(joeId), other.getUserEpoch(joeId).longValue());
+	}
+
+	@Test
+	public void testRepeatedRevocationUpdatesEpoch() throws Exception {
+		epochs.revokeClient("app");
+		long first = epochs.getClientEpoch("app");
+		Thread.sleep(5);
+		epochs.revokeClient("app");
+		assertTrue(epochs.getClientEpoch("app") > first);
+		assertEquals(1, template.queryForInt("select count(*) from revocation_epochs"));
+	}
+
+}
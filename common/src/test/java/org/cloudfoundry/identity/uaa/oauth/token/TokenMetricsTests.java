@@ -0,0 +1,96 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.oauth.token;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.cloudfoundry.identity.uaa.oauth.token.TokenMetrics.Operation;
+import org.cloudfoundry.identity.uaa.oauth.token.TokenMetrics.Phase;
+import org.junit.Test;
+
+public class TokenMetricsTests {
+
+	private TokenMetrics metrics = new TokenMetrics();
+
+	@Test
+	public void testIssuedByGrantType() {
+		metrics.issued("password");
+		metrics.issued("password");
+		metrics.issued(null);
+		assertEquals(2, metrics.getIssuedByGrantType().get("password").intValue());
+		assertEquals(1, metrics.getIssuedByGrantType().get("unknown").intValue());
+	}
+
+	@Test
+	public void testCachedTokensAreNotCountedAsIssued() {
+		metrics.issued("client_credentials");
+		metrics.cached("client_credentials");
+		metrics.cached("client_credentials");
+		assertEquals(1, metrics.getIssuedByGrantType().get("client_credentials").intValue());
+		assertEquals(2, metrics.getCachedByGrantType().get("client_credentials").intValue());
+	}
+
+	@Test
+	public void testSampleRecordsLatencyAndFailures() {
+		metrics.start(Operation.CREATE).stop(true);
+		metrics.start(Operation.CREATE).stop(false);
+		assertEquals(2, metrics.getCreateCount());
+		assertEquals(0, metrics.getReadCount());
+		assertEquals(1, metrics.getFailureCount());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testPhasesAreAttributedToInnermostSample() throws Exception {
+		TokenMetrics.Sample outer = metrics.start(Operation.REFRESH);
+		TokenMetrics.Sample inner = metrics.start(Operation.READ);
+		metrics.record(Phase.DB, System.nanoTime() - 5000000);
+		inner.stop(true);
+		metrics.record(Phase.SIGNING, System.nanoTime() - 3000000);
+		outer.stop(true);
+		// Outside of any sample, this is ignored
+		metrics.record(Phase.JSON, System.nanoTime());
+
+		Map<String, Map<String, Object>> latencies = metrics.getLatencies();
+		Map<String, Long> readDb = (Map<String, Long>) latencies.get("readAccessToken").get("db");
+		Map<String, Long> refreshDb = (Map<String, Long>) latencies.get("refreshAccessToken").get("db");
+		Map<String, Long> refreshSigning = (Map<String, Long>) latencies.get("refreshAccessToken").get("signing");
+		assertTrue(readDb.get("max") >= 5000);
+		assertEquals(0, refreshDb.get("max").longValue());
+		assertTrue(refreshSigning.get("max") >= 3000);
+	}
+
+	@Test
+	public void testReset() {
+		metrics.issued("password");
+		metrics.cached("client_credentials");
+		metrics.start(Operation.LOAD).stop(false);
+		metrics.reset();
+		assertEquals(0, metrics.getLoadCount());
+		assertEquals(0, metrics.getFailureCount());
+		assertTrue(metrics.getIssuedByGrantType().isEmpty());
+		assertTrue(metrics.getCachedByGrantType().isEmpty());
+	}
+
+	@Test
+	public void testMetricsForVarz() {
+		Map<String, ?> result = metrics.getMetrics();
+		assertTrue(result.containsKey("issued"));
+		assertTrue(result.containsKey("cached"));
+		assertEquals(4, ((Map<?, ?>) result.get("latencies")).size());
+	}
+
+}
@@ -13,9 +13,17 @@
 package org.cloudfoundry.identity.uaa.oauth.token;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.util.Arrays;
 import java.util.Calendar;
@@ -24,6 +32,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.cloudfoundry.identity.uaa.authentication.UaaPrincipal;
@@ -37,6 +46,7 @@ import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.type.TypeReference;
 import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
@@ -810,7 +820,7 @@ public class UaaTokenServicesTests {
 		OAuth2AccessToken accessToken = testCreateAccessTokenForAUser(authentication, false);
 
 		UaaUser user = userDatabase.retrieveUserByName("jdsa");
-		UaaUser newUser = new UaaUser(user.getUsername(), "blah", user.getEmail(), null, null);
+		UaaUser newUser = new UaaUser(user.getUsername(), "blah", user.getEmail(), null, null).id(user.getId());
 		userDatabase.updateUser("jdsa", newUser);
 
 		DefaultAuthorizationRequest refreshAuthorizationRequest = new DefaultAuthorizationRequest("client",
@@ -825,6 +835,69 @@ public class UaaTokenServicesTests {
 		tokenServices.refreshAccessToken(accessToken.getRefreshToken().getValue(), refreshAuthorizationRequest);
 	}
 
+	@Test
+	public void testRefreshGrantLooksUpUserById() throws Exception {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "password");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(new UaaPrincipal(new UaaUser(
+				"jdsa", "password", "jdsa@vmware.com", null, null)), "n/a", null);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, userAuthentication);
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+		Map<String, Object> refreshTokenClaims = mapper.readValue(JwtHelper.decode(
+				accessToken.getRefreshToken().getValue()).getClaims(), new TypeReference<Map<String, Object>>() {
+		});
+		assertEquals("12345", refreshTokenClaims.get("user_id"));
+
+		// Rename the user
+		UaaUser user = userDatabase.retrieveUserByName("jdsa");
+		userDatabase.updateUser("jdsa", new UaaUser(user.getId(), "jdsa2", user.getPassword(), user.getEmail(),
+				user.getAuthorities(), null, null, user.getCreated(), user.getModified()));
+		InMemoryUaaUserDatabase users = spy(userDatabase);
+		tokenServices.setUserDatabase(users);
+
+		DefaultAuthorizationRequest refreshAuthorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> refreshAzParameters = new HashMap<String, String>(
+				refreshAuthorizationRequest.getAuthorizationParameters());
+		refreshAzParameters.put("grant_type", "refresh_token");
+		refreshAuthorizationRequest.setAuthorizationParameters(refreshAzParameters);
+		OAuth2AccessToken refreshedAccessToken = tokenServices.refreshAccessToken(accessToken.getRefreshToken()
+				.getValue(), refreshAuthorizationRequest);
+
+		TokenValidation validation = tokenServices.validateToken(refreshedAccessToken.getValue());
+		assertTrue(validation.isValid());
+		assertEquals("jdsa2", validation.getClaims().getUserName());
+		verify(users, never()).retrieveUserByName(anyString());
+	}
+
+	@Test(expected = InvalidTokenException.class)
+	public void testRefreshGrantForDeletedUser() {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "password");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(new UaaPrincipal(new UaaUser(
+				"jdsa", "password", "jdsa@vmware.com", null, null)), "n/a", null);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, userAuthentication);
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+
+		tokenServices.setUserDatabase(new InMemoryUaaUserDatabase(new HashMap<String, UaaUser>()));
+
+		DefaultAuthorizationRequest refreshAuthorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> refreshAzParameters = new HashMap<String, String>(
+				refreshAuthorizationRequest.getAuthorizationParameters());
+		refreshAzParameters.put("grant_type", "refresh_token");
+		refreshAuthorizationRequest.setAuthorizationParameters(refreshAzParameters);
+		tokenServices.refreshAccessToken(accessToken.getRefreshToken().getValue(), refreshAuthorizationRequest);
+	}
+
 	@Test(expected = InvalidTokenException.class)
 	public void testRefreshTokenExpiry() {
 		Calendar expiresAt = Calendar.getInstance();
@@ -1058,6 +1131,99 @@ public class UaaTokenServicesTests {
 		assertEquals(accessToken, tokenServices.readAccessToken(accessToken.getValue()));
 	}
 
+	@Test
+	public void testReadAccessTokensLoadsUsersOnce() {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "password");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(new UaaPrincipal(new UaaUser(
+				"jdsa", "password", "jdsa@vmware.com", null, null)), "n/a", null);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, userAuthentication);
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+
+		InMemoryUaaUserDatabase users = spy(userDatabase);
+		tokenServices.setUserDatabase(users);
+		List<TokenValidation> validations = tokenServices.readAccessTokens(Arrays.asList(accessToken.getValue(),
+				"FOO", accessToken.getValue()));
+
+		assertEquals(3, validations.size());
+		assertTrue(validations.get(0).isValid());
+		assertFalse(validations.get(1).isValid());
+		assertTrue(validations.get(2).isValid());
+		verify(users, times(1)).retrieveUsersByIds(anyCollectionOf(String.class));
+		verify(users, never()).retrieveUserById(anyString());
+	}
+
+	@Test
+	public void testValidateTokenReturnsClaims() {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "client_credentials");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, null);
+
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+		TokenValidation validation = tokenServices.validateToken(accessToken.getValue());
+
+		assertTrue(validation.isValid());
+		assertNull(validation.getError());
+		assertEquals(accessToken.getValue(), validation.getToken().getValue());
+		assertEquals("client", validation.getClaims().getClientId());
+		assertEquals(new HashSet<String>(Arrays.asList("read", "write")), validation.getClaims().getScope());
+	}
+
+	@Test
+	public void testValidateTokenReportsInvalidToken() {
+		TokenValidation validation = tokenServices.validateToken("FOO");
+		assertFalse(validation.isValid());
+		assertNull(validation.getClaims());
+		assertEquals("invalid_token", validation.getError().getOAuth2ErrorCode());
+	}
+
+	@Test
+	public void testClientRevocationInvalidatesToken() {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "client_credentials");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, null);
+
+		RevocationEpochs revocationEpochs = new RevocationEpochs(mock(JdbcTemplate.class));
+		tokenServices.setRevocationEpochs(revocationEpochs);
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+		assertTrue(tokenServices.validateToken(accessToken.getValue()).isValid());
+
+		revocationEpochs.revokeClient("client");
+		assertFalse(tokenServices.validateToken(accessToken.getValue()).isValid());
+	}
+
+	@Test(expected = InvalidTokenException.class)
+	public void testUserRevocationInvalidatesToken() {
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "authorization_code");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		Authentication userAuthentication = new UsernamePasswordAuthenticationToken(new UaaPrincipal(new UaaUser(
+				"jdsa", "password", "jdsa@vmware.com", null, null)), "n/a", null);
+
+		RevocationEpochs revocationEpochs = new RevocationEpochs(mock(JdbcTemplate.class));
+		tokenServices.setRevocationEpochs(revocationEpochs);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, userAuthentication);
+		OAuth2AccessToken accessToken = testCreateAccessTokenForAUser(authentication, false);
+
+		revocationEpochs.revokeUser("12345");
+		tokenServices.loadAuthentication(accessToken.getValue());
+	}
+
 	@Test
 	public void testLoadAuthenticationForAUser() {
 		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
@@ -1111,6 +1277,62 @@ public class UaaTokenServicesTests {
 		assertNull(loadedAuthentication.getUserAuthentication());
 	}
 
+	@Test
+	public void testCachedAccessTokenForAClient() {
+		BaseClientDetails client = new BaseClientDetails("client", "scim, clients", "read, write",
+				"client_credentials", "update");
+		client.addAdditionalInformation(ClientTokenCache.TOKEN_CACHE, true);
+		clientDetailsService.setClientDetailsStore(Collections.singletonMap("client", client));
+		ClientTokenCache cache = new ClientTokenCache();
+		tokenServices.setClientTokenCache(cache);
+		TokenMetrics metrics = new TokenMetrics();
+		tokenServices.setMetrics(metrics);
+
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		authorizationRequest.setResourceIds(new HashSet<String>(Arrays.asList(new String[] { "scim", "clients" })));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "client_credentials");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, null);
+
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+		assertEquals(accessToken.getValue(), tokenServices.createAccessToken(authentication).getValue());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, metrics.getIssuedByGrantType().get("client_credentials").intValue());
+		assertEquals(1, metrics.getCachedByGrantType().get("client_credentials").intValue());
+
+		DefaultAuthorizationRequest narrowRequest = new DefaultAuthorizationRequest("client", Arrays.asList("read"));
+		narrowRequest.setResourceIds(authorizationRequest.getResourceIds());
+		Map<String, String> narrowParameters = new HashMap<String, String>(narrowRequest.getAuthorizationParameters());
+		narrowParameters.put("grant_type", "client_credentials");
+		narrowRequest.setAuthorizationParameters(narrowParameters);
+		assertFalse(accessToken.getValue().equals(
+				tokenServices.createAccessToken(new OAuth2Authentication(narrowRequest, null)).getValue()));
+
+		cache.invalidate("client");
+		assertFalse(accessToken.getValue().equals(tokenServices.createAccessToken(authentication).getValue()));
+	}
+
+	@Test
+	public void testAccessTokenNotCachedUnlessClientOptsIn() {
+		ClientTokenCache cache = new ClientTokenCache();
+		tokenServices.setClientTokenCache(cache);
+
+		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
+				Arrays.asList(new String[] { "read", "write" }));
+		Map<String, String> azParameters = new HashMap<String, String>(
+				authorizationRequest.getAuthorizationParameters());
+		azParameters.put("grant_type", "client_credentials");
+		authorizationRequest.setAuthorizationParameters(azParameters);
+		OAuth2Authentication authentication = new OAuth2Authentication(authorizationRequest, null);
+
+		OAuth2AccessToken accessToken = tokenServices.createAccessToken(authentication);
+		assertFalse(accessToken.getValue().equals(tokenServices.createAccessToken(authentication).getValue()));
+		assertEquals(0, cache.getSize());
+	}
+
 	@Test
 	public void testCreateAccessTokenAuthcodeGrantAdditionalAuthorizationAttributes() {
 		DefaultAuthorizationRequest authorizationRequest = new DefaultAuthorizationRequest("client",
@@ -0,0 +1,145 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.rest.jdbc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFilter;
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Checks with EXPLAIN that the case insensitive lookups generated for the platform are served by an index.
+ */
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class CaseInsensitiveIndexTests {
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter;
+
+	@Value("#{@platform}")
+	private String platform;
+
+	private JdbcTemplate template;
+
+	@Before
+	public void setUp() {
+		template = new JdbcTemplate(dataSource);
+	}
+
+	@Test
+	public void testUserByNameQueryUsesIndex() throws Exception {
+		String sql = "select id from users where " + caseInsensitiveSqlAdapter.getColumnExpression("username")
+				+ " = ? and active=?";
+		assertUsesIndex(explain(sql, "joe", true), "unique_uk_1");
+	}
+
+	@Test
+	public void testEmailFilterUsesIndex() throws Exception {
+		SimpleSearchQueryConverter converter = new SimpleSearchQueryConverter();
+		converter.setCaseInsensitiveSqlAdapter(caseInsensitiveSqlAdapter);
+		ProcessedFilter filter = converter.convert("email eq 'Joe@Test.org'", null, true);
+		ParsedSql parsed = NamedParameterUtils.parseSqlStatement("select id from users where " + filter.getSql());
+		MapSqlParameterSource params = new MapSqlParameterSource(filter.getParams());
+		String sql = NamedParameterUtils.substituteNamedParameters(parsed, params);
+		assertUsesIndex(explain(sql, NamedParameterUtils.buildValueArray(parsed, params, null)), "users_email");
+	}
+
+	@Test
+	public void testUnindexedComparisonIsDetected() throws Exception {
+		String plan = explain("select id from users where lower(givenName) = ?", "joe");
+		assertFullScan(plan);
+	}
+
+	private void assertUsesIndex(String plan, String index) {
+		assertTrue("Expected index " + index + " in plan: " + plan, plan.toLowerCase().contains(index));
+		assertFalse("Unexpected full scan in plan: " + plan, isFullScan(plan));
+	}
+
+	private void assertFullScan(String plan) {
+		assertTrue("Expected a full scan in plan: " + plan, isFullScan(plan));
+	}
+
+	private boolean isFullScan(String plan) {
+		// HSQLDB reports "access=FULL SCAN", PostgreSQL a "Seq Scan" (even with enable_seqscan off, if no index fits)
+		String lower = plan.toLowerCase();
+		return lower.contains("full scan") || lower.contains("seq scan");
+	}
+
+	private String explain(final String sql, final Object... args) {
+		return template.execute(new ConnectionCallback<String>() {
+			@Override
+			public String doInConnection(Connection con) throws SQLException {
+				boolean postgresql = "postgresql".equals(platform);
+				Statement settings = con.createStatement();
+				try {
+					if (postgresql) {
+						// the test tables are tiny, so make the planner prefer any usable index
+						settings.execute("set enable_seqscan = off");
+					}
+					PreparedStatement ps = con.prepareStatement((postgresql ? "explain " : "explain plan for ") + sql);
+					try {
+						for (int i = 0; i < args.length; i++) {
+							ps.setObject(i + 1, args[i]);
+						}
+						StringBuilder plan = new StringBuilder();
+						ResultSet rs = ps.executeQuery();
+						while (rs.next()) {
+							plan.append(rs.getString(1)).append("\n");
+						}
+						rs.close();
+						return plan.toString();
+					}
+					finally {
+						ps.close();
+					}
+				}
+				finally {
+					if (postgresql) {
+						settings.execute("set enable_seqscan = on");
+					}
+					settings.close();
+				}
+			}
+		});
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.security.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.web.util.AntPathRequestMatcher;
+import org.springframework.security.web.util.RequestMatcher;
+
+public class RequestMatcherIndexTests {
+
+	private static final String[] PATHS = { "/", "/oauth/token", "/oauth/tokens", "/oauth/authorize",
+			"/oauth/authorize/confirm", "/oauth/clients", "/oauth/clients/app", "/oauth/clients/app/secret",
+			"/OAuth/Clients/app/secret", "/Groups", "/groups/g1", "/Groups/g1/members", "/Users", "/Users/u1",
+			"/Users/u1/password", "/Userinfo/u1/password", "/ids/Users", "/ids/Usersx", "/check_token",
+			"/check_token/", "/CHECK_TOKEN", "/userinfo", "/login", "/login.do", "/varz", "/approvals", "/foo/bar" };
+
+	private static final String[] METHODS = { "GET", "POST", "PUT", "DELETE" };
+
+	private static final String[] ACCEPTS = { null, "application/json", "text/html", "*/*" };
+
+	private List<RequestMatcher> matchers = createMatchers();
+
+	private RequestMatcherIndex index = new RequestMatcherIndex(matchers);
+
+	@Test
+	public void indexGivesSameResultAsOrderedMatching() throws Exception {
+		int matched = 0;
+		for (String contextPath : new String[] { "", "/uaa" }) {
+			for (String path : PATHS) {
+				for (String method : METHODS) {
+					for (String accept : ACCEPTS) {
+						for (boolean credentials : new boolean[] { false, true }) {
+							MockHttpServletRequest request = request(contextPath, path, method, accept);
+							if (credentials) {
+								request.addParameter("credentials", "{\"username\":\"marissa\"}");
+								request.addParameter("source", "login");
+							}
+							int expected = firstMatch(request);
+							assertEquals("Wrong match for " + method + " " + contextPath + path + " (" + accept + ")",
+									expected, index.indexOf(request));
+							if (expected >= 0) {
+								matched++;
+							}
+						}
+					}
+				}
+			}
+		}
+		assertTrue(matched > 0);
+	}
+
+	@Test
+	public void matchersForEachPositionMatchOnlyTheFirstMatch() throws Exception {
+		MockHttpServletRequest request = request("", "/oauth/token", "POST", null);
+		int expected = firstMatch(request);
+		for (int i = 0; i < matchers.size(); i++) {
+			assertEquals(i == expected, index.getRequestMatcher(i).matches(request));
+		}
+	}
+
+	@Test
+	public void selectionIsNotReusedForAnotherRequest() throws Exception {
+		MockHttpServletRequest request = request("", "/Users", "GET", null);
+		int users = index.indexOf(request);
+		request.setRequestURI("/check_token");
+		request.setServletPath("/check_token");
+		// Same request: the selection is kept
+		assertEquals(users, index.indexOf(request));
+		// A new wrapper (as created by the filter chain proxy on each pass) is matched again
+		HttpServletRequest wrapper = new HttpServletRequestWrapper(request);
+		assertEquals(firstMatch(wrapper), index.indexOf(wrapper));
+		assertFalse(users == index.indexOf(wrapper));
+	}
+
+	private int firstMatch(HttpServletRequest request) {
+		for (int i = 0; i < matchers.size(); i++) {
+			if (matchers.get(i).matches(request)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private MockHttpServletRequest request(String contextPath, String path, String method, String accept) {
+		MockHttpServletRequest request = new MockHttpServletRequest(method, contextPath + path);
+		request.setContextPath(contextPath);
+		request.setServletPath(path);
+		if (accept != null) {
+			request.addHeader("Accept", accept);
+		}
+		return request;
+	}
+
+	private static List<RequestMatcher> createMatchers() {
+		List<RequestMatcher> matchers = new ArrayList<RequestMatcher>();
+
+		UaaRequestMatcher token = new UaaRequestMatcher("/oauth/token");
+		token.setAccept(Arrays.asList("application/json"));
+		token.setMethod(HttpMethod.POST);
+		matchers.add(token);
+
+		UaaRequestMatcher login = new UaaRequestMatcher("/oauth/authorize");
+		login.setAccept(Arrays.asList("application/json"));
+		login.setParameters(Collections.singletonMap("source", "login"));
+		matchers.add(login);
+
+		UaaRequestMatcher authorize = new UaaRequestMatcher("/oauth/authorize");
+		authorize.setAccept(Arrays.asList("application/json"));
+		authorize.setParameters(Collections.singletonMap("credentials", "{"));
+		matchers.add(authorize);
+
+		matchers.add(new AntPathRequestMatcher("/userinfo"));
+		matchers.add(new AntPathRequestMatcher("/oauth/clients/*/secret"));
+		matchers.add(new AntPathRequestMatcher("/oauth/clients/**"));
+
+		UaaRequestMatcher groupsUpdate = new UaaRequestMatcher("/Groups");
+		groupsUpdate.setMethod(HttpMethod.PUT);
+		matchers.add(groupsUpdate);
+		matchers.add(new AntPathRequestMatcher("/Groups/**"));
+
+		matchers.add(new AntPathRequestMatcher("/User*/*/password"));
+		matchers.add(new AntPathRequestMatcher("/Users/**"));
+		matchers.add(new AntPathRequestMatcher("/ids/Users*"));
+		matchers.add(new AntPathRequestMatcher("/check_token"));
+		matchers.add(new AntPathRequestMatcher("/varz", "GET"));
+
+		// Not indexed
+		matchers.add(new RequestMatcher() {
+			@Override
+			public boolean matches(HttpServletRequest request) {
+				return "DELETE".equals(request.getMethod());
+			}
+		});
+
+		matchers.add(new DelegatingRequestMatcher(Arrays.<RequestMatcher> asList(new AntPathRequestMatcher(
+				"/login**"), new AntPathRequestMatcher("/approvals/**"), new UaaRequestMatcher("/oauth/authorize"))));
+		matchers.add(new AntPathRequestMatcher("/**"));
+		return matchers;
+	}
+
+}
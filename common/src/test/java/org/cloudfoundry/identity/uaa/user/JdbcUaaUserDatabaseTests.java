@@ -16,7 +16,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import javax.annotation.Resource;
@@ -132,4 +136,85 @@ public class JdbcUaaUserDatabaseTests {
 		assertTrue("authorities does not contain uaa.user", joe.getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
 		assertTrue("authorities does not contain dash.admin", joe.getAuthorities().contains(new SimpleGrantedAuthority("dash.admin")));
 	}
+
+	@Test
+	public void getUserById() {
+		addAuthority("dash.admin", JOE_ID);
+		UaaUser joe = db.retrieveUserById(JOE_ID);
+		assertEquals("Joe", joe.getUsername());
+		assertEquals("joe@test.org", joe.getEmail());
+		assertNotNull(joe.getModified());
+		assertTrue("authorities does not contain uaa.user", joe.getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
+		assertTrue("authorities does not contain dash.admin", joe.getAuthorities().contains(new SimpleGrantedAuthority("dash.admin")));
+	}
+
+	@Test(expected = UsernameNotFoundException.class)
+	public void getNonExistentUserByIdRaisedNotFoundException() {
+		db.retrieveUserById("unknown");
+	}
+
+	@Test
+	public void getUserByIdWithCustomAuthoritiesQuery() {
+		db.setUserAuthoritiesQuery("select 'custom' from users where id = ?");
+		UaaUser joe = db.retrieveUserById(JOE_ID);
+		assertTrue("authorities does not contain custom", joe.getAuthorities().contains(new SimpleGrantedAuthority("custom")));
+	}
+
+	@Test
+	public void getUserByIdWithAuthoritiesInSeveralRows() {
+		// One row per user in the table, with their username as the authority
+		db.setUserByIdQuery("select u.id, u.username, u.email, u.lastModified, o.username from users u, users o "
+				+ "where u.id = ? and u.active = ?");
+		UaaUser joe = db.retrieveUserById(JOE_ID);
+		assertEquals("Joe", joe.getUsername());
+		assertTrue("authorities does not contain Joe", joe.getAuthorities().contains(new SimpleGrantedAuthority("Joe")));
+		assertTrue("authorities does not contain mabel", joe.getAuthorities().contains(new SimpleGrantedAuthority("mabel")));
+		assertTrue("authorities does not contain uaa.user", joe.getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
+	}
+
+	@Test
+	public void getUsersByNamesCaseInsensitive() {
+		List<UaaUser> users = db.retrieveUsersByNames(Arrays.asList("JOE", "mabel", "jo"));
+		assertEquals(2, users.size());
+		Map<String, UaaUser> byId = byId(users);
+		assertEquals("Joe", byId.get(JOE_ID).getUsername());
+		assertEquals("mabel", byId.get(MABEL_ID).getUsername());
+		assertTrue("authorities does not contain uaa.user",
+				byId.get(MABEL_ID).getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
+	}
+
+	@Test
+	public void getUsersByIdsInSeveralChunks() {
+		db.setMaxInClauseSize(1);
+		addAuthority("dash.admin", JOE_ID);
+		List<UaaUser> users = db.retrieveUsersByIds(Arrays.asList(JOE_ID, MABEL_ID, "unknown"));
+		assertEquals(2, users.size());
+		UaaUser joe = byId(users).get(JOE_ID);
+		assertEquals("joespassword", joe.getPassword());
+		assertEquals(db.retrieveUserByName("joe").getAuthorities().size(), joe.getAuthorities().size());
+		assertTrue("authorities does not contain dash.admin", joe.getAuthorities().contains(new SimpleGrantedAuthority("dash.admin")));
+		assertTrue("authorities does not contain uaa.user", joe.getAuthorities().contains(new SimpleGrantedAuthority("uaa.user")));
+	}
+
+	@Test
+	public void getUsersByIdsWithCustomAuthoritiesQuery() {
+		db.setUserAuthoritiesQuery("select 'custom' from users where id = ?");
+		List<UaaUser> users = db.retrieveUsersByIds(Collections.singleton(JOE_ID));
+		assertEquals(1, users.size());
+		assertTrue("authorities does not contain custom",
+				users.get(0).getAuthorities().contains(new SimpleGrantedAuthority("custom")));
+	}
+
+	@Test
+	public void getUsersByNoNames() {
+		assertTrue(db.retrieveUsersByNames(Collections.<String> emptyList()).isEmpty());
+	}
+
+	private Map<String, UaaUser> byId(List<UaaUser> users) {
+		Map<String, UaaUser> result = new HashMap<String, UaaUser>();
+		for (UaaUser user : users) {
+			result.put(user.getId(), user);
+		}
+		return result;
+	}
 }
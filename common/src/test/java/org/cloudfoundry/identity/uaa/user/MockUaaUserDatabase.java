@@ -12,7 +12,10 @@
  */
 package org.cloudfoundry.identity.uaa.user;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 
@@ -41,4 +44,32 @@ public class MockUaaUserDatabase implements UaaUserDatabase {
 			throw new UsernameNotFoundException(username);
 		}
 	}
+
+	@Override
+	public UaaUser retrieveUserById(String id) throws UsernameNotFoundException {
+		if (user.getId().equals(id)) {
+			return user;
+		}
+		else {
+			throw new UsernameNotFoundException(id);
+		}
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByNames(Collection<String> usernames) {
+		List<UaaUser> result = new ArrayList<UaaUser>();
+		if (usernames.contains(user.getUsername())) {
+			result.add(user);
+		}
+		return result;
+	}
+
+	@Override
+	public List<UaaUser> retrieveUsersByIds(Collection<String> ids) {
+		List<UaaUser> result = new ArrayList<UaaUser>();
+		if (ids.contains(user.getId())) {
+			result.add(user);
+		}
+		return result;
+	}
 }
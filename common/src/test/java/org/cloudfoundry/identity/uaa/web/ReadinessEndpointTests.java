@@ -0,0 +1,137 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+
+package org.cloudfoundry.identity.uaa.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.IfProfileValue;
+import org.springframework.test.annotation.ProfileValueSourceConfiguration;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@ContextConfiguration("classpath:/test-data-source.xml")
+@RunWith(SpringJUnit4ClassRunner.class)
+@IfProfileValue(name = "spring.profiles.active", values = { "", "hsqldb", "test,postgresql", "test,mysql", "test,oracle" })
+@ProfileValueSourceConfiguration(NullSafeSystemProfileValueSource.class)
+public class ReadinessEndpointTests {
+
+	@Autowired
+	private DataSource dataSource;
+
+	private ReadinessEndpoint endpoint;
+
+	@Before
+	public void init() {
+		endpoint = new ReadinessEndpoint(dataSource);
+		endpoint.setValidationQuery("select count(*) from users");
+		endpoint.setDegradedLatency(10000);
+		endpoint.setUnreadyLatency(20000);
+	}
+
+	@Test
+	public void testReadyWithPoolStatistics() {
+		ResponseEntity<Map<String, Object>> response = endpoint.getReadiness();
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		Map<String, Object> body = response.getBody();
+		assertEquals(ReadinessEndpoint.UP, body.get("status"));
+		Map<?, ?> checks = (Map<?, ?>) body.get("checks");
+		assertEquals(ReadinessEndpoint.UP, ((Map<?, ?>) checks.get("database")).get("status"));
+		Map<?, ?> pool = (Map<?, ?>) checks.get("pool");
+		assertNotNull(pool);
+		assertEquals(0, pool.get("active"));
+		assertTrue(pool.containsKey("idle"));
+	}
+
+	@Test
+	public void testSlowDatabaseIsDegraded() {
+		endpoint.setDegradedLatency(-1);
+		ResponseEntity<Map<String, Object>> response = endpoint.getReadiness();
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(ReadinessEndpoint.DEGRADED, endpoint.getStatus());
+	}
+
+	@Test
+	public void testBusyPoolIsDegraded() {
+		endpoint.setDegradedUtilization(-1);
+		assertEquals(ReadinessEndpoint.DEGRADED, endpoint.getStatus());
+	}
+
+	@Test
+	public void testUnavailableDatabaseIsDown() throws Exception {
+		DataSource broken = mock(DataSource.class);
+		when(broken.getConnection()).thenThrow(new SQLException("Connection refused"));
+		endpoint = new ReadinessEndpoint(broken);
+		ResponseEntity<Map<String, Object>> response = endpoint.getReadiness();
+		assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+		Map<?, ?> checks = (Map<?, ?>) response.getBody().get("checks");
+		Map<?, ?> database = (Map<?, ?>) checks.get("database");
+		assertEquals(ReadinessEndpoint.DOWN, database.get("status"));
+		assertNull("Errors must not be exposed: " + database, database.get("error"));
+		assertTrue("No pool statistics expected: " + checks, !checks.containsKey("pool"));
+	}
+
+	@Test
+	public void testSaturatedPoolIsNotQueried() throws Exception {
+		BasicDataSource saturated = mock(BasicDataSource.class);
+		when(saturated.getNumActive()).thenReturn(8);
+		when(saturated.getMaxActive()).thenReturn(8);
+		when(saturated.getNumIdle()).thenReturn(0);
+		endpoint = new ReadinessEndpoint(saturated);
+		assertEquals(ReadinessEndpoint.DEGRADED, endpoint.getStatus());
+		Map<?, ?> checks = (Map<?, ?>) endpoint.getMetrics().get("checks");
+		assertEquals(Boolean.TRUE, ((Map<?, ?>) checks.get("database")).get("skipped"));
+		verify(saturated, never()).getConnection();
+	}
+
+	@Test
+	public void testResultIsCached() {
+		endpoint.setCacheInterval(60000);
+		Map<String, ?> result = endpoint.getMetrics();
+		endpoint.setDegradedLatency(-1);
+		assertSame(result, endpoint.getMetrics());
+		assertEquals(ReadinessEndpoint.UP, endpoint.getStatus());
+	}
+
+	@Test
+	public void testResultIsRefreshedAfterInterval() {
+		endpoint.setCacheInterval(0);
+		Map<String, ?> result = endpoint.getMetrics();
+		endpoint.setDegradedLatency(-1);
+		Map<String, ?> refreshed = endpoint.getMetrics();
+		assertTrue(result != refreshed);
+		assertEquals(ReadinessEndpoint.DEGRADED, refreshed.get("status"));
+	}
+
+}
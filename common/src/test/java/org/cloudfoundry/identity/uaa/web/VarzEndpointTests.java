@@ -0,0 +1,47 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.cloudfoundry.identity.uaa.metrics.MetricsSource;
+import org.junit.Test;
+
+public class VarzEndpointTests {
+
+	private VarzEndpoint endpoint = new VarzEndpoint();
+
+	@Test
+	public void testBasicFacts() throws Exception {
+		Map<String, ?> varz = endpoint.getVarz();
+		assertTrue(varz.containsKey("uptime"));
+		assertTrue(varz.containsKey("mem"));
+		assertTrue(varz.containsKey("threads"));
+	}
+
+	@Test
+	public void testSources() throws Exception {
+		endpoint.setSources(Collections.<String, MetricsSource> singletonMap("foo", new MetricsSource() {
+			@Override
+			public Map<String, ?> getMetrics() {
+				return Collections.singletonMap("bar", 1);
+			}
+		}));
+		assertEquals(Collections.singletonMap("bar", 1), endpoint.getVarz().get("foo"));
+	}
+
+}
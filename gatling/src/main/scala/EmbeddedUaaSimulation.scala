@@ -0,0 +1,127 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+import com.excilys.ebi.gatling.core.Predef._
+import com.excilys.ebi.gatling.http.Predef._
+
+import uaa.Config._
+import uaa.ScimApi._
+import uaa.UaaApi._
+import uaa.OAuthComponents._
+import uaa._
+import bootstrap._
+
+/**
+ * Seeds an empty UAA (such as the one started by `EmbeddedEngine`) with the clients, `gatling.users` users,
+ * `gatling.groups` groups and `gatling.approvals` approvals that the [[EmbeddedLoadSimulation]] works with.
+ */
+class EmbeddedDataCreationSimulation extends Simulation {
+  val approvalFeeder = UniqueUsernamePasswordFeeder(users.take(nApprovals))
+
+  val seed = scenario("Seed data")
+    .exec(adminClientLogin())
+    .doIf(haveAccessToken) {
+      exec(registerClient(scimClient))
+      .exec(registerClient(loadClient))
+      .exec(extraClients.foldLeft(bootstrap)((chain, client) => chain.exec(registerClient(client))))
+    }
+    .exec(createScimUsers(UniqueUsernamePasswordFeeder(users)))
+    .exec(createScimGroups(UniqueGroupFeeder()))
+    .asLongAs(s => approvalFeeder.hasNext) {
+      feed(approvalFeeder)
+      .exec(passwordAccessTokenRequest(loadClient))
+      .exec(approve(loadClient, "cloud_controller.read"))
+    }
+
+  setUp(seed.users(1).protocolConfig(uaaHttpConfig))
+}
+
+/**
+ * Mixed load on the UAA hot paths, against the data created by [[EmbeddedDataCreationSimulation]]. Each scenario runs
+ * for `GATLING_DURATION` seconds with the number of clients given by its `gatling.<scenario>.users` system property
+ * (0 leaves it out).
+ */
+class EmbeddedLoadSimulation extends Simulation {
+  val Duration = sys.env.getOrElse("GATLING_DURATION", "300").toInt
+
+  // Number of /check_token calls per token, as a resource server checking every request would do
+  val fanOut = sys.props.getOrElse("gatling.check_token.fan_out", "10").toInt
+
+  // Page size for the SCIM searches, which start anywhere in the user list
+  val pageSize = sys.props.getOrElse("gatling.scim.page_size", "100").toInt
+
+  def clients(scenario: String, default: Int) = sys.props.getOrElse("gatling." + scenario + ".users", default.toString).toInt
+
+  val random = new scala.util.Random()
+
+  val startIndexFeeder = new Feeder[String]() {
+    def hasNext = true
+    def next() = Map("startIndex" -> (random.nextInt(math.max(nUsers - pageSize, 1)) + 1).toString)
+  }
+
+  val passwordGrants = scenario("Password grant")
+    .during(Duration) {
+      feed(UsernamePasswordFeeder())
+      .exec(passwordAccessTokenRequest(loadClient))
+    }
+
+  val refreshGrants = scenario("Refresh grant")
+    .feed(UsernamePasswordFeeder())
+    .exec(passwordAccessTokenRequest(loadClient))
+    .doIf(haveAccessToken) {
+      during(Duration) {
+        exec(refreshAccessTokenRequest(loadClient))
+      }
+    }
+
+  val checkTokens = scenario("Check token fan-out")
+    .during(Duration) {
+      feed(UsernamePasswordFeeder())
+      .exec(passwordAccessTokenRequest(loadClient))
+      .repeat(fanOut) {
+        exec(checkToken(loadClient))
+      }
+    }
+
+  val scimSearches = scenario("SCIM search with deep paging")
+    .exec(scimClientLogin())
+    .doIf(haveAccessToken) {
+      during(Duration) {
+        feed(startIndexFeeder)
+        .exec(listUsers(pageSize))
+      }
+    }
+
+  val groupChurn = scenario("Group membership churn")
+    .exec(scimClientLogin())
+    .doIf(haveAccessToken) {
+      during(Duration) {
+        feed(SequentialDisplayNameFeeder())
+        .feed(RandomGroupMemberFeeder(users, 1))
+        .exec(findGroupByName)
+        .exec(getGroup)
+        .exec((s: Session) => s.setAttribute("originalGroup", s.getAttribute("scimGroup")))
+        .exec(findUserByName("memberName_1", "memberId"))
+        .exec(addGroupMember("memberId"))
+        .exec(restoreGroup)
+      }
+    }
+
+  val scenarios = Seq(
+    (passwordGrants, clients("password", 10)),
+    (refreshGrants, clients("refresh", 5)),
+    (checkTokens, clients("check_token", 5)),
+    (scimSearches, clients("scim", 2)),
+    (groupChurn, clients("groups", 2)))
+
+  setUp(scenarios.filter(_._2 > 0).map { case (scn, n) => scn.users(n).ramp(10).protocolConfig(uaaHttpConfig) }: _*)
+}
@@ -20,11 +20,22 @@ import com.excilys.ebi.gatling.http.config.HttpProtocolConfiguration
 /**
  */
 object Config {
+  private def intProperty(name: String, default: Int) = sys.props.get(name) map (_.toInt) getOrElse default
+
   // Number of base data users to create
-  val nUsers = 1000
+  val nUsers = intProperty("gatling.users", 1000)
 
   // Number of base data groups to create
-  val nGroups = 50
+  val nGroups = intProperty("gatling.groups", 50)
+
+  // Number of extra clients to register, so that client lookups are not all against a tiny table
+  val nClients = intProperty("gatling.clients", 10)
+
+  // Number of base data users who approve the load client
+  val nApprovals = intProperty("gatling.approvals", nUsers / 10)
+
+  // Port of the embedded UAA (see EmbeddedEngine)
+  val embeddedPort = intProperty("gatling.port", 8080)
 
   // Average number of members in a group
   val avgGroupSize = nUsers/nGroups
@@ -63,6 +74,20 @@ object Config {
       authorities = Seq("cloud_controller.read","cloud_controller.write","openid","password.write","tokens.read","tokens.write"),
       grants = Seq("client_credentials", "authorization_code", "refresh_token"))
 
+  // Client for the load tests: password and refresh grants, and checking tokens. The uaa.user scope puts "uaa" in the
+  // token audience, which the /approvals endpoint needs
+  val loadClient = Client(
+      id = "gatling_load",
+      secret = "load_client_secret",
+      scopes = Seq("openid", "cloud_controller.read", "password.write", "uaa.user"),
+      resources = Seq("uaa.none"),
+      authorities = Seq("uaa.resource"),
+      grants = Seq("password", "refresh_token"))
+
+  // Extra clients, only registered to fill the client table
+  val extraClients: Seq[Client] = (1 to nClients).map(i => Client("gatling_client_" + i, "client_secret",
+    Seq("openid"), Seq("uaa.none"), Seq("uaa.none")))
+
   // Scim client which is registered by the admin user in order to create users
   val scimClient = Client("scim_client", "scim_client_secret",
     Seq("uaa.none"), Seq("uaa.none"), Seq("scim.read","scim.write","password.write"))
@@ -74,7 +99,7 @@ object Config {
   val groups: Seq[Group] = (1 to nGroups).map(i => Group("acme." + i, Seq(User("shaun" + i, "password"))))
 
   def uaaHttpConfig = {
-    val uaaUrl = baseUrl map (prependHttp) map (_.replace("://", "://uaa.")) getOrElse "http://localhost:8080/uaa"
+    val uaaUrl = baseUrl map (prependHttp) map (_.replace("://", "://uaa.")) getOrElse ("http://localhost:" + embeddedPort + "/uaa")
     println("**** Targeting UAA at: " + uaaUrl)
     httpConfig.baseURL(uaaUrl).disableFollowRedirect.disableAutomaticReferer.warmUp(uaaUrl)
   }
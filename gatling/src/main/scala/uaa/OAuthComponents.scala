@@ -133,6 +133,43 @@ object OAuthComponents {
         .headers(plainHeaders)
         .check(status.is(200), jsonToken.saveAs("access_token"))
 
+  /**
+   * Password grant token request as the given client, for the user in the session. Saves the access and refresh
+   * tokens under "access_token" and "refresh_token".
+   */
+  def passwordAccessTokenRequest(client: Client, username: String = "${username}", password: String = "${password}"): ActionBuilder =
+    http("Password Grant Token Request")
+      .post("/oauth/token")
+      .basicAuth(client.id, client.secret)
+      .param("username", username)
+      .param("password", password)
+      .param("grant_type", "password")
+      .headers(plainHeaders)
+      .check(status.is(200), jsonToken.saveAs("access_token"), regex(""""refresh_token":"(.*?)"""").saveAs("refresh_token"))
+
+  /**
+   * Refresh grant token request as the given client, using the "refresh_token" in the session.
+   */
+  def refreshAccessTokenRequest(client: Client): ActionBuilder =
+    http("Refresh Grant Token Request")
+      .post("/oauth/token")
+      .basicAuth(client.id, client.secret)
+      .param("refresh_token", "${refresh_token}")
+      .param("grant_type", "refresh_token")
+      .headers(plainHeaders)
+      .check(status.is(200), jsonToken.saveAs("access_token"))
+
+  /**
+   * Checks the "access_token" in the session as the given (resource server) client.
+   */
+  def checkToken(client: Client): ActionBuilder =
+    http("Check Token")
+      .post("/check_token")
+      .basicAuth(client.id, client.secret)
+      .param("token", "${access_token}")
+      .headers(plainHeaders)
+      .check(status.is(200))
+
   /**
    * Single vmc login action with a specific username/password
    */
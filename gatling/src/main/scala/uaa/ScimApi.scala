@@ -100,6 +100,19 @@ object ScimApi {
     findGroupByName("displayName", "groupId")
   }
 
+  /**
+   * Fetches a page of users, starting at the "startIndex" in the session.
+   */
+  def listUsers(count: Int) : ActionBuilder =
+    http("List users")
+      .get("/Users")
+      .queryParam("attributes", "id,userName")
+      .queryParam("startIndex", "${startIndex}")
+      .queryParam("count", count.toString)
+      .header("Authorization", "Bearer ${access_token}")
+      .asJSON
+      .check(status.is(200))
+
   /**
    * Creates a SCIM user.
    *
@@ -209,6 +222,18 @@ object ScimApi {
     groupJson.replace(memberJson, updatedMembersJson)
   }
 
+  /**
+   * Puts back the group saved under `originalGroup`, with the members it had then.
+   */
+  def restoreGroup =
+    http("Restore group")
+      .put("/Groups/${groupId}")
+      .header("Authorization", "Bearer ${access_token}")
+      .header("If-Match", "*")
+      .body("${originalGroup}")
+      .asJSON
+      .check(status.is(200))
+
   def changePassword =
       http("Change Password")
         .put("/Users/${userId}/password")
@@ -43,6 +43,17 @@ object UaaApi {
     clientCredentialsAccessTokenRequest(admin_client_id, admin_client_secret, admin_client_id)
 
 
+  /**
+   * Approves a scope for a client as the user whose "access_token" is in the session.
+   */
+  def approve(client: Client, scope: String) =
+    http("Approve Client")
+      .put("/approvals")
+      .header("Authorization", "Bearer ${access_token}")
+      .body("""[{"userName":"${username}","clientId":"%s","scope":"%s","status":"APPROVED","expiresAt":"2099-01-01T00:00:00.000Z"}]""" format(client.id, scope))
+      .asJSON
+      .check(status is 200)
+
   def registerClient(client: Client) =
     http("Register Client")
       .post("/oauth/clients")
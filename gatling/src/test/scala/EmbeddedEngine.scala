@@ -0,0 +1,49 @@
+import com.excilys.ebi.gatling.app.Gatling
+import com.excilys.ebi.gatling.core.config.GatlingPropertiesBuilder
+import org.apache.catalina.startup.Tomcat
+
+import uaa.Config._
+
+/**
+ * Starts the UAA war (system property `uaa.war`, as copied by the `embedded` Maven profile) in an embedded Tomcat with
+ * the default in-memory HSQLDB, seeds it with [[EmbeddedDataCreationSimulation]] and runs [[EmbeddedLoadSimulation]]
+ * against it. The run description records the data set and load, so that reports from different runs can be told
+ * apart.
+ */
+object EmbeddedEngine extends App {
+
+	val war = new java.io.File(sys.props.getOrElse("uaa.war", (IDEPathHelper.mavenTargetDirectory / "uaa.war").toString))
+	require(war.isFile, "No UAA war at " + war.getAbsolutePath + " (run with -P embedded or set -Duaa.war)")
+
+	// The war has no default /varz password
+	if (System.getProperty("varz.password") == null) System.setProperty("varz.password", varz_client_secret)
+
+	val tomcat = new Tomcat
+	tomcat.setBaseDir((IDEPathHelper.mavenTargetDirectory / "tomcat").toString)
+	tomcat.setPort(embeddedPort)
+	tomcat.addWebapp("/uaa", war.getAbsolutePath)
+	tomcat.start()
+
+	val description = "users=%d groups=%d clients=%d approvals=%d duration=%s" format (nUsers, nGroups, nClients,
+		nApprovals, sys.env.getOrElse("GATLING_DURATION", "300"))
+
+	try {
+		run("EmbeddedDataCreationSimulation", "seed " + description)
+		run("EmbeddedLoadSimulation", "load " + description)
+	} finally {
+		tomcat.stop()
+		tomcat.destroy()
+	}
+
+	def run(simulation: String, description: String) {
+		val props = new GatlingPropertiesBuilder
+		props.dataDirectory(IDEPathHelper.dataDirectory.toString)
+		props.resultsDirectory(IDEPathHelper.resultsDirectory.toString)
+		props.requestBodiesDirectory(IDEPathHelper.requestBodiesDirectory.toString)
+		props.binariesDirectory((IDEPathHelper.mavenTargetDirectory / "classes").toString)
+		props.simulationClass(simulation)
+		props.runDescription(description)
+
+		Gatling.fromMap(props.build)
+	}
+}
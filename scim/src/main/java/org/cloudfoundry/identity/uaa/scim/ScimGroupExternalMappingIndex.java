@@ -0,0 +1,160 @@
+package org.cloudfoundry.identity.uaa.scim;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory index of external group to UAA group display name mappings. External group names are matched case
+ * insensitively, like the database lookups they replace. Reads never lock: writers publish a new copy of the index.
+ */
+public class ScimGroupExternalMappingIndex {
+
+	private volatile Map<String, Set<String>> mappings = Collections.emptyMap();
+
+	private volatile long loaded = -1;
+
+	private long version = 0;
+
+	/**
+	 * @param externalGroups the external group names to look up
+	 * @return the display names of all UAA groups mapped to any of the external groups (never null)
+	 */
+	public Set<String> getGroupNames(Collection<String> externalGroups) {
+		Map<String, Set<String>> current = mappings;
+		Set<String> result = new LinkedHashSet<String>();
+		for (String externalGroup : externalGroups) {
+			if (externalGroup == null) {
+				continue;
+			}
+			Set<String> names = current.get(externalGroup.toLowerCase());
+			if (names != null) {
+				result.addAll(names);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Add a single mapping to the index.
+	 *
+	 * @param externalGroup the external group name
+	 * @param groupName the display name of the mapped UAA group
+	 */
+	public synchronized void add(String externalGroup, String groupName) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>(mappings);
+		String key = externalGroup.toLowerCase();
+		Set<String> names = new LinkedHashSet<String>();
+		if (copy.containsKey(key)) {
+			names.addAll(copy.get(key));
+		}
+		names.add(groupName);
+		copy.put(key, Collections.unmodifiableSet(names));
+		mappings = Collections.unmodifiableMap(copy);
+		version++;
+	}
+
+	/**
+	 * Remove a single mapping from the index.
+	 *
+	 * @param externalGroup the external group name
+	 * @param groupName the display name of the mapped UAA group
+	 */
+	public synchronized void remove(String externalGroup, String groupName) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>(mappings);
+		String key = externalGroup.toLowerCase();
+		if (copy.containsKey(key)) {
+			Set<String> names = new LinkedHashSet<String>(copy.get(key));
+			names.remove(groupName);
+			if (names.isEmpty()) {
+				copy.remove(key);
+			}
+			else {
+				copy.put(key, Collections.unmodifiableSet(names));
+			}
+		}
+		mappings = Collections.unmodifiableMap(copy);
+		version++;
+	}
+
+	/**
+	 * Remove all the mappings to a UAA group from the index.
+	 *
+	 * @param groupName the display name of the UAA group
+	 */
+	public synchronized void removeGroup(String groupName) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : mappings.entrySet()) {
+			if (!entry.getValue().contains(groupName)) {
+				copy.put(entry.getKey(), entry.getValue());
+				continue;
+			}
+			Set<String> names = new LinkedHashSet<String>(entry.getValue());
+			names.remove(groupName);
+			if (!names.isEmpty()) {
+				copy.put(entry.getKey(), Collections.unmodifiableSet(names));
+			}
+		}
+		mappings = Collections.unmodifiableMap(copy);
+		version++;
+	}
+
+	/**
+	 * Replace the whole content of the index.
+	 *
+	 * @param externalGroupMappings the mappings from external group names to UAA group display names
+	 */
+	public synchronized void reset(Map<String, ? extends Collection<String>> externalGroupMappings) {
+		Map<String, Set<String>> copy = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, ? extends Collection<String>> entry : externalGroupMappings.entrySet()) {
+			String key = entry.getKey().toLowerCase();
+			Set<String> names = new LinkedHashSet<String>();
+			if (copy.containsKey(key)) {
+				names.addAll(copy.get(key));
+			}
+			names.addAll(entry.getValue());
+			copy.put(key, Collections.unmodifiableSet(names));
+		}
+		mappings = Collections.unmodifiableMap(copy);
+		loaded = System.currentTimeMillis();
+		version++;
+	}
+
+	/**
+	 * Replace the whole content of the index, unless it was changed since the given version was read: a reload that
+	 * started before a change may not include it.
+	 *
+	 * @param externalGroupMappings the mappings from external group names to UAA group display names
+	 * @param expectedVersion the {@link #getVersion() version} read before the mappings were
+	 * @return true if the index was replaced
+	 */
+	public synchronized boolean reset(Map<String, ? extends Collection<String>> externalGroupMappings, long expectedVersion) {
+		if (version != expectedVersion) {
+			return false;
+		}
+		reset(externalGroupMappings);
+		return true;
+	}
+
+	/**
+	 * @return a counter of the changes to the index
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the time (millis) of the last {@link #reset(Map)} or -1 if the index was never loaded
+	 */
+	public long getLastLoaded() {
+		return loaded;
+	}
+
+	public int size() {
+		return mappings.size();
+	}
+
+}
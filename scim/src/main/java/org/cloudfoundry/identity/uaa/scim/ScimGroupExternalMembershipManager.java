@@ -1,17 +1,33 @@
 package org.cloudfoundry.identity.uaa.scim;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
+import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
 
 public interface ScimGroupExternalMembershipManager {
 
 	public ScimGroupExternalMember mapExternalGroup(final String groupId, final String externalGroup) throws ScimResourceNotFoundException, MemberAlreadyExistsException;
 
+	public ScimGroupExternalMember unmapExternalGroup(final String groupId, final String externalGroup) throws ScimResourceNotFoundException, MemberNotFoundException;
+
+	public List<ScimGroupExternalMember> unmapAllExternalGroups(final String groupId) throws ScimResourceNotFoundException;
+
 	public List<ScimGroupExternalMember> getExternalGroupMapsByGroupId(final String groupId) throws ScimResourceNotFoundException;
 
 	public List<ScimGroupExternalMember> getExternalGroupMapsByExternalGroup(final String externalGroup) throws ScimResourceNotFoundException;
 
 	public List<ScimGroupExternalMember> getExternalGroupMapsByGroupName(final String groupName) throws ScimResourceNotFoundException;
+
+	/**
+	 * Resolve the display names of all UAA groups mapped to any of the given external groups in one pass, without a
+	 * database round trip per external or mapped group.
+	 *
+	 * @param externalGroups the external group names (matched case insensitively)
+	 * @return the mapped group display names (never null)
+	 */
+	public Set<String> getGroupNamesByExternalGroups(final Collection<String> externalGroups);
 }
@@ -1,74 +1,174 @@
 package org.cloudfoundry.identity.uaa.scim;
 
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readEnum;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readString;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readStringArray;
+
+import org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.Field;
+import org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.ObjectReader;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.DeserializationContext;
 import org.codehaus.jackson.map.JsonDeserializer;
+import org.codehaus.jackson.map.JsonMappingException;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
 
+/**
+ * Reads a {@link ScimGroup} straight from the token stream. The members are listed in one array per role
+ * (<code>members</code>, <code>readers</code>, <code>writers</code>); a member that appears in several of them gets
+ * all their roles. Unknown fields are ignored.
+ */
 public class ScimGroupJsonDeserializer extends JsonDeserializer<ScimGroup> {
 
+	private static final ObjectReader<GroupBuilder> GROUP = new ObjectReader<GroupBuilder>(ScimGroup.class, true,
+			GroupField.values()) {
+		@Override
+		GroupBuilder create() {
+			return new GroupBuilder();
+		}
+	};
+
+	private static final ObjectReader<ScimGroupMember> MEMBER = new ObjectReader<ScimGroupMember>(
+			ScimGroupMember.class, false, MemberField.values()) {
+		@Override
+		ScimGroupMember create() {
+			return new ScimGroupMember();
+		}
+	};
+
 	@Override
 	public ScimGroup deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
-		ScimGroup group = new ScimGroup();
+		GroupBuilder builder = new GroupBuilder();
+		GROUP.readFields(jp, builder);
+		return builder.build();
+	}
 
-		Map<ScimGroupMember.Role, List<ScimGroupMember>> roles = new HashMap<ScimGroupMember.Role, List<ScimGroupMember>>();
-		for (ScimGroupMember.Role role : ScimGroupMember.Role.values()) {
-			roles.put(role, new ArrayList<ScimGroupMember>());
-		}
-		Set<ScimGroupMember> allMembers = new HashSet<ScimGroupMember>();
-
-		while(jp.nextToken() != JsonToken.END_OBJECT) {
-			if (jp.getCurrentToken() == JsonToken.FIELD_NAME) {
-				String fieldName = jp.getCurrentName();
-				jp.nextToken();
-
-				if ("id".equalsIgnoreCase(fieldName)) {
-					group.setId(jp.readValueAs(String.class));
-				} else if ("displayname".equalsIgnoreCase(fieldName)) {
-					group.setDisplayName(jp.readValueAs(String.class));
-				} else if ("meta".equalsIgnoreCase(fieldName)) {
-					group.setMeta(jp.readValueAs(ScimMeta.class));
-				} else if ("schemas".equalsIgnoreCase(fieldName)) {
-					group.setSchemas(jp.readValueAs(String[].class));
-				} else {
-					String value = fieldName.substring(0, fieldName.length()-1);
-					ScimGroupMember.Role role;
-					try {
-						role = ScimGroupMember.Role.valueOf(value.toUpperCase());
-					} catch (IllegalArgumentException ex) {
-						role = null;
-					}
-					if (role != null) {
-						ScimGroupMember[] members = jp.readValueAs(ScimGroupMember[].class);
-						for (ScimGroupMember member : members) {
-							member.setRoles(new ArrayList<ScimGroupMember.Role>());
-						}
-						roles.get(role).addAll(Arrays.asList(members));
-						allMembers.addAll(Arrays.asList(members));
-					}
+	private static class GroupBuilder {
+
+		private final ScimGroup group = new ScimGroup();
+
+		private final Map<ScimGroupMember, ScimGroupMember> members = new LinkedHashMap<ScimGroupMember, ScimGroupMember>();
+
+		void addMembers(JsonParser jp, ScimGroupMember.Role role) throws IOException {
+			if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+				return;
+			}
+			if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+				throw new JsonMappingException("Expected an array of members but found " + jp.getCurrentToken(),
+						jp.getCurrentLocation());
+			}
+			while (jp.nextToken() != JsonToken.END_ARRAY) {
+				ScimGroupMember member = MEMBER.read(jp);
+				if (member == null) {
+					continue;
+				}
+				ScimGroupMember existing = members.get(member);
+				if (existing == null) {
+					member.setRoles(new ArrayList<ScimGroupMember.Role>());
+					members.put(member, member);
+					existing = member;
+				}
+				if (!existing.getRoles().contains(role)) {
+					existing.getRoles().add(role);
 				}
 			}
 		}
 
-		for (ScimGroupMember member : allMembers) {
-			for (ScimGroupMember.Role role : roles.keySet()) {
-				if (roles.get(role).contains(member)) {
-					member.getRoles().add(role);
-				}
+		ScimGroup build() {
+			for (ScimGroupMember member : members.keySet()) {
+				Collections.sort(member.getRoles());
+			}
+			group.setMembers(new ArrayList<ScimGroupMember>(members.keySet()));
+			return group;
+		}
+
+	}
+
+	private enum GroupField implements Field<GroupBuilder> {
+		ID("id") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.group.setId(readString(jp));
+			}
+		},
+		DISPLAY_NAME("displayName") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.group.setDisplayName(readString(jp));
+			}
+		},
+		META("meta") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.group.setMeta(ScimJsonSupport.META.read(jp));
+			}
+		},
+		SCHEMAS("schemas") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.group.setSchemas(readStringArray(jp));
+			}
+		},
+		MEMBERS("members") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.addMembers(jp, ScimGroupMember.Role.MEMBER);
 			}
+		},
+		READERS("readers") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.addMembers(jp, ScimGroupMember.Role.READER);
+			}
+		},
+		WRITERS("writers") {
+			@Override
+			public void read(JsonParser jp, GroupBuilder builder) throws IOException {
+				builder.addMembers(jp, ScimGroupMember.Role.WRITER);
+			}
+		};
+
+		private final String name;
+
+		private GroupField(String name) {
+			this.name = name;
 		}
-		group.setMembers(new ArrayList<ScimGroupMember>(allMembers));
 
-		return group;
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	private enum MemberField implements Field<ScimGroupMember> {
+		VALUE("value") {
+			@Override
+			public void read(JsonParser jp, ScimGroupMember member) throws IOException {
+				member.setMemberId(readString(jp));
+			}
+		},
+		TYPE("type") {
+			@Override
+			public void read(JsonParser jp, ScimGroupMember member) throws IOException {
+				member.setType(readEnum(jp, ScimGroupMember.Type.class));
+			}
+		};
+
+		private final String name;
+
+		private MemberField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
 	}
 }
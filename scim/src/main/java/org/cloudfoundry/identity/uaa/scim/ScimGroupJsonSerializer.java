@@ -1,51 +1,64 @@
 package org.cloudfoundry.identity.uaa.scim;
 
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeEnum;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeMeta;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeString;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeStringArray;
+
 import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonProcessingException;
 import org.codehaus.jackson.map.JsonSerializer;
 import org.codehaus.jackson.map.SerializerProvider;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Writes a {@link ScimGroup} straight to the generator, with its members listed in one array per role
+ * (<code>members</code>, <code>readers</code>, <code>writers</code>). Roles nobody has are left out.
+ */
 public class ScimGroupJsonSerializer extends JsonSerializer<ScimGroup> {
+
+	private static final ScimGroupMember.Role[] ROLES = ScimGroupMember.Role.values();
+
+	private static final String[] ROLE_FIELDS = new String[ROLES.length];
+
+	static {
+		for (int i = 0; i < ROLES.length; i++) {
+			ROLE_FIELDS[i] = ROLES[i].toString().toLowerCase() + "s";
+		}
+	}
+
 	@Override
 	public void serialize(ScimGroup group, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonProcessingException {
-		Map<String, List<ScimGroupMember>> roles = new HashMap<String, List<ScimGroupMember>>();
-		for (ScimGroupMember.Role authority : ScimGroupMember.Role.values()) {
-			String role = authority.toString().toLowerCase()+"s";
-			roles.put(role, new ArrayList<ScimGroupMember>());
-			if (group.getMembers() != null) {
-				for (ScimGroupMember member : group.getMembers()) {
-					if (member.getRoles().contains(authority)) {
-						roles.get(role).add(member);
+		jgen.writeStartObject();
+		writeMeta(jgen, group.getMeta());
+		writeStringArray(jgen, "schemas", group.getSchemas());
+		writeString(jgen, "id", group.getId());
+		writeString(jgen, "displayName", group.getDisplayName());
+		List<ScimGroupMember> members = group.getMembers();
+		if (members != null) {
+			for (int i = 0; i < ROLES.length; i++) {
+				boolean started = false;
+				for (ScimGroupMember member : members) {
+					if (member.getRoles() == null || !member.getRoles().contains(ROLES[i])) {
+						continue;
+					}
+					if (!started) {
+						jgen.writeArrayFieldStart(ROLE_FIELDS[i]);
+						started = true;
 					}
+					jgen.writeStartObject();
+					writeString(jgen, "value", member.getMemberId());
+					writeEnum(jgen, "type", member.getType());
+					jgen.writeEndObject();
+				}
+				if (started) {
+					jgen.writeEndArray();
 				}
 			}
 		}
-
-		Map<Object, Object> groupJson = new HashMap<Object, Object>();
-		addNonNull(groupJson, "meta", group.getMeta());
-		addNonNull(groupJson, "schemas", group.getSchemas());
-		addNonNull(groupJson, "id", group.getId());
-		addNonNull(groupJson, "displayName", group.getDisplayName());
-
-		for (Map.Entry<String, List<ScimGroupMember>> entry : roles.entrySet()) {
-			addNonNull(groupJson, entry.getKey(), entry.getValue());
-		}
-
-		jgen.writeObject(groupJson);
-
+		jgen.writeEndObject();
 	}
 
-	private void addNonNull (Map<Object, Object> map, Object key, Object value) {
-		if (value == null || (value instanceof Collection && ((Collection<?>)value).isEmpty())) {
-			return;
-		}
-		map.put(key, value);
-	}
 }
@@ -12,7 +12,20 @@ public class ScimGroupMember {
 
 	@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
 	public static enum Role {
-		MEMBER, READER, WRITER;
+		MEMBER(1), READER(2), WRITER(4);
+
+		private final int mask;
+
+		private Role(int mask) {
+			this.mask = mask;
+		}
+
+		/**
+		 * @return the bit used for this role in the persistent role mask of a membership
+		 */
+		public int getMask() {
+			return mask;
+		}
 	}
 
 	public static final List<Role> GROUP_MEMBER = Arrays.asList(Role.MEMBER);
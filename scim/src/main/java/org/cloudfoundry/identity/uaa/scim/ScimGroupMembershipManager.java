@@ -19,6 +19,17 @@ public interface ScimGroupMembershipManager {
 	 */
 	ScimGroupMember addMember(String groupId, ScimGroupMember member) throws ScimResourceNotFoundException, MemberAlreadyExistsException;
 
+	/**
+	 * Add several members to a group with a single batch of writes. Members that already belong to the group (or appear
+	 * more than once in the list) are skipped rather than rejected, and the member ids are not checked individually, so
+	 * callers are expected to supply ids of existing users or groups.
+	 * @param groupId id of a valid group that already exists.
+	 * @param members membership info for the scim objects to enroll in the group
+	 * @return the members that were actually added
+	 * @throws ScimResourceNotFoundException
+	 */
+	List<ScimGroupMember> addMembers(String groupId, List<ScimGroupMember> members) throws ScimResourceNotFoundException;
+
 	/**
 	 * Retrieve all members of a group
 	 * @param groupId
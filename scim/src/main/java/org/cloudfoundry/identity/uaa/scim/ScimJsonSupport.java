@@ -0,0 +1,419 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.scim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
+import org.cloudfoundry.identity.uaa.util.json.JsonDateDeserializer;
+import org.cloudfoundry.identity.uaa.util.json.JsonDateSerializer;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
+
+/**
+ * Streaming readers and writers shared by the SCIM JSON serializers and deserializers. Objects are read with an
+ * {@link ObjectReader}: a table from field name to {@link Field}, looked up first with the name as given and then
+ * case-folded (SCIM attribute names are case insensitive), so a field is dispatched with one or two hash lookups
+ * whatever the number of fields. Nested objects and arrays are read directly from the token stream rather than
+ * through the data binder.
+ */
+final class ScimJsonSupport {
+
+	private static final JsonDateSerializer DATE_SERIALIZER = new JsonDateSerializer();
+
+	private static final JsonDateDeserializer DATE_DESERIALIZER = new JsonDateDeserializer();
+
+	private ScimJsonSupport() {
+	}
+
+	/**
+	 * A field of a JSON object and how to read its value into the target.
+	 */
+	interface Field<T> {
+
+		String getName();
+
+		/**
+		 * @param jp a parser positioned at the value of the field
+		 * @param target the object being read
+		 */
+		void read(JsonParser jp, T target) throws IOException;
+
+	}
+
+	/**
+	 * Reads JSON objects field by field through a table of {@link Field}s.
+	 */
+	abstract static class ObjectReader<T> {
+
+		private final Map<String, Field<T>> fields = new HashMap<String, Field<T>>();
+
+		private final Class<?> type;
+
+		private final boolean ignoreUnknown;
+
+		/**
+		 * @param type the type being read (for error messages)
+		 * @param ignoreUnknown true to skip unknown fields, false to reject them
+		 * @param fields the known fields
+		 */
+		ObjectReader(Class<?> type, boolean ignoreUnknown, Field<T>[] fields) {
+			this.type = type;
+			this.ignoreUnknown = ignoreUnknown;
+			for (Field<T> field : fields) {
+				this.fields.put(field.getName(), field);
+				this.fields.put(fold(field.getName()), field);
+			}
+		}
+
+		/**
+		 * @return a new instance to read the fields of an object into
+		 */
+		abstract T create();
+
+		/**
+		 * @param jp a parser positioned at the start of an object (or null)
+		 * @return a new instance with the fields of the object, or null
+		 */
+		T read(JsonParser jp) throws IOException {
+			if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+				return null;
+			}
+			T target = create();
+			readFields(jp, target);
+			return target;
+		}
+
+		/**
+		 * Read the fields of an object, up to and including its end.
+		 *
+		 * @param jp a parser positioned at the start of the object or at its first field
+		 * @param target the object to read the fields into
+		 */
+		void readFields(JsonParser jp, T target) throws IOException {
+			JsonToken token = jp.getCurrentToken();
+			if (token == JsonToken.START_OBJECT) {
+				token = jp.nextToken();
+			}
+			for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+				String name = jp.getCurrentName();
+				jp.nextToken();
+				Field<T> field = fields.get(name);
+				if (field == null) {
+					field = fields.get(fold(name));
+				}
+				if (field != null) {
+					field.read(jp, target);
+				}
+				else if (ignoreUnknown) {
+					jp.skipChildren();
+				}
+				else {
+					throw new UnrecognizedPropertyException("unrecognized field", jp.getCurrentLocation(), type, name);
+				}
+			}
+			if (token != JsonToken.END_OBJECT) {
+				throw new JsonMappingException("Expected an object for " + type.getSimpleName(),
+						jp.getCurrentLocation());
+			}
+		}
+
+		/**
+		 * @param jp a parser positioned at the start of an array of objects (or null)
+		 * @param result the collection to add the objects to
+		 * @return the result, or null if the array was null
+		 */
+		<C extends Collection<T>> C readArray(JsonParser jp, C result) throws IOException {
+			if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+				return null;
+			}
+			expectArray(jp, type);
+			while (jp.nextToken() != JsonToken.END_ARRAY) {
+				result.add(read(jp));
+			}
+			return result;
+		}
+
+	}
+
+	static String fold(String name) {
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	static String readString(JsonParser jp) throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (!token.isScalarValue()) {
+			throw new JsonMappingException("Expected a string but found " + token, jp.getCurrentLocation());
+		}
+		return jp.getText();
+	}
+
+	/**
+	 * @return the value, or null if it was null or empty
+	 */
+	static Boolean readBoolean(JsonParser jp) throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.VALUE_TRUE) {
+			return Boolean.TRUE;
+		}
+		if (token == JsonToken.VALUE_FALSE) {
+			return Boolean.FALSE;
+		}
+		if (token == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		if (token == JsonToken.VALUE_STRING) {
+			String text = jp.getText().trim();
+			if ("true".equals(text)) {
+				return Boolean.TRUE;
+			}
+			if ("false".equals(text)) {
+				return Boolean.FALSE;
+			}
+			if (text.length() == 0) {
+				return null;
+			}
+		}
+		throw new JsonMappingException("Expected a boolean but found " + jp.getText(), jp.getCurrentLocation());
+	}
+
+	static int readInt(JsonParser jp) throws IOException {
+		JsonToken token = jp.getCurrentToken();
+		if (token == JsonToken.VALUE_NUMBER_INT) {
+			return jp.getIntValue();
+		}
+		if (token == JsonToken.VALUE_NULL) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(readString(jp).trim());
+		}
+		catch (NumberFormatException e) {
+			throw new JsonMappingException("Expected an integer but found " + jp.getText(), jp.getCurrentLocation());
+		}
+	}
+
+	static <E extends Enum<E>> E readEnum(JsonParser jp, Class<E> type) throws IOException {
+		String value = readString(jp);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Enum.valueOf(type, value);
+		}
+		catch (IllegalArgumentException e) {
+			throw new JsonMappingException("Unknown " + type.getSimpleName() + ": " + value, jp.getCurrentLocation());
+		}
+	}
+
+	static Date readDate(JsonParser jp) throws IOException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		return DATE_DESERIALIZER.deserialize(jp, null);
+	}
+
+	static String[] readStringArray(JsonParser jp) throws IOException {
+		if (jp.getCurrentToken() == JsonToken.VALUE_NULL) {
+			return null;
+		}
+		expectArray(jp, String.class);
+		List<String> values = new ArrayList<String>(1);
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			values.add(readString(jp));
+		}
+		return values.toArray(new String[values.size()]);
+	}
+
+	private static void expectArray(JsonParser jp, Class<?> type) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw new JsonMappingException("Expected an array of " + type.getSimpleName() + " but found "
+					+ jp.getCurrentToken(), jp.getCurrentLocation());
+		}
+	}
+
+	static void writeString(JsonGenerator jgen, String name, String value) throws IOException {
+		if (value != null) {
+			jgen.writeStringField(name, value);
+		}
+	}
+
+	static void writeEnum(JsonGenerator jgen, String name, Enum<?> value) throws IOException {
+		if (value != null) {
+			jgen.writeStringField(name, value.name());
+		}
+	}
+
+	static void writeDate(JsonGenerator jgen, String name, Date value) throws IOException {
+		if (value != null) {
+			jgen.writeFieldName(name);
+			DATE_SERIALIZER.serialize(value, jgen, null);
+		}
+	}
+
+	static void writeStringArray(JsonGenerator jgen, String name, String[] values) throws IOException {
+		if (values != null) {
+			jgen.writeArrayFieldStart(name);
+			for (String value : values) {
+				jgen.writeString(value);
+			}
+			jgen.writeEndArray();
+		}
+	}
+
+	static final ObjectReader<ScimMeta> META = new ObjectReader<ScimMeta>(ScimMeta.class, false, MetaField.values()) {
+		@Override
+		ScimMeta create() {
+			return new ScimMeta();
+		}
+	};
+
+	private enum MetaField implements Field<ScimMeta> {
+		VERSION("version") {
+			@Override
+			public void read(JsonParser jp, ScimMeta meta) throws IOException {
+				meta.setVersion(readInt(jp));
+			}
+		},
+		CREATED("created") {
+			@Override
+			public void read(JsonParser jp, ScimMeta meta) throws IOException {
+				meta.setCreated(readDate(jp));
+			}
+		},
+		LAST_MODIFIED("lastModified") {
+			@Override
+			public void read(JsonParser jp, ScimMeta meta) throws IOException {
+				meta.setLastModified(readDate(jp));
+			}
+		};
+
+		private final String name;
+
+		private MetaField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	static void writeMeta(JsonGenerator jgen, ScimMeta meta) throws IOException {
+		if (meta == null) {
+			return;
+		}
+		jgen.writeObjectFieldStart("meta");
+		jgen.writeNumberField("version", meta.getVersion());
+		writeDate(jgen, "created", meta.getCreated());
+		writeDate(jgen, "lastModified", meta.getLastModified());
+		jgen.writeEndObject();
+	}
+
+	static final ObjectReader<Approval> APPROVAL = new ObjectReader<Approval>(Approval.class, false,
+			ApprovalField.values()) {
+		@Override
+		Approval create() {
+			return new Approval();
+		}
+	};
+
+	private enum ApprovalField implements Field<Approval> {
+		USER_NAME("userName") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setUserId(readString(jp));
+			}
+		},
+		USER_ID("userId") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setUserId(readString(jp));
+			}
+		},
+		CLIENT_ID("clientId") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setClientId(readString(jp));
+			}
+		},
+		SCOPE("scope") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setScope(readString(jp));
+			}
+		},
+		STATUS("status") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setStatus(readEnum(jp, Approval.ApprovalStatus.class));
+			}
+		},
+		EXPIRES_AT("expiresAt") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setExpiresAt(readDate(jp));
+			}
+		},
+		LAST_UPDATED_AT("lastUpdatedAt") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				approval.setLastUpdatedAt(readDate(jp));
+			}
+		},
+		CURRENTLY_ACTIVE("currentlyActive") {
+			@Override
+			public void read(JsonParser jp, Approval approval) throws IOException {
+				// derived from expiresAt
+				jp.skipChildren();
+			}
+		};
+
+		private final String name;
+
+		private ApprovalField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	static void writeApproval(JsonGenerator jgen, Approval approval) throws IOException {
+		jgen.writeStartObject();
+		writeString(jgen, "userName", approval.getUserName());
+		writeString(jgen, "clientId", approval.getClientId());
+		writeString(jgen, "scope", approval.getScope());
+		writeEnum(jgen, "status", approval.getStatus());
+		writeDate(jgen, "expiresAt", approval.getExpiresAt());
+		writeDate(jgen, "lastUpdatedAt", approval.getLastUpdatedAt());
+		jgen.writeEndObject();
+	}
+
+}
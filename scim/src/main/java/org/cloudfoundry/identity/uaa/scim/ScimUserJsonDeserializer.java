@@ -1,73 +1,355 @@
 package org.cloudfoundry.identity.uaa.scim;
 
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.APPROVAL;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readBoolean;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readEnum;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readString;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.readStringArray;
+
 import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
+import org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.Field;
+import org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.ObjectReader;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonProcessingException;
-import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.DeserializationContext;
 import org.codehaus.jackson.map.JsonDeserializer;
-import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
+/**
+ * Reads a {@link ScimUser} straight from the token stream, nested objects and arrays included, dispatching each field
+ * through a table keyed on its (case insensitive) name. Unknown fields are rejected.
+ */
 public class ScimUserJsonDeserializer extends JsonDeserializer<ScimUser> {
+
+	private static final ObjectReader<ScimUser> USER = new ObjectReader<ScimUser>(ScimUser.class, false,
+			UserField.values()) {
+		@Override
+		ScimUser create() {
+			return new ScimUser();
+		}
+	};
+
+	private static final ObjectReader<ScimUser.Name> NAME = new ObjectReader<ScimUser.Name>(ScimUser.Name.class,
+			false, NameField.values()) {
+		@Override
+		ScimUser.Name create() {
+			return new ScimUser.Name();
+		}
+	};
+
+	private static final ObjectReader<ScimUser.Email> EMAIL = new ObjectReader<ScimUser.Email>(ScimUser.Email.class,
+			false, EmailField.values()) {
+		@Override
+		ScimUser.Email create() {
+			return new ScimUser.Email();
+		}
+	};
+
+	private static final ObjectReader<ScimUser.PhoneNumber> PHONE_NUMBER = new ObjectReader<ScimUser.PhoneNumber>(
+			ScimUser.PhoneNumber.class, false, PhoneNumberField.values()) {
+		@Override
+		ScimUser.PhoneNumber create() {
+			return new ScimUser.PhoneNumber();
+		}
+	};
+
+	private static final ObjectReader<ScimUser.Group> GROUP = new ObjectReader<ScimUser.Group>(ScimUser.Group.class,
+			false, GroupField.values()) {
+		@Override
+		ScimUser.Group create() {
+			return new ScimUser.Group();
+		}
+	};
+
 	@Override
 	public ScimUser deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
 		ScimUser user = new ScimUser();
-		while(jp.nextToken() != JsonToken.END_OBJECT) {
-			if (jp.getCurrentToken() == JsonToken.FIELD_NAME) {
-				String fieldName = jp.getCurrentName();
-				jp.nextToken();
-
-				if ("id".equalsIgnoreCase(fieldName)) {
-					user.setId(jp.readValueAs(String.class));
-				} else if ("userName".equalsIgnoreCase(fieldName)) {
-					user.setUserName(jp.readValueAs(String.class));
-				} else if ("externalId".equalsIgnoreCase(fieldName)) {
-					user.setExternalId(jp.readValueAs(String.class));
-				} else if ("meta".equalsIgnoreCase(fieldName)) {
-					user.setMeta(jp.readValueAs(ScimMeta.class));
-				} else if ("schemas".equalsIgnoreCase(fieldName)) {
-					user.setSchemas(jp.readValueAs(String[].class));
-				} else if ("userType".equalsIgnoreCase(fieldName)) {
-					user.setUserType(jp.readValueAs(String.class));
-				} else if ("title".equalsIgnoreCase(fieldName)) {
-					user.setTitle(jp.readValueAs(String.class));
-				} else if ("timezone".equalsIgnoreCase(fieldName)) {
-					user.setTimezone(jp.readValueAs(String.class));
-				} else if ("profileUrl".equalsIgnoreCase(fieldName)) {
-					user.setProfileUrl(jp.readValueAs(String.class));
-				} else if ("preferredLanguage".equalsIgnoreCase(fieldName)) {
-					user.setPreferredLanguage(jp.readValueAs(String.class));
-				} else if ("phoneNumbers".equalsIgnoreCase(fieldName)) {
-					user.setPhoneNumbers(Arrays.asList(jp.readValueAs(ScimUser.PhoneNumber[].class)));
-				} else if ("password".equalsIgnoreCase(fieldName)) {
-					user.setPassword(jp.readValueAs(String.class));
-				} else if ("nickname".equalsIgnoreCase(fieldName)) {
-					user.setNickName(jp.readValueAs(String.class));
-				} else if ("name".equalsIgnoreCase(fieldName)) {
-					user.setName(jp.readValueAs(ScimUser.Name.class));
-				} else if ("locale".equalsIgnoreCase(fieldName)) {
-					user.setLocale(jp.readValueAs(String.class));
-				} else if ("emails".equalsIgnoreCase(fieldName)) {
-					user.setEmails(Arrays.asList(jp.readValueAs(ScimUser.Email[].class)));
-				} else if ("groups".equalsIgnoreCase(fieldName)) {
-					user.setGroups(Arrays.asList(jp.readValueAs(ScimUser.Group[].class)));
-				} else if ("displayName".equalsIgnoreCase(fieldName)) {
-					user.setDisplayName(jp.readValueAs(String.class));
-				} else if ("active".equalsIgnoreCase(fieldName)) {
-					user.setActive(jp.readValueAs(Boolean.class));
-				} else if ("approvals".equalsIgnoreCase(fieldName)) {
-					user.setApprovals(new HashSet<Approval>(Arrays.asList(jp.readValueAs(Approval[].class))));
-				} else {
-					throw new UnrecognizedPropertyException("unrecognized field", jp.getCurrentLocation(), ScimUser.class, fieldName);
+		USER.readFields(jp, user);
+		return user;
+	}
+
+	private enum UserField implements Field<ScimUser> {
+		ID("id") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setId(readString(jp));
+			}
+		},
+		USER_NAME("userName") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setUserName(readString(jp));
+			}
+		},
+		EXTERNAL_ID("externalId") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setExternalId(readString(jp));
+			}
+		},
+		META("meta") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setMeta(ScimJsonSupport.META.read(jp));
+			}
+		},
+		SCHEMAS("schemas") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setSchemas(readStringArray(jp));
+			}
+		},
+		USER_TYPE("userType") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setUserType(readString(jp));
+			}
+		},
+		TITLE("title") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setTitle(readString(jp));
+			}
+		},
+		TIMEZONE("timezone") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setTimezone(readString(jp));
+			}
+		},
+		PROFILE_URL("profileUrl") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setProfileUrl(readString(jp));
+			}
+		},
+		PREFERRED_LANGUAGE("preferredLanguage") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setPreferredLanguage(readString(jp));
+			}
+		},
+		PHONE_NUMBERS("phoneNumbers") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setPhoneNumbers(PHONE_NUMBER.readArray(jp, new ArrayList<ScimUser.PhoneNumber>(1)));
+			}
+		},
+		PASSWORD("password") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setPassword(readString(jp));
+			}
+		},
+		NICK_NAME("nickName") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setNickName(readString(jp));
+			}
+		},
+		NAME("name") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setName(ScimUserJsonDeserializer.NAME.read(jp));
+			}
+		},
+		LOCALE("locale") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setLocale(readString(jp));
+			}
+		},
+		EMAILS("emails") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setEmails(EMAIL.readArray(jp, new ArrayList<ScimUser.Email>(1)));
+			}
+		},
+		GROUPS("groups") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				List<ScimUser.Group> groups = GROUP.readArray(jp, new ArrayList<ScimUser.Group>());
+				if (groups != null) {
+					user.setGroups(groups);
 				}
 			}
+		},
+		DISPLAY_NAME("displayName") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setDisplayName(readString(jp));
+			}
+		},
+		ACTIVE("active") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				Boolean active = readBoolean(jp);
+				if (active != null) {
+					user.setActive(active);
+				}
+			}
+		},
+		APPROVALS("approvals") {
+			@Override
+			public void read(JsonParser jp, ScimUser user) throws IOException {
+				user.setApprovals(APPROVAL.readArray(jp, new HashSet<Approval>()));
+			}
+		};
+
+		private final String name;
+
+		private UserField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
 		}
-		return user;
 	}
 
+	private enum NameField implements Field<ScimUser.Name> {
+		FORMATTED("formatted") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setFormatted(readString(jp));
+			}
+		},
+		FAMILY_NAME("familyName") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setFamilyName(readString(jp));
+			}
+		},
+		GIVEN_NAME("givenName") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setGivenName(readString(jp));
+			}
+		},
+		MIDDLE_NAME("middleName") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setMiddleName(readString(jp));
+			}
+		},
+		HONORIFIC_PREFIX("honorificPrefix") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setHonorificPrefix(readString(jp));
+			}
+		},
+		HONORIFIC_SUFFIX("honorificSuffix") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Name name) throws IOException {
+				name.setHonorificSuffix(readString(jp));
+			}
+		};
+
+		private final String name;
+
+		private NameField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	private enum EmailField implements Field<ScimUser.Email> {
+		VALUE("value") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Email email) throws IOException {
+				email.setValue(readString(jp));
+			}
+		},
+		TYPE("type") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Email email) throws IOException {
+				email.setType(readString(jp));
+			}
+		},
+		PRIMARY("primary") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Email email) throws IOException {
+				email.setPrimary(Boolean.TRUE.equals(readBoolean(jp)));
+			}
+		};
+
+		private final String name;
+
+		private EmailField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	private enum PhoneNumberField implements Field<ScimUser.PhoneNumber> {
+		VALUE("value") {
+			@Override
+			public void read(JsonParser jp, ScimUser.PhoneNumber phoneNumber) throws IOException {
+				phoneNumber.setValue(readString(jp));
+			}
+		},
+		TYPE("type") {
+			@Override
+			public void read(JsonParser jp, ScimUser.PhoneNumber phoneNumber) throws IOException {
+				phoneNumber.setType(readString(jp));
+			}
+		};
+
+		private final String name;
+
+		private PhoneNumberField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+
+	private enum GroupField implements Field<ScimUser.Group> {
+		VALUE("value") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Group group) throws IOException {
+				group.setValue(readString(jp));
+			}
+		},
+		DISPLAY("display") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Group group) throws IOException {
+				group.setDisplay(readString(jp));
+			}
+		},
+		TYPE("type") {
+			@Override
+			public void read(JsonParser jp, ScimUser.Group group) throws IOException {
+				group.setType(readEnum(jp, ScimUser.Group.Type.class));
+			}
+		};
+
+		private final String name;
+
+		private GroupField(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
 
 }
@@ -0,0 +1,101 @@
+package org.cloudfoundry.identity.uaa.scim;
+
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeApproval;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeEnum;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeMeta;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeString;
+import static org.cloudfoundry.identity.uaa.scim.ScimJsonSupport.writeStringArray;
+
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link ScimUser} straight to the generator, with the same fields as the bean serializer would (null values
+ * are left out) but without going through it for the nested objects.
+ */
+public class ScimUserJsonSerializer extends JsonSerializer<ScimUser> {
+
+	@Override
+	public void serialize(ScimUser user, JsonGenerator jgen, SerializerProvider provider) throws IOException,
+			JsonProcessingException {
+		jgen.writeStartObject();
+		writeString(jgen, "id", user.getId());
+		writeString(jgen, "externalId", user.getExternalId());
+		writeMeta(jgen, user.getMeta());
+		writeStringArray(jgen, "schemas", user.getSchemas());
+		writeString(jgen, "userName", user.getUserName());
+		writeName(jgen, user.getName());
+		if (user.getEmails() != null) {
+			jgen.writeArrayFieldStart("emails");
+			for (ScimUser.Email email : user.getEmails()) {
+				jgen.writeStartObject();
+				writeString(jgen, "value", email.getValue());
+				writeString(jgen, "type", email.getType());
+				if (email.isPrimary()) {
+					jgen.writeBooleanField("primary", true);
+				}
+				jgen.writeEndObject();
+			}
+			jgen.writeEndArray();
+		}
+		if (user.getGroups() != null) {
+			jgen.writeArrayFieldStart("groups");
+			for (ScimUser.Group group : user.getGroups()) {
+				jgen.writeStartObject();
+				writeString(jgen, "value", group.getValue());
+				writeString(jgen, "display", group.getDisplay());
+				writeEnum(jgen, "type", group.getType());
+				jgen.writeEndObject();
+			}
+			jgen.writeEndArray();
+		}
+		if (user.getApprovals() != null) {
+			jgen.writeArrayFieldStart("approvals");
+			for (Approval approval : user.getApprovals()) {
+				writeApproval(jgen, approval);
+			}
+			jgen.writeEndArray();
+		}
+		if (user.getPhoneNumbers() != null) {
+			jgen.writeArrayFieldStart("phoneNumbers");
+			for (ScimUser.PhoneNumber phoneNumber : user.getPhoneNumbers()) {
+				jgen.writeStartObject();
+				writeString(jgen, "value", phoneNumber.getValue());
+				writeString(jgen, "type", phoneNumber.getType());
+				jgen.writeEndObject();
+			}
+			jgen.writeEndArray();
+		}
+		writeString(jgen, "displayName", user.getDisplayName());
+		writeString(jgen, "nickName", user.getNickName());
+		writeString(jgen, "profileUrl", user.getProfileUrl());
+		writeString(jgen, "title", user.getTitle());
+		writeString(jgen, "userType", user.getUserType());
+		writeString(jgen, "preferredLanguage", user.getPreferredLanguage());
+		writeString(jgen, "locale", user.getLocale());
+		writeString(jgen, "timezone", user.getTimezone());
+		jgen.writeBooleanField("active", user.isActive());
+		writeString(jgen, "password", user.getPassword());
+		jgen.writeEndObject();
+	}
+
+	private void writeName(JsonGenerator jgen, ScimUser.Name name) throws IOException {
+		if (name == null) {
+			return;
+		}
+		jgen.writeObjectFieldStart("name");
+		writeString(jgen, "formatted", name.getFormatted());
+		writeString(jgen, "familyName", name.getFamilyName());
+		writeString(jgen, "givenName", name.getGivenName());
+		writeString(jgen, "middleName", name.getMiddleName());
+		writeString(jgen, "honorificPrefix", name.getHonorificPrefix());
+		writeString(jgen, "honorificSuffix", name.getHonorificSuffix());
+		jgen.writeEndObject();
+	}
+
+}
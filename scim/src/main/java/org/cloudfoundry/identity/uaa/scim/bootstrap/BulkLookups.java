@@ -0,0 +1,93 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.scim.bootstrap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.ScimUser;
+import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
+import org.springframework.util.StringUtils;
+
+/**
+ * Looks up the users and groups named in a bootstrap configuration with a few <code>or</code> filters, so that a bulk
+ * bootstrap reads only the rows it needs however large the existing tables are.
+ */
+final class BulkLookups {
+
+	private static final int BATCH_SIZE = 50;
+
+	private BulkLookups() {
+	}
+
+	/**
+	 * @return the existing users with the given names, keyed by lower case user name
+	 */
+	static Map<String, ScimUser> findUsers(ScimUserProvisioning provisioning, Collection<String> names) {
+		Map<String, ScimUser> result = new HashMap<String, ScimUser>();
+		for (String filter : filters("userName", names)) {
+			for (ScimUser user : provisioning.query(filter)) {
+				result.put(user.getUserName().toLowerCase(), user);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the existing groups with the given names, keyed by lower case display name
+	 */
+	static Map<String, ScimGroup> findGroups(ScimGroupProvisioning provisioning, Collection<String> names) {
+		Map<String, ScimGroup> result = new HashMap<String, ScimGroup>();
+		for (String filter : filters("displayName", names)) {
+			for (ScimGroup group : provisioning.query(filter)) {
+				result.put(group.getDisplayName().toLowerCase(), group);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> filters(String attribute, Collection<String> names) {
+		Set<String> distinct = new LinkedHashSet<String>();
+		for (String name : names) {
+			if (StringUtils.hasText(name)) {
+				distinct.add(name);
+			}
+		}
+		List<String> filters = new ArrayList<String>();
+		StringBuilder filter = new StringBuilder();
+		int count = 0;
+		for (String name : distinct) {
+			if (count > 0) {
+				filter.append(" or ");
+			}
+			filter.append(attribute).append(" eq '").append(name).append("'");
+			if (++count == BATCH_SIZE) {
+				filters.add(filter.toString());
+				filter.setLength(0);
+				count = 0;
+			}
+		}
+		if (count > 0) {
+			filters.add(filter.toString());
+		}
+		return filters;
+	}
+
+}
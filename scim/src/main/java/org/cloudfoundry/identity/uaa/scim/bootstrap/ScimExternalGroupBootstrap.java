@@ -13,6 +13,7 @@ import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
+import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.StringUtils;
 
@@ -79,9 +80,14 @@ public class ScimExternalGroupBootstrap implements InitializingBean {
 	}
 
 	private void addGroupMap(String groupId, String externalGroup) {
-		ScimGroupExternalMember externalGroupMapping = externalMembershipManager.mapExternalGroup(groupId,
-				externalGroup);
-		logger.debug("adding external group mapping: " + externalGroupMapping);
+		try {
+			ScimGroupExternalMember externalGroupMapping = externalMembershipManager.mapExternalGroup(groupId,
+					externalGroup);
+			logger.debug("adding external group mapping: " + externalGroupMapping);
+		} catch (MemberAlreadyExistsException e) {
+			// the mapping was bootstrapped by a previous start, it is still picked up by the mapping index
+			logger.debug("external group mapping already exists: " + groupId + "|" + externalGroup);
+		}
 	}
 
 }
@@ -20,6 +20,10 @@ import org.cloudfoundry.identity.uaa.scim.ScimUserProvisioning;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceAlreadyExistsException;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 
 public class ScimGroupBootstrap implements InitializingBean {
@@ -42,6 +46,10 @@ public class ScimGroupBootstrap implements InitializingBean {
 
 	private final Log logger = LogFactory.getLog(getClass());
 
+	private boolean bulk = false;
+
+	private PlatformTransactionManager transactionManager;
+
 	public ScimGroupBootstrap(ScimGroupProvisioning scimGroupProvisioning, ScimUserProvisioning scimUserProvisioning, ScimGroupMembershipManager membershipManager) {
 		this.scimGroupProvisioning = scimGroupProvisioning;
 		this.scimUserProvisioning = scimUserProvisioning;
@@ -60,6 +68,25 @@ public class ScimGroupBootstrap implements InitializingBean {
 		this.groups = StringUtils.commaDelimitedListToSet(groups);
 	}
 
+	/**
+	 * Flag to indicate that groups and members should be bootstrapped in bulk: the configured groups and members are
+	 * looked up with a few batched queries instead of one at a time, and the members of each group are added in one
+	 * batch (in a single transaction if a transaction manager is provided). New groups are still created one at a
+	 * time.
+	 *
+	 * @param bulk the bulk flag to set (default false)
+	 */
+	public void setBulk(boolean bulk) {
+		this.bulk = bulk;
+	}
+
+	/**
+	 * @param transactionManager the transaction manager to use for the bulk bootstrap (optional)
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
 	/**
 	 * Specify the membership info as a list of strings, where each string takes the format -
 	 * 		<group-name>|<comma-separated usernames of members>[|write]
@@ -90,6 +117,10 @@ public class ScimGroupBootstrap implements InitializingBean {
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
+		if (bulk) {
+			addGroupsInBulk();
+			return;
+		}
 		for (String g : groups) {
 			addGroup(g);
 		}
@@ -98,6 +129,84 @@ public class ScimGroupBootstrap implements InitializingBean {
 		}
 	}
 
+	private void addGroupsInBulk() {
+		long start = System.currentTimeMillis();
+		// Members can be users or groups
+		Set<String> memberNames = new HashSet<String>();
+		for (Set<String> names : groupMembers.values()) {
+			memberNames.addAll(names);
+		}
+		for (Set<String> names : groupAdmins.values()) {
+			memberNames.addAll(names);
+		}
+		Set<String> groupNames = new HashSet<String>(groups);
+		groupNames.addAll(memberNames);
+		final Map<String, ScimUser> existingUsers = BulkLookups.findUsers(scimUserProvisioning, memberNames);
+		final Map<String, ScimGroup> existingGroups = BulkLookups.findGroups(scimGroupProvisioning, groupNames);
+		logger.info("Loaded " + existingUsers.size() + " users and " + existingGroups.size() + " groups in "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		final Set<String> newGroups = new HashSet<String>();
+		for (String g : groups) {
+			if (StringUtils.hasText(g) && !existingGroups.containsKey(g.toLowerCase())) {
+				newGroups.add(g);
+			}
+		}
+		logger.info("Found " + newGroups.size() + " groups to create in " + (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		TransactionCallbackWithoutResult callback = new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				for (String g : newGroups) {
+					logger.debug("adding group: " + g);
+					existingGroups.put(g.toLowerCase(), scimGroupProvisioning.create(new ScimGroup(g)));
+				}
+				for (String g : groups) {
+					if (!StringUtils.hasText(g)) {
+						continue;
+					}
+					List<ScimGroupMember> members = new ArrayList<ScimGroupMember>();
+					members.addAll(getMembers(groupMembers.get(g), ScimGroupMember.GROUP_MEMBER, existingUsers, existingGroups));
+					members.addAll(getMembers(groupAdmins.get(g), ScimGroupMember.GROUP_ADMIN, existingUsers, existingGroups));
+					if (!members.isEmpty()) {
+						logger.debug("adding members: " + members + " into group: " + g);
+						membershipManager.addMembers(existingGroups.get(g.toLowerCase()).getId(), members);
+					}
+				}
+			}
+		};
+		if (transactionManager != null) {
+			new TransactionTemplate(transactionManager).execute(callback);
+		}
+		else {
+			callback.doInTransaction(null);
+		}
+		logger.info("Applied group changes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private List<ScimGroupMember> getMembers(Set<String> names, List<ScimGroupMember.Role> auth,
+			Map<String, ScimUser> users, Map<String, ScimGroup> groups) {
+		if (names == null || names.isEmpty()) {
+			return Collections.<ScimGroupMember>emptyList();
+		}
+
+		List<ScimGroupMember> members = new ArrayList<ScimGroupMember>();
+		for (String name : names) {
+			ScimUser user = users.get(name.toLowerCase());
+			if (user != null) {
+				members.add(new ScimGroupMember(user.getId(), ScimGroupMember.Type.USER, auth));
+				continue;
+			}
+			ScimGroup group = groups.get(name.toLowerCase());
+			if (group != null) {
+				members.add(new ScimGroupMember(group.getId(), ScimGroupMember.Type.GROUP, auth));
+			}
+		}
+		return members;
+	}
+
 	private void addMembers (String g) {
 		ScimGroup group = getGroup(g);
 		if (group == null) {
@@ -15,7 +15,10 @@ package org.cloudfoundry.identity.uaa.scim.bootstrap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -33,6 +36,10 @@ import org.cloudfoundry.identity.uaa.user.UaaUser;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationListener;
 import org.springframework.security.core.GrantedAuthority;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
@@ -54,6 +61,10 @@ public class ScimUserBootstrap implements InitializingBean, ApplicationListener<
 
 	private boolean override = false;
 
+	private boolean bulk = false;
+
+	private PlatformTransactionManager transactionManager;
+
 	private final Collection<UaaUser> users;
 
 	/**
@@ -65,6 +76,25 @@ public class ScimUserBootstrap implements InitializingBean, ApplicationListener<
 		this.override = override;
 	}
 
+	/**
+	 * Flag to indicate that the configured users should be bootstrapped in bulk: the configured users and their groups
+	 * are looked up with a few batched queries instead of one at a time, and the new memberships of each group are
+	 * added in one batch (in a single transaction if a transaction manager is provided). Users are still created or
+	 * updated, and the old memberships of an updated user removed, one at a time.
+	 *
+	 * @param bulk the bulk flag to set (default false)
+	 */
+	public void setBulk(boolean bulk) {
+		this.bulk = bulk;
+	}
+
+	/**
+	 * @param transactionManager the transaction manager to use for the bulk bootstrap (optional)
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
 	public ScimUserBootstrap(ScimUserProvisioning scimUserProvisioning, ScimGroupProvisioning scimGroupProvisioning,
 			ScimGroupMembershipManager membershipManager, Collection<UaaUser> users) {
 		Assert.notNull(scimUserProvisioning, "scimUserProvisioning cannot be null");
@@ -79,11 +109,116 @@ public class ScimUserBootstrap implements InitializingBean, ApplicationListener<
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
+		if (bulk) {
+			addUsersInBulk();
+			return;
+		}
 		for (UaaUser u : users) {
 			addUser(u);
 		}
 	}
 
+	private void addUsersInBulk() {
+		long start = System.currentTimeMillis();
+		Set<String> userNames = new HashSet<String>();
+		Set<String> groupNames = new HashSet<String>();
+		for (UaaUser user : users) {
+			userNames.add(user.getUsername());
+			groupNames.addAll(convertToGroups(user.getAuthorities()));
+		}
+		final Map<String, ScimUser> existingUsers = BulkLookups.findUsers(scimUserProvisioning, userNames);
+		final Map<String, ScimGroup> existingGroups = BulkLookups.findGroups(scimGroupProvisioning, groupNames);
+		logger.info("Loaded " + existingUsers.size() + " users and " + existingGroups.size() + " groups in "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		final List<UaaUser> newUsers = new ArrayList<UaaUser>();
+		final List<UaaUser> updatedUsers = new ArrayList<UaaUser>();
+		Set<String> names = new HashSet<String>();
+		for (UaaUser user : users) {
+			String name = user.getUsername().toLowerCase();
+			if (!names.add(name)) {
+				logger.debug("Ignoring duplicate user: " + user);
+			}
+			else if (!existingUsers.containsKey(name)) {
+				newUsers.add(user);
+			}
+			else if (override) {
+				updatedUsers.add(user);
+			}
+			else {
+				logger.debug("Override flag not set. Not registering existing user: " + user);
+			}
+		}
+		logger.info("Found " + newUsers.size() + " users to create and " + updatedUsers.size() + " users to update in "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		start = System.currentTimeMillis();
+		TransactionCallbackWithoutResult callback = new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				Map<String, List<ScimGroupMember>> memberships = new LinkedHashMap<String, List<ScimGroupMember>>();
+				for (UaaUser user : newUsers) {
+					logger.info("Registering new user account: " + user);
+					ScimUser newScimUser = scimUserProvisioning.createUser(convertToScimUser(user), user.getPassword());
+					addMemberships(newScimUser.getId(), convertToGroups(user.getAuthorities()), existingGroups, memberships);
+				}
+				for (UaaUser user : updatedUsers) {
+					ScimUser existingUser = existingUsers.get(user.getUsername().toLowerCase());
+					updateUserInBulk(existingUser, user);
+					addMemberships(existingUser.getId(), convertToGroups(user.getAuthorities()), existingGroups, memberships);
+				}
+				for (Map.Entry<String, List<ScimGroupMember>> entry : memberships.entrySet()) {
+					membershipManager.addMembers(entry.getKey(), entry.getValue());
+				}
+			}
+		};
+		if (transactionManager != null) {
+			new TransactionTemplate(transactionManager).execute(callback);
+		}
+		else {
+			callback.doInTransaction(null);
+		}
+		logger.info("Applied user changes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private void updateUserInBulk(ScimUser existingUser, UaaUser updatedUser) {
+		String id = existingUser.getId();
+		logger.info("Updating user account: " + updatedUser + " with SCIM Id: " + id);
+		for (ScimGroup g : membershipManager.getGroupsWithMember(id, false)) {
+			try {
+				membershipManager.removeMemberById(g.getId(), id);
+			}
+			catch (MemberNotFoundException ex) {
+				// do nothing
+			}
+		}
+		final ScimUser newScimUser = convertToScimUser(updatedUser);
+		newScimUser.setVersion(existingUser.getVersion());
+		scimUserProvisioning.update(id, newScimUser);
+		scimUserProvisioning.changePassword(id, null, updatedUser.getPassword());
+	}
+
+	private void addMemberships(String scimUserId, Collection<String> groupNames, Map<String, ScimGroup> groups,
+			Map<String, List<ScimGroupMember>> memberships) {
+		for (String gName : groupNames) {
+			if (!StringUtils.hasText(gName)) {
+				continue;
+			}
+			ScimGroup group = groups.get(gName.toLowerCase());
+			if (group == null) {
+				group = scimGroupProvisioning.create(new ScimGroup(gName));
+				groups.put(gName.toLowerCase(), group);
+			}
+			List<ScimGroupMember> members = memberships.get(group.getId());
+			if (members == null) {
+				members = new ArrayList<ScimGroupMember>();
+				memberships.put(group.getId(), members);
+			}
+			members.add(new ScimGroupMember(scimUserId));
+		}
+	}
+
 	/**
 	 * Add a user account from the properties provided.
 	 *
@@ -16,6 +16,7 @@ import org.cloudfoundry.identity.uaa.rest.SearchResults;
 import org.cloudfoundry.identity.uaa.rest.SearchResultsFactory;
 import org.cloudfoundry.identity.uaa.scim.ScimCore;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
@@ -52,6 +53,8 @@ public class ScimGroupEndpoints {
 
 	private ScimGroupMembershipManager membershipManager;
 
+	private ScimGroupExternalMembershipManager externalMembershipManager;
+
 	private Map<Class<? extends Exception>, HttpStatus> statuses = new HashMap<Class<? extends Exception>, HttpStatus>();
 
 	private HttpMessageConverter<?>[] messageConverters = new RestTemplate().getMessageConverters().toArray(new HttpMessageConverter<?>[0]);
@@ -72,6 +75,13 @@ public class ScimGroupEndpoints {
 		this.messageConverters = messageConverters;
 	}
 
+	/**
+	 * @param externalMembershipManager the external group mappings to remove along with a group (optional)
+	 */
+	public void setExternalMembershipManager(ScimGroupExternalMembershipManager externalMembershipManager) {
+		this.externalMembershipManager = externalMembershipManager;
+	}
+
 	public ScimGroupEndpoints(ScimGroupProvisioning scimGroupProvisioning, ScimGroupMembershipManager membershipManager) {
 		this.dao = scimGroupProvisioning;
 		this.membershipManager = membershipManager;
@@ -231,6 +241,10 @@ public class ScimGroupEndpoints {
 			membershipManager.removeMembersByGroupId(groupId);
 			membershipManager.removeMembersByMemberId(groupId);
 			dao.delete(groupId, getVersion(groupId, etag));
+			// Only unmap once the delete succeeded, so a failed If-Match leaves the mappings alone
+			if (externalMembershipManager != null) {
+				externalMembershipManager.unmapAllExternalGroups(groupId);
+			}
 		} catch (IncorrectResultSizeDataAccessException ex) {
 			logger.error("error deleting group, restoring system to previous state");
 			throw new ScimException("error deleting group: " + groupId, ex, HttpStatus.CONFLICT);
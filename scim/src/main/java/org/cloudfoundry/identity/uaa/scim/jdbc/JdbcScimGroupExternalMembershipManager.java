@@ -4,28 +4,48 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cloudfoundry.identity.uaa.rest.jdbc.AbstractQueryable;
+import org.cloudfoundry.identity.uaa.rest.jdbc.CaseInsensitiveSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
+import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMappingIndex;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMembershipManager;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupProvisioning;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.util.Assert;
 
-public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<ScimGroupExternalMember> implements ScimGroupExternalMembershipManager{
+/**
+ * Stores external group mappings in the database. Lookups of the groups mapped to a user's external groups, which run
+ * on every login, are served from an in-memory index: it is updated in place when mappings are added or removed
+ * through this class, and reloaded in the background when it gets older than the refresh interval, to pick up group
+ * renames and changes made by other nodes. Only the very first lookup waits for the index to load.
+ */
+public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<ScimGroupExternalMember> implements ScimGroupExternalMembershipManager, DisposableBean {
 
 	private JdbcTemplate jdbcTemplate;
 
@@ -43,7 +63,9 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 
 	public static final String GET_EXTERNAL_GROUP_MAPPINGS_SQL = String.format("select %s from %s where group_id=?", EXTERNAL_GROUP_MAPPING_FIELDS, EXTERNAL_GROUP_MAPPING_TABLE);
 
-	public static final String GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL = String.format("select %s from %s where lower(external_group)=lower(?)", EXTERNAL_GROUP_MAPPING_FIELDS, EXTERNAL_GROUP_MAPPING_TABLE);
+	private static final String GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL_TEMPLATE = "select %s from %s where %s=lower(?)";
+
+	public static final String GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL = String.format(GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL_TEMPLATE, EXTERNAL_GROUP_MAPPING_FIELDS, EXTERNAL_GROUP_MAPPING_TABLE, "lower(external_group)");
 
 	public static final String GET_GROUPS_WITH_EXTERNAL_GROUP_MAPPINGS_SQL = String.format("select %s from %s where group_id=? and lower(external_group) like lower(?)", EXTERNAL_GROUP_MAPPING_FIELDS, EXTERNAL_GROUP_MAPPING_TABLE);
 
@@ -53,10 +75,46 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 
 	public static final String DELETE_EXTERNAL_GROUP_MAPPING_USING_EXTERNAL_GROUPS_SQL = String.format("delete from %s where lower(external_group)=lower(?)", EXTERNAL_GROUP_MAPPING_TABLE);
 
+	public static final String GET_GROUP_NAMES_BY_EXTERNAL_GROUP_SQL = String.format("select m.external_group, g.displayName from %s m, %s g where g.id = m.group_id", EXTERNAL_GROUP_MAPPING_TABLE, JdbcScimGroupProvisioning.GROUP_TABLE);
+
 	private final RowMapper<ScimGroupExternalMember> rowMapper = new ScimGroupExternalMemberRowMapper();
 
 	private ScimGroupProvisioning scimGroupProvisioning;
 
+	private String getGroupsByExternalGroupMappingSql = GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL;
+
+	private ScimGroupExternalMappingIndex mappingIndex = new ScimGroupExternalMappingIndex();
+
+	private long mappingIndexRefreshInterval = 60000L;
+
+	private final Object initialLoadLock = new Object();
+
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+	private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "external-group-mapping-refresh");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final Runnable refreshTask = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				refreshMappingIndex();
+			}
+			catch (RuntimeException e) {
+				logger.warn("Could not refresh the external group mappings: " + e.getMessage());
+			}
+			finally {
+				refreshing.set(false);
+			}
+		}
+	};
+
 	public JdbcScimGroupExternalMembershipManager(JdbcTemplate jdbcTemplate, JdbcPagingListFactory pagingListFactory) {
 		super(jdbcTemplate, pagingListFactory, new ScimGroupExternalMemberRowMapper());
 		Assert.notNull(jdbcTemplate);
@@ -81,12 +139,39 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 			} catch (DuplicateKeyException e) {
 				throw new MemberAlreadyExistsException("The mapping between group " + group.getDisplayName() + " and external group " + externalGroup + " already exists");
 			}
+			mappingIndex.add(externalGroup, group.getDisplayName());
 			return getExternalGroupMap(groupId, externalGroup);
 		} else {
 			return null;
 		}
 	}
 
+	@Override
+	public ScimGroupExternalMember unmapExternalGroup(final String groupId, final String externalGroup) throws ScimResourceNotFoundException, MemberNotFoundException {
+		ScimGroup group = scimGroupProvisioning.retrieve(groupId);
+		ScimGroupExternalMember result = getExternalGroupMap(groupId, externalGroup);
+		int deleted = jdbcTemplate.update(DELETE_EXTERNAL_GROUP_MAPPING_SQL, groupId, externalGroup);
+		if (deleted == 0) {
+			throw new MemberNotFoundException("The mapping between groupId " + groupId + " and external group " + externalGroup + " does not exist");
+		}
+		mappingIndex.remove(externalGroup, group.getDisplayName());
+		return result;
+	}
+
+	@Override
+	public List<ScimGroupExternalMember> unmapAllExternalGroups(final String groupId) throws ScimResourceNotFoundException {
+		List<ScimGroupExternalMember> result = getExternalGroupMapsByGroupId(groupId);
+		jdbcTemplate.update(DELETE_EXTERNAL_GROUP_MAPPINGS_USING_GROUP_SQL, groupId);
+		try {
+			mappingIndex.removeGroup(scimGroupProvisioning.retrieve(groupId).getDisplayName());
+		}
+		catch (ScimResourceNotFoundException e) {
+			// The group itself was deleted first, so reload the index, which only contains existing groups
+			refreshMappingIndex();
+		}
+		return result;
+	}
+
 	@Override
 	public List<ScimGroupExternalMember> getExternalGroupMapsByGroupId(final String groupId) throws ScimResourceNotFoundException {
 		return jdbcTemplate.query(GET_EXTERNAL_GROUP_MAPPINGS_SQL, new PreparedStatementSetter() {
@@ -115,7 +200,7 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 
 	@Override
 	public List<ScimGroupExternalMember> getExternalGroupMapsByExternalGroup(final String externalGroup) throws ScimResourceNotFoundException {
-		return jdbcTemplate.query(GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL, new PreparedStatementSetter() {
+		return jdbcTemplate.query(getGroupsByExternalGroupMappingSql, new PreparedStatementSetter() {
 			@Override
 			public void setValues(PreparedStatement ps) throws SQLException {
 				ps.setString(1, externalGroup);
@@ -123,6 +208,61 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 		}, rowMapper);
 	}
 
+	@Override
+	public Set<String> getGroupNamesByExternalGroups(Collection<String> externalGroups) {
+		long lastLoaded = mappingIndex.getLastLoaded();
+		if (lastLoaded < 0) {
+			synchronized (initialLoadLock) {
+				if (mappingIndex.getLastLoaded() < 0) {
+					refreshMappingIndex();
+				}
+			}
+		}
+		else if (System.currentTimeMillis() - lastLoaded > mappingIndexRefreshInterval
+				&& refreshing.compareAndSet(false, true)) {
+			try {
+				refreshExecutor.execute(refreshTask);
+			}
+			catch (RejectedExecutionException e) {
+				refreshing.set(false);
+			}
+		}
+		return mappingIndex.getGroupNames(externalGroups);
+	}
+
+	/**
+	 * Reload the in-memory mapping index from the database, picking up group renames and deletions as well as mappings
+	 * added by other nodes. A reload that overlaps a change made through this class is discarded, and the next lookup
+	 * tries again.
+	 */
+	public void refreshMappingIndex() {
+		long version = mappingIndex.getVersion();
+		final Map<String, Set<String>> mappings = new HashMap<String, Set<String>>();
+		jdbcTemplate.query(GET_GROUP_NAMES_BY_EXTERNAL_GROUP_SQL, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				String externalGroup = rs.getString(1);
+				Set<String> names = mappings.get(externalGroup);
+				if (names == null) {
+					names = new LinkedHashSet<String>();
+					mappings.put(externalGroup, names);
+				}
+				names.add(rs.getString(2));
+			}
+		});
+		if (mappingIndex.reset(mappings, version)) {
+			logger.debug("Loaded " + mappingIndex.size() + " external group mappings");
+		}
+		else {
+			logger.debug("External group mappings changed while loading, not replacing the index");
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		refreshExecutor.shutdownNow();
+	}
+
 	private ScimGroupExternalMember getExternalGroupMap(final String groupId, final String externalGroup) throws ScimResourceNotFoundException {
 		try {
 			ScimGroupExternalMember u = jdbcTemplate.queryForObject(GET_GROUPS_WITH_EXTERNAL_GROUP_MAPPINGS_SQL, rowMapper, groupId, externalGroup);
@@ -146,6 +286,31 @@ public class JdbcScimGroupExternalMembershipManager extends AbstractQueryable<Sc
 		this.scimGroupProvisioning = scimGroupProvisioning;
 	}
 
+	/**
+	 * @param caseInsensitiveSqlAdapter the platform strategy for case insensitive comparisons, so that lookups by
+	 * external group can use the index on that column
+	 */
+	public void setCaseInsensitiveSqlAdapter(CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter) {
+		this.getGroupsByExternalGroupMappingSql = String.format(GET_GROUPS_BY_EXTERNAL_GROUP_MAPPING_SQL_TEMPLATE,
+				EXTERNAL_GROUP_MAPPING_FIELDS, EXTERNAL_GROUP_MAPPING_TABLE,
+				caseInsensitiveSqlAdapter.getColumnExpression("external_group"));
+	}
+
+	/**
+	 * @param mappingIndex the in-memory index used to resolve external groups (defaults to a private instance)
+	 */
+	public void setMappingIndex(ScimGroupExternalMappingIndex mappingIndex) {
+		this.mappingIndex = mappingIndex;
+	}
+
+	/**
+	 * @param mappingIndexRefreshInterval the maximum age (millis) of the mapping index before it is reloaded from the
+	 * database in the background (default 60000)
+	 */
+	public void setMappingIndexRefreshInterval(long mappingIndexRefreshInterval) {
+		this.mappingIndexRefreshInterval = mappingIndexRefreshInterval;
+	}
+
 	@Override
 	protected String getBaseSqlQuery() {
 		return GET_EXTERNAL_GROUP_MAP_SQL;
@@ -14,6 +14,7 @@ import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundExceptio
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
@@ -28,8 +29,10 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManager {
@@ -38,19 +41,72 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 
 	private final Log logger = LogFactory.getLog(getClass());
 
-	public static final String MEMBERSHIP_FIELDS = "group_id,member_id,member_type,authorities,added";
+	public static final String MEMBERSHIP_FIELDS = "group_id,member_id,member_type,authorities,added,role_mask";
 
 	public static final String MEMBERSHIP_TABLE = "group_membership";
 
-	public static final String ADD_MEMBER_SQL = String.format("insert into %s ( %s ) values (?,?,?,?,?)", MEMBERSHIP_TABLE, MEMBERSHIP_FIELDS);
+	public static final String ADD_MEMBER_SQL = String.format("insert into %s ( %s ) values (?,?,?,?,?,?)", MEMBERSHIP_TABLE, MEMBERSHIP_FIELDS);
 
-	public static final String UPDATE_MEMBER_SQL = String.format("update %s set authorities=? where group_id=? and member_id=?", MEMBERSHIP_TABLE);
+	public static final String UPDATE_MEMBER_SQL = String.format("update %s set authorities=?, role_mask=? where group_id=? and member_id=?", MEMBERSHIP_TABLE);
 
 	public static final String GET_MEMBERS_SQL = String.format("select %s from %s where group_id=?", MEMBERSHIP_FIELDS, MEMBERSHIP_TABLE);
 
 	public static final String GET_GROUPS_BY_MEMBER_SQL = String.format("select distinct(group_id) from %s where member_id=?", MEMBERSHIP_TABLE);
 
-	public static final String GET_MEMBERS_WITH_AUTHORITY_SQL = String.format("select %s from %s where group_id=? and lower(authorities) like ?", MEMBERSHIP_FIELDS, MEMBERSHIP_TABLE);
+	/**
+	 * Role filters are expressed as an <code>in</code> list over all the role masks that contain the requested role, so
+	 * that they can be served from the (group_id, role_mask) index on every platform without bitwise operators. Rows
+	 * written by older nodes during a rolling upgrade have no role mask, and are matched on the exact role names in
+	 * their authorities list instead.
+	 */
+	private static final Map<ScimGroupMember.Role, String> GET_MEMBERS_WITH_AUTHORITY_SQL = new EnumMap<ScimGroupMember.Role, String>(ScimGroupMember.Role.class);
+
+	private static final int ALL_ROLES_MASK;
+
+	private static final List<List<ScimGroupMember.Role>> ROLES_BY_MASK = new ArrayList<List<ScimGroupMember.Role>>();
+
+	static {
+		int all = 0;
+		for (ScimGroupMember.Role role : ScimGroupMember.Role.values()) {
+			all |= role.getMask();
+		}
+		ALL_ROLES_MASK = all;
+		for (int mask = 0; mask <= ALL_ROLES_MASK; mask++) {
+			List<ScimGroupMember.Role> roles = new ArrayList<ScimGroupMember.Role>();
+			for (ScimGroupMember.Role role : ScimGroupMember.Role.values()) {
+				if ((mask & role.getMask()) != 0) {
+					roles.add(role);
+				}
+			}
+			ROLES_BY_MASK.add(Collections.unmodifiableList(roles));
+		}
+		for (ScimGroupMember.Role role : ScimGroupMember.Role.values()) {
+			List<Integer> masks = new ArrayList<Integer>();
+			for (int mask = 1; mask <= ALL_ROLES_MASK; mask++) {
+				if ((mask & role.getMask()) != 0) {
+					masks.add(mask);
+				}
+			}
+			String legacy = authorityMatches(role.toString().toLowerCase());
+			if (role == ScimGroupMember.Role.READER) {
+				legacy += " or " + authorityMatches("read");
+			}
+			else if (role == ScimGroupMember.Role.WRITER) {
+				legacy += " or " + authorityMatches("write");
+			}
+			GET_MEMBERS_WITH_AUTHORITY_SQL.put(role, String.format(
+					"select %s from %s where group_id=? and (role_mask in (%s) or (role_mask is null and (%s)))",
+					MEMBERSHIP_FIELDS, MEMBERSHIP_TABLE, StringUtils.collectionToCommaDelimitedString(masks), legacy));
+		}
+	}
+
+	/**
+	 * @return a condition matching an authorities list that contains the given (lower case) name as a whole entry
+	 */
+	private static String authorityMatches(String name) {
+		return String.format("lower(authorities)='%1$s' or lower(authorities) like '%1$s,%%'"
+				+ " or lower(authorities) like '%%,%1$s' or lower(authorities) like '%%,%1$s,%%'", name);
+	}
 
 	public static final String GET_MEMBER_SQl = String.format("select %s from %s where group_id=? and member_id=?", MEMBERSHIP_FIELDS, MEMBERSHIP_TABLE);
 
@@ -97,6 +153,7 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 		// first validate the supplied groupId, memberId
 		validateRequest(groupId, member);
 		final String authorities = getGroupAuthorities(member);
+		final int roleMask = getRoleMask(member);
 		final String type = (member.getType() == null ? ScimGroupMember.Type.USER : member.getType()).toString();
 		try {
 			jdbcTemplate.update(ADD_MEMBER_SQL, new PreparedStatementSetter() {
@@ -106,6 +163,7 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 					ps.setString(3, type);
 					ps.setString(4, authorities);
 					ps.setTimestamp(5, new Timestamp(new Date().getTime()));
+					ps.setInt(6, roleMask);
 				}
 			});
 		} catch (DuplicateKeyException e) {
@@ -114,6 +172,52 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 		return getMemberById(groupId, member.getMemberId());
 	}
 
+	@Override
+	public List<ScimGroupMember> addMembers(final String groupId, List<ScimGroupMember> members) throws ScimResourceNotFoundException {
+		if (!StringUtils.hasText(groupId)) {
+			throw new InvalidScimResourceException("group-id must be non-empty");
+		}
+		groupProvisioning.retrieve(groupId); // this will throw a ScimException if the group does not exist
+
+		Set<String> memberIds = new HashSet<String>();
+		for (ScimGroupMember member : getMembers(groupId)) {
+			memberIds.add(member.getMemberId());
+		}
+		final List<ScimGroupMember> newMembers = new ArrayList<ScimGroupMember>();
+		for (ScimGroupMember member : members) {
+			if (!StringUtils.hasText(member.getMemberId()) || groupId.equals(member.getMemberId())) {
+				throw new InvalidScimResourceException("member-id must be non-empty and different from the group-id");
+			}
+			if (memberIds.add(member.getMemberId())) {
+				newMembers.add(member);
+			}
+		}
+		logger.debug("adding " + newMembers.size() + " new members to group: " + groupId);
+		if (newMembers.isEmpty()) {
+			return newMembers;
+		}
+
+		final Timestamp added = new Timestamp(new Date().getTime());
+		jdbcTemplate.batchUpdate(ADD_MEMBER_SQL, new BatchPreparedStatementSetter() {
+			@Override
+			public void setValues(PreparedStatement ps, int i) throws SQLException {
+				ScimGroupMember member = newMembers.get(i);
+				ps.setString(1, groupId);
+				ps.setString(2, member.getMemberId());
+				ps.setString(3, (member.getType() == null ? ScimGroupMember.Type.USER : member.getType()).toString());
+				ps.setString(4, getGroupAuthorities(member));
+				ps.setTimestamp(5, added);
+				ps.setInt(6, getRoleMask(member));
+			}
+
+			@Override
+			public int getBatchSize() {
+				return newMembers.size();
+			}
+		});
+		return newMembers;
+	}
+
 	@Override
 	public List<ScimGroupMember> getMembers(final String groupId) throws ScimResourceNotFoundException {
 		return jdbcTemplate.query(GET_MEMBERS_SQL, new PreparedStatementSetter() {
@@ -171,11 +275,10 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 	public List<ScimGroupMember> getMembers(final String groupId, final ScimGroupMember.Role permission) throws ScimResourceNotFoundException {
 		logger.debug("getting members of type: " + permission + " from group: " + groupId);
 		List<ScimGroupMember> members = new ArrayList<ScimGroupMember>();
-		members.addAll(jdbcTemplate.query(GET_MEMBERS_WITH_AUTHORITY_SQL, new PreparedStatementSetter() {
+		members.addAll(jdbcTemplate.query(GET_MEMBERS_WITH_AUTHORITY_SQL.get(permission), new PreparedStatementSetter() {
 			@Override
 			public void setValues(PreparedStatement ps) throws SQLException {
 				ps.setString(1, groupId);
-				ps.setString(2, "%" + permission.toString().toLowerCase() + "%");
 			}
 		}, rowMapper)
 		);
@@ -196,12 +299,14 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 	public ScimGroupMember updateMember(final String groupId, final ScimGroupMember member) throws ScimResourceNotFoundException, MemberNotFoundException {
 		validateRequest(groupId, member);
 		final String authorities = getGroupAuthorities(member);
+		final int roleMask = getRoleMask(member);
 		int updated = jdbcTemplate.update(UPDATE_MEMBER_SQL, new PreparedStatementSetter() {
 			@Override
 			public void setValues(PreparedStatement ps) throws SQLException {
 				ps.setString(1, authorities);
-				ps.setString(2, groupId);
-				ps.setString(3, member.getMemberId());
+				ps.setInt(2, roleMask);
+				ps.setString(3, groupId);
+				ps.setString(4, member.getMemberId());
 			}
 		});
 
@@ -331,14 +436,33 @@ public class JdbcScimGroupMembershipManager implements ScimGroupMembershipManage
 		}
 	}
 
+	private int getRoleMask(ScimGroupMember member) {
+		List<ScimGroupMember.Role> roles = member.getRoles();
+		if (roles == null || roles.isEmpty()) {
+			roles = ScimGroupMember.GROUP_MEMBER;
+		}
+		int mask = 0;
+		for (ScimGroupMember.Role role : roles) {
+			mask |= role.getMask();
+		}
+		return mask;
+	}
+
 	private static final class ScimGroupMemberRowMapper implements RowMapper<ScimGroupMember> {
 		@Override
 		public ScimGroupMember mapRow(ResultSet rs, int rowNum) throws SQLException {
 			String memberId = rs.getString(2);
 			String memberType = rs.getString(3);
-			String authorities = rs.getString(4);
+			int roleMask = rs.getInt(6);
+			List<ScimGroupMember.Role> roles;
+			if (rs.wasNull()) {
+				// row written before the role_mask column was populated
+				roles = getAuthorities(rs.getString(4));
+			} else {
+				roles = ROLES_BY_MASK.get(roleMask & ALL_ROLES_MASK);
+			}
 
-			return new ScimGroupMember(memberId, ScimGroupMember.Type.valueOf(memberType), getAuthorities(authorities));
+			return new ScimGroupMember(memberId, ScimGroupMember.Type.valueOf(memberType), roles);
 		}
 
 		private List<ScimGroupMember.Role> getAuthorities(String authorities) {
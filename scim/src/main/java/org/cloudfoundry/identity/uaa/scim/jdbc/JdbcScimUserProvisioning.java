@@ -24,6 +24,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.identity.uaa.oauth.token.RevocationEpochs;
 import org.cloudfoundry.identity.uaa.rest.jdbc.AbstractQueryable;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
 import org.cloudfoundry.identity.uaa.scim.ScimMeta;
@@ -85,6 +86,8 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser> implem
 
 	private PasswordValidator passwordValidator = new DefaultPasswordValidator();
 
+	private RevocationEpochs revocationEpochs;
+
 	private PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
 
     private boolean deactivateOnDelete = true;
@@ -287,6 +290,7 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser> implem
             throw new IncorrectResultSizeDataAccessException(1);
         }
         user.setActive(false);
+        revokeTokens(user);
         return user;
     }
 
@@ -305,13 +309,29 @@ public class JdbcScimUserProvisioning extends AbstractQueryable<ScimUser> implem
                     "Attempt to update a user (%s) with wrong version: expected=%d but found=%d", user.getId(),
                     user.getVersion(), version));
         }
+        revokeTokens(user);
         return user;
     }
 
+    private void revokeTokens(ScimUser user) {
+        // Neither deleting nor deactivating a user changes its lastModified, so record the change explicitly
+        if (revocationEpochs != null) {
+            revocationEpochs.revokeUser(user.getId());
+        }
+    }
+
     public void setDeactivateOnDelete (boolean deactivateOnDelete) {
         this.deactivateOnDelete = deactivateOnDelete;
     }
 
+	/**
+	 * Revocation epochs to raise when a user is deleted or deactivated, so that the tokens already issued to the user
+	 * are rejected (optional).
+	 */
+	public void setRevocationEpochs(RevocationEpochs revocationEpochs) {
+		this.revocationEpochs = revocationEpochs;
+	}
+
 	public void setPasswordValidator(PasswordValidator passwordValidator) {
 		Assert.notNull(passwordValidator, "passwordValidator cannot be null");
 		this.passwordValidator = passwordValidator;
@@ -2,6 +2,8 @@ package org.cloudfoundry.identity.uaa.scim.jdbc;
 
 import org.cloudfoundry.identity.uaa.rest.AttributeNameMapper;
 import org.cloudfoundry.identity.uaa.rest.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.rest.jdbc.CaseInsensitiveSqlAdapter;
+import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultCaseInsensitiveSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter;
 import org.springframework.util.StringUtils;
 
@@ -40,10 +42,20 @@ public class ScimSearchQueryConverter implements SearchQueryConverter {
 
 	private AttributeNameMapper mapper = new SimpleAttributeNameMapper(Collections.<String, String> emptyMap());
 
+	private CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter = new DefaultCaseInsensitiveSqlAdapter();
+
 	public void setAttributeNameMapper(AttributeNameMapper mapper) {
 		this.mapper = mapper;
 	}
 
+	/**
+	 * @param caseInsensitiveSqlAdapter the strategy for the column side of case insensitive comparisons (default wraps
+	 * every column in lower())
+	 */
+	public void setCaseInsensitiveSqlAdapter(CaseInsensitiveSqlAdapter caseInsensitiveSqlAdapter) {
+		this.caseInsensitiveSqlAdapter = caseInsensitiveSqlAdapter;
+	}
+
 	@Override
 	public ProcessedFilter convert(String filter, String sortBy, boolean ascending) {
 		return convert(filter, sortBy, ascending, mapper);
@@ -68,9 +80,9 @@ public class ScimSearchQueryConverter implements SearchQueryConverter {
 
 		where = mapper.mapToInternal(where);
 
-		where = makeCaseInsensitive(where, coPattern, "%slower(%s) like :?%s", "%%%s%%", values);
-		where = makeCaseInsensitive(where, swPattern, "%slower(%s) like :?%s", "%s%%", values);
-		where = makeCaseInsensitive(where, eqPattern, "%slower(%s) = :?%s", "%s", values);
+		where = makeCaseInsensitive(where, coPattern, "%s%s like :?%s", "%%%s%%", values);
+		where = makeCaseInsensitive(where, swPattern, "%s%s like :?%s", "%s%%", values);
+		where = makeCaseInsensitive(where, eqPattern, "%s%s = :?%s", "%s", values);
 		where = makeBooleans(where, boPattern, "%s%s = :?%s", values);
 		where = prPattern.matcher(where).replaceAll(" is not null$1");
 		where = gtPattern.matcher(where).replaceAll(" > ");
@@ -118,7 +130,8 @@ public class ScimSearchQueryConverter implements SearchQueryConverter {
 		while (matcher.matches()) {
 			values.put("value" + count, String.format(valueTemplate, matcher.group(3).toLowerCase()));
 			String query = template.replace("?", "value" + count);
-			output = matcher.replaceFirst(String.format(query, matcher.group(1), matcher.group(2), matcher.group(4)));
+			String column = caseInsensitiveSqlAdapter.getColumnExpression(matcher.group(2));
+			output = matcher.replaceFirst(String.format(query, matcher.group(1), column, matcher.group(4)));
 			matcher = pattern.matcher(output);
 			count++;
 		}
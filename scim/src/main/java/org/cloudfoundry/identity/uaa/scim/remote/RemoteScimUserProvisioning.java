@@ -22,6 +22,8 @@ import org.cloudfoundry.identity.uaa.scim.exception.ScimResourceNotFoundExceptio
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.util.Assert;
 import org.springframework.web.client.RestOperations;
 import org.springframework.web.client.RestTemplate;
 
@@ -46,6 +48,17 @@ public class RemoteScimUserProvisioning implements ScimUserProvisioning {
 		this.restTemplate = restTemplate;
 	}
 
+	/**
+	 * Convenience setter for the request factory of the default rest template, e.g. to share a pooled request factory
+	 * with other components.
+	 *
+	 * @param requestFactory the request factory to set
+	 */
+	public void setRequestFactory(ClientHttpRequestFactory requestFactory) {
+		Assert.state(restTemplate instanceof RestTemplate, "Request factory can only be set on a RestTemplate");
+		((RestTemplate) restTemplate).setRequestFactory(requestFactory);
+	}
+
 	/**
 	 * @param baseUrl the base url to set to the SCIM server
 	 */
@@ -30,9 +30,31 @@ CREATE TABLE group_membership (
   primary key (group_id, member_id)
 ) ;
 
+-- role_mask holds the member's roles as a bit set (MEMBER=1, READER=2, WRITER=4) and replaces
+-- pattern matching on the authorities list; existing installations are migrated in place, matching
+-- whole entries of the comma-separated list (READ and WRITE are legacy names for READER and WRITER)
+ALTER TABLE group_membership ADD COLUMN role_mask INTEGER;
+
+UPDATE group_membership SET role_mask =
+  (case when lower(authorities) = 'member' or lower(authorities) like 'member,%'
+     or lower(authorities) like '%,member' or lower(authorities) like '%,member,%' then 1 else 0 end)
+  + (case when lower(authorities) = 'reader' or lower(authorities) like 'reader,%'
+     or lower(authorities) like '%,reader' or lower(authorities) like '%,reader,%'
+     or lower(authorities) = 'read' or lower(authorities) like 'read,%'
+     or lower(authorities) like '%,read' or lower(authorities) like '%,read,%' then 2 else 0 end)
+  + (case when lower(authorities) = 'writer' or lower(authorities) like 'writer,%'
+     or lower(authorities) like '%,writer' or lower(authorities) like '%,writer,%'
+     or lower(authorities) = 'write' or lower(authorities) like 'write,%'
+     or lower(authorities) like '%,write' or lower(authorities) like '%,write,%' then 4 else 0 end)
+  where role_mask is null;
+
+CREATE INDEX group_membership_role_mask on group_membership (group_id, role_mask);
+
 CREATE TABLE external_group_mapping (
   group_id VARCHAR(36) not null,
   external_group VARCHAR(255) not null,
   added TIMESTAMP default current_timestamp not null,
   primary key (group_id, external_group)
 );
+
+CREATE INDEX external_group_mapping_external_group on external_group_mapping (external_group);
@@ -63,7 +63,6 @@ public class LdapGroupMappingAuthorizationManagerTests {
 		gDB.create(new ScimGroup("acme.dev"));
 
 		manager = new LdapGroupMappingAuthorizationManager();
-		manager.setScimGroupProvisioning(gDB);
 		manager.setExternalMembershipManager(eDB);
 	}
 
@@ -94,4 +93,26 @@ public class LdapGroupMappingAuthorizationManagerTests {
 		assertTrue(updatedScopes.contains("acme.dev"));
 	}
 
+	@Test
+	public void testExternalGroupsAreMatchedCaseInsensitively() {
+		eDB.mapExternalGroup(getGroupId("acme"), "cn=Engineering,ou=groups,dc=example,dc=com");
+
+		String info = "{\"externalGroups.0\": \"CN=engineering,OU=groups,DC=example,DC=com\", \"other\": [\"ignored\"]}";
+
+		Set<String> updatedScopes = manager.findScopesFromAuthorities(info);
+		assertEquals(1, updatedScopes.size());
+		assertTrue(updatedScopes.contains("acme"));
+	}
+
+	@Test
+	public void testMappingsAddedElsewhereAreVisibleAfterRefresh() {
+		template.update("insert into external_group_mapping (group_id, external_group) values (?, ?)", getGroupId("acme.dev"),
+				"cn=mgmt,ou=groups,dc=example,dc=com");
+		((JdbcScimGroupExternalMembershipManager) eDB).refreshMappingIndex();
+
+		Set<String> updatedScopes = manager.findScopesFromAuthorities("{\"externalGroups.0\": \"cn=mgmt,ou=groups,dc=example,dc=com\"}");
+		assertEquals(1, updatedScopes.size());
+		assertTrue(updatedScopes.contains("acme.dev"));
+	}
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Cloud Foundry 2012.02.03 Beta
+ * Copyright (c) [2009-2013] VMware, Inc. All Rights Reserved.
+ *
+ * This product is licensed to you under the Apache License, Version 2.0 (the "License").
+ * You may not use this product except in compliance with the License.
+ *
+ * This product includes a number of subcomponents with
+ * separate copyright notices and license terms. Your use of these
+ * subcomponents is subject to the terms and conditions of the
+ * subcomponent's license, as noted in the LICENSE file.
+ */
+package org.cloudfoundry.identity.uaa.scim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class ScimGroupTests {
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void membersAreMergedAcrossRoles() throws Exception {
+		String json = "{\"id\":\"g1\",\"displayname\":\"uaa.admin\",\"schemas\":[\"urn:scim:schemas:core:1.0\"],"
+				+ "\"members\":[{\"value\":\"u1\",\"type\":\"USER\"}],"
+				+ "\"writers\":[{\"value\":\"u1\",\"type\":\"USER\"},{\"value\":\"g2\",\"type\":\"GROUP\"}],"
+				+ "\"readers\":[{\"value\":\"u1\",\"type\":\"USER\"}]}";
+		ScimGroup group = mapper.readValue(json, ScimGroup.class);
+		assertEquals("g1", group.getId());
+		assertEquals("uaa.admin", group.getDisplayName());
+		assertEquals(2, group.getMembers().size());
+		ScimGroupMember user = group.getMembers().get(0);
+		assertEquals("u1", user.getMemberId());
+		assertEquals(Arrays.asList(ScimGroupMember.Role.MEMBER, ScimGroupMember.Role.READER,
+				ScimGroupMember.Role.WRITER), user.getRoles());
+		assertEquals(Arrays.asList(ScimGroupMember.Role.WRITER), group.getMembers().get(1).getRoles());
+	}
+
+	@Test
+	public void unknownFieldsAreIgnored() throws Exception {
+		String json = "{\"displayName\":\"uaa.admin\",\"foo\":{\"bar\":[1,2]},\"members\":[{\"value\":\"u1\",\"type\":\"USER\"}]}";
+		ScimGroup group = mapper.readValue(json, ScimGroup.class);
+		assertEquals("uaa.admin", group.getDisplayName());
+		assertEquals(1, group.getMembers().size());
+	}
+
+	@Test
+	public void groupRoundTrips() throws Exception {
+		ScimGroup group = new ScimGroup("g1", "uaa.admin");
+		group.setMembers(Arrays.asList(new ScimGroupMember("u1", ScimGroupMember.Type.USER,
+				ScimGroupMember.GROUP_ADMIN), new ScimGroupMember("u2")));
+
+		String json = mapper.writeValueAsString(group);
+		assertTrue(json.contains("\"members\":[{\"value\":\"u2\",\"type\":\"USER\"}]"));
+		assertTrue(json.contains("\"writers\":[{\"value\":\"u1\",\"type\":\"USER\"}]"));
+		assertFalse(json.contains("\"members\":[{\"value\":\"u1\""));
+		assertEquals(json, mapper.writeValueAsString(mapper.readValue(json, ScimGroup.class)));
+	}
+
+}
@@ -12,9 +12,12 @@
  */
 package org.cloudfoundry.identity.uaa.scim;
 
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval;
+import org.cloudfoundry.identity.uaa.oauth.approval.Approval.ApprovalStatus;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
 import org.cloudfoundry.identity.uaa.scim.ScimUser.Group;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.exc.UnrecognizedPropertyException;
 import org.junit.Test;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
@@ -22,6 +25,7 @@ import org.springframework.expression.spel.support.StandardEvaluationContext;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -153,6 +157,43 @@ public class ScimUserTests {
 		assertEquals("MacRae", roz.getFamilyName());
 	}
 
+	@Test
+	public void fullUserRoundTrips() throws Exception {
+		ScimUser user = new ScimUser("123", "joe", "Joe", "Bloggs");
+		user.addEmail("joe@test.org");
+		user.getEmails().get(0).setPrimary(true);
+		user.addPhoneNumber("+1-222-1234567");
+		user.setGroups(Arrays.asList(new Group("g1", "uaa.admin"), new Group("g2", "dash.admin", Group.Type.INDIRECT)));
+		user.setApprovals(Collections.singleton(new Approval("123", "app", "openid", new Date(), ApprovalStatus.APPROVED)));
+		user.setNickName("joey");
+		user.setActive(false);
+		user.getMeta().setLastModified(new Date());
+
+		String json = mapper.writeValueAsString(user);
+		ScimUser result = mapper.readValue(json, ScimUser.class);
+		assertEquals(json, mapper.writeValueAsString(result));
+		assertEquals("joe@test.org", result.getPrimaryEmail());
+		assertEquals(user.getGroups(), result.getGroups());
+		assertEquals(user.getApprovals(), result.getApprovals());
+		assertEquals("Bloggs", result.getFamilyName());
+		assertFalse(result.isActive());
+	}
+
+	@Test
+	public void fieldNamesAreCaseInsensitive() throws Exception {
+		String json = "{\"USERNAME\":\"bjensen\",\"NickName\":\"babs\",\"Emails\":[{\"Value\":\"bj@jensen.org\"}]}";
+		ScimUser user = mapper.readValue(json, ScimUser.class);
+		assertEquals("bjensen", user.getUserName());
+		assertEquals("babs", user.getNickName());
+		assertEquals("bj@jensen.org", user.getEmails().get(0).getValue());
+	}
+
+	@Test(expected = UnrecognizedPropertyException.class)
+	public void unknownFieldsAreRejected() throws Exception {
+		mapper.readValue("{\"userName\":\"bjensen\",\"emails\":[{\"value\":\"bj@jensen.org\",\"foo\":\"bar\"}]}",
+				ScimUser.class);
+	}
+
 	@Test
 	public void testSpelFilter() throws Exception {
 		ScimUser user = new ScimUser();
@@ -3,6 +3,7 @@ package org.cloudfoundry.identity.uaa.scim.bootstrap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -86,6 +87,18 @@ public class ScimExternalGroupBootstrapTests {
 		assertEquals(1, eDB.getExternalGroupMapsByGroupName("acme.dev").size());
 	}
 
+	@Test
+	public void canBootstrapExistingExternalGroupsAgain() throws Exception {
+		Set<String> externalGroupSet = new HashSet<String>();
+		externalGroupSet.add("acme|cn=Engineering,ou=groups,dc=example,dc=com");
+		bootstrap.setExternalGroupMap(externalGroupSet);
+		bootstrap.afterPropertiesSet();
+		bootstrap.afterPropertiesSet();
+		assertEquals(1, eDB.getExternalGroupMapsByExternalGroup("cn=Engineering,ou=groups,dc=example,dc=com").size());
+		assertEquals(Collections.singleton("acme"),
+				eDB.getGroupNamesByExternalGroups(Collections.singleton("cn=Engineering,ou=groups,dc=example,dc=com")));
+	}
+
 	@Test
 	public void canAddExternalGroupsWithSpaces() throws Exception {
 		Set<String> externalGroupSet = new HashSet<String>();
@@ -34,6 +34,9 @@ import java.util.Collection;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author Luke Taylor
@@ -215,4 +218,68 @@ public class ScimUserBootstrapTests {
 		assertEquals("User", users.iterator().next().getFamilyName());
 	}
 
+	@Test
+	public void canAddUsersInBulk() throws Exception {
+		UaaUser joe = new UaaUser("joe", "password", "joe@test.org", "Joe", "User");
+		joe = joe.authorities(AuthorityUtils.commaSeparatedStringToAuthorityList("openid,read"));
+		UaaUser mabel = new UaaUser("mabel", "password", "mabel@blah.com", "Mabel", "User");
+		mabel = mabel.authorities(AuthorityUtils.commaSeparatedStringToAuthorityList("openid"));
+		ScimUserBootstrap bootstrap = new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(joe, mabel));
+		bootstrap.setBulk(true);
+		bootstrap.afterPropertiesSet();
+		assertEquals(2, db.retrieveAll().size());
+		assertEquals(2, gdb.retrieveAll().size());
+		String groupId = gdb.query("displayName eq 'openid'").get(0).getId();
+		assertEquals(2, mdb.getMembers(groupId).size());
+	}
+
+	@Test
+	public void bulkLooksUpOnlyConfiguredUsers() throws Exception {
+		UaaUser other = new UaaUser("other", "password", "other@test.org", "Other", "User");
+		new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(other)).afterPropertiesSet();
+		UaaUser joe = new UaaUser("joe", "password", "joe@test.org", "Joe", "User");
+		JdbcScimUserProvisioning users = spy(db);
+		JdbcScimGroupProvisioning groups = spy(gdb);
+		ScimUserBootstrap bootstrap = new ScimUserBootstrap(users, groups, mdb, Arrays.asList(joe));
+		bootstrap.setBulk(true);
+		bootstrap.afterPropertiesSet();
+		verify(users, never()).retrieveAll();
+		verify(groups, never()).retrieveAll();
+		assertEquals(2, db.retrieveAll().size());
+	}
+
+	@Test
+	public void canOverrideAuthoritiesInBulk() throws Exception {
+		UaaUser joe = new UaaUser("joe", "password", "joe@test.org", "Joe", "User");
+		joe = joe.authorities(AuthorityUtils.commaSeparatedStringToAuthorityList("openid,read"));
+		ScimUserBootstrap bootstrap = new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(joe));
+		bootstrap.afterPropertiesSet();
+		joe = new UaaUser("joe", "password", "joe@test.org", "Joel", "User");
+		joe = joe.authorities(AuthorityUtils.commaSeparatedStringToAuthorityList("openid,write"));
+		bootstrap = new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(joe));
+		bootstrap.setOverride(true);
+		bootstrap.setBulk(true);
+		bootstrap.afterPropertiesSet();
+		Collection<ScimUser> users = db.retrieveAll();
+		assertEquals(1, users.size());
+		ScimUser user = users.iterator().next();
+		assertEquals("Joel", user.getGivenName());
+		assertEquals(2, mdb.getGroupsWithMember(user.getId(), false).size());
+		assertEquals(0, mdb.getMembers(gdb.query("displayName eq 'read'").get(0).getId()).size());
+	}
+
+	@Test
+	public void noOverrideInBulkByDefault() throws Exception {
+		UaaUser joe = new UaaUser("joe", "password", "joe@test.org", "Joe", "User");
+		ScimUserBootstrap bootstrap = new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(joe));
+		bootstrap.afterPropertiesSet();
+		joe = new UaaUser("joe", "new", "joe@test.org", "Joe", "Bloggs");
+		bootstrap = new ScimUserBootstrap(db, gdb, mdb, Arrays.asList(joe));
+		bootstrap.setBulk(true);
+		bootstrap.afterPropertiesSet();
+		Collection<ScimUser> users = db.retrieveAll();
+		assertEquals(1, users.size());
+		assertEquals("User", users.iterator().next().getFamilyName());
+	}
+
 }
@@ -2,9 +2,11 @@ package org.cloudfoundry.identity.uaa.scim.jdbc;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import javax.sql.DataSource;
@@ -16,6 +18,7 @@ import org.cloudfoundry.identity.uaa.rest.jdbc.LimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.scim.ScimGroup;
 import org.cloudfoundry.identity.uaa.scim.ScimGroupExternalMember;
 import org.cloudfoundry.identity.uaa.scim.exception.MemberAlreadyExistsException;
+import org.cloudfoundry.identity.uaa.scim.exception.MemberNotFoundException;
 import org.cloudfoundry.identity.uaa.scim.test.TestUtils;
 import org.cloudfoundry.identity.uaa.test.NullSafeSystemProfileValueSource;
 import org.junit.After;
@@ -71,6 +74,7 @@ public class JdbcScimGroupExternalMembershipManagerTests {
 
 	@After
 	public void cleanupDataSource() throws Exception {
+		edao.destroy();
 		TestUtils.deleteFrom(dataSource, "groups");
 		TestUtils.deleteFrom(dataSource, "external_group_mapping");
 
@@ -101,6 +105,65 @@ public class JdbcScimGroupExternalMembershipManagerTests {
 		assertEquals(externalMapping.size(), 1);
 	}
 
+	@Test
+	public void unmapExternalGroupUpdatesLookups() {
+		edao.mapExternalGroup("g1", "cn=engineering,ou=groups,dc=example,dc=com");
+		edao.mapExternalGroup("g2", "cn=engineering,ou=groups,dc=example,dc=com");
+		List<String> externalGroups = Collections.singletonList("cn=Engineering,ou=groups,dc=example,dc=com");
+		assertEquals(2, edao.getGroupNamesByExternalGroups(externalGroups).size());
+
+		edao.unmapExternalGroup("g1", "cn=engineering,ou=groups,dc=example,dc=com");
+		validateCount(1);
+		assertEquals(Collections.singleton("test2"), edao.getGroupNamesByExternalGroups(externalGroups));
+	}
+
+	@Test(expected = MemberNotFoundException.class)
+	public void unmapMissingExternalGroupIsError() {
+		edao.unmapExternalGroup("g1", "cn=engineering,ou=groups,dc=example,dc=com");
+	}
+
+	@Test
+	public void unmapAllExternalGroupsUpdatesLookups() {
+		edao.mapExternalGroup("g1", "cn=engineering,ou=groups,dc=example,dc=com");
+		edao.mapExternalGroup("g1", "cn=hr,ou=groups,dc=example,dc=com");
+		edao.mapExternalGroup("g2", "cn=hr,ou=groups,dc=example,dc=com");
+		List<String> externalGroups = Arrays.asList("cn=engineering,ou=groups,dc=example,dc=com",
+				"cn=hr,ou=groups,dc=example,dc=com");
+		assertEquals(2, edao.getGroupNamesByExternalGroups(externalGroups).size());
+
+		assertEquals(2, edao.unmapAllExternalGroups("g1").size());
+		validateCount(1);
+		assertEquals(Collections.singleton("test2"), edao.getGroupNamesByExternalGroups(externalGroups));
+	}
+
+	@Test
+	public void unmapAllExternalGroupsOfDeletedGroupUpdatesLookups() {
+		edao.mapExternalGroup("g1", "cn=hr,ou=groups,dc=example,dc=com");
+		edao.mapExternalGroup("g2", "cn=hr,ou=groups,dc=example,dc=com");
+		List<String> externalGroups = Collections.singletonList("cn=hr,ou=groups,dc=example,dc=com");
+		assertEquals(2, edao.getGroupNamesByExternalGroups(externalGroups).size());
+
+		gdao.delete("g1", -1);
+		assertEquals(1, edao.unmapAllExternalGroups("g1").size());
+		validateCount(1);
+		assertEquals(Collections.singleton("test2"), edao.getGroupNamesByExternalGroups(externalGroups));
+	}
+
+	@Test
+	public void staleIndexIsRefreshedInTheBackground() throws Exception {
+		edao.setMappingIndexRefreshInterval(0);
+		List<String> externalGroups = Collections.singletonList("cn=engineering,ou=groups,dc=example,dc=com");
+		assertTrue(edao.getGroupNamesByExternalGroups(externalGroups).isEmpty());
+		// Written by another node
+		template.update("insert into external_group_mapping (group_id, external_group, added) values (?,?,current_timestamp)",
+				"g1", "cn=engineering,ou=groups,dc=example,dc=com");
+		Thread.sleep(5);
+		for (int i = 0; i < 100 && edao.getGroupNamesByExternalGroups(externalGroups).isEmpty(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(Collections.singleton("test1"), edao.getGroupNamesByExternalGroups(externalGroups));
+	}
+
 	@Test(expected = MemberAlreadyExistsException.class)
 	public void addExternalMappingToGroupThatAlreadyExists() {
 		ScimGroup group = gdao.retrieve("g1");
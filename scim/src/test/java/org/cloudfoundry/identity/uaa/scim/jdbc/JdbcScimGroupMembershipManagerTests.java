@@ -65,7 +65,9 @@ public class JdbcScimGroupMembershipManagerTests {
 
 	private static final String addGroupSqlFormat = "insert into groups (id, displayName) values ('%s','%s')";
 
-	private static final String addMemberSqlFormat = "insert into group_membership (group_id, member_id, member_type, authorities) values ('%s', '%s', '%s', '%s')";
+	private static final String addMemberSqlFormat = "insert into group_membership (group_id, member_id, member_type, authorities, role_mask) values ('%s', '%s', '%s', '%s', %d)";
+
+	private static final String addLegacyMemberSqlFormat = "insert into group_membership (group_id, member_id, member_type, authorities) values ('%s', '%s', '%s', '%s')";
 
 	@Before
 	public void createDatasource() {
@@ -93,7 +95,15 @@ public class JdbcScimGroupMembershipManagerTests {
 	}
 
 	private void addMember(String gId, String mId, String mType, String authorities) {
-		template.execute(String.format(addMemberSqlFormat, gId, mId, mType, authorities));
+		int mask = 0;
+		for (String role : authorities.split(",")) {
+			mask |= ScimGroupMember.Role.valueOf(role.toUpperCase()).getMask();
+		}
+		template.execute(String.format(addMemberSqlFormat, gId, mId, mType, authorities, mask));
+	}
+
+	private void addLegacyMember(String gId, String mId, String mType, String authorities) {
+		template.execute(String.format(addLegacyMemberSqlFormat, gId, mId, mType, authorities));
 	}
 
 	private void addGroup(String id, String name) {
@@ -194,6 +204,26 @@ public class JdbcScimGroupMembershipManagerTests {
 		validateUserGroups("m1", "test1.i", "test2");
 	}
 
+	@Test
+	public void canAddMembersInBatch() throws Exception {
+		addMember("g1", "m1", "USER", "READER");
+		List<ScimGroupMember> added = dao.addMembers("g1", Arrays.asList(
+				new ScimGroupMember("m1"),
+				new ScimGroupMember("m2"),
+				new ScimGroupMember("g2", ScimGroupMember.Type.GROUP, ScimGroupMember.GROUP_ADMIN),
+				new ScimGroupMember("m2", ScimGroupMember.Type.USER, ScimGroupMember.GROUP_ADMIN)));
+		assertEquals(2, added.size());
+		validateCount(3);
+		assertEquals(ScimGroupMember.GROUP_MEMBER, dao.getMemberById("g1", "m2").getRoles());
+		assertEquals(ScimGroupMember.GROUP_ADMIN, dao.getMemberById("g1", "g2").getRoles());
+		assertEquals(1, dao.getMembers("g1", ScimGroupMember.Role.WRITER).size());
+	}
+
+	@Test (expected = InvalidScimResourceException.class)
+	public void cannotNestGroupWithinItselfInBatch() {
+		dao.addMembers("g2", Arrays.asList(new ScimGroupMember("g2", ScimGroupMember.Type.GROUP, ScimGroupMember.GROUP_ADMIN)));
+	}
+
 	@Test (expected = InvalidScimResourceException.class)
 	public void cannotNestGroupWithinItself() {
 		ScimGroupMember g2 = new ScimGroupMember("g2", ScimGroupMember.Type.GROUP, ScimGroupMember.GROUP_ADMIN);
@@ -218,9 +248,9 @@ public class JdbcScimGroupMembershipManagerTests {
 
 	@Test
 	public void testBackwardsCompatibilityToMemberAuthorities() {
-		addMember("g1", "m1", "USER", "READ");
-		addMember("g1", "g2", "GROUP", "member");
-		addMember("g1", "m2", "USER", "READER,write");
+		addLegacyMember("g1", "m1", "USER", "READ");
+		addLegacyMember("g1", "g2", "GROUP", "member");
+		addLegacyMember("g1", "m2", "USER", "READER,write");
 
 		List<ScimGroupMember> members = dao.getMembers("g1");
 		assertNotNull(members);
@@ -238,6 +268,18 @@ public class JdbcScimGroupMembershipManagerTests {
 		assertEquals(1, writers.size());
 	}
 
+	@Test
+	public void canGetLegacyMembersByRole() {
+		addLegacyMember("g1", "m1", "USER", "READ");
+		addLegacyMember("g1", "g2", "GROUP", "member");
+		addLegacyMember("g1", "m2", "USER", "READER,write");
+
+		assertEquals(2, dao.getMembers("g1", ScimGroupMember.Role.READER).size());
+		assertEquals(1, dao.getMembers("g1", ScimGroupMember.Role.WRITER).size());
+		assertTrue(dao.getMembers("g1", ScimGroupMember.Role.WRITER).contains(new ScimGroupMember("m2")));
+		assertEquals(1, dao.getMembers("g1", ScimGroupMember.Role.MEMBER).size());
+	}
+
 	@Test
 	public void canGetDefaultGroupsUsingGetGroupsForMember() {
 		Set<ScimGroup> groups = dao.getGroupsWithMember("m1", false);
@@ -270,6 +312,20 @@ public class JdbcScimGroupMembershipManagerTests {
 		assertEquals(0, dao.getMembers("g2", ScimGroupMember.Role.WRITER).size());
 	}
 
+	@Test
+	public void canGetMembersByAuthorityAfterAddAndUpdate() {
+		dao.addMember("g1", new ScimGroupMember("m1", ScimGroupMember.Type.USER, ScimGroupMember.GROUP_MEMBER));
+		dao.addMember("g1", new ScimGroupMember("m2", ScimGroupMember.Type.USER, ScimGroupMember.GROUP_ADMIN));
+
+		assertEquals(1, dao.getMembers("g1", ScimGroupMember.Role.MEMBER).size());
+		assertEquals(1, dao.getMembers("g1", ScimGroupMember.Role.WRITER).size());
+
+		dao.updateMember("g1", new ScimGroupMember("m1", ScimGroupMember.Type.USER, ScimGroupMember.GROUP_ADMIN));
+		assertEquals(0, dao.getMembers("g1", ScimGroupMember.Role.MEMBER).size());
+		assertEquals(2, dao.getMembers("g1", ScimGroupMember.Role.READER).size());
+		assertEquals(2, dao.getMembers("g1", ScimGroupMember.Role.WRITER).size());
+	}
+
 	@Test
 	public void canGetMemberById() throws Exception {
 		addMember("g3", "m2", "USER", "READER,WRITER");
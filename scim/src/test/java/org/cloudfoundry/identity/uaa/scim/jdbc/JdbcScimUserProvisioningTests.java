@@ -28,6 +28,7 @@ import java.util.UUID;
 
 import javax.sql.DataSource;
 
+import org.cloudfoundry.identity.uaa.oauth.token.RevocationEpochs;
 import org.cloudfoundry.identity.uaa.rest.SimpleAttributeNameMapper;
 import org.cloudfoundry.identity.uaa.rest.jdbc.DefaultLimitSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.JdbcPagingListFactory;
@@ -299,6 +300,18 @@ public class JdbcScimUserProvisioningTests {
         assertEquals(0, db.query("username eq '" + tmpUserId + "'").size());
     }
 
+    @Test
+    public void deleteRevokesTokens() {
+        String tmpUserId = createUserForDelete();
+        db.setDeactivateOnDelete(false);
+        RevocationEpochs epochs = new RevocationEpochs(template);
+        db.setRevocationEpochs(epochs);
+        long before = System.currentTimeMillis();
+        db.delete(tmpUserId, 0);
+        assertTrue(epochs.getUserRevocation(tmpUserId) >= before);
+        template.update("delete from revocation_epochs where subject_type='user' and subject_id=?", tmpUserId);
+    }
+
     @Test //(expected = ScimResourceAlreadyExistsException.class)
     public void canDeleteExistingUserAndThenCreateHimAgain() {
         String tmpUserId = createUserForDelete();
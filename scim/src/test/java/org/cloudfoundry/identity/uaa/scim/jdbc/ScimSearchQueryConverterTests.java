@@ -1,11 +1,14 @@
 package org.cloudfoundry.identity.uaa.scim.jdbc;
 
 import org.cloudfoundry.identity.uaa.rest.SimpleAttributeNameMapper;
+import org.cloudfoundry.identity.uaa.rest.jdbc.CollationCaseInsensitiveSqlAdapter;
 import org.cloudfoundry.identity.uaa.rest.jdbc.SearchQueryConverter.ProcessedFilter;
 import org.cloudfoundry.identity.uaa.scim.jdbc.ScimSearchQueryConverter;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -52,6 +55,18 @@ public class ScimSearchQueryConverterTests {
 
 	}
 
+	@Test
+	public void canConvertWithCollationCaseInsensitiveColumns() {
+		CollationCaseInsensitiveSqlAdapter adapter = new CollationCaseInsensitiveSqlAdapter();
+		adapter.setColumns(new HashSet<String>(Arrays.asList("username", "email")));
+		filterProcessor.setCaseInsensitiveSqlAdapter(adapter);
+
+		validate(filterProcessor.convert("userName eq 'Joe'", null, false), "userName = :value0", 1);
+		validate(filterProcessor.convert("email sw 'joe'", null, false), "email like :value0", 1);
+		validate(filterProcessor.convert("userName eq 'joe' and givenName eq 'Joe'", null, false), "userName = :value0 and lower(givenName) = :value1", 2);
+		assertEquals("joe", filterProcessor.convert("userName eq 'Joe'", null, false).getParams().get("value0"));
+	}
+
 	private void validate(ProcessedFilter filter, String expectedSql, int expectedParamCount) {
 		assertNotNull(filter);
 		assertEquals(expectedSql, filter.getSql());
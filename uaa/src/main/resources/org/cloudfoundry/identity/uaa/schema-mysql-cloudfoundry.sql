@@ -29,6 +29,7 @@ CREATE TABLE users (
 ) ;
 
 CREATE UNIQUE INDEX unique_uk_1 on users (username);
+CREATE INDEX users_email on users (email);
 
 CREATE TABLE sec_audit (
    principal_id char(36) not null,
@@ -84,9 +85,35 @@ CREATE TABLE group_membership (
   primary key (group_id, member_id)
 ) ;
 
+ALTER TABLE group_membership ADD COLUMN role_mask INTEGER;
+UPDATE group_membership SET role_mask =
+  (case when lower(authorities) = 'member' or lower(authorities) like 'member,%'
+     or lower(authorities) like '%,member' or lower(authorities) like '%,member,%' then 1 else 0 end)
+  + (case when lower(authorities) = 'reader' or lower(authorities) like 'reader,%'
+     or lower(authorities) like '%,reader' or lower(authorities) like '%,reader,%'
+     or lower(authorities) = 'read' or lower(authorities) like 'read,%'
+     or lower(authorities) like '%,read' or lower(authorities) like '%,read,%' then 2 else 0 end)
+  + (case when lower(authorities) = 'writer' or lower(authorities) like 'writer,%'
+     or lower(authorities) like '%,writer' or lower(authorities) like '%,writer,%'
+     or lower(authorities) = 'write' or lower(authorities) like 'write,%'
+     or lower(authorities) like '%,write' or lower(authorities) like '%,write,%' then 4 else 0 end)
+  where role_mask is null;
+CREATE INDEX group_membership_role_mask on group_membership (group_id, role_mask);
+
 CREATE TABLE external_group_mapping (
   group_id VARCHAR(36) not null,
   external_group VARCHAR(255) not null,
   added TIMESTAMP default current_timestamp not null,
   primary key (group_id, external_group)
 );
+CREATE INDEX external_group_mapping_external_group on external_group_mapping (external_group);
+
+CREATE TABLE revocation_epochs (
+  subject_type VARCHAR(10) not null,
+  subject_id VARCHAR(255) not null,
+  epoch BIGINT not null,
+  primary key (subject_type, subject_id)
+);
+CREATE INDEX revocation_epochs_epoch on revocation_epochs (epoch);
+CREATE INDEX users_lastmodified on users (lastModified);
+CREATE INDEX users_token_fields on users (id, active, username, email, lastModified);
@@ -18,4 +18,5 @@ DROP TABLE  OAUTH_CLIENT_DETAILS ;
 DROP TABLE  GROUPS ;
 DROP TABLE  GROUP_MEMBERSHIP ;
 DROP TABLE  AUTHZ_APPROVALS ;
-DROP TABLE  OAUTH_CODE ;
\ No newline at end of file
+DROP TABLE  OAUTH_CODE ;
+DROP TABLE  SCHEMA_VERSION ;
@@ -29,6 +29,7 @@ CREATE TABLE USERS (
 
 ALTER TABLE users DROP CONSTRAINT unique_uk_1;
 CREATE UNIQUE INDEX unique_uk_1_1 on users (LOWER(username));
+CREATE INDEX users_email on users (LOWER(email));
 ALTER TABLE USERS ADD COLUMN active BOOLEAN default true;
 ALTER TABLE USERS ALTER COLUMN created SET NOT NULL;
 ALTER TABLE USERS ALTER COLUMN lastModified SET NOT NULL;
@@ -84,6 +85,21 @@ CREATE TABLE GROUP_MEMBERSHIP (
   primary key (group_id, member_id)
 ) ;
 
+ALTER TABLE group_membership ADD COLUMN role_mask INTEGER;
+UPDATE group_membership SET role_mask =
+  (case when lower(authorities) = 'member' or lower(authorities) like 'member,%'
+     or lower(authorities) like '%,member' or lower(authorities) like '%,member,%' then 1 else 0 end)
+  + (case when lower(authorities) = 'reader' or lower(authorities) like 'reader,%'
+     or lower(authorities) like '%,reader' or lower(authorities) like '%,reader,%'
+     or lower(authorities) = 'read' or lower(authorities) like 'read,%'
+     or lower(authorities) like '%,read' or lower(authorities) like '%,read,%' then 2 else 0 end)
+  + (case when lower(authorities) = 'writer' or lower(authorities) like 'writer,%'
+     or lower(authorities) like '%,writer' or lower(authorities) like '%,writer,%'
+     or lower(authorities) = 'write' or lower(authorities) like 'write,%'
+     or lower(authorities) like '%,write' or lower(authorities) like '%,write,%' then 4 else 0 end)
+  where role_mask is null;
+CREATE INDEX group_membership_role_mask on group_membership (group_id, role_mask);
+
 create table oauth_client_token (
   token_id VARCHAR(256),
   token BYTEA,
@@ -132,3 +148,14 @@ CREATE TABLE external_group_mapping (
   added TIMESTAMP default current_timestamp not null,
   primary key (group_id, external_group)
 );
+CREATE INDEX external_group_mapping_external_group on external_group_mapping (LOWER(external_group));
+
+CREATE TABLE revocation_epochs (
+  subject_type VARCHAR(10) not null,
+  subject_id VARCHAR(255) not null,
+  epoch BIGINT not null,
+  primary key (subject_type, subject_id)
+);
+CREATE INDEX revocation_epochs_epoch on revocation_epochs (epoch);
+CREATE INDEX users_lastmodified on users (lastModified);
+CREATE INDEX users_token_fields on users (id, active, username, email, lastModified);
@@ -21,4 +21,5 @@ DROP TABLE  AUTHZ_APPROVALS ;
 DROP TABLE  oauth_client_token ;
 DROP TABLE  oauth_access_token ;
 DROP TABLE  oauth_refresh_token ;
-DROP TABLE  oauth_code ;
\ No newline at end of file
+DROP TABLE  oauth_code ;
+DROP TABLE  SCHEMA_VERSION ;
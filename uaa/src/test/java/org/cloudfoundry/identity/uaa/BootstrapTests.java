@@ -56,6 +56,7 @@ public class BootstrapTests {
 	@Before
 	public void setup() throws Exception {
 		System.clearProperty("spring.profiles.active");
+		System.setProperty("varz.password", "varzclientsecret");
 	}
 
 	@After
@@ -63,6 +64,7 @@ public class BootstrapTests {
 		System.clearProperty("spring.profiles.active");
 		System.clearProperty("CLOUD_FOUNDRY_CONFIG_PATH");
 		System.clearProperty("UAA_CONFIG_FILE");
+		System.clearProperty("varz.password");
 		if (context != null) {
 			if (context.containsBean("scimEndpoints")) {
 				TestUtils.deleteFrom(context.getBean("dataSource", DataSource.class), "sec_audit");